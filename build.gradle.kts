@@ -1,3 +1,5 @@
+import java.io.OutputStream
+
 plugins {
     id("java")
 }
@@ -16,4 +18,82 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+}
+
+// JMH benchmarks of the analysis stages, in src/jmh/java. Run them with `gradle jmh`,
+// JMH options can be passed with -PjmhArgs="...", e.g. -PjmhArgs="-f 1 -wi 2 -i 3 StageBenchmarks.extract".
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks, reporting throughput, average time and allocations per operation."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    workingDir = rootDir
+    args("-prof", "gc", "-rf", "json", "-rff", layout.buildDirectory.file("jmh/results.json").get().asFile.path)
+    (findProperty("jmhArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
+    doFirst { layout.buildDirectory.dir("jmh").get().asFile.mkdirs() }
+}
+
+// End-to-end benchmark on generated corpora, e.g. -PscalingArgs="--sizes 100,10000 --baseline old.json".
+tasks.register<JavaExec>("scalingBenchmark") {
+    description = "Measures how the analysis of a whole directory scales with the number of files."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("ScalingBenchmark")
+    workingDir = rootDir
+    maxHeapSize = "2g"
+    (findProperty("scalingArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
+}
+
+// keep the benchmarks compiling
+tasks.check {
+    dependsOn(jmh.classesTaskName)
+}
+
+tasks.jar {
+    manifest { attributes["Main-Class"] = "Main" }
+}
+
+// AppCDS archive of the classes the command line loads, dumped at the end of a training run on the test resources.
+// Start the CLI with it: java -XX:SharedArchiveFile=build/cds/codemetrics.jsa -jar build/libs/<jar> <directory>
+val cdsArchiveFile = layout.buildDirectory.file("cds/codemetrics.jsa")
+tasks.register<JavaExec>("cdsArchive") {
+    description = "Creates an AppCDS archive of the classes loaded by the command line, so it starts faster."
+    group = "build"
+    val jar = tasks.jar.flatMap { it.archiveFile }
+    inputs.file(jar)
+    outputs.file(cdsArchiveFile)
+    classpath = files(jar)
+    mainClass.set("Main")
+    workingDir = rootDir
+    jvmArgs("-XX:ArchiveClassesAtExit=" + cdsArchiveFile.get().asFile.path)
+    args("--no-color", "src/test/resources")
+    standardOutput = OutputStream.nullOutputStream()
+    doFirst { cdsArchiveFile.get().asFile.parentFile.mkdirs() }
+}
+
+// Startup benchmark of the command line, e.g. -PstartupArgs="--runs 20 --baseline old.json".
+tasks.register<JavaExec>("startupBenchmark") {
+    description = "Measures how long the command line takes to analyze a small directory, with and without AppCDS."
+    group = "verification"
+    dependsOn("cdsArchive")
+    classpath = jmh.runtimeClasspath
+    mainClass.set("StartupBenchmark")
+    workingDir = rootDir
+    args("--jar", tasks.jar.get().archiveFile.get().asFile.path, "--archive", cdsArchiveFile.get().asFile.path)
+    (findProperty("startupArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
+}
+
+// every compiler warning fails the build, in the benchmarks and tests too
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.addAll(listOf("-Xlint:all", "-Werror"))
+}
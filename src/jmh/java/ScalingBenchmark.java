@@ -0,0 +1,240 @@
+import benchmarks.CorpusGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end benchmark of {@link CodeAnalyzer#analyzeDirectory(Writer, boolean)} on generated corpora of growing size.
+ * For every corpus size it reports the throughput in files and functions per second, the per-file latency and the
+ * peak memory use, and saves the results as JSON. The results can be compared with the results of a previous run,
+ * the benchmark then fails if the throughput of any corpus size dropped by more than the threshold.
+ * <p>
+ * The per-file latency is the time between two files being written to the report. When the files are analyzed
+ * sequentially, it's the time it took to read, analyze and report the file.
+ */
+public class ScalingBenchmark {
+	private static final Pattern BASELINE_RESULT_PATTERN =
+			Pattern.compile("\"files\": (\\d+),.*\"filesPerSecond\": ([0-9.]+),");
+
+	/**
+	 * The results of analyzing a single corpus.
+	 */
+	private record Result(int files, long functions, double seconds, double p50Millis, double p99Millis,
+	                      long peakRssBytes, long peakHeapBytes) {
+		double filesPerSecond () {
+			return files / seconds;
+		}
+
+		double functionsPerSecond () {
+			return functions / seconds;
+		}
+
+		String toJson () {
+			return String.format(Locale.ROOT, "{\"files\": %d, \"functions\": %d, \"seconds\": %.3f, " +
+					                                  "\"filesPerSecond\": %.1f, \"functionsPerSecond\": %.1f, " +
+					                                  "\"p50Millis\": %.3f, \"p99Millis\": %.3f, " +
+					                                  "\"peakRssBytes\": %d, \"peakHeapBytes\": %d}",
+			                     files, functions, seconds, filesPerSecond(), functionsPerSecond(), p50Millis,
+			                     p99Millis, peakRssBytes, peakHeapBytes);
+		}
+	}
+
+	/**
+	 * A report writer that discards the report, but remembers when each file was written. The analyzer flushes the
+	 * writer after the report section of every file.
+	 */
+	private static class FileTimingWriter extends Writer {
+		private long[] latencies = new long[1024];
+		private int fileCount;
+		private long lastFlush = System.nanoTime();
+
+		@Override
+		public void write (char[] buffer, int offset, int length) {
+			// the report itself is not needed
+		}
+
+		@Override
+		public void flush () {
+			long now = System.nanoTime();
+			if (fileCount == latencies.length)
+				latencies = Arrays.copyOf(latencies, fileCount * 2);
+			latencies[fileCount++] = now - lastFlush;
+			lastFlush = now;
+		}
+
+		@Override
+		public void close () {
+		}
+
+		double percentileMillis (double percentile) {
+			if (fileCount == 0)
+				return 0;
+			long[] sorted = Arrays.copyOf(latencies, fileCount);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(percentile / 100 * fileCount);
+			return sorted[Math.max(0, rank - 1)] / 1e6;
+		}
+	}
+
+	/**
+	 * Runs the benchmark. The options are:
+	 * <ul>
+	 *     <li>--sizes: comma separated numbers of files of the corpora, 100,1000,10000 by default</li>
+	 *     <li>--methods, --depth, --comments, --strings, --kotlin, --seed: the rest of the {@link
+	 *     CorpusGenerator.Shape} of the corpora</li>
+	 *     <li>--threads: the parallelism of the analysis, 1 by default</li>
+	 *     <li>--corpus: the directory to generate the corpora in, build/corpus by default</li>
+	 *     <li>--output: the file to save the results to, build/scaling/results.json by default</li>
+	 *     <li>--baseline: the results of a previous run to compare with</li>
+	 *     <li>--threshold: the largest allowed drop of throughput compared to the baseline, 0.1 by default</li>
+	 * </ul>
+	 */
+	public static void main (String[] args) throws IOException {
+		Map<String, String> options = parseOptions(args);
+		int[] sizes = Arrays.stream(options.getOrDefault("sizes", "100,1000,10000").split(","))
+				              .mapToInt(Integer::parseInt).toArray();
+		int methods = Integer.parseInt(options.getOrDefault("methods", "10"));
+		int depth = Integer.parseInt(options.getOrDefault("depth", "3"));
+		double comments = Double.parseDouble(options.getOrDefault("comments", "0.2"));
+		double strings = Double.parseDouble(options.getOrDefault("strings", "0.2"));
+		double kotlin = Double.parseDouble(options.getOrDefault("kotlin", "0.3"));
+		long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+		Path corpusDirectory = Path.of(options.getOrDefault("corpus", "build/corpus"));
+		Path output = Path.of(options.getOrDefault("output", "build/scaling/results.json"));
+
+		List<Result> results = new ArrayList<>();
+		for (int i = 0; i < sizes.length; i++) {
+			CorpusGenerator.Shape shape = new CorpusGenerator.Shape(sizes[i], methods, depth, comments, strings,
+			                                                        kotlin, seed);
+			Path directory = corpusDirectory.resolve(shape.id());
+			System.out.printf("Generating %s%n", directory);
+			CorpusGenerator.generate(shape, directory);
+			if (i == 0)
+				analyze(directory, threads); // warm-up
+
+			Result result = measure(shape, directory, threads);
+			System.out.println(result.toJson());
+			results.add(result);
+		}
+
+		Files.createDirectories(output.toAbsolutePath().getParent());
+		StringBuilder json = new StringBuilder("{\"threads\": ").append(threads).append(", \"results\": [\n");
+		for (int i = 0; i < results.size(); i++)
+			json.append("  ").append(results.get(i).toJson()).append(i + 1 < results.size() ? ",\n" : "\n");
+		Files.writeString(output, json.append("]}\n"));
+		System.out.printf("Results saved to %s%n", output);
+
+		if (options.containsKey("baseline")) {
+			double threshold = Double.parseDouble(options.getOrDefault("threshold", "0.1"));
+			if (!compareWithBaseline(results, Path.of(options.get("baseline")), threshold))
+				System.exit(1);
+		}
+	}
+
+	private static Map<String, String> parseOptions (String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length)
+				throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+			options.put(args[i].substring(2), args[++i]);
+		}
+		return options;
+	}
+
+	private static FileTimingWriter analyze (Path directory, int threads) throws IOException {
+		FileTimingWriter writer = new FileTimingWriter();
+		new CodeAnalyzer(directory.toString(), 3, threads).analyzeDirectory(writer, false);
+		return writer;
+	}
+
+	private static Result measure (CorpusGenerator.Shape shape, Path directory, int threads) throws IOException {
+		System.gc();
+		resetPeakMemory();
+		long start = System.nanoTime();
+		FileTimingWriter writer = analyze(directory, threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return new Result(shape.files(), shape.functions(), seconds, writer.percentileMillis(50),
+		                  writer.percentileMillis(99), peakRssBytes(), peakHeapBytes());
+	}
+
+	private static void resetPeakMemory () {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			pool.resetPeakUsage();
+		try {
+			// resets the peak resident set size of the process, only on Linux
+			Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+		} catch (IOException | UnsupportedOperationException e) {
+			// the peak can't be reset, so it's the peak of the whole run
+		}
+	}
+
+	/**
+	 * @return The sum of the peak usages of the heap memory pools.
+	 */
+	private static long peakHeapBytes () {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/**
+	 * @return The peak resident set size of the process, or -1 if it's not known (outside Linux).
+	 */
+	private static long peakRssBytes () {
+		try {
+			for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+				if (line.startsWith("VmHWM:"))
+					return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+			}
+		} catch (IOException e) {
+			// not on Linux
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares the throughput of each corpus size with the baseline.
+	 *
+	 * @return False if the throughput of any corpus size dropped by more than the threshold.
+	 */
+	private static boolean compareWithBaseline (List<Result> results, Path baseline, double threshold)
+			throws IOException {
+		Map<Integer, Double> baselineThroughput = new HashMap<>();
+		for (String line : Files.readAllLines(baseline)) {
+			Matcher matcher = BASELINE_RESULT_PATTERN.matcher(line);
+			if (matcher.find())
+				baselineThroughput.put(Integer.parseInt(matcher.group(1)), Double.parseDouble(matcher.group(2)));
+		}
+
+		boolean passed = true;
+		for (Result result : results) {
+			Double previous = baselineThroughput.get(result.files());
+			if (previous == null)
+				continue;
+			double change = result.filesPerSecond() / previous - 1;
+			boolean regressed = change < -threshold;
+			System.out.printf(Locale.ROOT, "%d files: %.1f files/s, baseline %.1f files/s (%+.1f%%)%s%n",
+			                  result.files(), result.filesPerSecond(), previous, change * 100,
+			                  regressed ? " REGRESSION" : "");
+			passed &= !regressed;
+		}
+		return passed;
+	}
+}
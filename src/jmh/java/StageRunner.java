@@ -0,0 +1,101 @@
+import benchmarks.Stages;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the stages of the analysis for the benchmarks, the same way {@link CodeAnalyzer} does.
+ */
+public class StageRunner implements Stages {
+	/**
+	 * Measures the default metrics, created once as {@link CodeAnalyzer} does for a whole analysis, so the benchmarks
+	 * see its warm visitors.
+	 */
+	private final MetricScanner scanner = new MetricScanner(Metric.DEFAULTS, ComplexityRules.DEFAULT);
+
+	@Override
+	public CharSequence read (Path file) throws IOException {
+		return FileReader.readFileContents(file.toFile());
+	}
+
+	@Override
+	public CharSequence clean (CharSequence contents, String fileType) {
+		return SourceCleaner.clean(contents, true, true, fileType.equals("kotlin"));
+	}
+
+	@Override
+	public Object extract (CharSequence cleanedContents, String fileType) {
+		return FileReader.extractFunctions(cleanedContents, fileType);
+	}
+
+	@Override
+	public int scoreComplexity (Object functions, String fileType) {
+		int complexity = 0;
+		for (Function function : (Function[]) functions)
+			complexity += CodeComplexityAnalyzer.evaluateComplexityOfAMethod(function, fileType).second();
+		return complexity;
+	}
+
+	@Override
+	public int scoreStyle (Object functions) {
+		int compliant = 0;
+		for (Function function : (Function[]) functions) {
+			if (CodeStyleAnalyzer.evaluateCodeStyleOfAFunction(function).second())
+				compliant++;
+		}
+		return compliant;
+	}
+
+	@Override
+	public Object measure (Object functions, String fileType) {
+		List<FunctionMetrics> functionMetrics = new ArrayList<>();
+		for (Function function : (Function[]) functions)
+			functionMetrics.add(scanner.measure(function, fileType));
+		return functionMetrics;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public String renderReport (String fileName, Object metrics, int numOfResults) {
+		return new CodeAnalyzer(".", numOfResults)
+				       .generateFileReport(fileName, (List<FunctionMetrics>) metrics, true);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object store (String fileName, Object metrics) {
+		MetricsStore store = new MetricsStore();
+		store.addFile(fileName, (List<FunctionMetrics>) metrics);
+		return store;
+	}
+
+	@Override
+	public long serialize (Object store, String format) throws IOException {
+		MetricsStore results = (MetricsStore) store;
+		CountingOutputStream output = new CountingOutputStream();
+		ResultWriter resultWriter = ResultFormat.valueOf(format).open(output);
+		resultWriter.writeFile(results, 0);
+		resultWriter.finish(results);
+		return output.count;
+	}
+
+	/**
+	 * Discards what's written to it, but counts the bytes.
+	 */
+	private static class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write (int b) {
+			count++;
+		}
+
+		@Override
+		public void write (byte[] bytes, int offset, int length) {
+			count += length;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark of the start of the {@link CommandLine}: runs the CLI jar on a small directory in a fresh JVM again and
+ * again, the way a git hook would, once plainly and once with the AppCDS archive of the {@code cdsArchive} task, and
+ * reports the median wall time of each. The results are saved as JSON, and can be compared with the results of a
+ * previous run, the benchmark then fails if the start with the archive got slower by more than the threshold.
+ */
+public class StartupBenchmark {
+	private static final Pattern BASELINE_RESULT_PATTERN = Pattern.compile("\"cdsMillis\": ([0-9.]+)");
+
+	/**
+	 * Runs the benchmark. The options are:
+	 * <ul>
+	 *     <li>--jar: the jar of the CLI</li>
+	 *     <li>--archive: the AppCDS archive of the CLI</li>
+	 *     <li>--directory: the directory the CLI analyzes, src/test/resources by default</li>
+	 *     <li>--runs: the number of measured runs of each kind, 10 by default</li>
+	 *     <li>--output: the file to save the results to, build/startup/results.json by default</li>
+	 *     <li>--baseline: the results of a previous run to compare with</li>
+	 *     <li>--threshold: the largest allowed slowdown compared to the baseline, 0.1 by default</li>
+	 * </ul>
+	 */
+	public static void main (String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = parseOptions(args);
+		Path jar = Path.of(options.get("jar"));
+		Path archive = Path.of(options.get("archive"));
+		String directory = options.getOrDefault("directory", "src/test/resources");
+		int runs = Integer.parseInt(options.getOrDefault("runs", "10"));
+		Path output = Path.of(options.getOrDefault("output", "build/startup/results.json"));
+
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		List<String> plain = List.of(java, "-jar", jar.toString(), "--no-color", directory);
+		List<String> withArchive = List.of(java, "-XX:SharedArchiveFile=" + archive, "-Xshare:auto", "-jar",
+		                                   jar.toString(), "--no-color", directory);
+		// warm up the file system caches
+		run(plain);
+		run(withArchive);
+		long[] plainNanos = new long[runs];
+		long[] archiveNanos = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			// alternated, so both kinds of runs see the same noise
+			plainNanos[i] = run(plain);
+			archiveNanos[i] = run(withArchive);
+		}
+
+		double plainMillis = medianMillis(plainNanos);
+		double cdsMillis = medianMillis(archiveNanos);
+		String json = String.format(Locale.ROOT, "{\"runs\": %d, \"plainMillis\": %.1f, \"cdsMillis\": %.1f, " +
+				                                         "\"speedup\": %.2f}%n",
+		                            runs, plainMillis, cdsMillis, plainMillis / cdsMillis);
+		System.out.print(json);
+		Files.createDirectories(output.toAbsolutePath().getParent());
+		Files.writeString(output, json);
+		System.out.printf("Results saved to %s%n", output);
+
+		if (options.containsKey("baseline")) {
+			double threshold = Double.parseDouble(options.getOrDefault("threshold", "0.1"));
+			if (!compareWithBaseline(cdsMillis, Path.of(options.get("baseline")), threshold))
+				System.exit(1);
+		}
+	}
+
+	private static Map<String, String> parseOptions (String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length)
+				throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+			options.put(args[i].substring(2), args[++i]);
+		}
+		if (!options.containsKey("jar") || !options.containsKey("archive"))
+			throw new IllegalArgumentException("--jar and --archive are required");
+		return options;
+	}
+
+	/**
+	 * @return The wall time of a run of the command, from starting the process until it exited.
+	 */
+	private static long run (List<String> command) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(new ArrayList<>(command))
+				                  .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				                  .redirectError(ProcessBuilder.Redirect.INHERIT)
+				                  .start();
+		int exitCode = process.waitFor();
+		long nanos = System.nanoTime() - start;
+		if (exitCode != CommandLine.EXIT_OK)
+			throw new IllegalStateException("The command failed with exit code " + exitCode + ": " + command);
+		return nanos;
+	}
+
+	private static double medianMillis (long[] nanos) {
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2] / 1e6;
+	}
+
+	/**
+	 * @return False if the start with the archive got slower than the baseline by more than the threshold.
+	 */
+	private static boolean compareWithBaseline (double cdsMillis, Path baseline, double threshold)
+			throws IOException {
+		Matcher matcher = BASELINE_RESULT_PATTERN.matcher(Files.readString(baseline));
+		if (!matcher.find())
+			return true;
+		double previous = Double.parseDouble(matcher.group(1));
+		double change = cdsMillis / previous - 1;
+		boolean regressed = change > threshold;
+		System.out.printf(Locale.ROOT, "Start with AppCDS: %.1f ms, baseline %.1f ms (%+.1f%%)%s%n",
+		                  cdsMillis, previous, change * 100, regressed ? " REGRESSION" : "");
+		return !regressed;
+	}
+}
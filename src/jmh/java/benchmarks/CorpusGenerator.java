@@ -0,0 +1,166 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates a tree of synthetic Java and Kotlin files to analyze.
+ * The corpus is fully determined by its {@link Shape}: every file is generated from its own seed, derived from the
+ * seed of the corpus and the index of the file, so the same shape always gives byte-for-byte the same corpus.
+ */
+public class CorpusGenerator {
+	private static final int FILES_PER_DIRECTORY = 1000;
+	private static final String COMPLETE_MARKER = ".complete";
+
+	/**
+	 * The shape of a corpus.
+	 *
+	 * @param files          The number of files.
+	 * @param methodsPerFile The number of methods declared in each file.
+	 * @param nestingDepth   The maximum depth of nested blocks in a method.
+	 * @param commentDensity The probability of a comment before each statement, from 0 to 1.
+	 * @param stringDensity  The probability of a statement working with string literals, from 0 to 1.
+	 * @param kotlinShare    The share of Kotlin files among the files, from 0 to 1.
+	 * @param seed           The seed of the corpus.
+	 */
+	public record Shape(int files, int methodsPerFile, int nestingDepth, double commentDensity, double stringDensity,
+	                    double kotlinShare, long seed) {
+		/**
+		 * @return A name identifying the shape, usable as a directory name.
+		 */
+		public String id () {
+			return String.format(Locale.ROOT, "files%d-methods%d-depth%d-comments%.2f-strings%.2f-kotlin%.2f-seed%d",
+			                     files, methodsPerFile, nestingDepth, commentDensity, stringDensity, kotlinShare, seed);
+		}
+
+		/**
+		 * @return The number of methods declared in the whole corpus.
+		 */
+		public long functions () {
+			return (long) files * methodsPerFile;
+		}
+	}
+
+	/**
+	 * Generates the corpus into the given directory, unless it's already there from a previous run.
+	 *
+	 * @param shape     The shape of the corpus.
+	 * @param directory The directory to generate the corpus in.
+	 * @throws IOException If a file could not be written.
+	 */
+	public static void generate (Shape shape, Path directory) throws IOException {
+		Path completeMarker = directory.resolve(COMPLETE_MARKER);
+		if (Files.exists(completeMarker))
+			return;
+
+		for (int file = 0; file < shape.files(); file++) {
+			Path packageDirectory = Files.createDirectories(directory.resolve("package" + file / FILES_PER_DIRECTORY));
+			Random random = new Random(shape.seed() * 31 + file);
+			boolean kotlin = random.nextDouble() < shape.kotlinShare();
+			String className = "Generated" + file;
+			try (BufferedWriter writer = Files.newBufferedWriter(
+					packageDirectory.resolve(className + (kotlin ? ".kt" : ".java")), StandardCharsets.UTF_8)) {
+				writer.write(kotlin ? kotlinFile(shape, random, className) : javaFile(shape, random, className));
+			}
+		}
+		Files.createFile(completeMarker);
+	}
+
+	private static String javaFile (Shape shape, Random random, String className) {
+		StringBuilder code = new StringBuilder();
+		code.append("package generated;\n\nimport java.util.List;\n\n");
+		code.append("/**\n * Generated class, see {@link List}.\n */\n");
+		code.append("public class ").append(className).append(" {\n");
+		for (int method = 0; method < shape.methodsPerFile(); method++) {
+			appendComment(code, shape, random, "    ");
+			code.append(random.nextBoolean() ? "    public int " : "    private static int ")
+					.append(random.nextInt(5) == 0 ? "Method_" : "method").append(method)
+					.append("(int value, String text) {\n");
+			appendJavaBlock(code, shape, random, 2, 1 + random.nextInt(Math.max(1, shape.nestingDepth())));
+			code.append("        return value;\n    }\n\n");
+		}
+		return code.append("}\n").toString();
+	}
+
+	private static void appendJavaBlock (StringBuilder code, Shape shape, Random random, int indent, int depth) {
+		String indentation = "    ".repeat(indent);
+		int statements = 1 + random.nextInt(4);
+		for (int statement = 0; statement < statements; statement++) {
+			appendComment(code, shape, random, indentation);
+			if (random.nextDouble() < shape.stringDensity()) {
+				code.append(indentation).append("text = text + \"if (value) { // \\\"quoted\\\" }\" + '}';\n");
+				continue;
+			}
+			int kind = random.nextInt(6);
+			if (depth <= 1 || kind >= 4) {
+				code.append(indentation).append(kind == 5 ? "value = value > 0 ? value : -value;\n" : "value += 3;\n");
+				continue;
+			}
+			code.append(indentation).append(switch (kind) {
+				case 0 -> "if (value > " + random.nextInt(100) + ") {\n";
+				case 1 -> "for (int i = 0; i < value; i++) {\n";
+				case 2 -> "while (value > 0 && text != null) {\n";
+				default -> "switch (value) {\n" + indentation + "case 1:\n";
+			});
+			appendJavaBlock(code, shape, random, indent + 1, depth - 1);
+			code.append(indentation).append(kind == 0 ? "} else {\n" + indentation + "    value--;\n" + indentation + "}\n"
+			                                          : "}\n");
+		}
+	}
+
+	private static String kotlinFile (Shape shape, Random random, String className) {
+		StringBuilder code = new StringBuilder();
+		code.append("package generated\n\n");
+		code.append("/**\n * Generated class.\n */\n");
+		code.append("class ").append(className).append(" {\n");
+		for (int method = 0; method < shape.methodsPerFile(); method++) {
+			appendComment(code, shape, random, "    ");
+			code.append("    fun ").append(random.nextInt(5) == 0 ? "Method_" : "method").append(method)
+					.append("(value: Int, text: String?): Int {\n");
+			code.append("        var result = value\n");
+			appendKotlinBlock(code, shape, random, 2, 1 + random.nextInt(Math.max(1, shape.nestingDepth())));
+			code.append("        return result\n    }\n\n");
+		}
+		return code.append("}\n").toString();
+	}
+
+	private static void appendKotlinBlock (StringBuilder code, Shape shape, Random random, int indent, int depth) {
+		String indentation = "    ".repeat(indent);
+		int statements = 1 + random.nextInt(4);
+		for (int statement = 0; statement < statements; statement++) {
+			appendComment(code, shape, random, indentation);
+			if (random.nextDouble() < shape.stringDensity()) {
+				code.append(indentation).append("val s").append(statement)
+						.append(" = \"when { ${text ?: \"}\"} // \\\"quoted\\\"\"\n");
+				continue;
+			}
+			int kind = random.nextInt(6);
+			if (depth <= 1 || kind >= 4) {
+				code.append(indentation).append(kind == 5 ? "result += text?.length ?: 0\n" : "result += 3\n");
+				continue;
+			}
+			code.append(indentation).append(switch (kind) {
+				case 0 -> "if (result > " + random.nextInt(100) + ") {\n";
+				case 1 -> "for (i in 0 until result) {\n";
+				case 2 -> "while (result > 0 && text != null) {\n";
+				default -> "when (result) {\n" + indentation + "    1 -> {\n";
+			});
+			appendKotlinBlock(code, shape, random, indent + 1, depth - 1);
+			code.append(indentation).append(kind == 3 ? "    }\n" + indentation + "}\n" : "}\n");
+		}
+	}
+
+	private static void appendComment (StringBuilder code, Shape shape, Random random, String indentation) {
+		if (random.nextDouble() >= shape.commentDensity())
+			return;
+		if (random.nextBoolean())
+			code.append(indentation).append("// if (commented) { out(\"code\"); }\n");
+		else
+			code.append(indentation).append("/* while (value) { \" */\n");
+	}
+}
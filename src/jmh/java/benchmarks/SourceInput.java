@@ -0,0 +1,125 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * The source files the benchmarks analyze: a real file from the test resources, and synthetic files that are
+ * either big, or full of the constructs that are expensive for the cleaner and the method patterns.
+ * The synthetic files are generated from a fixed seed, so every run measures the same input.
+ */
+public enum SourceInput {
+	/**
+	 * A real, medium-sized Java file.
+	 */
+	MAX_FLOW("java"),
+	/**
+	 * About 4 MB of ordinary Java code.
+	 */
+	LARGE_JAVA("java"),
+	/**
+	 * Java code with deeply nested blocks, long literals and comments, deep generics and long runs of words that
+	 * look like the start of a method signature.
+	 */
+	PATHOLOGICAL_JAVA("java"),
+	/**
+	 * About 1 MB of Kotlin code with string templates, when expressions and elvis operators.
+	 */
+	LARGE_KOTLIN("kotlin");
+
+	private static final long SEED = 42;
+
+	private final String fileType;
+
+	SourceInput (String fileType) {
+		this.fileType = fileType;
+	}
+
+	public String fileType () {
+		return fileType;
+	}
+
+	/**
+	 * Creates the input file in the given directory.
+	 *
+	 * @param directory The directory to create synthetic files in.
+	 * @return The input file.
+	 * @throws IOException If the file could not be written.
+	 */
+	public Path create (Path directory) throws IOException {
+		String extension = fileType.equals("java") ? ".java" : ".kt";
+		return switch (this) {
+			case MAX_FLOW -> Path.of("src/test/resources/MaxFlow.java");
+			case LARGE_JAVA -> Files.writeString(directory.resolve("Large" + extension), largeJava());
+			case PATHOLOGICAL_JAVA -> Files.writeString(directory.resolve("Pathological" + extension),
+			                                            pathologicalJava());
+			case LARGE_KOTLIN -> Files.writeString(directory.resolve("Large" + extension), largeKotlin());
+		};
+	}
+
+	private static String largeJava () {
+		Random random = new Random(SEED);
+		StringBuilder code = new StringBuilder();
+		for (int classIndex = 0; code.length() < 4 << 20; classIndex++) {
+			code.append("/**\n * Generated class ").append(classIndex).append(".\n */\n");
+			code.append("public class Generated").append(classIndex).append(" {\n");
+			for (int method = 0; method < 20; method++) {
+				code.append("    // method ").append(method).append(" does \"nothing\" useful\n");
+				code.append(random.nextBoolean() ? "    public int " : "    private static int ")
+						.append(random.nextInt(4) == 0 ? "Bad_Name" : "compute").append(method)
+						.append("(int value, String text) throws IllegalStateException {\n");
+				int statements = 1 + random.nextInt(8);
+				for (int statement = 0; statement < statements; statement++)
+					appendJavaStatement(code, random);
+				code.append("        return value;\n    }\n\n");
+			}
+			code.append("}\n\n");
+		}
+		return code.toString();
+	}
+
+	private static void appendJavaStatement (StringBuilder code, Random random) {
+		switch (random.nextInt(6)) {
+			case 0 -> code.append("        if (value > ").append(random.nextInt(100))
+					          .append(" && text != null) {\n            value--;\n        } else {\n            value++;\n        }\n");
+			case 1 -> code.append("        for (int i = 0; i < value; i++) {\n            text = text + \"{\" + i;\n        }\n");
+			case 2 -> code.append("        while (value > 0 || text.isEmpty()) value /= 2;\n");
+			case 3 -> code.append("        value = value > 0 ? value : -value;\n");
+			case 4 -> code.append("        switch (value) {\n            case 1: value = 2; break;\n            default: break;\n        }\n");
+			default -> code.append("        /* \"not a string\" { */ text = \"// not a comment\";\n");
+		}
+	}
+
+	private static String pathologicalJava () {
+		StringBuilder code = new StringBuilder("public class Pathological {\n");
+		for (int method = 0; method < 200; method++) {
+			code.append("    private Map<String, List<Map<Integer, Set<List<String>>>>> field").append(method).append(";\n");
+			code.append("    public Map<String, List<Integer>> deep").append(method)
+					.append("(Map<String, Object> argument) {\n");
+			for (int depth = 0; depth < 50; depth++)
+				code.append("        if (argument != null) {\n");
+			code.append("        String s = \"").append("\\\"{}//".repeat(200)).append("\";\n");
+			code.append("        /* ").append("\" /* { } \" ".repeat(200)).append(" */\n");
+			code.append("        ").append("word ".repeat(500)).append(";\n");
+			code.append("        }".repeat(50)).append("\n");
+			code.append("        return null;\n    }\n");
+		}
+		return code.append("}\n").toString();
+	}
+
+	private static String largeKotlin () {
+		Random random = new Random(SEED);
+		StringBuilder code = new StringBuilder();
+		for (int function = 0; code.length() < 1 << 20; function++) {
+			code.append("fun ").append(random.nextInt(4) == 0 ? "Bad_name" : "compute").append(function)
+					.append("(value: Int, text: String?): Int {\n");
+			code.append("    val name = text ?: \"default ${value + 1} \\\"quoted\\\"\"\n");
+			code.append("    val length = text?.let { it.length } ?: 0\n");
+			code.append("    return when {\n        value > ").append(random.nextInt(100))
+					.append(" && length > 0 -> value\n        name.isEmpty() || value < 0 -> -value\n        else -> 0\n    }\n}\n\n");
+		}
+		return code.toString();
+	}
+}
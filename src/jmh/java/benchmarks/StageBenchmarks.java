@@ -0,0 +1,119 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of each stage of analyzing a single file. Every stage gets the output of the previous stages, computed
+ * once during the setup, so it's measured on its own.
+ * Run with the gc profiler (as the {@code jmh} Gradle task does) to see the allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class StageBenchmarks {
+	private static final int NUM_OF_RESULTS = 3;
+
+	@Param
+	public SourceInput input;
+
+	private final Stages stages = Stages.load();
+	private Path directory;
+	private Path file;
+	private String fileType;
+	private CharSequence contents;
+	private CharSequence cleanedContents;
+	private Object functions;
+	private Object metrics;
+	private Object store;
+
+	@Setup(Level.Trial)
+	public void setUp () throws IOException {
+		directory = Files.createTempDirectory("benchmark");
+		file = input.create(directory);
+		fileType = input.fileType();
+		contents = stages.read(file);
+		cleanedContents = stages.clean(contents, fileType);
+		functions = stages.extract(cleanedContents, fileType);
+		metrics = stages.measure(functions, fileType);
+		store = stages.store(file.toString(), metrics);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () throws IOException {
+		try (var paths = Files.list(directory)) {
+			for (Path path : (Iterable<Path>) paths::iterator)
+				Files.delete(path);
+		}
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public int read () throws IOException {
+		return stages.read(file).length();
+	}
+
+	@Benchmark
+	public CharSequence clean () {
+		return stages.clean(contents, fileType);
+	}
+
+	@Benchmark
+	public Object extract () {
+		return stages.extract(cleanedContents, fileType);
+	}
+
+	@Benchmark
+	public int scoreComplexity () {
+		return stages.scoreComplexity(functions, fileType);
+	}
+
+	@Benchmark
+	public int scoreStyle () {
+		return stages.scoreStyle(functions);
+	}
+
+	@Benchmark
+	public Object measure () {
+		return stages.measure(functions, fileType);
+	}
+
+	@Benchmark
+	public String renderReport () {
+		return stages.renderReport(file.getFileName().toString(), metrics, NUM_OF_RESULTS);
+	}
+
+	@Benchmark
+	public long serializeJsonLines () throws IOException {
+		return stages.serialize(store, "JSON_LINES");
+	}
+
+	@Benchmark
+	public long serializeCsv () throws IOException {
+		return stages.serialize(store, "CSV");
+	}
+
+	@Benchmark
+	public long serializeBinary () throws IOException {
+		return stages.serialize(store, "BINARY");
+	}
+}
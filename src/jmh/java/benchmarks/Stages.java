@@ -0,0 +1,45 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The stages of analyzing a single file, as seen by the benchmarks.
+ * JMH only accepts benchmarks in named packages, and classes in named packages can't refer to the analyzer, which
+ * lives in the default package. So the benchmarks reach it through this interface, implemented by {@code StageRunner}
+ * in the default package. The results of the stages are passed around as opaque objects.
+ */
+public interface Stages {
+	CharSequence read (Path file) throws IOException;
+
+	CharSequence clean (CharSequence contents, String fileType);
+
+	Object extract (CharSequence cleanedContents, String fileType);
+
+	int scoreComplexity (Object functions, String fileType);
+
+	int scoreStyle (Object functions);
+
+	Object measure (Object functions, String fileType);
+
+	String renderReport (String fileName, Object metrics, int numOfResults);
+
+	Object store (String fileName, Object metrics);
+
+	/**
+	 * @param format The name of a result format.
+	 * @return The number of bytes written.
+	 */
+	long serialize (Object store, String format) throws IOException;
+
+	/**
+	 * @return The implementation of the stages.
+	 */
+	static Stages load () {
+		try {
+			return (Stages) Class.forName("StageRunner").getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("StageRunner is missing from the benchmark classpath", e);
+		}
+	}
+}
@@ -0,0 +1,372 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the analysis engine resident, so that short-lived clients (git hooks, editors) get their results without
+ * paying for a JVM start, class loading and a cold JIT on every check.
+ * <p>
+ * The daemon serves HTTP on the loopback interface only, on a port of its choice. The port and a random token are
+ * written to the daemon file, readable only by its owner, which is how a {@link DaemonClient} finds the daemon and
+ * proves that it may use it. The requests are handled on several threads at the same time, each by a
+ * {@link CodeAnalyzer} of its own, but the engine behind them stays warm: they all measure with the same
+ * {@link MetricScanner}, run their pipelines on the same threads, and share one {@link ResultCache} kept in memory,
+ * which is saved every {@value #CACHE_SAVE_MINUTES} minute(s) if it changed, and when the daemon stops:
+ * <ul>
+ *     <li>{@code GET /analyze?directory=...}, see {@link Request} for the other parameters, responds with the report
+ *     or the results in the requested format.</li>
+ *     <li>{@code GET /status} responds with "ok".</li>
+ *     <li>{@code POST /shutdown} stops the daemon.</li>
+ * </ul>
+ * The daemon stops by itself once no request came for the idle timeout, and deletes its daemon file when it stops.
+ */
+public class AnalysisDaemon implements Closeable {
+	/**
+	 * The header carrying the token of the daemon.
+	 */
+	static final String TOKEN_HEADER = "X-Daemon-Token";
+	/**
+	 * How often the result cache is saved while it changes.
+	 */
+	static final int CACHE_SAVE_MINUTES = 1;
+
+	static {
+		// the server writes the headers and the body of a response separately, so with Nagle's algorithm the body
+		// waits for the client to acknowledge the headers, which delayed ACKs hold back for 40 ms
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/**
+	 * A request to analyze a directory, sent as the query of the {@code /analyze} URL.
+	 *
+	 * @param directory    The directory to analyze.
+	 * @param top          The number of the most complex functions listed per file in the report.
+	 * @param format       The format of the results, or null for the report.
+	 * @param ansiColours  Whether the report should be coloured with ANSI escape codes.
+	 * @param parallelism  The number of files analyzed at the same time.
+	 * @param baseRevision The revision to analyze only the files changed since, or null to analyze every file.
+	 */
+	public record Request(String directory, int top, ResultFormat format, boolean ansiColours, int parallelism,
+	                      String baseRevision) {
+
+		/**
+		 * Constructs a request for the plain report of every file of the directory.
+		 *
+		 * @param directory The directory to analyze.
+		 */
+		public Request (String directory) {
+			this(directory, 3, null, false, 1, null);
+		}
+
+		/**
+		 * @return The request as the query of a URL.
+		 */
+		public String toQuery () {
+			StringBuilder query = new StringBuilder();
+			appendParameter(query, "directory", directory);
+			appendParameter(query, "top", Integer.toString(top));
+			if (format != null)
+				appendParameter(query, "format", format.name().toLowerCase(Locale.ROOT));
+			appendParameter(query, "colours", Boolean.toString(ansiColours));
+			appendParameter(query, "threads", Integer.toString(parallelism));
+			if (baseRevision != null)
+				appendParameter(query, "base", baseRevision);
+			return query.toString();
+		}
+
+		private static void appendParameter (StringBuilder query, String name, String value) {
+			if (!query.isEmpty())
+				query.append('&');
+			query.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Parses a request from the query of a URL.
+		 *
+		 * @param query The query, still URL-encoded.
+		 * @return The request.
+		 * @throws IllegalArgumentException If the query is not a valid request.
+		 */
+		public static Request parse (String query) {
+			Map<String, String> parameters = new HashMap<>();
+			if (query != null) {
+				for (String parameter : query.split("&")) {
+					int equals = parameter.indexOf('=');
+					if (equals < 0)
+						throw new IllegalArgumentException("Parameter without a value: " + parameter);
+					parameters.put(parameter.substring(0, equals),
+					               URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+				}
+			}
+			String directory = parameters.get("directory");
+			if (directory == null)
+				throw new IllegalArgumentException("The directory to analyze is missing");
+			String format = parameters.get("format");
+			int top = Integer.parseInt(parameters.getOrDefault("top", "3"));
+			int parallelism = Integer.parseInt(parameters.getOrDefault("threads", "1"));
+			if (parallelism < 1)
+				throw new IllegalArgumentException("Parallelism has to be at least 1");
+			String baseRevision = parameters.get("base");
+			if (baseRevision != null && baseRevision.startsWith("-"))
+				throw new IllegalArgumentException("Not a revision: " + baseRevision);
+			return new Request(directory, top,
+			                   format == null ? null : ResultFormat.valueOf(format.toUpperCase(Locale.ROOT)),
+			                   Boolean.parseBoolean(parameters.get("colours")), parallelism, baseRevision);
+		}
+	}
+
+	private final Path daemonFile;
+	private final Duration idleTimeout;
+	private final int threads;
+	private final String token;
+	private final AtomicInteger activeRequests = new AtomicInteger();
+	private final AtomicLong lastRequestNanos = new AtomicLong(System.nanoTime());
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private Path cacheDirectory;
+	private final MetricScanner metricScanner = new MetricScanner(Metric.DEFAULTS, ComplexityRules.DEFAULT);
+	private ResultCache resultCache;
+	private HttpServer server;
+	private ExecutorService requestPool;
+	private ExecutorService pipelineExecutor;
+	private ScheduledExecutorService idleChecker;
+
+	/**
+	 * Constructs a daemon, which does not serve anything until it's started.
+	 *
+	 * @param daemonFile  The file to write the port and the token of the daemon to.
+	 * @param idleTimeout How long the daemon keeps running without any requests.
+	 * @param threads     The number of requests handled at the same time.
+	 * @throws IllegalArgumentException If threads is smaller than 1.
+	 */
+	public AnalysisDaemon (Path daemonFile, Duration idleTimeout, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("The daemon needs at least 1 thread");
+		this.daemonFile = daemonFile;
+		this.idleTimeout = idleTimeout;
+		this.threads = threads;
+		byte[] tokenBytes = new byte[16];
+		new SecureRandom().nextBytes(tokenBytes);
+		this.token = HexFormat.of().formatHex(tokenBytes);
+	}
+
+	/**
+	 * @return The daemon file of the current user, in the temporary directory.
+	 */
+	public static Path defaultDaemonFile () {
+		return Path.of(System.getProperty("java.io.tmpdir"), "codemetrics-" + System.getProperty("user.name") +
+		                                                      ".daemon");
+	}
+
+	/**
+	 * Keeps the results of the analyzed files in the given {@link ResultCache}, for all the requests. The cache is
+	 * loaded when the daemon starts.
+	 *
+	 * @param cacheDirectory The directory of the cache, or null to turn the cache off.
+	 */
+	public void setCacheDirectory (Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Starts serving requests and writes the daemon file.
+	 *
+	 * @throws IOException If the server could not be started, the daemon file could not be written or the cache
+	 *                     directory could not be created.
+	 */
+	public void start () throws IOException {
+		if (cacheDirectory != null)
+			resultCache = ResultCache.load(cacheDirectory, metricScanner.fingerprint());
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		requestPool = Executors.newFixedThreadPool(threads);
+		// the pipelines of concurrent requests need all their threads at the same time, so the pool is unbounded
+		pipelineExecutor = Executors.newCachedThreadPool();
+		server.setExecutor(requestPool);
+		server.createContext("/analyze", exchange -> handle(exchange, "GET", this::analyze));
+		server.createContext("/status", exchange -> handle(exchange, "GET", ignored -> respond(exchange, 200,
+		                                                                                           "ok")));
+		server.createContext("/shutdown", exchange -> handle(exchange, "POST", ignored -> {
+			respond(exchange, 200, "stopping");
+			idleChecker.execute(this::close);
+		}));
+		idleChecker = Executors.newSingleThreadScheduledExecutor();
+		server.start();
+
+		long checkMillis = Math.max(10, Math.min(idleTimeout.toMillis() / 4, 1000));
+		idleChecker.scheduleWithFixedDelay(this::stopIfIdle, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+		if (resultCache != null)
+			idleChecker.scheduleWithFixedDelay(this::saveCache, CACHE_SAVE_MINUTES, CACHE_SAVE_MINUTES,
+			                                   TimeUnit.MINUTES);
+		writeDaemonFile(server.getAddress().getPort());
+	}
+
+	/**
+	 * Writes the daemon file atomically, so clients never read half of it, and readable only by the owner where the
+	 * file system supports it.
+	 */
+	private void writeDaemonFile (int port) throws IOException {
+		Path directory = daemonFile.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path temporaryFile = Files.createTempFile(directory, daemonFile.getFileName().toString(), ".tmp");
+		try {
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+				Files.setPosixFilePermissions(temporaryFile, PosixFilePermissions.fromString("rw-------"));
+			Files.writeString(temporaryFile, port + " " + token + "\n");
+			Files.move(temporaryFile, daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * @return The port the daemon serves on.
+	 */
+	public int getPort () {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Waits until the daemon stops, because it was idle for too long, shut down by a client or closed.
+	 *
+	 * @throws InterruptedException If the thread was interrupted while waiting.
+	 */
+	public void awaitShutdown () throws InterruptedException {
+		stopped.await();
+	}
+
+	private void saveCache () {
+		try {
+			if (resultCache.hasUnsavedChanges())
+				resultCache.save();
+		} catch (IOException e) {
+			// the results stay in memory, and the next save tries again
+		}
+	}
+
+	private void stopIfIdle () {
+		if (activeRequests.get() == 0 && System.nanoTime() - lastRequestNanos.get() >= idleTimeout.toNanos())
+			close();
+	}
+
+	/**
+	 * Stops serving requests, letting the ones being handled finish, saves the result cache and deletes the daemon
+	 * file.
+	 */
+	@Override
+	public synchronized void close () {
+		if (stopped.getCount() == 0)
+			return;
+		try {
+			if (server != null) {
+				server.stop(1);
+				requestPool.shutdown();
+				pipelineExecutor.shutdown();
+				idleChecker.shutdown();
+				if (resultCache != null)
+					saveCache();
+				Files.deleteIfExists(daemonFile);
+			}
+		} catch (IOException e) {
+			// another daemon may have replaced the file already, nothing to clean up then
+		} finally {
+			stopped.countDown();
+		}
+	}
+
+	private interface Handler {
+		void handle (HttpExchange exchange) throws IOException;
+	}
+
+	/**
+	 * Checks the method and the token of a request before handing it to the handler, and keeps track of the requests
+	 * being handled for the idle timeout.
+	 */
+	private void handle (HttpExchange exchange, String method, Handler handler) throws IOException {
+		activeRequests.incrementAndGet();
+		try (exchange) {
+			if (!token.equals(exchange.getRequestHeaders().getFirst(TOKEN_HEADER)))
+				respond(exchange, 403, "Wrong daemon token");
+			else if (!exchange.getRequestMethod().equals(method))
+				respond(exchange, 405, "Use " + method);
+			else
+				handler.handle(exchange);
+		} finally {
+			lastRequestNanos.set(System.nanoTime());
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	private void analyze (HttpExchange exchange) throws IOException {
+		Request request;
+		try {
+			request = Request.parse(exchange.getRequestURI().getRawQuery());
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, e.getMessage());
+			return;
+		}
+		if (!Files.isDirectory(Path.of(request.directory()))) {
+			respond(exchange, 400, "Not a directory: " + request.directory());
+			return;
+		}
+
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(request.directory(), request.top(), request.parallelism());
+		codeAnalyzer.setMetricScanner(metricScanner);
+		codeAnalyzer.setPipelineExecutor(pipelineExecutor);
+		codeAnalyzer.setResultCache(resultCache);
+		if (request.baseRevision() != null)
+			codeAnalyzer.setChangedFilesOnly(request.baseRevision(), null, false);
+		// the results are collected first, so that a failure can still be answered with an error
+		ByteArrayOutputStream results = new ByteArrayOutputStream();
+		try {
+			if (request.format() == null)
+				codeAnalyzer.analyzeDirectory(results, request.ansiColours());
+			else
+				codeAnalyzer.analyzeDirectory(results, request.format());
+		} catch (IOException | RuntimeException e) {
+			respond(exchange, 500, "The analysis failed: " + e.getMessage());
+			return;
+		}
+		exchange.getResponseHeaders().set("Content-Type", request.format() == ResultFormat.BINARY
+		                                                  ? "application/octet-stream" : "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, results.size());
+		try (OutputStream body = exchange.getResponseBody()) {
+			results.writeTo(body);
+		}
+	}
+
+	private static void respond (HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+}
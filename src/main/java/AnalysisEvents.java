@@ -0,0 +1,111 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events emitted by the analysis, so that a recording shows which files and functions the time
+ * was spent on, not just the regex internals.
+ * <p>
+ * Events of files are recorded always, events of single functions only when they take at least 100 microseconds,
+ * which normal functions never do, so a recording of a big project stays small but still contains the pathological
+ * ones.
+ * The thresholds can be changed in the settings of the recording.
+ */
+public class AnalysisEvents {
+	private static final String CATEGORY = "Code Metrics Engine";
+
+	/**
+	 * Tells whether events should be created at all. Creating the first event initializes Flight Recorder, which takes
+	 * longer than analyzing a small project, so no events are created unless Flight Recorder was started already, by
+	 * a recording of the analyzer or of the JVM. Without Flight Recorder the events would never be recorded anyway.
+	 *
+	 * @return Whether Flight Recorder is running.
+	 */
+	static boolean recording () {
+		return FlightRecorder.isInitialized();
+	}
+
+	@Name("codemetrics.FileRead")
+	@Label("File Read")
+	@Description("Reading a source file")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class FileRead extends Event {
+		@Label("Path")
+		String path;
+
+		@Label("Size")
+		@DataAmount
+		long size;
+	}
+
+	@Name("codemetrics.FileAnalysis")
+	@Label("File Analysis")
+	@Description("Extracting and analyzing the functions of a source file")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class FileAnalysis extends Event {
+		@Label("Path")
+		String path;
+
+		@Label("Size")
+		@DataAmount
+		long size;
+
+		@Label("Function Count")
+		int functionCount;
+
+		@Label("Cached")
+		@Description("Whether the results were taken from the result cache")
+		boolean cached;
+	}
+
+	@Name("codemetrics.FunctionComplexity")
+	@Label("Function Complexity")
+	@Description("Evaluating the complexity of a single function")
+	@Category(CATEGORY)
+	@Threshold("100 us")
+	static class FunctionComplexity extends Event {
+		@Label("Method Name")
+		String methodName;
+
+		@Label("Length")
+		@Description("The length of the function, in characters")
+		int length;
+
+		@Label("Complexity")
+		int complexity;
+	}
+
+	@Name("codemetrics.FunctionStyle")
+	@Label("Function Style")
+	@Description("Evaluating the code style of a single function")
+	@Category(CATEGORY)
+	@Threshold("100 us")
+	static class FunctionStyle extends Event {
+		@Label("Method Name")
+		String methodName;
+
+		@Label("Violations")
+		int violations;
+	}
+
+	@Name("codemetrics.CodeStyleEvaluation")
+	@Label("Code Style Evaluation")
+	@Description("Evaluating the code style of a list of functions")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static class CodeStyleEvaluation extends Event {
+		@Label("Function Count")
+		int functionCount;
+
+		@Label("Non-Compliant Percentage")
+		double nonCompliantPercentage;
+	}
+}
@@ -0,0 +1,430 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Staged, multithreaded driver for analyzing many files at once.
+ * Files are loaded on a pool of I/O threads and handed over through a bounded queue to a bounded pool of CPU threads,
+ * which clean up, extract and score them. The biggest files are scheduled first, so that a single huge file does
+ * not end up being the last one processed, while the results are still handed over in the order of the input,
+ * each as soon as it and all the results before it are ready.
+ * <p>
+ * The files can also come lazily, e.g. from a {@link DirectoryWalker} that is still walking the directory. Then
+ * the biggest files are picked from a window of the next files only, so the analysis starts with the first files.
+ * The window doesn't move ahead of the consumer of the results by more than its size, so at most that many results
+ * wait for the results before them, and a file overtaken by half as many later files is read next, so the results
+ * keep flowing even if the files get bigger and bigger.
+ * <p>
+ * Every run starts pools of its own, unless the pipeline is given an executor to run its threads on, which lets
+ * e.g. a long-running service keep the threads of one run for the next.
+ */
+public class AnalysisPipeline {
+	/**
+	 * The I/O-bound part of analyzing a single file, run on one of the pipeline's I/O threads.
+	 * The result must not be null.
+	 */
+	public interface FileLoader<T> {
+		T load (File file) throws IOException;
+	}
+
+	/**
+	 * The CPU-bound part of analyzing a single file, run on one of the pipeline's CPU threads.
+	 * The result must not be null.
+	 */
+	public interface FileAnalysis<T, R> {
+		R analyze (File file, T loadedFile);
+	}
+
+	/**
+	 * Receives the analysis results, on the thread that runs the pipeline.
+	 */
+	public interface ResultConsumer<R> {
+		void accept (File file, R result) throws IOException;
+	}
+
+	private record ScheduledFile(int index, File file, long size) {}
+
+	private record LoadedFile(ScheduledFile file, Object contents) {}
+
+	private static final LoadedFile END_OF_INPUT = new LoadedFile(null, null);
+
+	private final int parallelism;
+	private final int ioThreads;
+	private final int queueCapacity;
+	private final ExecutorService executor;
+
+	/**
+	 * Constructs a pipeline with the given number of CPU threads and default I/O thread count and queue capacity.
+	 *
+	 * @param parallelism The number of threads analyzing files at the same time.
+	 */
+	public AnalysisPipeline (int parallelism) {
+		this(parallelism, Math.max(2, parallelism / 2), 2 * parallelism);
+	}
+
+	/**
+	 * Constructs a pipeline.
+	 *
+	 * @param parallelism   The number of threads analyzing files at the same time.
+	 * @param ioThreads     The number of threads reading files from disk.
+	 * @param queueCapacity The maximum number of files that have been read, but not yet analyzed.
+	 * @throws IllegalArgumentException If any of the parameters is smaller than 1.
+	 */
+	public AnalysisPipeline (int parallelism, int ioThreads, int queueCapacity) {
+		this(parallelism, ioThreads, queueCapacity, null);
+	}
+
+	/**
+	 * Constructs a pipeline running its threads on the given executor, with the default I/O thread count and queue
+	 * capacity.
+	 *
+	 * @param parallelism The number of threads analyzing files at the same time.
+	 * @param executor    The executor running the I/O and CPU threads of every run. The threads of a run wait for
+	 *                    each other, so it must not limit the number of its threads, like a cached thread pool.
+	 */
+	public AnalysisPipeline (int parallelism, ExecutorService executor) {
+		this(parallelism, Math.max(2, parallelism / 2), 2 * parallelism, Objects.requireNonNull(executor));
+	}
+
+	private AnalysisPipeline (int parallelism, int ioThreads, int queueCapacity, ExecutorService executor) {
+		if (parallelism < 1 || ioThreads < 1 || queueCapacity < 1)
+			throw new IllegalArgumentException("Parallelism, I/O threads and queue capacity have to be positive");
+		this.parallelism = parallelism;
+		this.ioThreads = ioThreads;
+		this.queueCapacity = queueCapacity;
+		this.executor = executor;
+	}
+
+	/**
+	 * Reads and analyzes all the given files.
+	 * Results that are ready before the results of all the files preceding them are kept until they can be consumed.
+	 *
+	 * @param files    The files to analyze.
+	 * @param loader   The loader reading each file.
+	 * @param analysis The analysis to run on each loaded file.
+	 * @param consumer The consumer of the results, called in the order of the files array.
+	 * @throws IOException If any of the files could not be read, or the consumer failed.
+	 */
+	public <T, R> void run (File[] files, FileLoader<T> loader, FileAnalysis<T, R> analysis,
+	                        ResultConsumer<R> consumer) throws IOException {
+		int window = Math.max(1, files.length);
+		run(Arrays.asList(files).iterator(), window, window, loader, analysis, consumer);
+	}
+
+	/**
+	 * Reads and analyzes the files as they come. The biggest of the next few files is read first, unless an earlier
+	 * file was overtaken by too many of them.
+	 *
+	 * @param files    The files to analyze. If it throws an {@link UncheckedIOException}, its cause is thrown.
+	 * @param loader   The loader reading each file.
+	 * @param analysis The analysis to run on each loaded file.
+	 * @param consumer The consumer of the results, called in the order of the files.
+	 * @throws IOException If any of the files could not be read, or the consumer failed.
+	 */
+	public <T, R> void run (Iterator<File> files, FileLoader<T> loader, FileAnalysis<T, R> analysis,
+	                        ResultConsumer<R> consumer) throws IOException {
+		run(files, 2 * (queueCapacity + ioThreads), queueCapacity + ioThreads, loader, analysis, consumer);
+	}
+
+	/**
+	 * @param window       The most files that may be read or waiting to be read before the result of every file
+	 *                     before them was consumed.
+	 * @param maxOvertaken The number of later files after which a file waiting to be read is read next, even if it's
+	 *                     smaller than them.
+	 */
+	private <T, R> void run (Iterator<File> files, int window, int maxOvertaken, FileLoader<T> loader,
+	                         FileAnalysis<T, R> analysis, ResultConsumer<R> consumer) throws IOException {
+		Results<R> results = new Results<>();
+		Schedule schedule = new Schedule(files, window, maxOvertaken, results);
+		BlockingQueue<LoadedFile> loadedFiles = new ArrayBlockingQueue<>(queueCapacity);
+		AtomicInteger activeReaders = new AtomicInteger(ioThreads);
+
+		ExecutorService ioPool = executor != null ? executor : Executors.newFixedThreadPool(ioThreads);
+		ExecutorService cpuPool = executor != null ? executor : Executors.newFixedThreadPool(parallelism);
+		List<Future<?>> threads = new ArrayList<>(ioThreads + parallelism);
+		try {
+			for (int i = 0; i < ioThreads; i++)
+				threads.add(ioPool.submit(() -> readFiles(schedule, loader, loadedFiles, activeReaders, results)));
+			for (int i = 0; i < parallelism; i++)
+				threads.add(cpuPool.submit(() -> analyzeFiles(analysis, loadedFiles, results)));
+
+			ScheduledFile file;
+			for (int index = 0; (file = results.takeFile(index)) != null; index++)
+				consumer.accept(file.file(), results.take(index));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while analyzing files", e);
+		} finally {
+			// stops the threads still reading or waiting after a failure, without shutting a given executor down
+			for (Future<?> thread : threads)
+				thread.cancel(true);
+			if (executor == null) {
+				ioPool.shutdownNow();
+				cpuPool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Body of an I/O thread: keeps reading the next scheduled file until all files are read or something failed.
+	 * The last I/O thread to finish marks the end of input for every CPU thread.
+	 */
+	private void readFiles (Schedule schedule, FileLoader<?> loader, BlockingQueue<LoadedFile> loadedFiles,
+	                        AtomicInteger activeReaders, Results<?> results) {
+		try {
+			ScheduledFile next;
+			while (!results.failed() && (next = schedule.next()) != null)
+				loadedFiles.put(new LoadedFile(next, Objects.requireNonNull(loader.load(next.file()))));
+		} catch (IOException | RuntimeException | Error e) {
+			// even an error has to be reported, or the consumer would wait for the file forever
+			results.fail(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		try {
+			if (activeReaders.decrementAndGet() == 0)
+				for (int i = 0; i < parallelism; i++)
+					loadedFiles.put(END_OF_INPUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of a CPU thread: analyzes read files until the end of input.
+	 * After a failure the remaining files are still taken off the queue, so that no I/O thread blocks forever.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T, R> void analyzeFiles (FileAnalysis<T, R> analysis, BlockingQueue<LoadedFile> loadedFiles,
+	                                         Results<R> results) {
+		try {
+			LoadedFile loadedFile;
+			while ((loadedFile = loadedFiles.take()) != END_OF_INPUT) {
+				if (results.failed())
+					continue;
+				try {
+					R result = analysis.analyze(loadedFile.file().file(), (T) loadedFile.contents());
+					results.put(loadedFile.file().index(), Objects.requireNonNull(result));
+				} catch (RuntimeException | Error e) {
+					results.fail(e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The files that were not read yet: a window of the next files of the input, from which the biggest one is read
+	 * first, unless the oldest one was overtaken by too many files. The input is read by the I/O threads, one at a
+	 * time, and only as far as the window reaches past the first result that was not consumed yet.
+	 */
+	private static class Schedule {
+		private final Iterator<File> files;
+		private final int window;
+		private final int maxOvertaken;
+		private final Results<?> results;
+		private final TreeSet<ScheduledFile> biggestFirst =
+				new TreeSet<>(Comparator.comparingLong(ScheduledFile::size).reversed()
+						              .thenComparingInt(ScheduledFile::index));
+		private final TreeSet<ScheduledFile> oldestFirst =
+				new TreeSet<>(Comparator.comparingInt(ScheduledFile::index));
+		private int fileCount;
+		private int readCount;
+		private boolean inputEnded;
+
+		Schedule (Iterator<File> files, int window, int maxOvertaken, Results<?> results) {
+			this.files = files;
+			this.window = window;
+			this.maxOvertaken = maxOvertaken;
+			this.results = results;
+		}
+
+		/**
+		 * Waits until a file can be read without getting too far ahead of the consumer.
+		 *
+		 * @return The next file to read, or null if all the files were read, or something failed.
+		 */
+		synchronized ScheduledFile next () throws InterruptedException {
+			while (true) {
+				while (!inputEnded && fileCount < results.consumedCount() + window) {
+					if (files.hasNext()) {
+						File file = files.next();
+						ScheduledFile scheduledFile = new ScheduledFile(fileCount++, file, file.length());
+						results.addFile(scheduledFile);
+						biggestFirst.add(scheduledFile);
+						oldestFirst.add(scheduledFile);
+					} else {
+						inputEnded = true;
+						results.endFiles(fileCount);
+					}
+				}
+				if (!oldestFirst.isEmpty())
+					break;
+				if (inputEnded || !results.awaitConsumed(fileCount - window + 1))
+					return null;
+			}
+			// every file before the oldest one was read, so the rest of the read files came after it
+			ScheduledFile oldest = oldestFirst.first();
+			ScheduledFile next = readCount - oldest.index() >= maxOvertaken ? oldest : biggestFirst.first();
+			readCount++;
+			biggestFirst.remove(next);
+			oldestFirst.remove(next);
+			return next;
+		}
+	}
+
+	/**
+	 * The files of the input and the results of the analysis that have not been consumed yet, or the first failure of
+	 * any of the threads.
+	 */
+	private static class Results<R> {
+		private final Map<Integer, ScheduledFile> files = new HashMap<>();
+		private final Map<Integer, R> results = new HashMap<>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+		private int fileCount = -1;
+		private int consumedCount;
+		private volatile Throwable failure;
+
+		void addFile (ScheduledFile file) {
+			lock.lock();
+			try {
+				files.put(file.index(), file);
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void endFiles (int fileCount) {
+			lock.lock();
+			try {
+				this.fileCount = fileCount;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put (int index, R result) {
+			lock.lock();
+			try {
+				results.put(index, result);
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void fail (Throwable e) {
+			lock.lock();
+			try {
+				if (failure == null)
+					failure = e;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean failed () {
+			return failure != null;
+		}
+
+		/**
+		 * @return The number of results consumed so far, which are the results of the first files.
+		 */
+		int consumedCount () {
+			lock.lock();
+			try {
+				return consumedCount;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until the given number of results were consumed.
+		 *
+		 * @return False if something failed instead.
+		 */
+		boolean awaitConsumed (int count) throws InterruptedException {
+			lock.lock();
+			try {
+				while (consumedCount < count && failure == null)
+					changed.await();
+				return failure == null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until the input gets to the file with the given index and removes it.
+		 *
+		 * @return The file, or null if the input ended before it.
+		 */
+		ScheduledFile takeFile (int index) throws IOException, InterruptedException {
+			lock.lock();
+			try {
+				while (!files.containsKey(index) && fileCount < 0 && failure == null)
+					changed.await();
+				rethrow(failure);
+				return files.remove(index);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits for the result of the file with the given index and removes it.
+		 */
+		R take (int index) throws IOException, InterruptedException {
+			lock.lock();
+			try {
+				while (!results.containsKey(index) && failure == null)
+					changed.await();
+				rethrow(failure);
+				consumedCount = index + 1;
+				changed.signalAll();
+				return results.remove(index);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static void rethrow (Throwable failure) throws IOException {
+		if (failure == null)
+			return;
+		if (failure instanceof IOException e)
+			throw e;
+		if (failure instanceof UncheckedIOException e)
+			throw e.getCause();
+		if (failure instanceof RuntimeException e)
+			throw e;
+		if (failure instanceof Error e)
+			throw e;
+		throw new IOException(failure);
+	}
+}
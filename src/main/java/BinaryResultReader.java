@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the results written by {@link BinaryResultWriter} back into a {@link MetricsStore}.
+ */
+public class BinaryResultReader {
+	private BinaryResultReader () {
+	}
+
+	/**
+	 * Reads all the results of a stream.
+	 *
+	 * @param input The stream, read up to the end marker, but not closed.
+	 * @return The results, the files in the order they were written.
+	 * @throws IOException If the stream could not be read, or is not in the binary format.
+	 */
+	public static MetricsStore read (InputStream input) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+		byte[] magic = new byte[BinaryResultWriter.MAGIC.length];
+		data.readFully(magic);
+		if (!Arrays.equals(magic, BinaryResultWriter.MAGIC))
+			throw new IOException("Not a binary result stream");
+		int version = data.readUnsignedByte();
+		if (version != BinaryResultWriter.VERSION)
+			throw new IOException("Unsupported version of the binary result format: " + version);
+
+		MetricsStore results = new MetricsStore();
+		List<String> names = new ArrayList<>();
+		while (readVarint(data) != 0) {
+			String filePath = readString(data);
+			int functionCount = readVarint(data);
+			List<FunctionMetrics> functions = new ArrayList<>(functionCount);
+			for (int i = 0; i < functionCount; i++) {
+				int nameId = readVarint(data);
+				if (nameId == names.size())
+					names.add(readString(data));
+				else if (nameId > names.size())
+					throw new IOException("Name " + nameId + " used before it was defined");
+				functions.add(new FunctionMetrics(names.get(nameId), readVarint(data), readVarint(data),
+				                                  readVarint(data), data.readLong()));
+			}
+			results.addFile(filePath, functions);
+		}
+		return results;
+	}
+
+	private static int readVarint (DataInputStream data) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = data.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static String readString (DataInputStream data) throws IOException {
+		int length = readVarint(data);
+		if (length < 0)
+			throw new IOException("Malformed string length");
+		byte[] bytes = new byte[length];
+		data.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes the results in a compact length-prefixed binary format, read back by {@link BinaryResultReader}.
+ * <p>
+ * All the numbers are unsigned LEB128 varints (7 bits per byte, the lowest first), so small numbers, which most
+ * complexities and lengths are, take a single byte. Strings are the varint length of their UTF-8 bytes followed by
+ * the bytes. The stream is:
+ * <pre>
+ * "CMER" version(byte)
+ * for each file: recordLength path functionCount function*
+ * 0
+ * </pre>
+ * where the record length is the number of bytes of the rest of the record, so a reader can skip files, and every
+ * function is {@code nameId [name] complexity length styleViolations bodyHash}, the body hash being 8 bytes, the
+ * highest first. Function names are defined in the stream the first time they're used: a name id equal to the number
+ * of names defined so far is followed by the new name, smaller ids refer to names defined before. The 0 marks the end
+ * of the stream.
+ * <p>
+ * Each file record is encoded into a reused buffer, so writing the results doesn't allocate anything except for the
+ * first use of a name.
+ */
+public class BinaryResultWriter implements ResultWriter {
+	static final byte[] MAGIC = {'C', 'M', 'E', 'R'};
+	static final int VERSION = 2;
+
+	private final OutputStream output;
+	private byte[] record = new byte[1 << 12];
+	private int recordLength;
+	private final byte[] prefix = new byte[5];
+	private boolean headerWritten;
+
+	/**
+	 * The store whose name ids are mapped to the ids of the names in the stream.
+	 */
+	private MetricsStore mappedResults;
+	/**
+	 * The id in the stream of each name id of the mapped store plus 1, 0 if the name was not defined yet.
+	 */
+	private int[] streamNameIds = new int[0];
+	private int namesDefined;
+
+	/**
+	 * @param output The stream to write the results to, it's flushed at the end, but not closed.
+	 */
+	public BinaryResultWriter (OutputStream output) {
+		this.output = output;
+	}
+
+	@Override
+	public void writeFile (MetricsStore results, int file) throws IOException {
+		writeHeader();
+		if (results != mappedResults) {
+			// the name ids of another store mean different names, so they are defined in the stream again
+			mappedResults = results;
+			Arrays.fill(streamNameIds, 0);
+		}
+		if (streamNameIds.length < results.nameCount())
+			streamNameIds = Arrays.copyOf(streamNameIds, Math.max(results.nameCount(), streamNameIds.length * 2));
+
+		recordLength = 0;
+		putString(results.filePath(file));
+		putVarint(results.functionCount(file));
+		for (int function = results.firstFunction(file); function < results.endFunction(file); function++) {
+			int nameId = results.nameId(function);
+			if (streamNameIds[nameId] == 0) {
+				streamNameIds[nameId] = ++namesDefined;
+				putVarint(namesDefined - 1);
+				putString(results.nameOf(nameId));
+			} else {
+				putVarint(streamNameIds[nameId] - 1);
+			}
+			putVarint(results.complexity(function));
+			putVarint(results.length(function));
+			putVarint(results.styleViolations(function));
+			putLong(results.bodyHash(function));
+		}
+
+		output.write(prefix, 0, encodeVarint(recordLength, prefix, 0));
+		output.write(record, 0, recordLength);
+	}
+
+	@Override
+	public void finish (MetricsStore results) throws IOException {
+		writeHeader();
+		output.write(0);
+		output.flush();
+	}
+
+	private void writeHeader () throws IOException {
+		if (headerWritten)
+			return;
+		output.write(MAGIC);
+		output.write(VERSION);
+		headerWritten = true;
+	}
+
+	private void putVarint (int value) {
+		ensureCapacity(5);
+		recordLength = encodeVarint(value, record, recordLength);
+	}
+
+	private void putLong (long value) {
+		ensureCapacity(8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			record[recordLength++] = (byte) (value >>> shift);
+	}
+
+	/**
+	 * Encodes the string in UTF-8 straight into the record, unpaired surrogates become '?'.
+	 */
+	private void putString (String text) {
+		int utf8Length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80)
+				utf8Length++;
+			else if (c < 0x800)
+				utf8Length += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+					         Character.isLowSurrogate(text.charAt(i + 1))) {
+				utf8Length += 4;
+				i++;
+			} else
+				utf8Length += Character.isSurrogate(c) ? 1 : 3;
+		}
+		putVarint(utf8Length);
+		ensureCapacity(utf8Length);
+
+		byte[] bytes = record;
+		int position = recordLength;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xc0 | c >> 6);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+					           Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				bytes[position++] = (byte) (0xf0 | codePoint >> 18);
+				bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				bytes[position++] = (byte) (0x80 | codePoint & 0x3f);
+			} else if (Character.isSurrogate(c)) {
+				bytes[position++] = '?';
+			} else {
+				bytes[position++] = (byte) (0xe0 | c >> 12);
+				bytes[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+				bytes[position++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		recordLength = position;
+	}
+
+	private void ensureCapacity (int bytes) {
+		if (recordLength + bytes > record.length)
+			record = Arrays.copyOf(record, Math.max(recordLength + bytes, record.length * 2));
+	}
+
+	/**
+	 * Encodes the value as an unsigned varint.
+	 *
+	 * @return The position after the encoded value.
+	 */
+	private static int encodeVarint (int value, byte[] bytes, int position) {
+		while ((value & ~0x7f) != 0) {
+			bytes[position++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		bytes[position++] = (byte) value;
+		return position;
+	}
+}
@@ -1,6 +1,31 @@
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility class for analyzing code complexity and style in a directory of Java or Kotlin files.
@@ -8,12 +33,89 @@ import java.util.List;
 public class CodeAnalyzer {
 	//maybe add a possibility to set flags, as to what kind of checks do we want to be performed?
 	//so the fields would be flags set
+	private final String directoryPath;
 	private final FileReader fileReader;
 	private final int numOfResults;
+	private final int parallelism;
+	private Path cacheDirectory;
+	private ResultCache resultCache;
+	private MetricScanner metricScanner;
+	private ExecutorService pipelineExecutor;
+	private Path metricsFile;
+	private Path recordingFile;
+	private Path snapshotFile;
+	private Leaderboard leaderboard;
+	private ComplexityRules complexityRules = ComplexityRules.DEFAULT;
+	private Set<Metric> metrics = Metric.DEFAULTS;
+	private Duration fileTimeBudget;
+	private final Set<String> quarantinedFiles = new ConcurrentSkipListSet<>();
+	/**
+	 * How many of the contents analyzed last are remembered in an analysis of a directory, to share their results
+	 * with copies at other paths.
+	 */
+	static final int SHARED_CONTENTS_LIMIT = 1024;
+
+	/**
+	 * The results of the contents analyzed last in the current analysis of the directory, so that copies of the
+	 * same contents at other paths are not analyzed again. Only the last {@link #sharedContentsLimit} are kept, so the
+	 * memory they take doesn't grow with the size of the directory: the copies of a file are usually close to it in
+	 * the walk, e.g. in a copied directory, the ones further away are analyzed again. Emptied at the end of the
+	 * analysis. Guarded by itself.
+	 */
+	private final Map<ContentKey, CompletableFuture<SharedResults>> analyzedContents =
+			new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry (Map.Entry<ContentKey, CompletableFuture<SharedResults>> eldest) {
+					return size() > sharedContentsLimit;
+				}
+			};
+	private int sharedContentsLimit = SHARED_CONTENTS_LIMIT;
+	private final AtomicInteger readFiles = new AtomicInteger();
+	private final AtomicInteger duplicateFiles = new AtomicInteger();
+	private final AtomicLong duplicateBytes = new AtomicLong();
+	private String baseRevision;
+	private String headRevision;
+	private boolean compareWithBase;
+	private boolean retainResults;
+	private MetricsStore results;
+	private MetricsStore baseResults;
+
+	private static final int SLOWEST_FILES_TRACKED = 10;
 
 	private static String ANSI_YELLOW = "\u001B[33m";
 	private static String ANSI_RESET = "\u001B[0m";
 	private static String ANSI_RED = "\u001B[31m";
+
+	/**
+	 * A file loaded for analysis: either its contents, or its results found in the cache.
+	 * The time it took to load it is only measured while the {@link Instrumentation} is active.
+	 */
+	private record LoadedFile(SourceText contents, long size, long lastModified, long contentHash,
+	                          List<FunctionMetrics> cachedFunctions, long loadNanos) {}
+
+	/**
+	 * Identifies the contents of a file. The same bytes are analyzed differently as Java and as Kotlin, so the
+	 * language is a part of it, and so is the size, which makes a collision of the hashes even less likely.
+	 */
+	private record ContentKey(long contentHash, long size, String fileType) {}
+
+	/**
+	 * The results of analyzing some contents, shared by every file with the same contents.
+	 *
+	 * @param path      The path of the file the contents were analyzed as.
+	 * @param functions The results of analyzing the functions.
+	 */
+	private record SharedResults(String path, List<FunctionMetrics> functions) {}
+
+	/**
+	 * How many of the read files were copies of files analyzed before, in an analysis of a directory.
+	 *
+	 * @param readFiles      The number of files that were read, as opposed to found in the result cache.
+	 * @param duplicateFiles The number of read files whose contents were already analyzed at another path.
+	 * @param duplicateBytes The total size of the duplicate files.
+	 */
+	public record DeduplicationStats(int readFiles, int duplicateFiles, long duplicateBytes) {}
+
 	/**
 	 * Constructs a CodeAnalyzer object with the specified directory path and number of results to display.
 	 *
@@ -21,100 +123,884 @@ public class CodeAnalyzer {
 	 * @param numOfResults  The number of results to display for code complexity analysis.
 	 */
 	public CodeAnalyzer (String directoryPath, int numOfResults) {
+		this(directoryPath, numOfResults, 1);
+	}
+
+	/**
+	 * Constructs a CodeAnalyzer object that analyzes several files at the same time.
+	 *
+	 * @param directoryPath The path to the directory containing Java or Kotlin files.
+	 * @param numOfResults  The number of results to display for code complexity analysis.
+	 * @param parallelism   The number of files analyzed at the same time, 1 means the files are analyzed sequentially.
+	 * @throws IllegalArgumentException If parallelism is smaller than 1.
+	 */
+	public CodeAnalyzer (String directoryPath, int numOfResults, int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism has to be at least 1");
+		this.directoryPath = directoryPath;
 		this.fileReader = new FileReader(directoryPath);
 		this.numOfResults = numOfResults;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Turns on the persistent {@link ResultCache}, so that files that did not change since the previous analysis
+	 * using the same cache directory are not analyzed again.
+	 *
+	 * @param cacheDirectory The directory of the cache, or null to turn the cache off.
+	 */
+	public void setCacheDirectory (Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Uses the given cache instead of loading one from the cache directory and saving it after every analysis, e.g.
+	 * one kept in memory across many analyses, which its owner saves. It must be the cache of the results of the
+	 * same metrics and complexity rules.
+	 *
+	 * @param resultCache The cache, or null to use the cache directory.
+	 */
+	public void setResultCache (ResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Measures the functions with the given scanner, and its metrics and complexity rules, instead of a scanner
+	 * created for every analysis, e.g. to keep the visitors of its threads warm across many analyses.
+	 *
+	 * @param metricScanner The scanner.
+	 */
+	public void setMetricScanner (MetricScanner metricScanner) {
+		this.metricScanner = metricScanner;
+		this.metrics = metricScanner.metrics();
+		this.complexityRules = metricScanner.rules();
+	}
+
+	/**
+	 * Runs the threads of the {@link AnalysisPipeline} on the given executor instead of pools started for every
+	 * analysis, e.g. to keep the threads across many analyses. It must not limit the number of its threads.
+	 *
+	 * @param pipelineExecutor The executor, or null to start pools for every analysis.
+	 */
+	public void setPipelineExecutor (ExecutorService pipelineExecutor) {
+		this.pipelineExecutor = pipelineExecutor;
+	}
+
+	/**
+	 * Turns on the {@link Instrumentation} while analyzing the directory, and writes a JSON summary of the time
+	 * spent in each stage of the analysis and of the slowest files to the given file at the end of the analysis.
+	 * The instrumentation is global, so the analyses running at the same time are measured together.
+	 *
+	 * @param metricsFile The file to write the summary to, or null to turn the instrumentation off.
+	 */
+	public void setMetricsFile (Path metricsFile) {
+		this.metricsFile = metricsFile;
+	}
+
+	/**
+	 * Ranks the functions of the whole directory on the given leaderboard, and appends the leaderboard to the end
+	 * of the report. The leaderboard can also be read after the analysis.
+	 *
+	 * @param leaderboard The leaderboard, or null to not rank the functions.
+	 */
+	public void setLeaderboard (Leaderboard leaderboard) {
+		this.leaderboard = leaderboard;
+	}
+
+	/**
+	 * Records the analysis of the directory with Java Flight Recorder, including the {@link AnalysisEvents}, and dumps
+	 * the recording to the given file at the end of the analysis (or when the JVM exits, if it never ends).
+	 *
+	 * @param recordingFile The .jfr file to dump the recording to, or null to not record.
+	 */
+	public void setRecordingFile (Path recordingFile) {
+		this.recordingFile = recordingFile;
+	}
+
+	/**
+	 * Saves the results of every function as a {@link MetricsSnapshot} at the end of the analysis, to be queried or
+	 * compared with other snapshots later, without analyzing the directory again.
+	 *
+	 * @param snapshotFile The file to save the snapshot to, or null to not save it.
+	 */
+	public void setSnapshotFile (Path snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Counts the decision points with the given rules instead of the default ones, e.g. the ones loaded from a config
+	 * file with {@link ComplexityRules#load(Path)}. Results cached with other rules are not used.
+	 *
+	 * @param complexityRules The rules.
+	 */
+	public void setComplexityRules (ComplexityRules complexityRules) {
+		this.complexityRules = complexityRules;
+		this.metricScanner = null;
+	}
+
+	/**
+	 * Measures the given metrics of every function instead of the {@link Metric#DEFAULTS}, all of them in a single
+	 * scan of the function. The results always include the default metrics (as 0 if they are not measured), the
+	 * machine-readable formats include the other measured metrics too, and the report shows their maximums per file.
+	 * Results cached with other metrics are not used.
+	 *
+	 * @param metrics The metrics to measure.
+	 */
+	public void setMetrics (Set<Metric> metrics) {
+		this.metrics = Set.copyOf(metrics);
+		this.metricScanner = null;
+	}
+
+	/**
+	 * Gives the analysis of each file a time budget, so that a file the signature regexes backtrack on for minutes,
+	 * e.g. a minified one, can't stall the whole run. Once a file is over the budget, it's quarantined: its functions
+	 * are extracted again by {@link FileReader#extractFunctionsLinearly}, which takes linear time on any input, and
+	 * it's listed at the end of the report (see {@link #getQuarantinedFiles()}). The results of quarantined files are
+	 * not cached, so they're tried again the next time.
+	 *
+	 * @param fileTimeBudget The budget of a file, or null for no budget, which is the default.
+	 */
+	public void setFileTimeBudget (Duration fileTimeBudget) {
+		this.fileTimeBudget = fileTimeBudget;
+	}
+
+	/**
+	 * Leaves out the files and directories matching the given patterns (in the {@code .gitignore} syntax, relative to
+	 * the analyzed directory) instead of the {@link DirectoryWalker#DEFAULT_EXCLUDES} and the build output directories
+	 * next to build files.
+	 *
+	 * @param excludes The patterns, or an empty list to analyze everything.
+	 */
+	public void setExcludes (List<String> excludes) {
+		fileReader.getDirectoryWalker().setExcludes(excludes);
+	}
+
+	/**
+	 * @param useGitignore Whether to leave out the files matching the {@code .gitignore} files in the directory,
+	 *                     which is the default.
+	 */
+	public void setUseGitignore (boolean useGitignore) {
+		fileReader.getDirectoryWalker().setGitignore(useGitignore);
+	}
+
+	/**
+	 * @param skipGeneratedFiles Whether to leave out the files whose header says they were generated, which is the
+	 *                           default.
+	 */
+	public void setSkipGeneratedFiles (boolean skipGeneratedFiles) {
+		fileReader.getDirectoryWalker().setSkipGenerated(skipGeneratedFiles);
+	}
+
+	/**
+	 * Analyzes only the Java and Kotlin files that changed between two git revisions, as the local {@code git}
+	 * reports them, instead of every file in the directory. The head revision is read straight from git, without
+	 * checking it out (and without the result cache, which knows only the files on the disk).
+	 * <p>
+	 * Optionally, the changed files are analyzed as they were in the base revision too, and the report ends with the
+	 * complexity change of every function since then, see {@link SnapshotDiff#writeReport}.
+	 *
+	 * @param baseRevision    The old revision, e.g. "main", or null to analyze every file again.
+	 * @param headRevision    The new revision, or null to analyze the files in the directory.
+	 * @param compareWithBase Whether to analyze the base revision of the changed files too.
+	 */
+	public void setChangedFilesOnly (String baseRevision, String headRevision, boolean compareWithBase) {
+		this.baseRevision = baseRevision;
+		this.headRevision = headRevision;
+		this.compareWithBase = compareWithBase;
+	}
+
+	/**
+	 * Keeps the results of every file of the analysis in a {@link MetricsStore}, to be read with
+	 * {@link #getResults()} afterwards. Otherwise the results of a file are dropped as soon as they are written, so
+	 * the memory the analysis takes doesn't grow with the size of the directory, unless a
+	 * {@link #setSnapshotFile snapshot} or the {@link #setChangedFilesOnly comparison with a base revision} needs
+	 * all of them anyway.
+	 *
+	 * @param retainResults Whether to keep the results of every file, false by default.
+	 */
+	public void setRetainResults (boolean retainResults) {
+		this.retainResults = retainResults;
+	}
+
+	/**
+	 * @return The results of the last analysis of the directory, the files in the order of the report, or null if
+	 * the directory was not analyzed yet, or the results were not {@link #setRetainResults retained}.
+	 */
+	public MetricsStore getResults () {
+		return results;
+	}
+
+	/**
+	 * @return The paths of the files that were over the time budget in the last analysis of the directory, sorted.
+	 * @see #setFileTimeBudget(Duration)
+	 */
+	public List<String> getQuarantinedFiles () {
+		return List.copyOf(quarantinedFiles);
+	}
+
+	/**
+	 * @return How many files of the last analysis of the directory had the same contents as other files, and were not
+	 * analyzed again. The report lists every one of them as usual, the statistics are only summarized here and in the
+	 * summary of the {@link #setMetricsFile metrics file}.
+	 */
+	public DeduplicationStats getDeduplicationStats () {
+		return new DeduplicationStats(readFiles.get(), duplicateFiles.get(), duplicateBytes.get());
+	}
+
+	/**
+	 * @param sharedContentsLimit How many of the contents analyzed last are remembered for their copies, see
+	 *                            {@link #SHARED_CONTENTS_LIMIT}.
+	 */
+	void setSharedContentsLimit (int sharedContentsLimit) {
+		this.sharedContentsLimit = sharedContentsLimit;
+	}
+
+	/**
+	 * @return How many analyzed contents are remembered for their copies right now.
+	 */
+	int sharedContentCount () {
+		synchronized (analyzedContents) {
+			return analyzedContents.size();
+		}
+	}
+
+	/**
+	 * @return The results of the changed files in the base revision, of the last analysis of the directory that
+	 * compared them with the base revision, or null if it did not.
+	 * @see #setChangedFilesOnly(String, String, boolean)
+	 */
+	public MetricsStore getBaseResults () {
+		return baseResults;
 	}
 
 
 	/**
 	 * Analyzes the code complexity and style of each file in the specified directory.
+	 * The report is the same regardless of the parallelism level, files always appear in the same order.
 	 *
 	 * @return A string containing the analysis results.
 	 */
 	public String analyzeDirectory () throws IOException, SecurityException {
-		StringBuilder stringBuilder = new StringBuilder();
-		String fileName = fileReader.getNextFileName();
-		if(fileName == null)
-			stringBuilder.append(ANSI_RED+"No files to analyze in the provided directory."+ANSI_RESET);
-		while (fileName != null) {
-			stringBuilder.append(ANSI_YELLOW + String.format("Code analysis of file %s:\n", fileName) + ANSI_RESET);
-			stringBuilder.append(analyzeFile(fileName.endsWith(".java") ? "java": "kotlin"));
-			stringBuilder.append("\n");
-			fileName = fileReader.getNextFileName();
+		StringWriter report = new StringWriter();
+		analyzeDirectory(report, true);
+		return report.toString();
+	}
+
+	/**
+	 * Analyzes the code complexity and style of each file in the specified directory, writing the report
+	 * to the given stream in UTF-8. The stream is flushed, but not closed.
+	 *
+	 * @param output      The stream to write the report to.
+	 * @param ansiColours Whether the report should be coloured with ANSI escape codes.
+	 */
+	public void analyzeDirectory (OutputStream output, boolean ansiColours) throws IOException, SecurityException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+		analyzeDirectory(writer, ansiColours);
+		writer.flush();
+	}
+
+	/**
+	 * Analyzes the code complexity and style of each file in the specified directory, writing the report section
+	 * of each file to the given writer (and flushing it) as soon as the file is analyzed.
+	 * Only the results of the files not written yet are kept in memory, never the whole report, unless the results
+	 * of all the files are {@link #setRetainResults retained}.
+	 *
+	 * @param output      The writer to write the report to.
+	 * @param ansiColours Whether the report should be coloured with ANSI escape codes.
+	 */
+	public void analyzeDirectory (Writer output, boolean ansiColours) throws IOException, SecurityException {
+		analyzeDirectory(new TextReport(output, ansiColours));
+	}
+
+	/**
+	 * Analyzes the code complexity and style of each file in the specified directory, writing the results of each
+	 * file in a machine-readable format to the given stream as soon as the file is analyzed. The stream is flushed,
+	 * but not closed.
+	 *
+	 * @param output The stream to write the results to.
+	 * @param format The format of the results.
+	 */
+	public void analyzeDirectory (OutputStream output, ResultFormat format) throws IOException, SecurityException {
+		analyzeDirectory(format.open(output));
+	}
+
+	/**
+	 * Analyzes the code complexity and style of each file in the specified directory, passing the results of each
+	 * file to the given writer as soon as the file is analyzed, in the same order as in the report.
+	 *
+	 * @param resultWriter The writer of the results.
+	 */
+	public void analyzeDirectory (ResultWriter resultWriter) throws IOException, SecurityException {
+		Instrumentation instrumentation = metricsFile == null ? null : Instrumentation.enable(SLOWEST_FILES_TRACKED);
+		Recording recording = recordingFile == null ? null : startRecording(recordingFile);
+		try {
+			analyzeFiles(resultWriter);
+		} finally {
+			if (instrumentation != null)
+				Instrumentation.disable();
+			if (recording != null)
+				recording.close();
+		}
+		if (snapshotFile != null)
+			MetricsSnapshot.write(results, Path.of(directoryPath), snapshotFile);
+		if (instrumentation != null)
+			Files.writeString(metricsFile, instrumentation.snapshot().toJson());
+	}
+
+	/**
+	 * Starts a flight recording with the JDK profiling settings, which is written to the given file when it's
+	 * closed.
+	 */
+	private static Recording startRecording (Path recordingFile) throws IOException {
+		Recording recording;
+		try {
+			recording = new Recording(Configuration.getConfiguration("profile"));
+		} catch (ParseException e) {
+			throw new IOException("The JDK profiling settings are broken", e);
+		}
+		recording.setName("Code analysis");
+		recording.setDestination(recordingFile);
+		recording.setDumpOnExit(true);
+		recording.start();
+		return recording;
+	}
+
+	/**
+	 * @return The scanner given to the analyzer, or else a new one of its metrics and complexity rules.
+	 */
+	private MetricScanner metricScanner () {
+		return metricScanner != null ? metricScanner : new MetricScanner(metrics, complexityRules);
+	}
+
+	private void analyzeFiles (ResultWriter resultWriter) throws IOException {
+		MetricScanner scanner = metricScanner();
+		MetricsStore store = new MetricsStore(metrics);
+		results = retainResults || snapshotFile != null || compareWithBase ? store : null;
+		baseResults = null;
+		quarantinedFiles.clear();
+		readFiles.set(0);
+		duplicateFiles.set(0);
+		duplicateBytes.set(0);
+		try {
+			analyzeFiles(scanner, store, resultWriter);
+		} finally {
+			synchronized (analyzedContents) {
+				analyzedContents.clear();
+			}
 		}
-		return stringBuilder.toString();
+	}
+
+	private void analyzeFiles (MetricScanner scanner, MetricsStore store, ResultWriter resultWriter)
+			throws IOException {
+		if (baseRevision == null) {
+			// closed if the analysis fails before the end of the walk, to stop the listings ahead of it
+			try (DirectoryWalker.Walk files = fileReader.walkAnalysableFiles()) {
+				if (files.hasNext()) {
+					ResultCache loadedCache = resultCache != null || cacheDirectory == null ? null
+					                          : ResultCache.load(cacheDirectory, scanner.fingerprint());
+					ResultCache cache = resultCache != null ? resultCache : loadedCache;
+					analyzeFiles(files, file -> loadFile(file, cache), cache, scanner, store, resultWriter);
+					if (loadedCache != null)
+						loadedCache.save();
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			resultWriter.finish(store);
+			return;
+		}
+
+		GitRepository repository = new GitRepository(Path.of(directoryPath));
+		List<GitRepository.Change> changes = repository.changedFiles(baseRevision, headRevision);
+		List<File> files = changes.stream()
+				                   .filter(change -> change.type() != GitRepository.ChangeType.DELETED)
+				                   .map(change -> new File(directoryPath, change.path()))
+				                   .toList();
+		try (GitRepository.BlobReader blobReader =
+				     headRevision == null && !compareWithBase ? null : repository.openBlobReader()) {
+			if (headRevision == null)
+				analyzeFiles(files.iterator(), file -> loadFile(file, null), null, scanner, store, resultWriter);
+			else
+				analyzeFiles(files.iterator(), file -> loadBlob(blobReader, headRevision, file), null, scanner, store,
+				             resultWriter);
+			if (compareWithBase)
+				baseResults = analyzeBase(blobReader, changes, scanner);
+		}
+		resultWriter.finish(store);
 	}
 
 	/**
-	 * Analyzes the code complexity and style of each (analyzable) file in the specified directory.
+	 * Analyzes the files as they come, on several threads if the parallelism is bigger than 1, passing the results of
+	 * each file to the writer in the order of the files. Unless the results are retained, the store holds just the
+	 * file being written.
+	 */
+	private void analyzeFiles (Iterator<File> files, AnalysisPipeline.FileLoader<LoadedFile> loader,
+	                           ResultCache resultCache, MetricScanner scanner, MetricsStore store,
+	                           ResultWriter resultWriter) throws IOException {
+		if (parallelism > 1) {
+			AnalysisPipeline pipeline = pipelineExecutor == null ? new AnalysisPipeline(parallelism)
+			                            : new AnalysisPipeline(parallelism, pipelineExecutor);
+			pipeline.run(
+					files,
+					loader,
+					(file, loadedFile) -> analyzeFile(file, loadedFile, resultCache, leaderboard, scanner),
+					(file, functions) -> writeFile(file, functions, store, resultWriter));
+		} else {
+			while (files.hasNext()) {
+				File file = files.next();
+				List<FunctionMetrics> functions = analyzeFile(file, loader.load(file), resultCache, leaderboard,
+				                                              scanner);
+				writeFile(file, functions, store, resultWriter);
+			}
+		}
+	}
+
+	private void writeFile (File file, List<FunctionMetrics> functions, MetricsStore store, ResultWriter resultWriter)
+			throws IOException {
+		resultWriter.writeFile(store, store.addFile(file.getPath(), functions));
+		if (store != results)
+			store.clear();
+	}
+
+	/**
+	 * Analyzes the changed files as they were in the base revision, except for the added ones. Their paths are the
+	 * same as those of the analyzed files, so the results can be compared.
+	 */
+	private MetricsStore analyzeBase (GitRepository.BlobReader blobReader, List<GitRepository.Change> changes,
+	                                  MetricScanner scanner) throws IOException {
+		MetricsStore store = new MetricsStore(metrics);
+		for (GitRepository.Change change : changes) {
+			if (change.type() == GitRepository.ChangeType.ADDED)
+				continue;
+			byte[] contents = blobReader.read(baseRevision, change.path());
+			if (contents == null)
+				continue;
+			String path = new File(directoryPath, change.path()).getPath();
+			store.addFile(path, measureFunctions(path, SourceText.of(contents), getFileType(change.path()), scanner));
+		}
+		return store;
+	}
+
+	/**
+	 * Analyzes all the files in the specified directory, then keeps watching the directory and writes the report
+	 * section of every file again, whenever the file changes. Only the functions that changed are analyzed again.
+	 * The files that can't be read are reported, and watching goes on. Runs until the thread is interrupted.
 	 *
-	 * @return A string containing the analysis results.
+	 * @param output      The writer to write the reports to.
+	 * @param ansiColours Whether the reports should be coloured with ANSI escape codes.
+	 * @throws IOException If the directory could not be watched, or the writer failed.
 	 */
-	private String analyzeFile (String fileType) {
-		List<Function> functionsToAnalyze = new ArrayList<>();
-		Function functionToAnalyze = fileReader.getNextFunction();
+	public void watchDirectory (Writer output, boolean ansiColours) throws IOException {
+		TextReport report = new TextReport(output, ansiColours);
+		DirectoryWatcher.Listener listener = new DirectoryWatcher.Listener() {
+			@Override
+			public void fileAnalyzed (Path file, List<FunctionMetrics> functions) throws IOException {
+				MetricsStore store = new MetricsStore(metrics);
+				report.writeFile(store, store.addFile(file.toString(), functions));
+			}
+
+			@Override
+			public void fileDeleted (Path file) throws IOException {
+				output.write(colour(String.format("File %s was deleted.\n\n", file.getFileName()), ANSI_RED,
+				                    ansiColours));
+				output.flush();
+			}
 
-		while (functionToAnalyze != null) {
-			functionsToAnalyze.add(functionToAnalyze);
-			functionToAnalyze = fileReader.getNextFunction();
+			@Override
+			public void pathFailed (Path path, IOException error) throws IOException {
+				output.write(colour(String.format("Could not analyze %s: %s\n\n", path, error), ANSI_RED,
+				                    ansiColours));
+				output.flush();
+			}
+		};
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(Path.of(directoryPath), 200, listener)) {
+			directoryWatcher.setMetricScanner(metricScanner());
+			directoryWatcher.setDirectoryWalker(fileReader.getDirectoryWalker());
+			directoryWatcher.run();
 		}
+	}
 
-		StringBuilder stringBuilder = new StringBuilder();
+	/**
+	 * Loads a file for analysis. If the file did not change since it was cached, it's not even read.
+	 * Reading the file maps it into memory and scans it, so on the I/O threads of the {@link AnalysisPipeline}
+	 * the file is really read from the disk before it's analyzed.
+	 *
+	 * @param file        The file to load.
+	 * @param resultCache The cache of results, or null if there is no cache.
+	 * @return The loaded file.
+	 * @throws IOException If the file could not be read.
+	 */
+	private static LoadedFile loadFile (File file, ResultCache resultCache) throws IOException {
+		long start = Instrumentation.start();
+		Path path = file.toPath();
+		if (resultCache == null) {
+			SourceText contents = SourceText.read(path);
+			return new LoadedFile(contents, contents.bytes().remaining(), 0, contents.contentHash(), null,
+			                      Instrumentation.elapsedSince(start));
+		}
 
-		stringBuilder.append(generateCodeComplexityReport(functionsToAnalyze, numOfResults, fileType));
-		stringBuilder.append(generateCodeStyleReport(functionsToAnalyze));
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		List<FunctionMetrics> cachedFunctions = resultCache.lookup(path, attributes.size(), lastModified);
+		if (cachedFunctions != null)
+			return new LoadedFile(null, attributes.size(), lastModified, 0, cachedFunctions,
+			                      Instrumentation.elapsedSince(start));
 
+		SourceText contents = SourceText.read(path);
+		long size = contents.bytes().remaining();
+		long contentHash = contents.contentHash();
+		cachedFunctions = resultCache.lookup(path, size, lastModified, contentHash);
+		return new LoadedFile(cachedFunctions == null ? contents : null, size, lastModified, contentHash,
+		                      cachedFunctions, Instrumentation.elapsedSince(start));
+	}
+
+	/**
+	 * Loads a file for analysis as it is in a git revision.
+	 *
+	 * @param blobReader The reader of the files in the repository.
+	 * @param revision   The revision.
+	 * @param file       The file to load.
+	 * @return The loaded file.
+	 * @throws IOException If the file is not in the revision, or could not be read.
+	 */
+	private LoadedFile loadBlob (GitRepository.BlobReader blobReader, String revision, File file) throws IOException {
+		long start = Instrumentation.start();
+		String path = Path.of(directoryPath).relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+		byte[] contents = blobReader.read(revision, path);
+		if (contents == null)
+			throw new IOException(path + " is not in " + revision);
+		Instrumentation.stop(Instrumentation.Stage.READ, start, contents.length);
+		SourceText sourceText = SourceText.of(contents);
+		return new LoadedFile(sourceText, contents.length, 0, sourceText.contentHash(), null,
+		                      Instrumentation.elapsedSince(start));
+	}
+
+	/**
+	 * Analyzes the code complexity and style of each function of a loaded file, unless its results were cached, or
+	 * the same contents were already analyzed at another path.
+	 *
+	 * @param file        The analyzed file.
+	 * @param loadedFile  The loaded file.
+	 * @param resultCache The cache of results to store the results in, or null if there is no cache.
+	 * @param leaderboard The leaderboard to rank the functions on, or null if there is none.
+	 * @param scanner     The scanner measuring the functions.
+	 * @return The results of analyzing the functions of the file.
+	 */
+	private List<FunctionMetrics> analyzeFile (File file, LoadedFile loadedFile, ResultCache resultCache,
+	                                           Leaderboard leaderboard, MetricScanner scanner) {
+		long start = Instrumentation.start();
+		AnalysisEvents.FileAnalysis event = AnalysisEvents.recording() ? new AnalysisEvents.FileAnalysis() : null;
+		if (event != null)
+			event.begin();
+		List<FunctionMetrics> functionMetrics = loadedFile.cachedFunctions();
+		if (functionMetrics == null) {
+			functionMetrics = measureContents(file, loadedFile, scanner);
+
+			if (resultCache != null && !quarantinedFiles.contains(file.getPath()))
+				resultCache.store(file.toPath(), loadedFile.size(), loadedFile.lastModified(),
+				                  loadedFile.contentHash(), functionMetrics);
+		}
+
+		if (leaderboard != null)
+			leaderboard.add(file.getPath(), functionMetrics);
+		Instrumentation.fileAnalyzed(file.getPath(), loadedFile.loadNanos() + Instrumentation.elapsedSince(start),
+		                             loadedFile.size(), functionMetrics.size());
+		if (event != null && event.shouldCommit()) {
+			event.path = file.getPath();
+			event.size = loadedFile.size();
+			event.functionCount = functionMetrics.size();
+			event.cached = loadedFile.cachedFunctions() != null;
+			event.commit();
+		}
+		return functionMetrics;
+	}
+
+	/**
+	 * Measures the functions of a read file, unless a file with the same contents was already measured (or is being
+	 * measured on another thread, which is then waited for): its results are then shared, and the file is quarantined
+	 * if that file was.
+	 *
+	 * @param file       The analyzed file.
+	 * @param loadedFile The read file.
+	 * @param scanner    The scanner measuring the functions.
+	 * @return The results of analyzing the functions of the file, possibly the same list as of other files.
+	 */
+	private List<FunctionMetrics> measureContents (File file, LoadedFile loadedFile, MetricScanner scanner) {
+		readFiles.incrementAndGet();
+		String fileType = getFileType(file.getName());
+		ContentKey key = new ContentKey(loadedFile.contentHash(), loadedFile.size(), fileType);
+		CompletableFuture<SharedResults> analysis = new CompletableFuture<>();
+		CompletableFuture<SharedResults> previousAnalysis;
+		synchronized (analyzedContents) {
+			previousAnalysis = analyzedContents.putIfAbsent(key, analysis);
+		}
+		if (previousAnalysis == null) {
+			try {
+				List<FunctionMetrics> functions = measureFunctions(file.getPath(), loadedFile.contents(), fileType,
+				                                                   scanner);
+				analysis.complete(new SharedResults(file.getPath(), functions));
+				return functions;
+			} catch (RuntimeException | Error e) {
+				analysis.completeExceptionally(e);
+				throw e;
+			}
+		}
+
+		SharedResults sharedResults = previousAnalysis.join();
+		duplicateFiles.incrementAndGet();
+		duplicateBytes.addAndGet(loadedFile.size());
+		Instrumentation.fileDeduplicated(loadedFile.size());
+		if (quarantinedFiles.contains(sharedResults.path()))
+			quarantinedFiles.add(file.getPath());
+		return sharedResults.functions();
+	}
+
+	/**
+	 * Extracts the functions of a file and measures them, within the time budget if there is one. A file over the
+	 * budget is quarantined, and its functions are extracted again in linear time.
+	 *
+	 * @param path         The path of the file.
+	 * @param fileContents The contents of the file.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @param scanner      The scanner measuring the functions.
+	 * @return The results of analyzing the functions of the file.
+	 */
+	private List<FunctionMetrics> measureFunctions (String path, CharSequence fileContents, String fileType,
+	                                                MetricScanner scanner) {
+		if (fileTimeBudget == null)
+			return measureFunctions(FileReader.getFunctionStringsFromContents(fileContents, fileType), fileType,
+			                        scanner);
+		try {
+			long deadline = System.nanoTime() + fileTimeBudget.toNanos();
+			return measureFunctions(FileReader.getFunctionStringsFromContents(fileContents, fileType, deadline),
+			                        fileType, scanner);
+		} catch (InterruptibleCharSequence.BudgetExceededException e) {
+			quarantinedFiles.add(path);
+			return measureFunctions(FileReader.getFunctionStringsFromContentsLinearly(fileContents, fileType),
+			                        fileType, scanner);
+		}
+	}
+
+	private static List<FunctionMetrics> measureFunctions (Function[] functions, String fileType,
+	                                                       MetricScanner scanner) {
+		List<FunctionMetrics> functionMetrics = new ArrayList<>(functions.length);
+		for (Function function : functions)
+			functionMetrics.add(scanner.measure(function, fileType));
+		return functionMetrics;
+	}
+
+	private static String getFileType (String fileName) {
+		return fileName.endsWith(".java") ? "java": "kotlin";
+	}
+
+	/**
+	 * The human-readable report: writes the report section of each file and flushes the writer after it, and the
+	 * leaderboard at the end.
+	 */
+	private class TextReport implements ResultWriter {
+		private final Writer output;
+		private final boolean ansiColours;
+		private int writtenFiles;
+
+		TextReport (Writer output, boolean ansiColours) {
+			this.output = output;
+			this.ansiColours = ansiColours;
+		}
+
+		@Override
+		public void writeFile (MetricsStore results, int file) throws IOException {
+			String fileName = new File(results.filePath(file)).getName();
+			output.write(generateFileReport(fileName, results, file, ansiColours));
+			output.flush();
+			writtenFiles++;
+		}
+
+		@Override
+		public void finish (MetricsStore results) throws IOException {
+			if (writtenFiles == 0 && baseResults == null) {
+				output.write(colour("No files to analyze in the provided directory.", ANSI_RED, ansiColours));
+				return;
+			}
+			if (baseResults != null) {
+				Path directory = Path.of(directoryPath);
+				SnapshotDiff.writeReport(MetricsSnapshot.of(baseResults, directory),
+				                         MetricsSnapshot.of(results, directory), baseRevision, numOfResults, output);
+			}
+			if (leaderboard != null) {
+				output.write(generateLeaderboardReport(ansiColours));
+				output.flush();
+			}
+			if (!quarantinedFiles.isEmpty()) {
+				output.write(generateQuarantineReport(ansiColours));
+				output.flush();
+			}
+		}
+	}
+
+	/**
+	 * Generates the whole report section of a single file, including its header.
+	 *
+	 * @param fileName    The name of the analyzed file.
+	 * @param functions   The results of analyzing the functions of the file.
+	 * @param ansiColours Whether the header should be coloured with ANSI escape codes.
+	 * @return A string containing the analysis results of the file.
+	 */
+	String generateFileReport (String fileName, List<FunctionMetrics> functions, boolean ansiColours) {
+		MetricsStore store = new MetricsStore();
+		return generateFileReport(fileName, store, store.addFile(fileName, functions), ansiColours);
+	}
+
+	/**
+	 * Generates the whole report section of a single file out of the stored results, including its header.
+	 *
+	 * @param fileName    The name of the analyzed file.
+	 * @param store       The store of the results.
+	 * @param file        The index of the file in the store.
+	 * @param ansiColours Whether the header should be coloured with ANSI escape codes.
+	 * @return A string containing the analysis results of the file.
+	 */
+	private String generateFileReport (String fileName, MetricsStore store, int file, boolean ansiColours) {
+		long start = Instrumentation.start();
+		String report = colour(String.format("Code analysis of file %s:\n", fileName), ANSI_YELLOW, ansiColours) +
+				                generateCodeComplexityReport(store, file, numOfResults) +
+				                generateCodeStyleReport(store, file) +
+				                generateOtherMetricsReport(store, file) +
+				                "\n";
+		Instrumentation.stop(Instrumentation.Stage.REPORT, start, 1);
+		return report;
+	}
+
+	/**
+	 * Generates the report of the leaderboard of the whole directory.
+	 *
+	 * @param ansiColours Whether the header should be coloured with ANSI escape codes.
+	 * @return A string containing the leaderboard.
+	 */
+	private String generateLeaderboardReport (boolean ansiColours) {
+		StringBuilder stringBuilder = new StringBuilder();
+		Leaderboard.Ranking ranking = leaderboard.getRanking();
+		stringBuilder.append(colour(String.format("========== Project leaderboard (top %d by %s) ==========\n",
+		                                          leaderboard.getSize(), ranking.label().toLowerCase()),
+		                            ANSI_YELLOW, ansiColours));
+		List<Leaderboard.Entry> entries = leaderboard.getEntries();
+		if (entries.isEmpty())
+			stringBuilder.append("No methods to rank found.\n");
+		Path directory = Path.of(directoryPath);
+		int resCount = 1;
+		for (Leaderboard.Entry entry : entries) {
+			stringBuilder.append(String.format("%d. Function: %s (%s), %s: %d\n",
+			                                   resCount++,
+			                                   entry.function().name(),
+			                                   directory.relativize(Path.of(entry.file())),
+			                                   ranking.label(),
+			                                   entry.score())
+			);
+		}
+		stringBuilder.append("\n");
 		return stringBuilder.toString();
 	}
 
 	/**
-	 * Generates a report on code style analysis based on the provided list of functions.
+	 * Generates the list of the files that were over the time budget.
 	 *
-	 * @param functionsToAnalyze The list of functions to analyze for code style.
+	 * @param ansiColours Whether the header should be coloured with ANSI escape codes.
+	 * @return The list of the files.
+	 */
+	private String generateQuarantineReport (boolean ansiColours) {
+		StringBuilder report = new StringBuilder();
+		String header = String.format("%d files took longer than %d ms, their functions were extracted without " +
+		                              "the regexes:\n", quarantinedFiles.size(), fileTimeBudget.toMillis());
+		report.append(colour(header, ANSI_RED, ansiColours));
+		for (String file : quarantinedFiles)
+			report.append("  ").append(file).append('\n');
+		return report.append('\n').toString();
+	}
+
+	/**
+	 * Wraps the text in the given ANSI colour, if colouring is turned on.
+	 *
+	 * @param text        The text to colour.
+	 * @param ansiColour  The ANSI escape code of the colour.
+	 * @param ansiColours Whether colouring is turned on.
+	 * @return The coloured text.
+	 */
+	private static String colour (String text, String ansiColour, boolean ansiColours) {
+		return ansiColours ? ansiColour + text + ANSI_RESET : text;
+	}
+
+	/**
+	 * Generates a report on code style analysis of the functions of a file.
+	 *
+	 * @param store The store of the results.
+	 * @param file  The index of the file in the store.
 	 * @return A string containing the code style analysis report.
 	 */
-	private static String generateCodeStyleReport (List<Function> functionsToAnalyze) {
+	private static String generateCodeStyleReport (MetricsStore store, int file) {
 		StringBuilder stringBuilder = new StringBuilder();
 		stringBuilder.append("========== Code style ==========\n");
-		try {
+		int functionCount = store.functionCount(file);
+		if (functionCount == 0)
+			stringBuilder.append("No methods to perform code style analysis found.\n");
+		else
 			stringBuilder.append(
 					String.format("Percentage of methods not complying with naming conventions: %.2f%%\n",
-					              CodeStyleAnalyzer.evaluateCodeStyle(functionsToAnalyze)));
-		} catch (IllegalArgumentException e) {
-			stringBuilder.append("No methods to perform code style analysis found.\n");
+					              (100.0 * store.nonCompliantCount(file)) / functionCount));
+		stringBuilder.append("\n");
+		return stringBuilder.toString();
+	}
+
+	/**
+	 * Generates a report on the metrics other than the {@link Metric#DEFAULTS} of the functions of a file, if they were
+	 * measured: the function with the highest value of each.
+	 *
+	 * @param store The store of the results.
+	 * @param file  The index of the file in the store.
+	 * @return A string containing the report, or an empty string if only the default metrics were measured.
+	 */
+	private static String generateOtherMetricsReport (MetricsStore store, int file) {
+		if (store.metrics().equals(Metric.DEFAULTS))
+			return "";
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append("========== Other metrics ==========\n");
+		if (store.functionCount(file) == 0)
+			stringBuilder.append("No methods to measure found.\n");
+		for (Metric metric : store.metrics()) {
+			if (Metric.DEFAULTS.contains(metric) || store.functionCount(file) == 0)
+				continue;
+			int[] highest = Leaderboard.selectTop(store.firstFunction(file), store.endFunction(file),
+			                                      function -> store.value(metric, function), 1);
+			stringBuilder.append("Highest ").append(metric.label().toLowerCase()).append(": ");
+			if (highest.length == 0)
+				stringBuilder.append("0\n");
+			else
+				stringBuilder.append(store.value(metric, highest[0])).append(" (function ")
+						.append(store.name(highest[0])).append(")\n");
 		}
 		stringBuilder.append("\n");
 		return stringBuilder.toString();
 	}
 
 	/**
-	 * Generates a report on code complexity analysis based on the provided list of functions and the specified number of results to display.
+	 * Generates a report on code complexity analysis of the functions of a file and the specified number of results to display.
 	 *
-	 * @param functionsToAnalyze The list of functions to analyze for code complexity.
-	 * @param numOfResults      The number of results to display for code complexity analysis.
+	 * @param store        The store of the results.
+	 * @param file         The index of the file in the store.
+	 * @param numOfResults The number of results to display for code complexity analysis.
 	 * @return A string containing the code complexity analysis report.
 	 */
-	private String generateCodeComplexityReport (List<Function> functionsToAnalyze, int numOfResults, String fileType) {
+	private static String generateCodeComplexityReport (MetricsStore store, int file, int numOfResults) {
 		StringBuilder stringBuilder = new StringBuilder();
-		List<Pair<String, Integer>> codeComplexityResult = CodeComplexityAnalyzer.evaluateComplexity(
-				functionsToAnalyze,
-				numOfResults,
-				fileType
-		);
+		int[] mostComplex = store.selectTop(file, Leaderboard.Ranking.COMPLEXITY, numOfResults);
 
 		stringBuilder.append(
 				String.format("========== Code complexity (showing top %d results) ==========\n", numOfResults));
-		if (functionsToAnalyze.isEmpty())
+		if (store.functionCount(file) == 0)
 			stringBuilder.append("No methods to perform code complexity analysis found.\n");
-		else if(codeComplexityResult.isEmpty())
+		else if(mostComplex.length == 0)
 			stringBuilder.append("There are no methods with non-zero code complexity!");
-		int resCount = 1;
-		for (Pair<String, Integer> p : codeComplexityResult) {
-			stringBuilder.append(String.format("%d. Function: %s, Complexity: %d\n",
-			                                   resCount++,
-			                                   p.first(),
-			                                   p.second())
-			);
+		for (int i = 0; i < mostComplex.length; i++) {
+			stringBuilder.append(i + 1).append(". Function: ").append(store.name(mostComplex[i]))
+					.append(", Complexity: ").append(store.complexity(mostComplex[i])).append('\n');
 		}
 		stringBuilder.append("\n");
 		return stringBuilder.toString();
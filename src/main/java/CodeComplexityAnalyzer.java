@@ -1,6 +1,4 @@
-import java.util.EnumSet;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -9,6 +7,11 @@ import java.util.stream.Collectors;
  */
 public class CodeComplexityAnalyzer {
 
+	/**
+	 * The rules of counting decision points in Java code.
+	 * Methods are scored by the {@link DecisionPointCounter} compiled from the {@link ComplexityRules#JAVA_RULES},
+	 * which gives the same counts as these patterns would, but in a single pass over the method body.
+	 */
 	public enum JavaConditionals {
 		IF_STATEMENT("\\bif\\s*\\([^)]*\\)"),
 		ELSE_STATEMENT("\\belse(?:\\s+|\\{)"),
@@ -33,6 +36,10 @@ public class CodeComplexityAnalyzer {
 		}
 	}
 
+	/**
+	 * The rules of counting decision points that Kotlin code shares with Java code, see {@link JavaConditionals}.
+	 * The Kotlin-only rules, for 'when', the elvis operator and '?.let', are in {@link ComplexityRules#KOTLIN_RULES}.
+	 */
 	public enum KotlinConditionals {
 		IF_STATEMENT("\\bif\\s*\\([^)]*\\)"),
 		ELSE_STATEMENT("\\belse(?:\\s+|\\{)"),
@@ -67,11 +74,22 @@ public class CodeComplexityAnalyzer {
 
 	public static List<Pair<String, Integer>> evaluateComplexity(List<Function> functions, int resultLength,
 	                                                             String fileType) {
-		return functions.stream()
+		List<Pair<String, Integer>> complexities = functions.stream()
 				.map((Function methodToAnalyze) -> evaluateComplexityOfAMethod(methodToAnalyze, fileType))
-				       .filter(pair -> !pair.second().equals(0))
-				.sorted((pair1, pair2) -> -Integer.compare(pair1.second(), pair2.second()))
-				.limit(resultLength)
+				.collect(Collectors.toList());
+		return Leaderboard.selectTop(complexities, Pair::second, resultLength);
+	}
+
+	/**
+	 * Selects the most complex functions out of already analyzed ones.
+	 * Same as {@link #evaluateComplexity(List, int, String)}, it skips functions with complexity 0.
+	 * @param functions    The results of analyzing the functions.
+	 * @param resultLength The length of the result list.
+	 * @return A list of pairs containing method names and their complexity, sorted from highest to lowest complexity.
+	 */
+	public static List<Pair<String, Integer>> selectMostComplex(List<FunctionMetrics> functions, int resultLength) {
+		return Leaderboard.selectTop(functions, FunctionMetrics::complexity, resultLength).stream()
+				.map(metrics -> new Pair<>(metrics.name(), metrics.complexity()))
 				.collect(Collectors.toList());
 	}
 
@@ -80,31 +98,36 @@ public class CodeComplexityAnalyzer {
 	 * Evaluates the complexity of a single method.
 	 *
 	 * @param methodToAnalyze The method to analyze.
+	 * @param fileType        The language of the method, either "java" or "kotlin".
 	 * @return A pair containing the method name and its complexity.
 	 */
 	protected static Pair<String, Integer> evaluateComplexityOfAMethod (Function methodToAnalyze, String fileType) {
-		String codeToAnalyze = methodToAnalyze.body();
-		int complexity = 0;
-
-		EnumSet<? extends Enum<?>> conditionals = (fileType.equals("Kotlin")) ?
-				                                          EnumSet.allOf(KotlinConditionals.class) :
-				                                          EnumSet.allOf(JavaConditionals.class);
-
-		for (Enum<?> conditional : conditionals) {
-			Pattern pattern = (conditional instanceof JavaConditionals) ?
-					                  ((JavaConditionals) conditional).getCodePattern() :
-					                  ((KotlinConditionals) conditional).getCodePattern();
-			Matcher matcher = pattern.matcher(codeToAnalyze);
-			int count = 0;
-			while(matcher.find()) count++;
+		return evaluateComplexityOfAMethod(methodToAnalyze, fileType, ComplexityRules.DEFAULT);
+	}
 
-			//add 'if' and 'else' occurencies, substract 'else if' to eliminate duplicate counts
-			if(conditional == JavaConditionals.ELSE_IF_STATEMENT) complexity-= count;
-			//ternary operator creates 2 paths for the program kind of, the same way as switch cases or elses, so I count them as complexity of 2
-			else if(conditional == JavaConditionals.TERNARY_OPERATOR) complexity += 2*count;
-			else complexity+=count;
+	/**
+	 * Evaluates the complexity of a single method with the given rules.
+	 *
+	 * @param methodToAnalyze The method to analyze.
+	 * @param fileType        The language of the method, either "java" or "kotlin".
+	 * @param rules           The rules of counting decision points.
+	 * @return A pair containing the method name and its complexity.
+	 */
+	protected static Pair<String, Integer> evaluateComplexityOfAMethod (Function methodToAnalyze, String fileType,
+	                                                                    ComplexityRules rules) {
+		long start = Instrumentation.start();
+		AnalysisEvents.FunctionComplexity event = AnalysisEvents.recording()
+		                                          ? new AnalysisEvents.FunctionComplexity() : null;
+		if (event != null)
+			event.begin();
+		int complexity = rules.counter(fileType).count(methodToAnalyze);
+		Instrumentation.stop(Instrumentation.Stage.COMPLEXITY, start, 1);
+		if (event != null && event.shouldCommit()) {
+			event.methodName = methodToAnalyze.name();
+			event.length = methodToAnalyze.length();
+			event.complexity = complexity;
+			event.commit();
 		}
-
 		return new Pair<>(methodToAnalyze.name(), complexity);
 	}
 }
\ No newline at end of file
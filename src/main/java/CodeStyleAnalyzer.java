@@ -13,11 +13,39 @@ public class CodeStyleAnalyzer {
 		if(functions.isEmpty())
 			throw new IllegalArgumentException("No methods to evaluate");
 
+		AnalysisEvents.CodeStyleEvaluation event = AnalysisEvents.recording() ? new AnalysisEvents.CodeStyleEvaluation() : null;
+		if (event != null)
+			event.begin();
 		int nonCompliantMethods = 0;
 		for(Function f: functions)
 			if(! evaluateCodeStyleOfAFunction(f).second())
 				nonCompliantMethods++;
 
+		double nonCompliantPercentage = (100.0 * nonCompliantMethods) / functions.size();
+		if (event != null && event.shouldCommit()) {
+			event.functionCount = functions.size();
+			event.nonCompliantPercentage = nonCompliantPercentage;
+			event.commit();
+		}
+		return nonCompliantPercentage;
+	}
+
+	/**
+	 * Computes the overall code style compliance out of already analyzed functions.
+	 *
+	 * @param functions The results of analyzing the functions.
+	 * @return The percentage of non-compliant methods in the list.
+	 * @throws IllegalArgumentException If the list of functions is empty.
+	 */
+	public static double percentageOfNonCompliant(List<FunctionMetrics> functions) {
+		if(functions.isEmpty())
+			throw new IllegalArgumentException("No methods to evaluate");
+
+		int nonCompliantMethods = 0;
+		for(FunctionMetrics f: functions)
+			if(! f.styleCompliant())
+				nonCompliantMethods++;
+
 		return (100.0 * nonCompliantMethods) / functions.size();
 	}
 
@@ -29,6 +57,50 @@ public class CodeStyleAnalyzer {
 	 * @return A Pair containing the method name and a boolean indicating compliance.
 	 */
 	public static Pair<String, Boolean> evaluateCodeStyleOfAFunction (Function functionToAnalyze) {
-		return new Pair(functionToAnalyze.name(), functionToAnalyze.name().matches("[a-zA-Z][a-zA-Z0-9]*"));
+		return new Pair<>(functionToAnalyze.name(), evaluateStyleViolationsOfAFunction(functionToAnalyze) == 0);
+	}
+
+	/**
+	 * Counts the code style violations of a single function, the function is compliant if there are none.
+	 * Each character of the name that breaks the camelCase naming convention is a violation: a first character
+	 * that is not a letter, and each following character that is neither a letter nor a digit (e.g. each "_").
+	 * A function without a name has a single violation.
+	 * @param functionToAnalyze The function to analyze.
+	 * @return The number of violations.
+	 */
+	public static int evaluateStyleViolationsOfAFunction (Function functionToAnalyze) {
+		long start = Instrumentation.start();
+		AnalysisEvents.FunctionStyle event = AnalysisEvents.recording() ? new AnalysisEvents.FunctionStyle() : null;
+		if (event != null)
+			event.begin();
+		String name = functionToAnalyze.name();
+		int violations = countStyleViolations(name);
+		Instrumentation.stop(Instrumentation.Stage.STYLE, start, 1);
+		if (event != null && event.shouldCommit()) {
+			event.methodName = name;
+			event.violations = violations;
+			event.commit();
+		}
+		return violations;
+	}
+
+	/**
+	 * Counts the code style violations of a function name, as {@link #evaluateStyleViolationsOfAFunction} does but
+	 * without measuring it, for the {@link MetricScanner} which measures all the metrics at once.
+	 * @param name The name of the function.
+	 * @return The number of violations.
+	 */
+	static int countStyleViolations (String name) {
+		int violations = name.isEmpty() || !isAsciiLetter(name.charAt(0)) ? 1 : 0;
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!isAsciiLetter(c) && (c < '0' || c > '9'))
+				violations++;
+		}
+		return violations;
+	}
+
+	private static boolean isAsciiLetter (char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
 	}
 }
@@ -0,0 +1,390 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The non-interactive command line of the analyzer, for scripts and hooks:
+ * <pre>
+ * [options] directory...          analyzes the directories
+ * client [options] directory...   analyzes the directories in the running {@link AnalysisDaemon}
+ * daemon [--idle minutes] [--threads n] [--cache directory]
+ * stop                            stops the running daemon
+ * </pre>
+ * The exit code tells the outcome: {@link #EXIT_OK}, {@link #EXIT_LIMIT_EXCEEDED}, {@link #EXIT_USAGE} or
+ * {@link #EXIT_FAILURE}.
+ */
+public class CommandLine {
+	/**
+	 * Everything was analyzed, and no function is more complex than the limit.
+	 */
+	public static final int EXIT_OK = 0;
+	/**
+	 * Everything was analyzed, but some functions are more complex than the limit of --max-complexity.
+	 */
+	public static final int EXIT_LIMIT_EXCEEDED = 1;
+	/**
+	 * The arguments are wrong, e.g. an unknown option or a path that is not a directory.
+	 */
+	public static final int EXIT_USAGE = 2;
+	/**
+	 * The analysis failed, e.g. a file could not be read, or anything else went wrong after the arguments were
+	 * checked.
+	 */
+	public static final int EXIT_FAILURE = 3;
+
+	static final String USAGE = """
+			Usage: Main [options] directory...
+			       Main client [options] directory...
+			       Main daemon [--idle minutes] [--threads n] [--cache directory]
+			       Main stop
+			Options:
+			  --top n               the number of the most complex functions listed per file, 3 by default
+			  --format f            report (default), jsonl, csv or bin
+			  --threads n           the number of files analyzed at the same time, 1 by default
+			  --no-color            no ANSI colours in the report, the default when not writing to a terminal
+			  --cache directory     keep the results of unchanged files in the directory
+			  --metrics m,...       the metrics to measure, e.g. complexity,length,style_violations,returns
+			  --rules file          the complexity rules to use instead of the default ones
+			  --max-complexity n    exit with 1 if any function is more complex than n
+			  --changed-since rev   analyze only the files changed since the git revision
+			  --file-budget ms      extract the functions of files taking longer without the regexes, in linear time
+			""";
+
+	/**
+	 * The options of analyzing directories.
+	 *
+	 * @param paths          The directories to analyze, in the order of the output.
+	 * @param top            The number of the most complex functions listed per file in the report.
+	 * @param format         The format of the results, or null for the report.
+	 * @param threads        The number of files analyzed at the same time.
+	 * @param ansiColours    Whether the report should be coloured with ANSI escape codes.
+	 * @param cacheDirectory The directory of the result cache, or null for none.
+	 * @param metrics        The metrics to measure.
+	 * @param rulesFile      The file of the complexity rules, or null for the default rules.
+	 * @param maxComplexity  The highest complexity that is still fine, or -1 for no limit.
+	 * @param baseRevision   The revision to analyze only the files changed since, or null to analyze every file.
+	 * @param fileTimeBudget The time budget of analyzing a file, or null for none.
+	 */
+	public record Options(List<String> paths, int top, ResultFormat format, int threads, boolean ansiColours,
+	                      Path cacheDirectory, Set<Metric> metrics, Path rulesFile, int maxComplexity,
+	                      String baseRevision, Duration fileTimeBudget) {
+
+		/**
+		 * Parses the options of analyzing directories.
+		 *
+		 * @param args     The arguments, options and paths in any order.
+		 * @param terminal Whether the output goes to a terminal, so it's coloured unless --no-color is given.
+		 * @return The options.
+		 * @throws IllegalArgumentException If the arguments are wrong.
+		 */
+		public static Options parse (List<String> args, boolean terminal) {
+			List<String> paths = new ArrayList<>();
+			int top = 3;
+			ResultFormat format = null;
+			int threads = 1;
+			boolean ansiColours = terminal;
+			Path cacheDirectory = null;
+			Set<Metric> metrics = Metric.DEFAULTS;
+			Path rulesFile = null;
+			int maxComplexity = -1;
+			String baseRevision = null;
+			Duration fileTimeBudget = null;
+			for (int i = 0; i < args.size(); i++) {
+				String arg = args.get(i);
+				if (!arg.startsWith("--")) {
+					paths.add(arg);
+					continue;
+				}
+				if (arg.equals("--no-color")) {
+					ansiColours = false;
+					continue;
+				}
+				if (i + 1 == args.size())
+					throw new IllegalArgumentException("Missing the value of " + arg);
+				String value = args.get(++i);
+				switch (arg) {
+					case "--top" -> top = parseCount(arg, value, 0);
+					case "--format" -> format = parseFormat(value);
+					case "--threads" -> threads = parseCount(arg, value, 1);
+					case "--cache" -> cacheDirectory = Path.of(value);
+					case "--metrics" -> metrics = parseMetrics(value);
+					case "--rules" -> rulesFile = Path.of(value);
+					case "--max-complexity" -> maxComplexity = parseCount(arg, value, 0);
+					case "--changed-since" -> baseRevision = value;
+					case "--file-budget" -> fileTimeBudget = Duration.ofMillis(parseCount(arg, value, 1));
+					default -> throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+			if (paths.isEmpty())
+				throw new IllegalArgumentException("No directory to analyze");
+			return new Options(List.copyOf(paths), top, format, threads, ansiColours, cacheDirectory, metrics,
+			                   rulesFile, maxComplexity, baseRevision, fileTimeBudget);
+		}
+
+		private static int parseCount (String option, String value, int min) {
+			try {
+				int count = Integer.parseInt(value);
+				if (count >= min)
+					return count;
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+			throw new IllegalArgumentException(option + " has to be a number of at least " + min + ", got: " + value);
+		}
+
+		private static ResultFormat parseFormat (String value) {
+			if (value.equals("report"))
+				return null;
+			for (ResultFormat format : ResultFormat.values()) {
+				if (value.equals(format.fileExtension()) || value.equalsIgnoreCase(format.name()))
+					return format;
+			}
+			throw new IllegalArgumentException("Unknown format: " + value);
+		}
+
+		private static Set<Metric> parseMetrics (String value) {
+			Set<Metric> metrics = EnumSet.noneOf(Metric.class);
+			for (String name : value.split(",")) {
+				try {
+					metrics.add(Metric.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown metric: " + name);
+				}
+			}
+			return metrics;
+		}
+	}
+
+	/**
+	 * A command whose arguments were checked, ready to run.
+	 */
+	interface Command {
+		int run (PrintStream out, PrintStream err) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Runs the command given by the arguments. The arguments are all checked before the command runs, so only they
+	 * make a usage error, and whatever goes wrong while the command runs is a failure.
+	 *
+	 * @param args The arguments.
+	 * @param out  The stream to write the report or the results to.
+	 * @param err  The stream to write the errors to.
+	 * @return The exit code.
+	 */
+	public static int run (String[] args, PrintStream out, PrintStream err) {
+		List<String> arguments = List.of(args);
+		if (arguments.isEmpty() || arguments.contains("--help")) {
+			out.print(USAGE);
+			return arguments.isEmpty() ? EXIT_USAGE : EXIT_OK;
+		}
+		Command command;
+		try {
+			command = parse(arguments, out == System.out && System.console() != null);
+		} catch (IllegalArgumentException e) {
+			err.println(e.getMessage());
+			err.print(USAGE);
+			return EXIT_USAGE;
+		}
+		return run(command, out, err);
+	}
+
+	/**
+	 * Runs a command whose arguments were checked.
+	 *
+	 * @return The exit code of the command, or {@link #EXIT_FAILURE} if it failed in any way.
+	 */
+	static int run (Command command, PrintStream out, PrintStream err) {
+		try {
+			return command.run(out, err);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILURE;
+		} catch (Throwable e) {
+			// anything escaping would end the JVM with 1, which would look like functions over the limit
+			err.println("The analysis failed: " + (e.getMessage() != null ? e.getMessage() : e));
+			return EXIT_FAILURE;
+		}
+	}
+
+	/**
+	 * Parses and checks the arguments of a command.
+	 *
+	 * @param arguments The arguments, starting with the command unless it's analyzing directories.
+	 * @param terminal  Whether the output goes to a terminal.
+	 * @return The command.
+	 * @throws IllegalArgumentException If the arguments are wrong.
+	 */
+	private static Command parse (List<String> arguments, boolean terminal) {
+		switch (arguments.get(0)) {
+			case "daemon" -> {
+				return parseDaemon(arguments.subList(1, arguments.size()));
+			}
+			case "client" -> {
+				Options options = checkClient(Options.parse(arguments.subList(1, arguments.size()), terminal));
+				return (out, err) -> runClient(options, out, err);
+			}
+			case "stop" -> {
+				return (out, err) -> {
+					DaemonClient.connect(AnalysisDaemon.defaultDaemonFile()).shutdown();
+					return EXIT_OK;
+				};
+			}
+			default -> {
+				Options options = checkDirectories(Options.parse(arguments, terminal));
+				return (out, err) -> analyze(options, out, err);
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException If any of the paths is not a directory.
+	 */
+	private static Options checkDirectories (Options options) {
+		for (String path : options.paths()) {
+			if (!Files.isDirectory(Path.of(path)))
+				throw new IllegalArgumentException("Not a directory: " + path);
+		}
+		return options;
+	}
+
+	/**
+	 * Analyzes the directories one after another, writing all their reports or results to the output as a whole.
+	 */
+	private static int analyze (Options options, PrintStream out, PrintStream err) throws IOException {
+		ComplexityRules rules = options.rulesFile() == null ? ComplexityRules.DEFAULT
+		                        : ComplexityRules.load(options.rulesFile());
+
+		Writer report = options.format() == null
+		                ? new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)) : null;
+		ResultWriter resultWriter = options.format() == null ? null : options.format().open(out);
+		int functionsOverLimit = 0;
+		for (String path : options.paths()) {
+			CodeAnalyzer codeAnalyzer = new CodeAnalyzer(path, options.top(), options.threads());
+			codeAnalyzer.setCacheDirectory(options.cacheDirectory());
+			codeAnalyzer.setComplexityRules(rules);
+			codeAnalyzer.setMetrics(options.metrics());
+			codeAnalyzer.setFileTimeBudget(options.fileTimeBudget());
+			// only the limit needs the results of all the functions
+			codeAnalyzer.setRetainResults(options.maxComplexity() >= 0);
+			if (options.baseRevision() != null)
+				codeAnalyzer.setChangedFilesOnly(options.baseRevision(), null, false);
+			if (report != null)
+				codeAnalyzer.analyzeDirectory(report, options.ansiColours());
+			else
+				codeAnalyzer.analyzeDirectory(new ResultWriter() {
+					@Override
+					public void writeFile (MetricsStore results, int file) throws IOException {
+						resultWriter.writeFile(results, file);
+					}
+
+					@Override
+					public void finish (MetricsStore results) {
+						// the results of all the directories make up one output, it's finished after the last one
+					}
+				});
+			if (report == null) {
+				// the report lists them itself
+				for (String file : codeAnalyzer.getQuarantinedFiles())
+					err.println("Over the time budget, extracted without the regexes: " + file);
+			}
+			CodeAnalyzer.DeduplicationStats deduplication = codeAnalyzer.getDeduplicationStats();
+			if (deduplication.duplicateFiles() > 0)
+				err.printf("%d of the %d files read in %s were copies of other files, %d KB were analyzed only once%n",
+				           deduplication.duplicateFiles(), deduplication.readFiles(), path,
+				           (deduplication.duplicateBytes() + 1023) / 1024);
+			if (options.maxComplexity() >= 0) {
+				MetricsStore results = codeAnalyzer.getResults();
+				for (int function = 0; function < results.functionCount(); function++) {
+					if (results.complexity(function) > options.maxComplexity())
+						functionsOverLimit++;
+				}
+			}
+		}
+		if (report != null)
+			report.flush();
+		else
+			resultWriter.finish(new MetricsStore(options.metrics()));
+
+		if (functionsOverLimit == 0)
+			return EXIT_OK;
+		err.printf("%d functions are more complex than %d%n", functionsOverLimit, options.maxComplexity());
+		return EXIT_LIMIT_EXCEEDED;
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the options are not supported by the daemon, or a path is not a directory.
+	 */
+	private static Options checkClient (Options options) {
+		if (options.cacheDirectory() != null || options.rulesFile() != null || options.maxComplexity() >= 0 ||
+				    !options.metrics().equals(Metric.DEFAULTS) || options.fileTimeBudget() != null)
+			throw new IllegalArgumentException("The daemon supports only --top, --format, --threads, --no-color " +
+					                                   "and --changed-since");
+		if (options.format() != null && options.paths().size() > 1)
+			throw new IllegalArgumentException("The daemon writes the results of one directory at a time");
+		return checkDirectories(options);
+	}
+
+	/**
+	 * Analyzes the directories in the running daemon, or right here if there is none.
+	 */
+	private static int runClient (Options options, PrintStream out, PrintStream err) throws IOException {
+		DaemonClient client;
+		try {
+			client = DaemonClient.connect(AnalysisDaemon.defaultDaemonFile());
+		} catch (NoSuchFileException e) {
+			client = null;
+		}
+		if (client == null || !client.isRunning()) {
+			// no daemon, or it's gone and left its file behind
+			return analyze(options, out, err);
+		}
+		for (String path : options.paths())
+			client.analyze(new AnalysisDaemon.Request(Path.of(path).toAbsolutePath().toString(), options.top(),
+			                                          options.format(), options.ansiColours(), options.threads(),
+			                                          options.baseRevision()), out);
+		return EXIT_OK;
+	}
+
+	private static Command parseDaemon (List<String> args) {
+		Duration idleTimeout = Duration.ofMinutes(30);
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path cacheDirectory = null;
+		for (int i = 0; i < args.size(); i += 2) {
+			if (i + 1 == args.size())
+				throw new IllegalArgumentException("Missing the value of " + args.get(i));
+			String value = args.get(i + 1);
+			switch (args.get(i)) {
+				case "--idle" -> idleTimeout = Duration.ofMinutes(Options.parseCount("--idle", value, 1));
+				case "--threads" -> threads = Options.parseCount("--threads", value, 1);
+				case "--cache" -> cacheDirectory = Path.of(value);
+				default -> throw new IllegalArgumentException("Unknown option: " + args.get(i));
+			}
+		}
+		Duration idle = idleTimeout;
+		int daemonThreads = threads;
+		Path daemonCache = cacheDirectory;
+		return (out, err) -> runDaemon(idle, daemonThreads, daemonCache, out);
+	}
+
+	private static int runDaemon (Duration idleTimeout, int threads, Path cacheDirectory, PrintStream out)
+			throws IOException, InterruptedException {
+		AnalysisDaemon daemon = new AnalysisDaemon(AnalysisDaemon.defaultDaemonFile(), idleTimeout, threads);
+		daemon.setCacheDirectory(cacheDirectory);
+		daemon.start();
+		out.println("The daemon is listening on port " + daemon.getPort());
+		daemon.awaitShutdown();
+		return EXIT_OK;
+	}
+}
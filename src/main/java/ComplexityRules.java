@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The rules of counting decision points, for Java and for Kotlin code, each compiled once into a
+ * {@link DecisionPointCounter}, which applies all the rules of a language in a single pass.
+ * <p>
+ * A rule is a trigger, which is either a keyword (a whole word) or an operator, what has to follow the trigger for it
+ * to count, and the weight it adds to the complexity. The default rules are the ones of
+ * {@link CodeComplexityAnalyzer.JavaConditionals} and {@link CodeComplexityAnalyzer.KotlinConditionals}, plus the
+ * Kotlin ones for 'when', the elvis operator and '?.let'. They can be reweighted, and more rules added, with a config
+ * file, see {@link #load(Path)}.
+ */
+public class ComplexityRules {
+	/**
+	 * What has to follow the trigger of a rule for it to count.
+	 */
+	public enum Requirement {
+		/**
+		 * Nothing, the trigger alone counts.
+		 */
+		NONE,
+		/**
+		 * A parenthesized condition, like {@code if (x > 0)}.
+		 */
+		CONDITION,
+		/**
+		 * An 'if' and its parenthesized condition, for subtracting an 'else if' counted by both the 'else' and the 'if'
+		 * rule.
+		 */
+		ELSE_IF_CONDITION,
+		/**
+		 * A '(' or a '{', like {@code when (x) { ... }} or {@code when { ... }}. The body of the block is where the
+		 * {@link #BRANCH} rules count.
+		 */
+		BLOCK,
+		/**
+		 * Whitespace or a '{', like {@code else { ... }}.
+		 */
+		SEPARATOR,
+		/**
+		 * The trigger is a branch directly inside the body of a {@link #BLOCK} rule, like the {@code ->} of a branch
+		 * of a {@code when}, but not the one of a lambda inside the branch.
+		 */
+		BRANCH,
+		/**
+		 * The trigger is the '?' of a ternary operator: there is a ':' before the next '?', with at least one character
+		 * on both of its sides.
+		 */
+		TERNARY
+	}
+
+	/**
+	 * A rule of counting decision points.
+	 *
+	 * @param name        The name of the rule, unique within a language.
+	 * @param trigger     The keyword (made of letters, digits and '_') or the operator (starting with any other
+	 *                    printable ASCII character) that triggers the rule.
+	 * @param requirement What has to follow the trigger.
+	 * @param weight      What a match adds to the complexity, can be negative or zero.
+	 */
+	public record Rule(String name, String trigger, Requirement requirement, int weight) {
+		/**
+		 * @throws IllegalArgumentException If the trigger is neither a keyword nor an operator.
+		 */
+		public Rule {
+			if (trigger.isEmpty() || trigger.chars().anyMatch(c -> c <= ' ' || c > '~'))
+				throw new IllegalArgumentException("The trigger of " + name + " has to be printable ASCII");
+			if (DecisionPointCounter.isWordChar(trigger.charAt(0)) &&
+					    !trigger.chars().allMatch(c -> DecisionPointCounter.isWordChar((char) c)))
+				throw new IllegalArgumentException("The keyword of " + name + " can't contain other characters");
+			if (requirement == Requirement.TERNARY && !trigger.equals("?"))
+				throw new IllegalArgumentException("The trigger of the ternary rule " + name + " has to be '?'");
+		}
+	}
+
+	/**
+	 * The default rules for Java code.
+	 */
+	public static final List<Rule> JAVA_RULES = List.of(
+			new Rule("IF_STATEMENT", "if", Requirement.CONDITION, 1),
+			new Rule("ELSE_STATEMENT", "else", Requirement.SEPARATOR, 1),
+			new Rule("ELSE_IF_STATEMENT", "else", Requirement.ELSE_IF_CONDITION, -1),
+			new Rule("SWITCH_CASE", "switch", Requirement.CONDITION, 1),
+			new Rule("FOR_LOOP", "for", Requirement.CONDITION, 1),
+			new Rule("WHILE_LOOP", "while", Requirement.CONDITION, 1),
+			new Rule("TERNARY_OPERATOR", "?", Requirement.TERNARY, 2));
+
+	/**
+	 * The default rules for Kotlin code. A 'when' counts once, like a Java 'switch'; a {@link Requirement#BRANCH} rule
+	 * on "->" counts its branches instead, see {@link #load(Path)}.
+	 */
+	public static final List<Rule> KOTLIN_RULES = List.of(
+			new Rule("IF_STATEMENT", "if", Requirement.CONDITION, 1),
+			new Rule("ELSE_STATEMENT", "else", Requirement.SEPARATOR, 1),
+			new Rule("ELSE_IF_STATEMENT", "else", Requirement.ELSE_IF_CONDITION, -1),
+			new Rule("SWITCH_CASE", "switch", Requirement.CONDITION, 1),
+			new Rule("FOR_LOOP", "for", Requirement.CONDITION, 1),
+			new Rule("WHILE_LOOP", "while", Requirement.CONDITION, 1),
+			new Rule("WHEN_EXPRESSION", "when", Requirement.BLOCK, 1),
+			new Rule("ELVIS_OPERATOR", "?:", Requirement.NONE, 1),
+			new Rule("SAFE_CALL_LET", "?.let", Requirement.NONE, 1));
+
+	/**
+	 * The default rules of both languages.
+	 */
+	public static final ComplexityRules DEFAULT = new ComplexityRules(JAVA_RULES, KOTLIN_RULES);
+
+	private final List<Rule> javaRules;
+	private final List<Rule> kotlinRules;
+	private final DecisionPointCounter javaCounter;
+	private final DecisionPointCounter kotlinCounter;
+
+	/**
+	 * Compiles the rules of both languages.
+	 *
+	 * @param javaRules   The rules for Java code.
+	 * @param kotlinRules The rules for Kotlin code.
+	 */
+	public ComplexityRules (List<Rule> javaRules, List<Rule> kotlinRules) {
+		this.javaRules = List.copyOf(javaRules);
+		this.kotlinRules = List.copyOf(kotlinRules);
+		this.javaCounter = new DecisionPointCounter(this.javaRules);
+		this.kotlinCounter = new DecisionPointCounter(this.kotlinRules);
+	}
+
+	/**
+	 * Loads the default rules changed by a config file. Each line of the file, except for empty lines and the ones
+	 * starting with '#', is
+	 * <pre>
+	 * language name weight [trigger [requirement]]
+	 * </pre>
+	 * where the language is "java", "kotlin" or "all", and the requirement is one of {@link Requirement} in any case,
+	 * {@code none} by default. A line with the name of an existing rule and no trigger only changes the weight of the
+	 * rule, with a trigger it replaces the rule. A line with a new name adds a rule, e.g.
+	 * <pre>
+	 * kotlin WHEN_EXPRESSION 0
+	 * kotlin WHEN_BRANCH 1 -&gt; branch
+	 * all CATCH 1 catch condition
+	 * java LOGICAL_AND 1 &amp;&amp;
+	 * </pre>
+	 *
+	 * @param configFile The config file.
+	 * @return The rules.
+	 * @throws IOException If the file could not be read, or a line of it is not a valid rule.
+	 */
+	public static ComplexityRules load (Path configFile) throws IOException {
+		List<Rule> javaRules = new ArrayList<>(JAVA_RULES);
+		List<Rule> kotlinRules = new ArrayList<>(KOTLIN_RULES);
+		List<String> lines = Files.readAllLines(configFile, StandardCharsets.UTF_8);
+		for (int lineNumber = 1; lineNumber <= lines.size(); lineNumber++) {
+			String line = lines.get(lineNumber - 1).strip();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			try {
+				String[] fields = line.split("\\s+");
+				if (fields.length < 3 || fields.length > 5)
+					throw new IllegalArgumentException("Expected: language name weight [trigger [requirement]]");
+				String language = fields[0].toLowerCase(Locale.ROOT);
+				if (!language.equals("java") && !language.equals("kotlin") && !language.equals("all"))
+					throw new IllegalArgumentException("Unknown language " + fields[0]);
+				int weight = Integer.parseInt(fields[2]);
+				String trigger = fields.length > 3 ? fields[3] : null;
+				Requirement requirement = fields.length > 4 ? Requirement.valueOf(fields[4].toUpperCase(Locale.ROOT))
+				                                            : Requirement.NONE;
+				if (!language.equals("kotlin"))
+					apply(javaRules, fields[1], weight, trigger, requirement);
+				if (!language.equals("java"))
+					apply(kotlinRules, fields[1], weight, trigger, requirement);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(configFile + ":" + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return new ComplexityRules(javaRules, kotlinRules);
+	}
+
+	private static void apply (List<Rule> rules, String name, int weight, String trigger, Requirement requirement) {
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = rules.get(i);
+			if (rule.name().equals(name)) {
+				rules.set(i, trigger == null ? new Rule(name, rule.trigger(), rule.requirement(), weight)
+				                             : new Rule(name, trigger, requirement, weight));
+				return;
+			}
+		}
+		if (trigger == null)
+			throw new IllegalArgumentException("A new rule " + name + " needs a trigger");
+		rules.add(new Rule(name, trigger, requirement, weight));
+	}
+
+	/**
+	 * @param fileType The language, either "java" or "kotlin".
+	 * @return The rules of the language.
+	 */
+	public List<Rule> rules (String fileType) {
+		return fileType.equalsIgnoreCase("kotlin") ? kotlinRules : javaRules;
+	}
+
+	/**
+	 * @param fileType The language, either "java" or "kotlin".
+	 * @return The compiled rules of the language.
+	 */
+	public DecisionPointCounter counter (String fileType) {
+		return fileType.equalsIgnoreCase("kotlin") ? kotlinCounter : javaCounter;
+	}
+
+	/**
+	 * @return A hash of all the rules, which changes whenever the rules give different results.
+	 */
+	public long fingerprint () {
+		return ContentHash.of(javaRules + "\n" + kotlinRules);
+	}
+}
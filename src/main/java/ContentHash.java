@@ -0,0 +1,160 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Utility class computing fast, non-cryptographic 64-bit hashes of file contents and of code.
+ * They're used to recognize contents that did not change, or that are the same as other contents, so they don't have to
+ * withstand deliberate collisions.
+ * <p>
+ * Characters are hashed with FNV-1a. Raw bytes, which are mostly whole files, are hashed 8 bytes at a time with the
+ * mixing steps of MurmurHash3, which is several times faster, and can be computed while the bytes are scanned for
+ * something else: see {@link #mixWord} and {@link #finishWords}.
+ */
+public class ContentHash {
+	/**
+	 * The hash of characters before the first character is mixed in.
+	 */
+	static final long CHARS_SEED = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	/**
+	 * The hash of the bytes before the first word is mixed in.
+	 */
+	static final long WORDS_SEED = 0x9e3779b97f4a7c15L;
+	private static final long WORD_MULTIPLIER_1 = 0x87c37b91114253d5L;
+	private static final long WORD_MULTIPLIER_2 = 0x4cf5ad432745937fL;
+
+	/**
+	 * Computes the hash of the given bytes.
+	 *
+	 * @param bytes The bytes to hash.
+	 * @return The hash.
+	 */
+	public static long of (byte[] bytes) {
+		return of(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Computes the hash of the remaining bytes of the given buffer, without changing its position.
+	 *
+	 * @param bytes The bytes to hash.
+	 * @return The hash, the same as of an array of the same bytes.
+	 */
+	public static long of (ByteBuffer bytes) {
+		ByteBuffer bigEndian = bytes.duplicate();
+		int limit = bigEndian.limit();
+		int index = bigEndian.position();
+		long hash = WORDS_SEED;
+		for (; index + Long.BYTES <= limit; index += Long.BYTES)
+			hash = mixWord(hash, bigEndian.getLong(index));
+		long tail = 0;
+		for (; index < limit; index++)
+			tail = tail << Byte.SIZE | (bigEndian.get(index) & 0xff);
+		return finishWords(hash, tail, limit - bigEndian.position());
+	}
+
+	/**
+	 * Mixes the next 8 bytes into the hash of bytes.
+	 *
+	 * @param hash The hash of the previous bytes, or {@link #WORDS_SEED} at the start.
+	 * @param word The next 8 bytes, read as a big-endian long.
+	 * @return The hash including the bytes.
+	 */
+	static long mixWord (long hash, long word) {
+		hash ^= Long.rotateLeft(word * WORD_MULTIPLIER_1, 31) * WORD_MULTIPLIER_2;
+		return Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+	}
+
+	/**
+	 * Mixes the last bytes and the number of bytes into the hash of bytes, and scrambles it, so that every input bit
+	 * affects every bit of the hash.
+	 *
+	 * @param hash   The hash of the words of the bytes, see {@link #mixWord}.
+	 * @param tail   The last {@code length % 8} bytes, which don't make up a word, as a big-endian number.
+	 * @param length The number of bytes.
+	 * @return The hash of the bytes.
+	 */
+	static long finishWords (long hash, long tail, long length) {
+		if (length % Long.BYTES != 0)
+			hash ^= Long.rotateLeft(tail * WORD_MULTIPLIER_1, 31) * WORD_MULTIPLIER_2;
+		hash ^= length;
+		hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ hash >>> 33) * 0xc4ceb9fe1a85ec53L;
+		return hash ^ hash >>> 33;
+	}
+
+	/**
+	 * Computes the hash of the given characters.
+	 *
+	 * @param chars The characters to hash.
+	 * @return The hash.
+	 */
+	public static long of (CharSequence chars) {
+		return of(chars, 0, chars.length());
+	}
+
+	/**
+	 * Computes the hash of a range of the given characters.
+	 *
+	 * @param chars The characters to hash.
+	 * @param start The index of the first hashed character.
+	 * @param end   The index right after the last hashed character.
+	 * @return The hash, the same as of a sequence of just the characters in the range.
+	 */
+	public static long of (CharSequence chars, int start, int end) {
+		return update(CHARS_SEED, chars, start, end);
+	}
+
+	/**
+	 * Computes the hash of a function without the functions nested in it, which only add their lengths to the hash.
+	 * So the hash changes whenever the metrics of the function may change, but not with the bodies of the nested
+	 * functions, and hashing all the functions of a file hashes each character once.
+	 *
+	 * @param function The function to hash.
+	 * @return The hash, the same as of the body if no functions are nested in it.
+	 */
+	public static long of (Function function) {
+		long hash = CHARS_SEED;
+		int index = function.start();
+		List<Function> nested = function.nested();
+		for (int i = 0; i < nested.size(); i++) {
+			hash = update(hash, function.source(), index, nested.get(i).start());
+			hash = mixNested(hash, nested.get(i).length());
+			index = nested.get(i).end();
+		}
+		return update(hash, function.source(), index, function.end());
+	}
+
+	/**
+	 * Mixes a character into a hash of characters, so the hash can be computed while the characters are scanned for
+	 * something else.
+	 *
+	 * @param hash The hash of the characters before, {@link #CHARS_SEED} if there are none.
+	 * @param c    The character.
+	 * @return The hash of the characters up to this one.
+	 */
+	static long mixChar (long hash, char c) {
+		hash ^= c & 0xff;
+		hash *= PRIME;
+		hash ^= c >>> 8;
+		return hash * PRIME;
+	}
+
+	/**
+	 * Mixes a function nested in a function into the hash of the function, see {@link #of(Function)}.
+	 *
+	 * @param hash   The hash of the characters of the function before the nested one.
+	 * @param length The length of the nested function.
+	 * @return The hash of the function up to the end of the nested one.
+	 */
+	static long mixNested (long hash, int length) {
+		hash ^= length;
+		return hash * PRIME;
+	}
+
+	private static long update (long hash, CharSequence chars, int start, int end) {
+		for (int i = start; i < end; i++)
+			hash = mixChar(hash, chars.charAt(i));
+		return hash;
+	}
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Writes the results as a CSV table (RFC 4180) with a row per function, e.g.
+ * <pre>
+ * file,function,complexity,length,style_violations
+ * src/Main.java,main,2,120,0
+ * </pre>
+ * followed by the columns of the other measured metrics, e.g. {@code lines_of_code}. Fields containing commas, quotes
+ * or line breaks are quoted.
+ */
+public class CsvResultWriter extends TextResultWriter {
+	private boolean headerWritten;
+
+	/**
+	 * @param output The writer to write the results to, it's flushed at the end, but not closed.
+	 */
+	public CsvResultWriter (Writer output) {
+		super(output);
+	}
+
+	@Override
+	protected void putFile (MetricsStore results, int file) {
+		putHeader(results);
+		String filePath = results.filePath(file);
+		Metric[] metrics = results.metrics().toArray(new Metric[0]);
+		for (int function = results.firstFunction(file); function < results.endFunction(file); function++) {
+			putField(filePath);
+			put(',');
+			putField(results.name(function));
+			for (Metric metric : metrics) {
+				put(',');
+				putInt(results.value(metric, function));
+			}
+			put("\r\n");
+		}
+	}
+
+	@Override
+	public void finish (MetricsStore results) throws IOException {
+		putHeader(results);
+		super.finish(results);
+	}
+
+	private void putHeader (MetricsStore results) {
+		if (headerWritten)
+			return;
+		put("file,function");
+		for (Metric metric : results.metrics()) {
+			put(',');
+			put(metric.name().toLowerCase(Locale.ROOT));
+		}
+		put("\r\n");
+		headerWritten = true;
+	}
+
+	private void putField (String text) {
+		boolean quoted = false;
+		for (int i = 0; i < text.length() && !quoted; i++) {
+			char c = text.charAt(i);
+			quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quoted) {
+			put(text);
+			return;
+		}
+
+		put('"');
+		int unescaped = 0;
+		for (int i = text.indexOf('"'); i >= 0; i = text.indexOf('"', i + 1)) {
+			put(text, unescaped, i + 1);
+			put('"');
+			unescaped = i + 1;
+		}
+		put(text, unescaped, text.length());
+		put('"');
+	}
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A thin client of a running {@link AnalysisDaemon}, which only sends the requests and copies the responses, so it
+ * starts in a fraction of the time an analysis in a fresh JVM would take.
+ */
+public class DaemonClient {
+	private final int port;
+	private final String token;
+
+	private DaemonClient (int port, String token) {
+		this.port = port;
+		this.token = token;
+	}
+
+	/**
+	 * Connects to the daemon that wrote the given daemon file.
+	 *
+	 * @param daemonFile The daemon file, see {@link AnalysisDaemon#defaultDaemonFile()}.
+	 * @return The client.
+	 * @throws IOException If there is no daemon file, i.e. no daemon is running, or it could not be read.
+	 */
+	public static DaemonClient connect (Path daemonFile) throws IOException {
+		String[] fields = Files.readString(daemonFile).trim().split(" ");
+		if (fields.length != 2)
+			throw new IOException("Damaged daemon file: " + daemonFile);
+		try {
+			return new DaemonClient(Integer.parseInt(fields[0]), fields[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Damaged daemon file: " + daemonFile, e);
+		}
+	}
+
+	/**
+	 * Asks the daemon to analyze a directory, and copies the report or the results to the given stream.
+	 *
+	 * @param request The request.
+	 * @param output  The stream to copy the response to, it's flushed, but not closed.
+	 * @throws IOException If the daemon could not be reached, or the analysis failed.
+	 */
+	public void analyze (AnalysisDaemon.Request request, OutputStream output) throws IOException {
+		HttpURLConnection connection = open("/analyze?" + request.toQuery(), "GET");
+		try (InputStream response = checkedResponse(connection)) {
+			response.transferTo(output);
+		}
+		output.flush();
+	}
+
+	/**
+	 * @return Whether the daemon is up and answering.
+	 */
+	public boolean isRunning () {
+		try {
+			HttpURLConnection connection = open("/status", "GET");
+			checkedResponse(connection).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Asks the daemon to stop, after finishing the requests it's handling.
+	 *
+	 * @throws IOException If the daemon could not be reached.
+	 */
+	public void shutdown () throws IOException {
+		checkedResponse(open("/shutdown", "POST")).close();
+	}
+
+	private HttpURLConnection open (String path, String method) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http", "127.0.0.1", port, path).openConnection();
+		connection.setRequestMethod(method);
+		connection.setRequestProperty(AnalysisDaemon.TOKEN_HEADER, token);
+		return connection;
+	}
+
+	/**
+	 * @return The body of a successful response.
+	 * @throws IOException With the message of the daemon, if the request failed.
+	 */
+	private static InputStream checkedResponse (HttpURLConnection connection) throws IOException {
+		int status = connection.getResponseCode();
+		if (status == HttpURLConnection.HTTP_OK)
+			return connection.getInputStream();
+		String message;
+		try (InputStream error = connection.getErrorStream()) {
+			message = error == null ? "" : new String(error.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		throw new IOException("The daemon answered " + status + ": " + message);
+	}
+}
@@ -0,0 +1,448 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts the decision points of a piece of code in a single pass, applying all the {@link ComplexityRules} of a
+ * language at the same time.
+ * <p>
+ * The triggers of all the rules are compiled into a single trie-shaped automaton over printable ASCII. Keywords can
+ * only start at the start of a word and operators at any other character, so instead of following failure links the
+ * automaton is restarted at every token: a word is looked up as a whole, an operator is matched as the longest
+ * trigger starting at the character. Each match is then checked against what its rules require to follow it, keeping
+ * just enough state per rule to give exactly the same counts as the regexes of
+ * {@link CodeComplexityAnalyzer.JavaConditionals} would, and the weights of the rules are added up on the way.
+ * <p>
+ * The tokens come from a {@link MetricScanner}, so the complexity can be counted in the same scan of a function as
+ * its other metrics, see {@link #newVisitor()}.
+ */
+public class DecisionPointCounter {
+	private static final char FIRST_CHAR = '!';
+	private static final int ALPHABET_SIZE = '~' - FIRST_CHAR + 1;
+
+	// the kinds of characters, as bit flags: most characters are none of them and are skipped right away
+	private static final byte WORD = 1;
+	private static final byte KEYWORD_START = 2;
+	private static final byte OPERATOR_START = 4;
+	private static final byte TERNARY_PART = 8;
+	private static final byte BRACE = 16;
+
+	private final ComplexityRules.Rule[] rules;
+	/**
+	 * The transitions of the automaton: the state after the character c in state s is
+	 * {@code transitions[s * ALPHABET_SIZE + c - FIRST_CHAR]}, or 0 if there is none (no trigger starts in the middle).
+	 */
+	private int[] transitions;
+	/**
+	 * The indices of the rules triggered in each state, or null if the state ends no trigger.
+	 */
+	private int[][] triggeredRules;
+	private int stateCount = 1;
+	private int longestKeyword;
+	private final int ternaryWeight;
+	private final boolean tracksBranches;
+	/**
+	 * The kinds of the ASCII characters, which parts of the counting have to look at them.
+	 */
+	private final byte[] charKinds = new byte[128];
+	/**
+	 * The visitor each thread counts with in {@link #count(Function)}, reset for every function instead of created.
+	 */
+	private final ThreadLocal<Visitor> countingVisitors = ThreadLocal.withInitial(Visitor::new);
+
+	/**
+	 * Compiles the rules of a language.
+	 *
+	 * @param rules The rules.
+	 */
+	public DecisionPointCounter (List<ComplexityRules.Rule> rules) {
+		this.rules = rules.toArray(ComplexityRules.Rule[]::new);
+		transitions = new int[16 * ALPHABET_SIZE];
+		triggeredRules = new int[16][];
+		int ternaryWeight = 0;
+		boolean tracksBranches = false;
+		for (ComplexityRules.Rule rule : this.rules) {
+			if (rule.requirement() == ComplexityRules.Requirement.TERNARY)
+				ternaryWeight += rule.weight();
+			else if (rule.requirement() == ComplexityRules.Requirement.BRANCH && rule.weight() != 0)
+				tracksBranches = true;
+		}
+		this.ternaryWeight = ternaryWeight;
+		this.tracksBranches = tracksBranches;
+
+		for (int rule = 0; rule < this.rules.length; rule++) {
+			ComplexityRules.Rule compiledRule = this.rules[rule];
+			// ternary operators are found by following every '?' and ':', not by the automaton, and rules without
+			// a weight don't need to be matched, unless they start the blocks the branches are counted in
+			if (compiledRule.requirement() != ComplexityRules.Requirement.TERNARY && (compiledRule.weight() != 0 ||
+					    tracksBranches && compiledRule.requirement() == ComplexityRules.Requirement.BLOCK))
+				addTrigger(compiledRule.trigger(), rule);
+		}
+
+		for (char c = 0; c < charKinds.length; c++) {
+			boolean startsTrigger = c >= FIRST_CHAR && c <= '~' && transitions[c - FIRST_CHAR] != 0;
+			if (isWordChar(c))
+				charKinds[c] = startsTrigger ? WORD | KEYWORD_START : WORD;
+			else if (startsTrigger)
+				charKinds[c] = OPERATOR_START;
+		}
+		if (ternaryWeight != 0) {
+			charKinds['?'] |= TERNARY_PART;
+			charKinds[':'] |= TERNARY_PART;
+		}
+		if (tracksBranches) {
+			charKinds['{'] |= BRACE;
+			charKinds['}'] |= BRACE;
+		}
+	}
+
+	private void addTrigger (String trigger, int rule) {
+		int state = 0;
+		for (int i = 0; i < trigger.length(); i++) {
+			int transition = state * ALPHABET_SIZE + trigger.charAt(i) - FIRST_CHAR;
+			if (transitions[transition] == 0) {
+				if (stateCount == triggeredRules.length) {
+					transitions = Arrays.copyOf(transitions, 2 * stateCount * ALPHABET_SIZE);
+					triggeredRules = Arrays.copyOf(triggeredRules, 2 * stateCount);
+				}
+				transitions[transition] = stateCount++;
+			}
+			state = transitions[transition];
+		}
+		int[] rules = triggeredRules[state];
+		rules = rules == null ? new int[1] : Arrays.copyOf(rules, rules.length + 1);
+		rules[rules.length - 1] = rule;
+		triggeredRules[state] = rules;
+		if (isWordChar(trigger.charAt(0)))
+			longestKeyword = Math.max(longestKeyword, trigger.length());
+	}
+
+	/**
+	 * Counts the complexity of the given code with the default rules.
+	 * Each 'if', 'else', 'for', 'while' and 'switch' adds 1, an 'else if' adds 1 in total, a ternary operator adds 2.
+	 * Kotlin code has no ternary operator, instead each 'when', each elvis operator (?:) and each '?.let' adds 1.
+	 *
+	 * @param code   The code to analyze, already cleaned up out of comments and string literals.
+	 * @param kotlin Whether the code is Kotlin code.
+	 * @return The complexity of the code.
+	 */
+	public static int countDecisionPoints (CharSequence code, boolean kotlin) {
+		return countDecisionPoints(code, 0, code.length(), kotlin);
+	}
+
+	/**
+	 * Counts the complexity of a range of the given code with the default rules, e.g. of a single function within the
+	 * contents of its file.
+	 *
+	 * @param code   The code containing the code to analyze, already cleaned up out of comments and string literals.
+	 * @param start  The index of the first character to analyze.
+	 * @param end    The index right after the last character to analyze.
+	 * @param kotlin Whether the code is Kotlin code.
+	 * @return The complexity of the range of the code.
+	 */
+	public static int countDecisionPoints (CharSequence code, int start, int end, boolean kotlin) {
+		return ComplexityRules.DEFAULT.counter(kotlin ? "kotlin" : "java").count(code, start, end);
+	}
+
+	/**
+	 * Counts the complexity of a range of the given code, e.g. of a single function within the contents of its file.
+	 * Scanning the range of the file contents directly is faster than scanning a view of the range.
+	 *
+	 * @param code  The code containing the code to analyze, already cleaned up out of comments and string literals.
+	 * @param start The index of the first character to analyze.
+	 * @param end   The index right after the last character to analyze.
+	 * @return The complexity of the range of the code.
+	 */
+	public int count (CharSequence code, int start, int end) {
+		return count(code, start, end, List.of());
+	}
+
+	/**
+	 * Counts the complexity of a function, without the functions nested in it, which are counted on their own.
+	 *
+	 * @param function The function, already cleaned up out of comments and string literals.
+	 * @return The complexity of the function.
+	 */
+	public int count (Function function) {
+		return count(function.source(), function.start(), function.end(), function.nested());
+	}
+
+	/**
+	 * Counts the complexity of a range of code, skipping the given functions nested in it.
+	 */
+	private int count (CharSequence code, int start, int codeEnd, List<Function> nested) {
+		// the same tokens a MetricScanner would hand to the visitor, without dispatching them
+		Visitor visitor = countingVisitors.get();
+		visitor.begin(start, codeEnd);
+		int index = start;
+		for (int part = 0; part <= nested.size(); part++) {
+			int end = part < nested.size() ? nested.get(part).start() : codeEnd;
+			while (index < end) {
+				char c = code.charAt(index);
+				if (isWordChar(c)) {
+					int wordEnd = index + 1;
+					while (wordEnd < end && isWordChar(code.charAt(wordEnd)))
+						wordEnd++;
+					if ((charKinds[c] & KEYWORD_START) != 0)
+						visitor.word(code, index, wordEnd);
+					index = wordEnd;
+					continue;
+				}
+				if (c < charKinds.length && charKinds[c] != 0)
+					visitor.symbol(code, index);
+				index++;
+			}
+			if (part < nested.size())
+				index = nested.get(part).end();
+		}
+		return visitor.end();
+	}
+
+	/**
+	 * @return A visitor counting the complexity of a single function, for scanning it along with other metrics.
+	 */
+	public MetricVisitor newVisitor () {
+		return new Visitor();
+	}
+
+	/**
+	 * Counts the complexity of a single function, out of its words and the symbols that may be a part of a trigger,
+	 * of a ternary operator, or (if branches are counted) braces.
+	 */
+	private class Visitor implements MetricVisitor {
+		private int end;
+		private int complexity;
+		// a regex match can't start inside the previous match of the same regex, so for each rule with a
+		// parenthesized condition remember where its last match ended
+		private final int[] matchEnds = new int[rules.length];
+		// the first ')' after the last looked up '(', or end if there is none
+		private int closingParenthesis = -1;
+		// the '?' of the ternary operator candidate being scanned, and the first ':' that may belong to it
+		private int ternaryStart = -1, ternaryColon = -1;
+		// the end of the last matched operator, the rest of it is not looked at again, except by the ternary rule
+		private int operatorEnd;
+		// the depth of the braces, and the depths of the bodies of the blocks the branches are counted in
+		private int depth;
+		private int[] blockDepths = tracksBranches ? new int[8] : null;
+		private int blockCount;
+		private boolean blockPending;
+
+		@Override
+		public boolean visitsWord (char first) {
+			return (charKinds[first] & KEYWORD_START) != 0;
+		}
+
+		@Override
+		public boolean visitsSymbol (char c) {
+			return c < charKinds.length && charKinds[c] != 0 && (charKinds[c] & WORD) == 0;
+		}
+
+		@Override
+		public void begin (Function function) {
+			begin(function.start(), function.end());
+		}
+
+		/**
+		 * Starts counting the code between the given indexes, forgetting everything about the code counted before.
+		 */
+		private void begin (int start, int end) {
+			this.end = end;
+			complexity = 0;
+			Arrays.fill(matchEnds, start);
+			closingParenthesis = -1;
+			ternaryStart = -1;
+			ternaryColon = -1;
+			operatorEnd = start;
+			depth = 0;
+			blockCount = 0;
+			blockPending = false;
+		}
+
+		@Override
+		public void word (CharSequence code, int index, int wordEnd) {
+			if (wordEnd - index > longestKeyword || index < operatorEnd)
+				return;
+			int[] keywordRules = lookUp(code, index, wordEnd);
+			if (keywordRules != null)
+				matchKeyword(code, index, wordEnd, keywordRules);
+		}
+
+		/**
+		 * Counts the rules triggered by a keyword whose requirements are met.
+		 */
+		private void matchKeyword (CharSequence code, int index, int wordEnd, int[] keywordRules) {
+			for (int rule : keywordRules) {
+				ComplexityRules.Rule keywordRule = rules[rule];
+				switch (keywordRule.requirement()) {
+					case NONE -> complexity += keywordRule.weight();
+					case SEPARATOR -> {
+						if (wordEnd < end && (isWhitespace(code.charAt(wordEnd)) || code.charAt(wordEnd) == '{'))
+							complexity += keywordRule.weight();
+					}
+					case BLOCK -> {
+						int blockStart = skipWhitespace(code, wordEnd, end);
+						if (blockStart < end && (code.charAt(blockStart) == '(' || code.charAt(blockStart) == '{')) {
+							complexity += keywordRule.weight();
+							blockPending = tracksBranches;
+						}
+					}
+					case CONDITION -> {
+						int conditionStart = skipWhitespace(code, wordEnd, end);
+						if (index >= matchEnds[rule] && conditionStart < end && code.charAt(conditionStart) == '(')
+							matchCondition(code, rule, conditionStart);
+					}
+					case ELSE_IF_CONDITION -> {
+						int ifStart = skipWhitespace(code, wordEnd, end);
+						if (ifStart > wordEnd && index >= matchEnds[rule] && ifStart + 1 < end &&
+								    code.charAt(ifStart) == 'i' && code.charAt(ifStart + 1) == 'f') {
+							int conditionStart = skipWhitespace(code, ifStart + 2, end);
+							if (conditionStart < end && code.charAt(conditionStart) == '(')
+								matchCondition(code, rule, conditionStart);
+						}
+					}
+					case BRANCH -> {
+						if (blockCount > 0 && blockDepths[blockCount - 1] == depth)
+							complexity += keywordRule.weight();
+					}
+					default -> {
+					}
+				}
+			}
+		}
+
+		/**
+		 * Counts a rule whose trigger is followed by a '(', if the parenthesis is closed.
+		 */
+		private void matchCondition (CharSequence code, int rule, int conditionStart) {
+			if (closingParenthesis <= conditionStart)
+				closingParenthesis = indexOfClosingParenthesis(code, conditionStart + 1, end);
+			if (closingParenthesis < end) {
+				complexity += rules[rule].weight();
+				matchEnds[rule] = closingParenthesis + 1;
+			}
+		}
+
+		@Override
+		public void symbol (CharSequence code, int index) {
+			char c = code.charAt(index);
+			int kind = c < charKinds.length ? charKinds[c] : 0;
+			if ((kind & TERNARY_PART) != 0) {
+				if (c == '?') {
+					if (isTernaryOperator(ternaryStart, ternaryColon, index))
+						complexity += ternaryWeight;
+					ternaryStart = index;
+					ternaryColon = -1;
+				} else if (c == ':' && ternaryStart >= 0 && ternaryColon < 0 && index > ternaryStart + 1) {
+					ternaryColon = index;
+				}
+			}
+			if (index < operatorEnd)
+				return;
+			if ((kind & BRACE) != 0) {
+				if (c == '{') {
+					depth++;
+					if (blockPending) {
+						if (blockCount == blockDepths.length)
+							blockDepths = Arrays.copyOf(blockDepths, 2 * blockCount);
+						blockDepths[blockCount++] = depth;
+						blockPending = false;
+					}
+				} else if (c == '}') {
+					if (blockCount > 0 && blockDepths[blockCount - 1] == depth)
+						blockCount--;
+					depth--;
+				}
+			}
+			if ((kind & OPERATOR_START) == 0)
+				return;
+
+			// the longest operator starting here
+			int state = 0;
+			int[] operatorRules = null;
+			for (int i = index; i < end; i++) {
+				char next = code.charAt(i);
+				if (next < FIRST_CHAR || next > '~')
+					break;
+				state = transitions[state * ALPHABET_SIZE + next - FIRST_CHAR];
+				if (state == 0)
+					break;
+				if (triggeredRules[state] != null && (!isWordChar(next) || i + 1 == end ||
+						                                      !isWordChar(code.charAt(i + 1)))) {
+					operatorEnd = i + 1;
+					operatorRules = triggeredRules[state];
+				}
+			}
+			if (operatorRules == null)
+				return;
+			for (int rule : operatorRules) {
+				ComplexityRules.Rule operatorRule = rules[rule];
+				if (operatorRule.requirement() == ComplexityRules.Requirement.BRANCH) {
+					if (blockCount > 0 && blockDepths[blockCount - 1] == depth)
+						complexity += operatorRule.weight();
+				} else {
+					complexity += operatorRule.weight();
+				}
+			}
+		}
+
+		@Override
+		public int end () {
+			if (isTernaryOperator(ternaryStart, ternaryColon, end))
+				complexity += ternaryWeight;
+			return complexity;
+		}
+	}
+
+	/**
+	 * Runs a whole word through the automaton.
+	 *
+	 * @return The rules triggered by the word, or null if it's not a keyword.
+	 */
+	private int[] lookUp (CharSequence code, int start, int end) {
+		int state = 0;
+		for (int i = start; i < end; i++) {
+			state = transitions[state * ALPHABET_SIZE + code.charAt(i) - FIRST_CHAR];
+			if (state == 0)
+				return null;
+		}
+		return triggeredRules[state];
+	}
+
+	/**
+	 * Checks whether the code between a '?' and the next one (or the end of code) forms a ternary operator,
+	 * i.e. whether there is a ':' inside it, with at least one character on both sides.
+	 *
+	 * @param questionMark The index of the '?', or -1 if there is none.
+	 * @param colon        The index of the first ':' after at least one character following the '?', or -1.
+	 * @param end          The index of the next '?', or the length of the code.
+	 * @return True if it's a ternary operator, false otherwise.
+	 */
+	private static boolean isTernaryOperator (int questionMark, int colon, int end) {
+		return questionMark >= 0 && colon >= 0 && colon < end - 1;
+	}
+
+	private static int indexOfClosingParenthesis (CharSequence code, int index, int end) {
+		while (index < end && code.charAt(index) != ')')
+			index++;
+		return index;
+	}
+
+	private static int skipWhitespace (CharSequence code, int index, int end) {
+		while (index < end && isWhitespace(code.charAt(index)))
+			index++;
+		return index;
+	}
+
+	/**
+	 * Same as a regex \s.
+	 */
+	private static boolean isWhitespace (char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Same as a regex \w.
+	 */
+	static boolean isWordChar (char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
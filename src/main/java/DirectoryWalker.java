@@ -0,0 +1,493 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds the files to analyze in a directory tree, listing its subdirectories in parallel, and hands them out lazily,
+ * as soon as the directories they're in are listed.
+ * <p>
+ * Directories are listed on the threads of the pool as soon as their parents were listed, so whole subtrees are walked
+ * at the same time, while the files come out in a fixed order regardless of the timing: the entries of a directory are
+ * sorted by name, and a subdirectory is visited in place, before the entries after it (depth first, like
+ * {@link Files#walk}). The walk only gets {@value #LISTINGS_AHEAD} listings ahead of the files handed out, preferring
+ * the ones it will get to first, so a huge tree isn't listed into memory faster than it's consumed. Closing the walk
+ * cancels the listings started ahead.
+ * <p>
+ * Directories are pruned before they're listed: the ones matching the excludes (by default the build output, IDE and
+ * VCS directories, and {@code node_modules}), and the ones matching the {@code .gitignore} files found during the walk.
+ * The build output directories are only left out at the top of the walked directory, or next to a build file, e.g.
+ * {@code module/build/} next to {@code module/build.gradle.kts}, so a package named {@code build} is still walked.
+ * Files whose header comments say that they were generated, like "Generated by protoc" or "Code generated by ...
+ * DO NOT EDIT", are skipped as well.
+ */
+public class DirectoryWalker {
+	/**
+	 * The directories left out by default, in the {@code .gitignore} syntax (see {@link IgnoreRules}). Besides these,
+	 * the {@link #BUILD_OUTPUT_DIRECTORIES} next to a build file are left out by default.
+	 */
+	public static final List<String> DEFAULT_EXCLUDES = List.of(".git/", ".gradle/", ".idea/", "/build/", "/out/",
+	                                                            "/target/", "node_modules/");
+	/**
+	 * The names of the directories the build tools write their output to.
+	 */
+	public static final Set<String> BUILD_OUTPUT_DIRECTORIES = Set.of("build", "out", "target");
+	/**
+	 * The files that make a directory the root of a (sub)project, whose build output directories are left out.
+	 */
+	private static final List<String> BUILD_FILES = List.of("build.gradle", "build.gradle.kts", "settings.gradle",
+	                                                        "settings.gradle.kts", "pom.xml", "build.xml",
+	                                                        "build.sbt");
+
+	/**
+	 * The number of bytes at the start of a file searched for the generated code markers.
+	 */
+	private static final int HEADER_SIZE = 1024;
+	/**
+	 * The markers of generated code at the start of a comment, e.g. "Generated by the protocol buffer compiler",
+	 * "This file was automatically generated from ...", "AUTO-GENERATED FILE" or "Code generated by ... DO NOT EDIT".
+	 */
+	private static final Pattern GENERATED_COMMENT = Pattern.compile(
+			"^(?:(?:this (?:file|code|class|source) (?:is|was|has been) )?(?:auto-?|automatically )?generated" +
+			"(?: (?:file|code|class|source))?(?: by| from| with| using|\\s*[.:!-]|\\s*$)" +
+			"|code generated\\b.*\\bdo not edit\\b" +
+			"|do not (?:edit|modify)\\b.*\\bgenerated\\b)",
+			Pattern.CASE_INSENSITIVE);
+	/**
+	 * The {@code @generated} tag, anywhere in a comment.
+	 */
+	private static final Pattern GENERATED_TAG = Pattern.compile("(?:^|\\s)@generated\\b");
+
+	/**
+	 * How many directories may be listed ahead of the files handed out, by then or still being listed.
+	 */
+	static final int LISTINGS_AHEAD = 32;
+
+	/**
+	 * The files of a walk, in the order described above.
+	 * If a directory could not be listed, the iterator throws an {@link UncheckedIOException} when it gets to it.
+	 * A walk that isn't iterated to its end should be closed, to cancel the listings started ahead.
+	 */
+	public interface Walk extends Iterator<File>, Closeable {
+		@Override
+		void close ();
+	}
+
+	/**
+	 * An entry of a listed directory: either a file, or the listing of a subdirectory, which may not be done yet.
+	 */
+	private record Entry(File file, Listing directory) {}
+
+	private final Path root;
+	private final Predicate<Path> fileFilter;
+	private final ExecutorService pool;
+	private List<String> excludes = DEFAULT_EXCLUDES;
+	private boolean excludeBuildOutput = true;
+	private boolean gitignore = true;
+	private boolean skipGenerated = true;
+
+	/**
+	 * Constructs a walker listing the directories on the common fork-join pool.
+	 *
+	 * @param root       The directory to walk.
+	 * @param fileFilter Which files to hand out, e.g. by their extensions.
+	 */
+	public DirectoryWalker (Path root, Predicate<Path> fileFilter) {
+		this(root, fileFilter, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param root       The directory to walk.
+	 * @param fileFilter Which files to hand out, e.g. by their extensions.
+	 * @param pool       The threads listing the directories.
+	 */
+	public DirectoryWalker (Path root, Predicate<Path> fileFilter, ExecutorService pool) {
+		this.root = root;
+		this.fileFilter = fileFilter;
+		this.pool = pool;
+	}
+
+	/**
+	 * @param excludes The patterns of the paths to leave out, relative to the walked directory, in the
+	 *                 {@code .gitignore} syntax, see {@link IgnoreRules}. They replace the default excludes, including
+	 *                 the build output directories next to build files.
+	 */
+	public void setExcludes (List<String> excludes) {
+		this.excludes = List.copyOf(excludes);
+		this.excludeBuildOutput = false;
+	}
+
+	/**
+	 * @param gitignore Whether to leave out the paths matching the {@code .gitignore} files in the walked directory.
+	 */
+	public void setGitignore (boolean gitignore) {
+		this.gitignore = gitignore;
+	}
+
+	/**
+	 * @param skipGenerated Whether to leave out the files whose header says they were generated.
+	 */
+	public void setSkipGenerated (boolean skipGenerated) {
+		this.skipGenerated = skipGenerated;
+	}
+
+	/**
+	 * Starts walking the directory.
+	 *
+	 * @return The files, in the order described above.
+	 */
+	public Walk iterator () {
+		return new FileIterator(IgnoreRules.of(excludes));
+	}
+
+	/**
+	 * Starts walking the directory.
+	 *
+	 * @return The files, in the order described above. Closing the stream closes the walk.
+	 */
+	public Stream<File> stream () {
+		Walk walk = iterator();
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walk, Spliterator.ORDERED |
+				                                                              Spliterator.NONNULL), false)
+				       .onClose(walk::close);
+	}
+
+	/**
+	 * Lists a directory, and hands its subdirectories to the walk, to be listed ahead.
+	 *
+	 * @param directory         The directory.
+	 * @param relativeDirectory The path of the directory relative to the walked one, ending with '/', or empty.
+	 * @param rules             The rules of the parent directory.
+	 * @param walk              The walk the directory is listed for.
+	 * @return The entries of the directory, sorted by their names.
+	 */
+	private List<Entry> list (Path directory, String relativeDirectory, IgnoreRules rules, FileIterator walk)
+			throws IOException {
+		long start = Instrumentation.start();
+		rules = directoryRules(relativeDirectory, directory, rules);
+
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path path : directoryStream)
+				paths.add(path);
+		}
+		paths.sort(null);
+
+		List<Entry> entries = new ArrayList<>();
+		List<Listing> subdirectories = new ArrayList<>();
+		int files = 0;
+		for (Path path : paths) {
+			String relativePath = relativeDirectory + path.getFileName();
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+			                                                      LinkOption.NOFOLLOW_LINKS);
+			if (attributes.isDirectory()) {
+				if (accepts(path, relativePath, true, rules)) {
+					Listing listing = new Listing(path, relativePath + "/", rules, walk);
+					entries.add(new Entry(null, listing));
+					subdirectories.add(listing);
+				}
+			} else if ((attributes.isRegularFile() || attributes.isSymbolicLink() && Files.isRegularFile(path)) &&
+					           accepts(path, relativePath, false, rules)) {
+				entries.add(new Entry(path.toFile(), null));
+				files++;
+			}
+		}
+		walk.listLater(subdirectories);
+		Instrumentation.stop(Instrumentation.Stage.WALK, start, files);
+		return entries;
+	}
+
+	/**
+	 * @return The rules of the walked directory itself: the excludes, and the patterns of its {@code .gitignore} file.
+	 * @throws IOException If the {@code .gitignore} file could not be read.
+	 */
+	IgnoreRules rootRules () throws IOException {
+		return directoryRules("", root, IgnoreRules.of(excludes));
+	}
+
+	/**
+	 * Gets the rules of a directory, for filtering the paths found other than by walking, e.g. by a watcher, the
+	 * same way as the walk would.
+	 *
+	 * @param relativeDirectory The path of the directory relative to the walked one, ending with '/', or empty.
+	 * @param directory         The directory.
+	 * @param parentRules       The rules of the parent directory, or the excludes for the walked directory.
+	 * @return The rules of the parent, extended with the patterns of the {@code .gitignore} file of the directory if
+	 * the {@code .gitignore} files are used.
+	 * @throws IOException If the {@code .gitignore} file could not be read.
+	 */
+	IgnoreRules directoryRules (String relativeDirectory, Path directory, IgnoreRules parentRules)
+			throws IOException {
+		return gitignore ? parentRules.withGitignore(relativeDirectory, directory) : parentRules;
+	}
+
+	/**
+	 * Checks whether the walk would go into a directory, or hand out a file.
+	 *
+	 * @param path         The directory or file.
+	 * @param relativePath The path relative to the walked directory, with '/' as the separator.
+	 * @param directory    Whether the path is a directory.
+	 * @param rules        The rules of the directory the path is in.
+	 * @return Whether the path is walked.
+	 * @throws IOException If the header of the file could not be read.
+	 */
+	boolean accepts (Path path, String relativePath, boolean directory, IgnoreRules rules) throws IOException {
+		if (rules.isIgnored(relativePath, directory))
+			return false;
+		if (directory)
+			return !(excludeBuildOutput && isBuildOutput(path));
+		return fileFilter.test(path) && !(skipGenerated && isGenerated(path));
+	}
+
+	/**
+	 * @return Whether the directory has the name of a build output directory, and there's a build file next to it.
+	 */
+	private static boolean isBuildOutput (Path directory) {
+		if (!BUILD_OUTPUT_DIRECTORIES.contains(directory.getFileName().toString()))
+			return false;
+		Path parent = directory.getParent();
+		for (String buildFile : BUILD_FILES) {
+			if (Files.isRegularFile(parent.resolve(buildFile)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the header of a file says that the file was generated.
+	 *
+	 * @param file The file.
+	 * @return Whether a comment in the first bytes of the file, before any code but the package and the imports,
+	 * starts with a marker of generated code or has the {@code @generated} tag.
+	 */
+	static boolean isGenerated (Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// keep reading until the header is full or the file ends
+			}
+		}
+		return isGeneratedHeader(new String(header.array(), 0, header.position(), StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Checks the comments of a file header line by line, until the first line of code other than the package, the
+	 * imports and the file annotations of Kotlin.
+	 *
+	 * @param header The start of the file.
+	 * @return Whether one of the comments marks the file as generated.
+	 */
+	static boolean isGeneratedHeader (String header) {
+		boolean inBlockComment = false;
+		for (String line : header.split("\\R")) {
+			String text = line.strip();
+			if (!inBlockComment) {
+				if (text.startsWith("//")) {
+					text = text.substring(2);
+				} else if (text.startsWith("/*")) {
+					text = text.substring(2);
+					inBlockComment = true;
+				} else if (text.isEmpty() || text.startsWith("package ") || text.startsWith("import ") ||
+						           text.startsWith("@file:")) {
+					continue;
+				} else {
+					return false;
+				}
+			}
+			if (inBlockComment) {
+				int end = text.indexOf("*/");
+				if (end >= 0) {
+					text = text.substring(0, end);
+					inBlockComment = false;
+				}
+			}
+			text = text.replaceFirst("^[/*\\s]+", "");
+			if (GENERATED_COMMENT.matcher(text).find() || GENERATED_TAG.matcher(text).find())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The listing of a directory, started on the pool once.
+	 */
+	private final class Listing {
+		private final Path directory;
+		private final String relativeDirectory;
+		private final IgnoreRules rules;
+		private final FileIterator walk;
+		private CompletableFuture<List<Entry>> entries;
+
+		Listing (Path directory, String relativeDirectory, IgnoreRules rules, FileIterator walk) {
+			this.directory = directory;
+			this.relativeDirectory = relativeDirectory;
+			this.rules = rules;
+			this.walk = walk;
+		}
+
+		/**
+		 * @return The entries of the directory, listed on the pool, which this starts unless it was started already.
+		 */
+		synchronized CompletableFuture<List<Entry>> start () {
+			if (entries == null) {
+				entries = CompletableFuture.supplyAsync(() -> {
+					try {
+						return list(directory, relativeDirectory, rules, walk);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, pool);
+			}
+			return entries;
+		}
+
+		synchronized boolean started () {
+			return entries != null;
+		}
+
+		synchronized void cancel () {
+			if (entries != null)
+				entries.cancel(false);
+		}
+	}
+
+	/**
+	 * Visits the listed directories depth first, waiting for a listing only when it gets to it, and keeps at most
+	 * {@link #LISTINGS_AHEAD} listings ahead of it.
+	 * <p>
+	 * The subdirectories found by the listings wait on a stack, the ones of the last listing on top, in their order,
+	 * which is about the order the iterator gets to them in. Whenever there's room ahead, the listing on top is
+	 * started. The listings run on the pool, while the iterator runs on its own thread, so the state shared with them
+	 * is guarded by the iterator.
+	 */
+	private class FileIterator implements Walk {
+		private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+		private CompletableFuture<List<Entry>> pendingDirectory;
+		private File next;
+
+		private final Deque<Listing> waiting = new ArrayDeque<>();
+		private final Set<Listing> ahead = new HashSet<>();
+		private boolean closed;
+
+		FileIterator (IgnoreRules rules) {
+			pendingDirectory = new Listing(root, "", rules, this).start();
+		}
+
+		/**
+		 * Queues the subdirectories of a listed directory, and starts listing as many of them as there's room for.
+		 */
+		synchronized void listLater (List<Listing> subdirectories) {
+			if (closed)
+				return;
+			for (int i = subdirectories.size() - 1; i >= 0; i--)
+				waiting.push(subdirectories.get(i));
+			fillAhead();
+		}
+
+		private void fillAhead () {
+			while (ahead.size() < LISTINGS_AHEAD && !waiting.isEmpty()) {
+				Listing listing = waiting.pop();
+				// the iterator may have got to it and listed it itself
+				if (!listing.started()) {
+					ahead.add(listing);
+					listing.start();
+				}
+			}
+		}
+
+		/**
+		 * @return The listing of a directory the iterator got to, started now unless it was started ahead.
+		 */
+		private synchronized CompletableFuture<List<Entry>> take (Listing listing) {
+			ahead.remove(listing);
+			CompletableFuture<List<Entry>> entries = listing.start();
+			fillAhead();
+			return entries;
+		}
+
+		@Override
+		public synchronized void close () {
+			closed = true;
+			waiting.clear();
+			for (Listing listing : ahead)
+				listing.cancel();
+			ahead.clear();
+		}
+
+		@Override
+		public boolean hasNext () {
+			while (next == null) {
+				if (closed())
+					return false;
+				if (pendingDirectory != null) {
+					stack.push(join(pendingDirectory).iterator());
+					pendingDirectory = null;
+				}
+				if (stack.isEmpty())
+					return false;
+				if (!stack.peek().hasNext()) {
+					stack.pop();
+					continue;
+				}
+				Entry entry = stack.peek().next();
+				if (entry.file() != null)
+					next = entry.file();
+				else
+					pendingDirectory = take(entry.directory());
+			}
+			return true;
+		}
+
+		@Override
+		public File next () {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			File file = next;
+			next = null;
+			return file;
+		}
+
+		private synchronized boolean closed () {
+			return closed;
+		}
+
+		private List<Entry> join (CompletableFuture<List<Entry>> directory) {
+			try {
+				return directory.join();
+			} catch (CompletionException e) {
+				// the walk ends here, so the listings ahead are of no use
+				close();
+				if (e.getCause() instanceof UncheckedIOException cause)
+					throw cause;
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,337 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the analysis results of a directory up to date while its files are being edited.
+ * It watches the whole directory tree with a {@link WatchService}, waits for a burst of changes to settle down and
+ * then re-analyzes only the files that were touched. Changes that never settle down, e.g. a file written to all the
+ * time, are still analyzed once they are {@link #setMaxDelayMillis(long) some time} old. Within a file, only the
+ * functions whose body changed are scored again, the results of the others are reused.
+ * <p>
+ * The directories and files are filtered by a {@link DirectoryWalker}, the same way as when the directory is analyzed
+ * as a whole: excluded and ignored directories are not even watched, so e.g. the build output doesn't trigger a new
+ * analysis.
+ * <p>
+ * A file or directory that can't be read, e.g. because it's being deleted or isn't readable, is reported to the
+ * listener and watching goes on with the others. Only failures of the root directory and of the listener end it.
+ */
+public class DirectoryWatcher implements Closeable {
+	/**
+	 * Receives the results of the analysis, whenever they change.
+	 */
+	public interface Listener {
+		void fileAnalyzed (Path file, List<FunctionMetrics> functions) throws IOException;
+
+		void fileDeleted (Path file) throws IOException;
+
+		/**
+		 * Called when a file could not be analyzed, or a directory could not be watched. The previous results of the
+		 * file, if any, are kept until it changes again.
+		 *
+		 * @param path  The file or directory.
+		 * @param error Why it failed.
+		 */
+		void pathFailed (Path path, IOException error) throws IOException;
+	}
+
+	private final Path root;
+	private final long quietPeriodMillis;
+	private long maxDelayMillis = 2000;
+	private final Listener listener;
+	private final WatchService watchService;
+	private final Map<WatchKey, WatchedDirectory> watchedDirectories = new HashMap<>();
+	private DirectoryWalker directoryWalker;
+	/**
+	 * Results of the functions of every analyzed file, by the hash of their bodies.
+	 */
+	private final Map<Path, Map<Long, FunctionMetrics>> analyzedFiles = new HashMap<>();
+	private int lastRescoredFunctions;
+	private MetricScanner metricScanner = MetricScanner.DEFAULT;
+	/**
+	 * The paths that could not be watched while the changes were collected, reported with the next changes.
+	 */
+	private final Map<Path, IOException> failedPaths = new LinkedHashMap<>();
+
+	/**
+	 * A watched directory.
+	 *
+	 * @param path         The directory.
+	 * @param relativePath The path of the directory relative to the root, ending with '/', or empty for the root.
+	 * @param rules        The rules filtering the paths in the directory.
+	 */
+	private record WatchedDirectory(Path path, String relativePath, IgnoreRules rules) {}
+
+	/**
+	 * Constructs a watcher of the given directory.
+	 *
+	 * @param root              The directory to watch.
+	 * @param quietPeriodMillis How long there must be no changes before the changed files are analyzed.
+	 * @param listener          The listener receiving the results.
+	 * @throws IOException If the watch service could not be created.
+	 */
+	public DirectoryWatcher (Path root, long quietPeriodMillis, Listener listener) throws IOException {
+		this.root = root;
+		this.quietPeriodMillis = quietPeriodMillis;
+		this.listener = listener;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.directoryWalker = new DirectoryWalker(root, FileReader::isAnalysableFile);
+	}
+
+	/**
+	 * @param directoryWalker The walker whose excludes and settings filter the watched directories and files, one with
+	 *                        the default settings unless set before running.
+	 */
+	public void setDirectoryWalker (DirectoryWalker directoryWalker) {
+		this.directoryWalker = directoryWalker;
+	}
+
+	/**
+	 * @param maxDelayMillis How long changes wait at most before they are analyzed, even if there are more changes
+	 *                       all the time; 2 seconds unless set before running.
+	 */
+	public void setMaxDelayMillis (long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * @param metricScanner The scanner measuring the functions, the default one unless set before running.
+	 */
+	public void setMetricScanner (MetricScanner metricScanner) {
+		this.metricScanner = metricScanner;
+	}
+
+	/**
+	 * Starts watching the directory and analyzes all the files in it, then keeps analyzing changed files until the
+	 * thread is interrupted or the watcher is closed.
+	 *
+	 * @throws IOException If the directory could not be watched, or the listener failed.
+	 */
+	public void run () throws IOException {
+		processChanges(registerRoot());
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+				Set<Path> changedPaths = new LinkedHashSet<>();
+				// coalesce a whole burst of changes, e.g. a save of several files or a branch switch, but only up to
+				// the deadline, the changes after it are left for the next round
+				while (key != null) {
+					collectChanges(key, changedPaths);
+					long waitNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis),
+					                          deadline - System.nanoTime());
+					key = waitNanos > 0 ? watchService.poll(waitNanos, TimeUnit.NANOSECONDS) : null;
+				}
+				processChanges(changedPaths);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// the watcher was closed, nothing more to do
+		}
+	}
+
+	/**
+	 * Registers the root directory and all of its subdirectories with the watch service.
+	 *
+	 * @return All the analysable files in the registered directories.
+	 * @throws IOException If any of the directories could not be registered.
+	 */
+	private Set<Path> registerRoot () throws IOException {
+		Set<Path> files = new LinkedHashSet<>();
+		registerTree(root, "", directoryWalker.rootRules(), files);
+		return files;
+	}
+
+	/**
+	 * Registers a directory and all of its subdirectories, except the ones the walker leaves out. The subdirectories
+	 * and files that can't be read are left out, and recorded in {@link #failedPaths}.
+	 *
+	 * @param directory         The directory to register.
+	 * @param relativeDirectory The path of the directory relative to the root, ending with '/', or empty.
+	 * @param rules             The rules of the directory.
+	 * @param files             Receives the analysable files in the registered directories.
+	 * @throws IOException If the directory itself could not be registered or listed.
+	 */
+	private void registerTree (Path directory, String relativeDirectory, IgnoreRules rules, Set<Path> files)
+			throws IOException {
+		WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+		                                  StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		watchedDirectories.put(key, new WatchedDirectory(directory, relativeDirectory, rules));
+
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+			for (Path path : directoryStream)
+				paths.add(path);
+		}
+		paths.sort(null);
+		for (Path path : paths) {
+			String relativePath = relativeDirectory + path.getFileName();
+			try {
+				if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					if (directoryWalker.accepts(path, relativePath, true, rules))
+						registerTree(path, relativePath + "/",
+						             directoryWalker.directoryRules(relativePath + "/", path, rules), files);
+				} else if (Files.isRegularFile(path) && directoryWalker.accepts(path, relativePath, false, rules)) {
+					files.add(path);
+				}
+			} catch (IOException e) {
+				recordFailure(path, e);
+			}
+		}
+	}
+
+	/**
+	 * Records a path that could not be watched, to be reported with the next changes. A path that no longer exists
+	 * isn't a failure, its deletion is reported as a change instead.
+	 */
+	private void recordFailure (Path path, IOException e) {
+		if (!(e instanceof NoSuchFileException))
+			failedPaths.put(path, e);
+	}
+
+	/**
+	 * Collects the paths changed according to the events of the key, and registers newly created directories.
+	 * The paths the walker leaves out are ignored, the ones that can't be read are recorded in {@link #failedPaths}.
+	 *
+	 * @throws IOException If the root directory could not be registered again after events were lost.
+	 */
+	private void collectChanges (WatchKey key, Set<Path> changedPaths) throws IOException {
+		WatchedDirectory directory = watchedDirectories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// some events were lost, so everything has to be checked
+				changedPaths.addAll(analyzedFiles.keySet());
+				changedPaths.addAll(registerRoot());
+				continue;
+			}
+
+			Path path = directory.path().resolve((Path) event.context());
+			String relativePath = directory.relativePath() + path.getFileName();
+			try {
+				if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+					analyzedFiles.keySet().stream().filter(file -> file.startsWith(path)).forEach(changedPaths::add);
+				} else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+							    directoryWalker.accepts(path, relativePath, true, directory.rules()))
+						registerTree(path, relativePath + "/",
+						             directoryWalker.directoryRules(relativePath + "/", path, directory.rules()),
+						             changedPaths);
+				} else if (Files.isRegularFile(path) &&
+						           directoryWalker.accepts(path, relativePath, false, directory.rules())) {
+					changedPaths.add(path);
+				}
+			} catch (IOException e) {
+				// e.g. a directory deleted right after it was created, or a file that can't be read
+				recordFailure(path, e);
+			}
+		}
+		if (!key.reset())
+			watchedDirectories.remove(key);
+	}
+
+	/**
+	 * Re-analyzes the changed files, or reports them as deleted if they no longer exist. The files that can't be read
+	 * are reported as failed, as are the paths that could not be watched since the last changes.
+	 *
+	 * @param changedPaths The files that changed.
+	 * @throws IOException If the listener failed.
+	 */
+	void processChanges (Set<Path> changedPaths) throws IOException {
+		List<Map.Entry<Path, IOException>> failures = new ArrayList<>(failedPaths.entrySet());
+		failedPaths.clear();
+		for (Map.Entry<Path, IOException> failure : failures)
+			listener.pathFailed(failure.getKey(), failure.getValue());
+
+		for (Path file : changedPaths) {
+			if (Files.isRegularFile(file)) {
+				List<FunctionMetrics> functions;
+				try {
+					functions = analyzeFile(file);
+				} catch (IOException e) {
+					listener.pathFailed(file, e);
+					continue;
+				}
+				if (functions != null)
+					listener.fileAnalyzed(file, functions);
+			} else if (analyzedFiles.remove(file) != null) {
+				listener.fileDeleted(file);
+			}
+		}
+	}
+
+	/**
+	 * Analyzes a file, scoring only the functions that are not the same as in the previous analysis of the file.
+	 *
+	 * @param file The file to analyze.
+	 * @return The results of analyzing the functions of the file, or null if the file disappeared in the meantime.
+	 * @throws IOException If the file could not be read.
+	 */
+	private List<FunctionMetrics> analyzeFile (Path file) throws IOException {
+		String fileType = file.toString().endsWith(".java") ? "java" : "kotlin";
+		AnalysisEvents.FileAnalysis event = AnalysisEvents.recording() ? new AnalysisEvents.FileAnalysis() : null;
+		if (event != null)
+			event.begin();
+		Function[] functions;
+		try {
+			functions = FileReader.getFunctionStringsFromContents(FileReader.readFileContents(file.toFile()),
+			                                                      fileType);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+
+		Map<Long, FunctionMetrics> previousResults = analyzedFiles.getOrDefault(file, Map.of());
+		Map<Long, FunctionMetrics> results = new HashMap<>();
+		List<FunctionMetrics> functionMetrics = new ArrayList<>(functions.length);
+		lastRescoredFunctions = 0;
+		for (Function function : functions) {
+			long bodyHash = ContentHash.of(function);
+			FunctionMetrics metrics = previousResults.get(bodyHash);
+			if (metrics == null) {
+				metrics = metricScanner.measure(function, fileType);
+				lastRescoredFunctions++;
+			}
+			results.put(bodyHash, metrics);
+			functionMetrics.add(metrics);
+		}
+		analyzedFiles.put(file, results);
+		if (event != null && event.shouldCommit()) {
+			event.path = file.toString();
+			// not Files.size, which fails if the file was deleted since it was read
+			event.size = file.toFile().length();
+			event.functionCount = functions.length;
+			event.commit();
+		}
+		return functionMetrics;
+	}
+
+	/**
+	 * @return The number of functions that had to be scored during the last analysis of a file.
+	 */
+	int getLastRescoredFunctions () {
+		return lastRescoredFunctions;
+	}
+
+	@Override
+	public void close () throws IOException {
+		watchService.close();
+	}
+}
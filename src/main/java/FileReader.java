@@ -1,13 +1,12 @@
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,14 +16,31 @@ import java.util.regex.Pattern;
  */
 public class FileReader {
 	private final String directoryPath;
+	private final DirectoryWalker directoryWalker;
 	private File[] files;
 	private Function[] methods;
 	private int filesIterator;
 	private int methodIterator;
 
-	private static Pattern javaMethodPattern = Pattern.compile("\\b(?!record)\\w+\\b(?:<[^<>]+(?:<[^<>]+>)*>)?\\s+\\w+\\s*\\([^()]*\\)\\s*(?:throws\\s+\\w+(?:,\\s*\\w+)*)?\\s*\\{");
+	// the patterns are held by classes of their own, so each is compiled only once it's used, e.g. analyzing just
+	// Java files never compiles the Kotlin pattern
+	private static class JavaMethodPattern {
+		static final Pattern PATTERN = Pattern.compile("\\b(?!record)\\w+\\b(?:<[^<>]+(?:<[^<>]+>)*>)?\\s+\\w+\\s*\\([^()]*\\)\\s*(?:throws\\s+\\w+(?:,\\s*\\w+)*)?\\s*\\{");
+	}
 
-	private static Pattern kotlinMethodPattern = Pattern.compile("\\b(fun\\s+('[^']*'|(\\w|\\$)+)\\s*([^)]*)[^{}\\n]*\\{|init\\s*\\{|constructor\\s*([^)]*)[^{]*\\{)");
+	private static class KotlinMethodPattern {
+		static final Pattern PATTERN = Pattern.compile("\\b(fun\\s+('[^']*'|(\\w|\\$)+)\\s*([^)]*)[^{}\\n]*\\{|init\\s*\\{|constructor\\s*([^)]*)[^{]*\\{)");
+	}
+
+	private static class FunctionNamePattern {
+		static final Pattern PATTERN = Pattern.compile("([a-zA-Z0-9_$]+) *\\(");
+	}
+
+	/**
+	 * The keywords that may look like the name of a function to the signature regexes, e.g. in "else if (x) {".
+	 */
+	private static final Set<String> CONTROL_KEYWORDS = Set.of("if", "for", "while", "switch", "catch",
+	                                                           "synchronized");
 
 
 	/**
@@ -34,6 +50,7 @@ public class FileReader {
 	 */
 	public FileReader (String directoryPath) {
 		this.directoryPath = directoryPath;
+		this.directoryWalker = new DirectoryWalker(Path.of(directoryPath), FileReader::isAnalysableFile);
 		filesIterator = 0;
 		methodIterator = 0;
 	}
@@ -53,19 +70,49 @@ public class FileReader {
 	}
 
 	/**
-	 * Retrieves all the analyzable files in the specified directory.
+	 * Retrieves all the Java/Kotlin files in the specified directory, in the same order in which
+	 * {@link #getNextFileName()} visits them.
+	 *
+	 * @return An array of File objects representing the files.
+	 * @throws SecurityException If a security manager exists and denies access to the directory.
+	 * @throws IOException      If an I/O error occurs while reading the directory.
+	 */
+	public File[] getAnalysableFiles () throws SecurityException, IOException {
+		return getFiles();
+	}
+
+	/**
+	 * Starts walking the directory for the Java/Kotlin files again, handing them out as soon as they're found, in the
+	 * same order as {@link #getAnalysableFiles()}.
+	 *
+	 * @return The files, to be closed unless they're iterated to the end. The iterator throws an
+	 * {@link UncheckedIOException} if a directory could not be listed.
+	 */
+	public DirectoryWalker.Walk walkAnalysableFiles () {
+		return directoryWalker.iterator();
+	}
+
+	/**
+	 * @return The walker finding the files, to set which files are left out.
+	 */
+	public DirectoryWalker getDirectoryWalker () {
+		return directoryWalker;
+	}
+
+	/**
+	 * Retrieves all the analyzable files in the specified directory, except for the ones the
+	 * {@link DirectoryWalker} leaves out.
 	 * By analyzable I mean, only the files that contain compilable Java/Kotlin code
 	 * @return An array of File objects representing the analyzable files.
 	 * @throws SecurityException If a security manager exists and denies access to the directory.
 	 * @throws IOException      If an I/O error occurs while reading the directory.
 	 */
 	private File[] getAllAnalysableFiles () throws SecurityException, IOException {
-		Path dir = Paths.get(directoryPath);
-
-		return Files.walk(dir)
-				       .filter(path -> Files.isRegularFile(path) && isAnalysableFile(path))
-				       .map(Path::toFile)
-				       .toArray(File[]::new);
+		try {
+			return directoryWalker.stream().toArray(File[]::new);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 		//TODO: at the end altogether check if the project compiles
 	}
 
@@ -75,7 +122,7 @@ public class FileReader {
 	 * @param filePath The path to the file.
 	 * @return True if the file is a compilable Java or Kotlin code, false otherwise.
 	 */
-	private static boolean isAnalysableFile (Path filePath) {
+	protected static boolean isAnalysableFile (Path filePath) {
 		String pathString = filePath.toString();
 		return (pathString.endsWith(".java") || pathString.endsWith(".kt") || pathString.endsWith(".kts"));
 	}
@@ -113,78 +160,421 @@ public class FileReader {
 	 *
 	 * @param file The file from which to extract methods.
 	 * @return An array of method strings.
-	 * @throws FileNotFoundException If the file could not be found.
+	 * @throws IOException If the file could not be read.
 	 */
-	protected static Function[] getFunctionStringsFromFile (File file) throws FileNotFoundException {
-		List<Function> functions = new ArrayList<>();
+	protected static Function[] getFunctionStringsFromFile (File file) throws IOException {
+		AnalysisEvents.FileAnalysis event = AnalysisEvents.recording() ? new AnalysisEvents.FileAnalysis() : null;
+		if (event != null)
+			event.begin();
+		CharSequence fileContents = readFileContents(file);
+		Function[] functions = getFunctionStringsFromContents(fileContents,
+		                                                      file.getName().endsWith(".java") ? "java" : "kotlin");
+		if (event != null && event.shouldCommit()) {
+			event.path = file.getPath();
+			event.size = file.length();
+			event.functionCount = functions.length;
+			event.commit();
+		}
+		return functions;
+	}
+
+	/**
+	 * Retrieves the functions strings from contents of a file that has already been read.
+	 *
+	 * @param fileContents The contents of the file from which to extract methods.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @return An array of method strings.
+	 */
+	protected static Function[] getFunctionStringsFromContents (CharSequence fileContents, String fileType) {
+		long start = Instrumentation.start();
+		CharSequence cleanedContents = SourceCleaner.clean(fileContents, true, true, fileType.equals("kotlin"));
+		Instrumentation.stop(Instrumentation.Stage.CLEAN, start, fileContents.length());
+		return extractFunctions(cleanedContents, fileType);
+	}
 
-		// Read the file contents into a string
-		String fileContents = readFileContents(file);
-		fileContents = cleanUpRedundantPiecesOfCode(fileContents);
+	/**
+	 * Retrieves the functions from contents of a file that has already been read, giving up once the deadline has
+	 * passed, e.g. when the signature regexes backtrack catastrophically on minified code. The functions read their
+	 * source through the deadline too, so measuring them gives up once it has passed as well.
+	 *
+	 * @param fileContents The contents of the file from which to extract methods.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @param deadline     The deadline, as a {@link System#nanoTime()}.
+	 * @return An array of method strings.
+	 * @throws InterruptibleCharSequence.BudgetExceededException If the deadline has passed.
+	 */
+	protected static Function[] getFunctionStringsFromContents (CharSequence fileContents, String fileType,
+	                                                            long deadline) {
+		long start = Instrumentation.start();
+		CharSequence cleanedContents = SourceCleaner.clean(fileContents, true, true, fileType.equals("kotlin"));
+		Instrumentation.stop(Instrumentation.Stage.CLEAN, start, fileContents.length());
+		return extractFunctions(new InterruptibleCharSequence(cleanedContents, deadline), fileType);
+	}
+
+	/**
+	 * Retrieves the functions from contents of a file that has already been read, in linear time, see
+	 * {@link #extractFunctionsLinearly}.
+	 *
+	 * @param fileContents The contents of the file from which to extract methods.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @return An array of method strings.
+	 */
+	protected static Function[] getFunctionStringsFromContentsLinearly (CharSequence fileContents, String fileType) {
+		long start = Instrumentation.start();
+		CharSequence cleanedContents = SourceCleaner.clean(fileContents, true, true, fileType.equals("kotlin"));
+		Instrumentation.stop(Instrumentation.Stage.CLEAN, start, fileContents.length());
+		return extractFunctionsLinearly(cleanedContents, fileType);
+	}
+
+	/**
+	 * Extracts the functions from contents of a file that have already been cleaned up, in a single pass: the
+	 * signatures are found by the regex in the order of the file, and a single cursor matching the braces follows
+	 * them, so the end of each function is found without scanning its body again. A function whose signature is
+	 * found before the function around it ends is nested in it, see {@link Function#nested()}.
+	 *
+	 * @param fileContents The cleaned-up contents of the file from which to extract methods.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @return An array of method strings, the nested ones right after the function they're nested in.
+	 */
+	protected static Function[] extractFunctions (CharSequence fileContents, String fileType) {
+		long start = Instrumentation.start();
+		List<Function> functions = new ArrayList<>();
 
 		// Regex pattern to match method definition
 		Pattern pattern;
-		if(file.toString().endsWith(".java"))
-			pattern = javaMethodPattern;
+		if(fileType.equals("java"))
+			pattern = JavaMethodPattern.PATTERN;
 		else
-			pattern = kotlinMethodPattern;
+			pattern = KotlinMethodPattern.PATTERN;
 
 		Matcher matcher = pattern.matcher(fileContents);
+		BraceMatcher braceMatcher = new BraceMatcher(fileContents, functions);
 
-		while (matcher.find()) {
-			String fileType = file.getName().endsWith(".java") ? "java" : "kotlin";
-			Function function = extractFunction(matcher.group(), fileContents, fileType);
-			functions.add(function);
-		}
+		while (matcher.find())
+			braceMatcher.signature(extractFunctionName(fileContents, matcher.start(), matcher.end()), matcher.start());
+		braceMatcher.finish();
 
+		Instrumentation.stop(Instrumentation.Stage.EXTRACT, start, functions.size());
 		return functions.toArray(new Function[0]);
 	}
 
-
 	/**
-	 * Reads the contents of the specified file into a String.
+	 * Extracts the functions from contents of a file that have already been cleaned up, like
+	 * {@link #extractFunctions}, but finds the signatures with a state machine instead of the regexes. It reads each
+	 * character once, so it takes linear time on any input, e.g. on the minified files the regexes backtrack on for
+	 * minutes. On ordinary code it finds the same functions, it only tells apart fewer of the odd signatures the
+	 * regexes are confused by.
 	 *
-	 * @param file The file to read.
-	 * @return The contents of the file as a string.
-	 * @throws FileNotFoundException If the file could not be found.
+	 * @param fileContents The cleaned-up contents of the file from which to extract methods.
+	 * @param fileType     The language of the file, either "java" or "kotlin".
+	 * @return An array of method strings, the nested ones right after the function they're nested in.
+	 */
+	protected static Function[] extractFunctionsLinearly (CharSequence fileContents, String fileType) {
+		long start = Instrumentation.start();
+		List<Function> functions = new ArrayList<>();
+		BraceMatcher braceMatcher = new BraceMatcher(fileContents, functions);
+		if (fileType.equals("java"))
+			findJavaSignatures(fileContents, braceMatcher);
+		else
+			findKotlinSignatures(fileContents, braceMatcher);
+		braceMatcher.finish();
+
+		Instrumentation.stop(Instrumentation.Stage.EXTRACT, start, functions.size());
+		return functions.toArray(new Function[0]);
+	}
+
+	// the states of finding the Java signatures: after a word, a type followed by whitespace, the parameters, ...
+	private static final int NONE = 0, WORD = 1, WORD_SPACE = 2, GENERICS = 3, TYPE_END = 4, TYPE_SPACE = 5,
+			PARAMETERS = 6, AFTER_PARAMETERS = 7, THROWS = 8;
+
+	/**
+	 * Finds the signatures the Java method regex matches, i.e. {@code type[<generics>] name(parameters) [throws
+	 * exceptions] {}, reading each character once.
+	 */
+	private static void findJavaSignatures (CharSequence code, BraceMatcher braceMatcher) {
+		int state = NONE;
+		int wordStart = 0, wordEnd = 0;
+		// the start of the type before the current word, or -1 if there is none
+		int typeStart = -1;
+		int genericsDepth = 0;
+		int index = 0;
+		while (index < code.length()) {
+			char c = code.charAt(index);
+			if (DecisionPointCounter.isWordChar(c)) {
+				int end = index + 1;
+				while (end < code.length() && DecisionPointCounter.isWordChar(code.charAt(end)))
+					end++;
+				switch (state) {
+					case GENERICS, PARAMETERS, THROWS -> { }
+					case AFTER_PARAMETERS -> {
+						if (isWord(code, index, end, "throws"))
+							state = THROWS;
+						else
+							typeStart = -1;
+					}
+					case WORD_SPACE -> typeStart = isWord(code, wordStart, wordEnd, "record") ? -1 : wordStart;
+					case TYPE_SPACE -> { }
+					default -> typeStart = -1;
+				}
+				if (state != GENERICS && state != PARAMETERS && state != THROWS) {
+					state = WORD;
+					wordStart = index;
+					wordEnd = end;
+				}
+				index = end;
+				continue;
+			}
+
+			switch (c) {
+				case ' ', '\t', '\n', '\r', '\f' -> {
+					if (state == WORD)
+						state = WORD_SPACE;
+					else if (state == TYPE_END)
+						state = TYPE_SPACE;
+				}
+				case '<' -> {
+					if (state == WORD && !isWord(code, wordStart, wordEnd, "record")) {
+						state = GENERICS;
+						typeStart = wordStart;
+						genericsDepth = 1;
+					} else if (state == GENERICS) {
+						genericsDepth++;
+					} else if (state != PARAMETERS) {
+						state = NONE;
+					}
+				}
+				case '>' -> {
+					if (state == GENERICS && --genericsDepth == 0)
+						state = TYPE_END;
+					else if (state != GENERICS && state != PARAMETERS)
+						state = NONE;
+				}
+				case '(' -> state = (state == WORD || state == WORD_SPACE) && typeStart >= 0 ? PARAMETERS : NONE;
+				case ')' -> state = state == PARAMETERS ? AFTER_PARAMETERS : NONE;
+				case '{' -> {
+					if (state == AFTER_PARAMETERS || state == THROWS)
+						braceMatcher.signature(code.subSequence(wordStart, wordEnd).toString(), typeStart);
+					if (state != PARAMETERS)
+						state = NONE;
+				}
+				case ',' -> {
+					if (state != GENERICS && state != PARAMETERS && state != THROWS)
+						state = NONE;
+				}
+				// never a part of type arguments, so they end what was a comparison, not type arguments, e.g. "a < b;"
+				case '}', ';', '=' -> {
+					if (state != PARAMETERS)
+						state = NONE;
+				}
+				default -> {
+					if (state != GENERICS && state != PARAMETERS)
+						state = NONE;
+				}
+			}
+			index++;
+		}
+	}
+
+	// the states of finding the Kotlin signatures: after "fun", after its parameters, after "init" or "constructor"
+	private static final int FUN = 1, FUN_AFTER_PARAMETERS = 2, INIT = 3, CONSTRUCTOR = 4;
+
+	/**
+	 * Finds the signatures the Kotlin function regex matches, i.e. {@code fun name(parameters) ... {} with the brace
+	 * on the line of the closing parenthesis, {@code init {} and {@code constructor(parameters) ... {}, reading each
+	 * character once.
+	 */
+	private static void findKotlinSignatures (CharSequence code, BraceMatcher braceMatcher) {
+		int state = NONE;
+		int signatureStart = 0;
+		// the word right before the first parenthesis of the signature, or null before it
+		String name = null;
+		int wordStart = 0, wordEnd = 0;
+		int index = 0;
+		while (index < code.length()) {
+			char c = code.charAt(index);
+			if (DecisionPointCounter.isWordChar(c)) {
+				int end = index + 1;
+				while (end < code.length() && DecisionPointCounter.isWordChar(code.charAt(end)))
+					end++;
+				// like the leftmost regex match, a signature starts only if no other one has started before
+				if (state == NONE && isWord(code, index, end, "fun") && end < code.length() &&
+						    Character.isWhitespace(code.charAt(end))) {
+					state = FUN;
+					signatureStart = index;
+					name = null;
+				} else if (state == NONE && isWord(code, index, end, "init")) {
+					state = INIT;
+					signatureStart = index;
+				} else if (state == NONE && isWord(code, index, end, "constructor")) {
+					state = CONSTRUCTOR;
+					signatureStart = index;
+					name = "constructor";
+				} else if (state == INIT) {
+					state = NONE;
+				}
+				wordStart = index;
+				wordEnd = end;
+				index = end;
+				continue;
+			}
+
+			switch (c) {
+				case '(' -> {
+					if (state == FUN && name == null && wordEnd > signatureStart + 3 && isSpaces(code, wordEnd, index))
+						name = code.subSequence(wordStart, wordEnd).toString();
+					else if (state == INIT)
+						state = NONE;
+				}
+				case ')' -> {
+					if (state == FUN)
+						state = FUN_AFTER_PARAMETERS;
+					else if (state == INIT)
+						state = NONE;
+				}
+				case '{' -> {
+					if (state == INIT)
+						braceMatcher.signature("init", signatureStart);
+					else if (state != NONE)
+						braceMatcher.signature(name == null ? "init" : name, signatureStart);
+					state = NONE;
+				}
+				case '}', '\n' -> {
+					if (state == FUN_AFTER_PARAMETERS || state == INIT && c == '}')
+						state = NONE;
+				}
+				default -> {
+					if (state == INIT && !Character.isWhitespace(c))
+						state = NONE;
+				}
+			}
+			index++;
+		}
+	}
+
+	private static boolean isWord (CharSequence code, int start, int end, String word) {
+		if (end - start != word.length())
+			return false;
+		for (int i = 0; i < word.length(); i++) {
+			if (code.charAt(start + i) != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isSpaces (CharSequence code, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (code.charAt(i) != ' ')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Matches the braces of a file from its start to its end, closing the functions opened on the way.
+	 * A function ends with the brace that closes the depth of braces it started at.
 	 */
-	private static String readFileContents(File file) throws FileNotFoundException {
-		StringBuilder stringBuilder = new StringBuilder();
-		try (Scanner fileScanner = new Scanner(file)) {
-			while (fileScanner.hasNextLine()) {
-				stringBuilder.append(fileScanner.nextLine()).append("\n");
+	private static class BraceMatcher {
+		private final CharSequence fileContents;
+		private final List<Function> functions;
+		private final ArrayDeque<OpenFunction> openFunctions = new ArrayDeque<>();
+		private int index;
+		private int depth;
+
+		/**
+		 * A function whose end has not been found yet.
+		 *
+		 * @param name   The name of the function.
+		 * @param start  The index of the first character of the function.
+		 * @param depth  The depth of braces the function started at.
+		 * @param order  The index of the function in the functions of the file.
+		 * @param nested The functions nested in it found so far.
+		 */
+		private record OpenFunction(String name, int start, int depth, int order, List<Function> nested) {}
+
+		/**
+		 * @param fileContents The cleaned-up contents of the file.
+		 * @param functions    The list to put the functions to, in the order they are opened.
+		 */
+		BraceMatcher (CharSequence fileContents, List<Function> functions) {
+			this.fileContents = fileContents;
+			this.functions = functions;
+		}
+
+		/**
+		 * Opens a function at the start of its signature, its end is found by the later calls of {@link #advance}.
+		 * The signatures have to come in the order of the file.
+		 */
+		void signature (String name, int start) {
+			advance(start);
+			// e.g. "else if (x) {" looks like a signature too
+			if (CONTROL_KEYWORDS.contains(name))
+				return;
+			openFunctions.push(new OpenFunction(name, start, depth, functions.size(), new ArrayList<>()));
+			// the function takes its place once it's closed
+			functions.add(null);
+		}
+
+		/**
+		 * Matches the braces up to the given index, closing the functions that end before it.
+		 */
+		private void advance (int to) {
+			long start = Instrumentation.start();
+			int closed = 0;
+			for (; index < to; index++) {
+				char c = fileContents.charAt(index);
+				if (c == '{') {
+					depth++;
+				} else if (c == '}') {
+					depth--;
+					while (!openFunctions.isEmpty() && openFunctions.peek().depth() == depth) {
+						close(index + 1);
+						closed++;
+					}
+				}
 			}
+			Instrumentation.stop(Instrumentation.Stage.FIND_END, start, closed);
+		}
+
+		/**
+		 * Matches the rest of the braces, the functions that are still open at the end of the file end with it.
+		 */
+		void finish () {
+			advance(fileContents.length());
+			while (!openFunctions.isEmpty())
+				close(fileContents.length());
+		}
+
+		private void close (int end) {
+			OpenFunction openFunction = openFunctions.pop();
+			Function function = new Function(openFunction.name(), fileContents, openFunction.start(), end,
+			                                 openFunction.nested());
+			functions.set(openFunction.order(), function);
+			if (!openFunctions.isEmpty())
+				openFunctions.peek().nested().add(function);
 		}
-		return stringBuilder.toString();
 	}
 
 	/**
-	 * Extracts a function from the file contents based on its signature.
+	 * Reads the contents of the specified file, without decoding it into a String.
 	 *
-	 * @param functionSignature The signature of the method to extract.
-	 * @param fileContents    The contents of the file to extract the method from.
-	 * @return The extracted method.
+	 * @param file The file to read.
+	 * @return The contents of the file, see {@link SourceText} for how they are decoded.
+	 * @throws IOException If the file could not be read.
 	 */
-	private static Function extractFunction (String functionSignature, String fileContents, String fileType) {
-		String functionName = extractFunctionName(functionSignature, fileType);
-		int functionStartIndex = fileContents.indexOf(functionSignature);
-		int functionEndIndex = findFunctionEndIndex(functionStartIndex, fileContents);
-		String functionBody =fileContents.substring(functionStartIndex, functionEndIndex);
-		return new Function(functionName, functionBody);
+	protected static CharSequence readFileContents(File file) throws IOException {
+		return SourceText.read(file.toPath());
 	}
 
 	/**
 	 * Extracts the name of a function from its signature.
 	 *
-	 * @param functionSignature The signature of the function.
+	 * @param fileContents   The contents of the file containing the signature.
+	 * @param signatureStart The index of the first character of the signature.
+	 * @param signatureEnd   The index right after the last character of the signature.
 	 * @return The name of the function.
 	 */
-	private static String extractFunctionName (String functionSignature, String fileType) {
-		String methodNamePattern;
-		methodNamePattern = "([a-zA-Z0-9_$]+) *\\(";
-
-		Pattern pattern = Pattern.compile(methodNamePattern);
-		Matcher matcher = pattern.matcher(functionSignature);
+	private static String extractFunctionName (CharSequence fileContents, int signatureStart, int signatureEnd) {
+		Matcher matcher = FunctionNamePattern.PATTERN.matcher(fileContents).region(signatureStart, signatureEnd);
 		String functionName = null;
 		if(matcher.find())
 			functionName = matcher.group(1);
@@ -193,31 +583,6 @@ public class FileReader {
 		return functionName;
 	}
 
-	/**
-	 * Finds the end index of a method in the file contents string, given its start index.
-	 *
-	 * @param functionStartIndex The start index of the method in the file contents.
-	 * @param fileContents     The contents of the file.
-	 * @return The end index of the method.
-	 */
-	private static int findFunctionEndIndex (int functionStartIndex, String fileContents) {
-		int curlyBraceCount = 0;
-		int index = functionStartIndex;
-		while (index < fileContents.length()) {
-			char c = fileContents.charAt(index);
-			if (c == '{') {
-				curlyBraceCount++;
-			} else if (c == '}') {
-				curlyBraceCount--;
-				if (curlyBraceCount == 0) {
-					return index + 1;
-				}
-			}
-			index++;
-		}
-		return index; // Function end not found, return end of file
-	}
-
 	/**
 	 * Cleans up redundant pieces of code, including string literals and commented-out sections.
 	 * Comments and contents of string literals are considered reduncant, since they
@@ -226,8 +591,18 @@ public class FileReader {
 	 * @return The cleaned-up code.
 	 */
 	protected static String cleanUpRedundantPiecesOfCode(String code) {
-		code = emptyTheStringLiterals(code);
-		return deleteCommentedOutCode(code);
+		return cleanUpRedundantPiecesOfCode(code, "java");
+	}
+
+	/**
+	 * Cleans up redundant pieces of code, including string literals and commented-out sections,
+	 * in a single pass of the {@link SourceCleaner}.
+	 * @param code     The code to clean up.
+	 * @param fileType The language of the code, either "java" or "kotlin".
+	 * @return The cleaned-up code.
+	 */
+	protected static String cleanUpRedundantPiecesOfCode(String code, String fileType) {
+		return SourceCleaner.clean(code, true, true, fileType.equals("kotlin")).toString();
 	}
 
 	/**
@@ -237,11 +612,8 @@ public class FileReader {
 	 * @return The code with string literals replaced by empty strings.
 	 */
 	protected static String emptyTheStringLiterals(String code) {
-		Pattern pattern = Pattern.compile("\"[^\"]*\"");
-		Matcher matcher = pattern.matcher(code);
-
 		//so any "sdfgd" is in the end ""
-		return matcher.replaceAll("\"\"");
+		return SourceCleaner.clean(code, true, false, false).toString();
 	}
 
 	/**
@@ -251,9 +623,6 @@ public class FileReader {
 	 * @return The code with commented-out sections removed.
 	 */
 	protected static String deleteCommentedOutCode(String code) {
-		Pattern pattern = Pattern.compile("//.*|/\\*[^*]*\\*+(?:[^/*][^*]*\\*+)*/");
-		Matcher matcher = pattern.matcher(code);
-
-		return matcher.replaceAll("");
+		return SourceCleaner.clean(code, false, true, false).toString();
 	}
 }
@@ -1,2 +1,64 @@
-public record Function(String name, String body) {
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A function extracted from a source file.
+ * It doesn't hold a copy of its body, only the offsets of the body in the (cleaned-up) contents of its file,
+ * which are shared by all the functions of that file.
+ * <p>
+ * The functions of a file make up a tree: a function defined inside another one, e.g. a method of an anonymous class
+ * or a Kotlin local function, is one of its nested functions. Each part of the code belongs only to the innermost
+ * function containing it, so its metrics (except the length) are measured without the nested functions.
+ *
+ * @param name   The name of the function.
+ * @param source The contents of the file the function comes from.
+ * @param start  The index of the first character of the function in the source.
+ * @param end    The index right after the last character of the function in the source.
+ * @param nested The functions directly nested in this one, in the order of the source.
+ */
+public record Function(String name, CharSequence source, int start, int end, List<Function> nested) {
+
+	public Function {
+		Objects.checkFromToIndex(start, end, source.length());
+		nested = List.copyOf(nested);
+	}
+
+	/**
+	 * Constructs a function with no nested functions.
+	 *
+	 * @param name   The name of the function.
+	 * @param source The contents of the file the function comes from.
+	 * @param start  The index of the first character of the function in the source.
+	 * @param end    The index right after the last character of the function in the source.
+	 */
+	public Function (String name, CharSequence source, int start, int end) {
+		this(name, source, start, end, List.of());
+	}
+
+	/**
+	 * Constructs a function whose source is just its body.
+	 *
+	 * @param name The name of the function.
+	 * @param body The body of the function.
+	 */
+	public Function (String name, CharSequence body) {
+		this(name, body, 0, body.length());
+	}
+
+	/**
+	 * Retrieves the body of the function, as a view of its source (no characters are copied).
+	 *
+	 * @return The body of the function.
+	 */
+	public CharSequence body () {
+		return CharBuffer.wrap(source, start, end);
+	}
+
+	/**
+	 * @return The number of characters of the function body.
+	 */
+	public int length () {
+		return end - start;
+	}
 }
@@ -0,0 +1,79 @@
+/**
+ * The results of analyzing a single function, which is all the reports need to know about it.
+ * The metrics that were not measured are 0.
+ *
+ * @param name            The name of the function.
+ * @param complexity      The code complexity of the function.
+ * @param length          The number of characters of the (cleaned-up) function body.
+ * @param styleViolations The number of code style violations of the function.
+ * @param linesOfCode     The number of lines of the function with code on them.
+ * @param nestingDepth    The deepest nesting of blocks inside the function body.
+ * @param parameters      The number of parameters of the function.
+ * @param returns         The number of return statements of the function.
+ * @param bodyHash        The {@link ContentHash#of(Function)} of the function, to tell whether it changed.
+ */
+public record FunctionMetrics(String name, int complexity, int length, int styleViolations, int linesOfCode,
+                              int nestingDepth, int parameters, int returns, long bodyHash) {
+
+	/**
+	 * Constructs the results of a function of which only the {@link Metric#DEFAULTS} were measured.
+	 *
+	 * @param name            The name of the function.
+	 * @param complexity      The code complexity of the function.
+	 * @param length          The number of characters of the (cleaned-up) function body.
+	 * @param styleViolations The number of code style violations of the function.
+	 * @param bodyHash        The {@link ContentHash} of the (cleaned-up) function body.
+	 */
+	public FunctionMetrics (String name, int complexity, int length, int styleViolations, long bodyHash) {
+		this(name, complexity, length, styleViolations, 0, 0, 0, 0, bodyHash);
+	}
+
+	/**
+	 * Analyzes the code complexity and code style of a function.
+	 *
+	 * @param function The function to analyze.
+	 * @param fileType The language of the function, either "java" or "kotlin".
+	 * @return The results of the analysis.
+	 */
+	public static FunctionMetrics of (Function function, String fileType) {
+		return MetricScanner.DEFAULT.measure(function, fileType);
+	}
+
+	/**
+	 * Analyzes the code complexity, with the given rules, and code style of a function. To analyze many functions,
+	 * create a {@link MetricScanner} once instead.
+	 *
+	 * @param function The function to analyze.
+	 * @param fileType The language of the function, either "java" or "kotlin".
+	 * @param rules    The rules of counting decision points.
+	 * @return The results of the analysis.
+	 */
+	public static FunctionMetrics of (Function function, String fileType, ComplexityRules rules) {
+		MetricScanner scanner = rules == ComplexityRules.DEFAULT ? MetricScanner.DEFAULT
+		                                                         : new MetricScanner(Metric.DEFAULTS, rules);
+		return scanner.measure(function, fileType);
+	}
+
+	/**
+	 * @param metric The metric.
+	 * @return The value of the metric.
+	 */
+	public int value (Metric metric) {
+		return switch (metric) {
+			case COMPLEXITY -> complexity;
+			case LENGTH -> length;
+			case STYLE_VIOLATIONS -> styleViolations;
+			case LINES_OF_CODE -> linesOfCode;
+			case NESTING_DEPTH -> nestingDepth;
+			case PARAMETERS -> parameters;
+			case RETURNS -> returns;
+		};
+	}
+
+	/**
+	 * @return Whether the function complies with the code style conventions.
+	 */
+	public boolean styleCompliant () {
+		return styleViolations == 0;
+	}
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Asks the local {@code git} binary about the repository a directory is in: which files changed between two
+ * revisions, and what a file contained in a revision, without checking it out.
+ * <p>
+ * The paths are relative to the directory and use '/' as the separator, like git prints them. Only the Java and
+ * Kotlin files are reported.
+ */
+public class GitRepository {
+	/**
+	 * How a file changed between two revisions.
+	 */
+	public enum ChangeType {ADDED, MODIFIED, DELETED}
+
+	/**
+	 * A file that changed between two revisions.
+	 *
+	 * @param path The path of the file, relative to the directory.
+	 * @param type How the file changed.
+	 */
+	public record Change(String path, ChangeType type) {}
+
+	private final Path directory;
+
+	/**
+	 * @param directory A directory in a git working tree.
+	 */
+	public GitRepository (Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Lists the Java and Kotlin files in the directory that changed between two revisions. Renames are reported as a
+	 * deletion and an addition.
+	 *
+	 * @param baseRevision The old revision, e.g. "main" or "HEAD~1".
+	 * @param headRevision The new revision, or null to compare with the working tree (the files not tracked by git are
+	 *                     not included then).
+	 * @return The changed files, sorted by their paths.
+	 * @throws IOException If git failed, e.g. if a revision does not exist, or the directory is not in a repository.
+	 */
+	public List<Change> changedFiles (String baseRevision, String headRevision) throws IOException {
+		checkRevision(baseRevision);
+		if (headRevision != null)
+			checkRevision(headRevision);
+		List<String> command = new ArrayList<>(List.of("git", "diff", "--name-status", "-z", "--no-renames",
+		                                               "--relative", baseRevision));
+		if (headRevision != null)
+			command.add(headRevision);
+		command.add("--");
+		String output = run(command);
+
+		List<Change> changes = new ArrayList<>();
+		String[] fields = output.split("\0");
+		for (int i = 0; i + 1 < fields.length; i += 2) {
+			String status = fields[i];
+			String path = fields[i + 1];
+			if (!FileReader.isAnalysableFile(Path.of(path)))
+				continue;
+			ChangeType type = switch (status.charAt(0)) {
+				case 'A' -> ChangeType.ADDED;
+				case 'D' -> ChangeType.DELETED;
+				default -> ChangeType.MODIFIED;
+			};
+			changes.add(new Change(path, type));
+		}
+		return changes;
+	}
+
+	/**
+	 * Makes sure that git takes a revision as one: no revision starts with '-', but git would take it as an option,
+	 * e.g. one writing the output to a file.
+	 *
+	 * @throws IOException If the revision starts with '-'.
+	 */
+	private static void checkRevision (String revision) throws IOException {
+		if (revision.startsWith("-"))
+			throw new IOException("Not a revision: " + revision);
+	}
+
+	/**
+	 * Starts reading files from the repository. All the files are read through a single git process.
+	 *
+	 * @return The reader, which has to be closed.
+	 * @throws IOException If git could not be started.
+	 */
+	public BlobReader openBlobReader () throws IOException {
+		return new BlobReader(new ProcessBuilder("git", "cat-file", "--batch")
+				                      .directory(directory.toFile())
+				                      .redirectError(ProcessBuilder.Redirect.DISCARD)
+				                      .start());
+	}
+
+	/**
+	 * Reads the contents of files in given revisions, through a running {@code git cat-file --batch}.
+	 * It can be used by several threads, but reads one file at a time.
+	 */
+	public static class BlobReader implements Closeable {
+		private final Process process;
+		private final OutputStream requests;
+		private final InputStream responses;
+
+		private BlobReader (Process process) {
+			this.process = process;
+			this.requests = new BufferedOutputStream(process.getOutputStream());
+			this.responses = new BufferedInputStream(process.getInputStream(), 1 << 16);
+		}
+
+		/**
+		 * Reads a file as it was in a revision.
+		 *
+		 * @param revision The revision.
+		 * @param path     The path of the file, relative to the directory.
+		 * @return The contents of the file, or null if the file is not in the revision.
+		 * @throws IOException If git failed.
+		 */
+		public synchronized byte[] read (String revision, String path) throws IOException {
+			if (path.indexOf('\n') >= 0 || revision.indexOf('\n') >= 0)
+				return null;
+			requests.write((revision + ":./" + path + "\n").getBytes(StandardCharsets.UTF_8));
+			requests.flush();
+
+			// either "<object name> <type> <size>", or "<requested name> missing" (or "ambiguous"), where the requested
+			// name may have spaces in it, so the header is parsed from its end
+			String header = readLine();
+			if (header.endsWith(" missing") || header.endsWith(" ambiguous"))
+				return null;
+			int sizeStart = header.lastIndexOf(' ') + 1;
+			int typeStart = header.lastIndexOf(' ', sizeStart - 2) + 1;
+			int size = -1;
+			try {
+				if (typeStart > 0)
+					size = Integer.parseInt(header, sizeStart, header.length(), 10);
+			} catch (NumberFormatException e) {
+				// not a header of an object either
+			}
+			if (size < 0)
+				throw new IOException("Unexpected answer from git for " + path + ": " + header);
+			byte[] contents = responses.readNBytes(size);
+			if (contents.length < size || responses.read() != '\n')
+				throw new EOFException("git stopped in the middle of " + path);
+			return header.startsWith("blob ", typeStart) ? contents : null;
+		}
+
+		private String readLine () throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = responses.read()) != '\n') {
+				if (c < 0)
+					throw new EOFException("git stopped unexpectedly");
+				line.append((char) c);
+			}
+			return line.toString();
+		}
+
+		@Override
+		public void close () throws IOException {
+			try {
+				requests.close();
+			} finally {
+				process.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Runs a git command in the directory.
+	 *
+	 * @return The standard output of the command.
+	 * @throws IOException If the command failed, with its error output as the message.
+	 */
+	private String run (List<String> command) throws IOException {
+		Process process = new ProcessBuilder(command).directory(directory.toFile()).start();
+		process.getOutputStream().close();
+		// git stops when the pipe of either output is full, so the error output is read on a thread of its own
+		FutureTask<byte[]> errors = new FutureTask<>(() -> {
+			try (InputStream error = process.getErrorStream()) {
+				return error.readAllBytes();
+			}
+		});
+		Thread errorReader = new Thread(errors, "git-errors");
+		errorReader.setDaemon(true);
+		errorReader.start();
+		byte[] output;
+		try (InputStream input = process.getInputStream()) {
+			output = input.readAllBytes();
+		}
+		try {
+			if (process.waitFor() != 0)
+				throw new IOException(String.join(" ", command) + " failed: " +
+				                      new String(errors.get(), StandardCharsets.UTF_8).strip());
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for git");
+		} catch (ExecutionException e) {
+			throw new IOException(String.join(" ", command) + " failed", e.getCause());
+		}
+		return new String(output, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Patterns of paths to leave out, in the syntax of a {@code .gitignore} file: '*' and '?' match within a path
+ * segment, "**" across segments, a leading '!' re-includes what an earlier pattern left out, a trailing '/' matches
+ * only directories, and a pattern with a '/' anywhere but at its end is anchored to the directory of the rules,
+ * otherwise it matches the name of a file or directory at any depth below it.
+ * <p>
+ * The rules of a directory extend the rules of its parent, and the last pattern matching a path decides, like in git.
+ * Rule sets are immutable, so the walker shares them between its threads.
+ */
+public class IgnoreRules {
+	/**
+	 * The rules that don't leave anything out.
+	 */
+	public static final IgnoreRules NONE = new IgnoreRules(null, "", List.of());
+
+	private record Rule(Pattern pattern, boolean negated, boolean directoryOnly) {}
+
+	private final IgnoreRules parent;
+	/**
+	 * The path of the directory of the rules relative to the directory of the outermost rules, ending with '/', or
+	 * empty.
+	 */
+	private final String prefix;
+	private final List<Rule> rules;
+
+	private IgnoreRules (IgnoreRules parent, String prefix, List<Rule> rules) {
+		this.parent = parent;
+		this.prefix = prefix;
+		this.rules = rules;
+	}
+
+	/**
+	 * Parses patterns that apply to a directory and everything below it.
+	 *
+	 * @param patterns The patterns, one per line, as in a {@code .gitignore} file.
+	 * @return The rules.
+	 */
+	public static IgnoreRules of (List<String> patterns) {
+		return NONE.extend("", patterns);
+	}
+
+	/**
+	 * Extends the rules with the patterns of a subdirectory, read from its {@code .gitignore} file, if it has one.
+	 *
+	 * @param relativeDirectory The path of the subdirectory relative to the directory of the outermost rules, with '/'
+	 *                          as the separator and ending with '/', or empty for that directory itself.
+	 * @param directory         The subdirectory.
+	 * @return The extended rules, or these rules if there's no {@code .gitignore} file.
+	 * @throws IOException If the {@code .gitignore} file could not be read.
+	 */
+	public IgnoreRules withGitignore (String relativeDirectory, Path directory) throws IOException {
+		Path gitignore = directory.resolve(".gitignore");
+		if (!Files.isRegularFile(gitignore))
+			return this;
+		return extend(relativeDirectory, Files.readAllLines(gitignore, StandardCharsets.UTF_8));
+	}
+
+	private IgnoreRules extend (String relativeDirectory, List<String> patterns) {
+		List<Rule> parsedRules = new ArrayList<>();
+		for (String line : patterns) {
+			Rule rule = parse(line);
+			if (rule != null)
+				parsedRules.add(rule);
+		}
+		return parsedRules.isEmpty() ? this : new IgnoreRules(this, relativeDirectory, parsedRules);
+	}
+
+	/**
+	 * Checks whether a path is left out.
+	 *
+	 * @param relativePath The path relative to the directory of the outermost rules, with '/' as the separator.
+	 * @param directory    Whether the path is a directory.
+	 * @return Whether the path is left out.
+	 */
+	public boolean isIgnored (String relativePath, boolean directory) {
+		return decide(relativePath, directory) == Boolean.TRUE;
+	}
+
+	/**
+	 * @return Whether the last matching pattern leaves the path out, or null if no pattern matches it.
+	 */
+	private Boolean decide (String relativePath, boolean directory) {
+		if (parent == null)
+			return null;
+		String ownPath = prefix.isEmpty() ? relativePath : null;
+		if (ownPath == null && relativePath.startsWith(prefix))
+			ownPath = relativePath.substring(prefix.length());
+		if (ownPath != null) {
+			for (int i = rules.size() - 1; i >= 0; i--) {
+				Rule rule = rules.get(i);
+				if ((directory || !rule.directoryOnly()) && rule.pattern().matcher(ownPath).matches())
+					return !rule.negated();
+			}
+		}
+		return parent.decide(relativePath, directory);
+	}
+
+	/**
+	 * Parses a single line of a {@code .gitignore} file.
+	 *
+	 * @return The rule, or null if the line is blank or a comment.
+	 */
+	private static Rule parse (String line) {
+		String pattern = line.stripTrailing();
+		if (pattern.isEmpty() || pattern.startsWith("#"))
+			return null;
+		boolean negated = pattern.startsWith("!");
+		if (negated || pattern.startsWith("\\!") || pattern.startsWith("\\#"))
+			pattern = pattern.substring(1);
+		boolean directoryOnly = pattern.endsWith("/");
+		if (directoryOnly)
+			pattern = pattern.substring(0, pattern.length() - 1);
+		if (pattern.isEmpty())
+			return null;
+
+		boolean anchored = pattern.indexOf('/') >= 0;
+		if (pattern.startsWith("/"))
+			pattern = pattern.substring(1);
+		String regex = (anchored || pattern.startsWith("**/") ? "" : "(?:.*/)?") + globToRegex(pattern);
+		return new Rule(Pattern.compile(regex), negated, directoryOnly);
+	}
+
+	private static String globToRegex (String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' && glob.startsWith("**", i)) {
+				boolean segmentStart = i == 0 || glob.charAt(i - 1) == '/';
+				if (segmentStart && glob.startsWith("**/", i)) {
+					regex.append("(?:.*/)?");
+					i += 2;
+				} else if (segmentStart && i + 2 == glob.length()) {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+					i++;
+				}
+			} else if (c == '*') {
+				regex.append("[^/]*");
+			} else if (c == '?') {
+				regex.append("[^/]");
+			} else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+				int end = glob.indexOf(']', i + 2);
+				String characters = glob.substring(i + 1, end).replace("\\", "\\\\").replace("[", "\\[");
+				if (characters.startsWith("!"))
+					characters = "^" + characters.substring(1);
+				regex.append('[').append(characters).append(']');
+				i = end;
+			} else if (c == '\\' && i + 1 < glob.length()) {
+				regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+}
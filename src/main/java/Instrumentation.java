@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures where the time of an analysis goes: how long each stage took, how many times it ran and how much it
+ * processed, and which files took the longest.
+ * <p>
+ * The stages report to whichever instrumentation is active, through static methods, so they don't have to be handed
+ * an instance. While no instrumentation is active those methods only read a single field and don't even read the
+ * clock. The counters are {@link LongAdder}s, so threads analyzing files in parallel don't contend on them.
+ */
+public class Instrumentation {
+	/**
+	 * The measured stages of the analysis, each with the unit of what it processes.
+	 */
+	public enum Stage {
+		/**
+		 * Walking the directory tree, in files found.
+		 */
+		WALK("files"),
+		/**
+		 * Reading files, in bytes.
+		 */
+		READ("bytes"),
+		/**
+		 * Removing comments and string literals, in characters.
+		 */
+		CLEAN("chars"),
+		/**
+		 * Matching method signatures and extracting the methods (including {@link #FIND_END}), in functions.
+		 */
+		EXTRACT("functions"),
+		/**
+		 * Matching the braces to find the ends of the extracted methods, in functions.
+		 */
+		FIND_END("functions"),
+		/**
+		 * Measuring all the metrics of methods, the complexity and the style included, in a single scan of each method
+		 * (see {@link MetricScanner}), in functions.
+		 */
+		METRICS("functions"),
+		/**
+		 * Evaluating the complexity of methods on its own, in functions.
+		 */
+		COMPLEXITY("functions"),
+		/**
+		 * Evaluating the code style of methods on their own, in functions.
+		 */
+		STYLE("functions"),
+		/**
+		 * Generating the report sections of files, in files.
+		 */
+		REPORT("files");
+
+		private final String unit;
+
+		Stage (String unit) {
+			this.unit = unit;
+		}
+
+		public String unit () {
+			return unit;
+		}
+	}
+
+	/**
+	 * The totals of a single stage.
+	 *
+	 * @param stage The stage.
+	 * @param calls How many times the stage ran.
+	 * @param nanos The total time spent in the stage, in nanoseconds.
+	 * @param units How much the stage processed, in the unit of the stage.
+	 */
+	public record StageMetrics(Stage stage, long calls, long nanos, long units) {}
+
+	/**
+	 * The measurements of a single file.
+	 *
+	 * @param path      The path of the file.
+	 * @param nanos     The time spent reading and analyzing the file, in nanoseconds.
+	 * @param bytes     The size of the file.
+	 * @param functions The number of functions in the file.
+	 */
+	public record FileMetrics(String path, long nanos, long bytes, int functions) {}
+
+	/**
+	 * The measurements taken so far.
+	 *
+	 * @param stages         The totals of each stage, in the order of {@link Stage}.
+	 * @param files          The number of analyzed files.
+	 * @param duplicateFiles The number of analyzed files that had the same contents as another file, whose results
+	 *                       they shared instead of being analyzed again.
+	 * @param duplicateBytes The total size of the duplicate files.
+	 * @param slowestFiles   The files that took the longest, slowest first.
+	 */
+	public record Snapshot(List<StageMetrics> stages, long files, long duplicateFiles, long duplicateBytes,
+	                       List<FileMetrics> slowestFiles) {
+		/**
+		 * @return The measurements as a JSON object.
+		 */
+		public String toJson () {
+			StringBuilder json = new StringBuilder("{\n  \"files\": ").append(files)
+					                     .append(",\n  \"duplicateFiles\": ").append(duplicateFiles)
+					                     .append(",\n  \"duplicateBytes\": ").append(duplicateBytes)
+					                     .append(",\n  \"stages\": {\n");
+			for (int i = 0; i < stages.size(); i++) {
+				StageMetrics stage = stages.get(i);
+				json.append("    \"").append(stage.stage().name().toLowerCase()).append("\": {\"calls\": ")
+						.append(stage.calls()).append(", \"nanos\": ").append(stage.nanos()).append(", \"")
+						.append(stage.stage().unit()).append("\": ").append(stage.units())
+						.append(i + 1 < stages.size() ? "},\n" : "}\n");
+			}
+			json.append("  },\n  \"slowestFiles\": [\n");
+			for (int i = 0; i < slowestFiles.size(); i++) {
+				FileMetrics file = slowestFiles.get(i);
+				json.append("    {\"path\": ").append(jsonString(file.path())).append(", \"nanos\": ")
+						.append(file.nanos()).append(", \"bytes\": ").append(file.bytes()).append(", \"functions\": ")
+						.append(file.functions()).append(i + 1 < slowestFiles.size() ? "},\n" : "}\n");
+			}
+			return json.append("  ]\n}\n").toString();
+		}
+	}
+
+	private static volatile Instrumentation active;
+
+	private final LongAdder[] calls = newAdders();
+	private final LongAdder[] nanos = newAdders();
+	private final LongAdder[] units = newAdders();
+	private final LongAdder files = new LongAdder();
+	private final LongAdder duplicateFiles = new LongAdder();
+	private final LongAdder duplicateBytes = new LongAdder();
+	private final int slowestFilesTracked;
+	/**
+	 * The slowest files so far, the fastest of them at the head.
+	 */
+	private final PriorityQueue<FileMetrics> slowestFiles =
+			new PriorityQueue<>(Comparator.comparingLong(FileMetrics::nanos));
+
+	private Instrumentation (int slowestFilesTracked) {
+		this.slowestFilesTracked = slowestFilesTracked;
+	}
+
+	/**
+	 * Starts measuring all analyses, replacing the active instrumentation if there is one.
+	 *
+	 * @param slowestFilesTracked How many of the slowest files to keep track of.
+	 * @return The new active instrumentation.
+	 */
+	public static Instrumentation enable (int slowestFilesTracked) {
+		Instrumentation instrumentation = new Instrumentation(slowestFilesTracked);
+		active = instrumentation;
+		return instrumentation;
+	}
+
+	/**
+	 * Stops measuring. The measurements taken so far stay readable through the instrumentation that was active.
+	 */
+	public static void disable () {
+		active = null;
+	}
+
+	/**
+	 * @return The active instrumentation, or null if nothing is being measured.
+	 */
+	public static Instrumentation active () {
+		return active;
+	}
+
+	/**
+	 * Reads the measurements taken so far. Can be called while the analysis is running.
+	 *
+	 * @return The measurements.
+	 */
+	public Snapshot snapshot () {
+		List<StageMetrics> stages = new ArrayList<>();
+		for (Stage stage : Stage.values()) {
+			int i = stage.ordinal();
+			stages.add(new StageMetrics(stage, calls[i].sum(), nanos[i].sum(), units[i].sum()));
+		}
+		List<FileMetrics> slowest;
+		synchronized (slowestFiles) {
+			slowest = new ArrayList<>(slowestFiles);
+		}
+		slowest.sort(Comparator.comparingLong(FileMetrics::nanos).reversed());
+		return new Snapshot(stages, files.sum(), duplicateFiles.sum(), duplicateBytes.sum(), slowest);
+	}
+
+	/**
+	 * Marks the start of a measured piece of work.
+	 *
+	 * @return The start time to pass to {@link #stop}, or 0 if nothing is being measured.
+	 */
+	static long start () {
+		return active == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * @param start The time returned by {@link #start()}.
+	 * @return The time since the start, or 0 if nothing was being measured at the start.
+	 */
+	static long elapsedSince (long start) {
+		return start == 0 ? 0 : System.nanoTime() - start;
+	}
+
+	/**
+	 * Records a finished run of a stage.
+	 *
+	 * @param stage The stage.
+	 * @param start The time returned by {@link #start()} before the stage started.
+	 * @param units How much the stage processed, in the unit of the stage.
+	 */
+	static void stop (Stage stage, long start, long units) {
+		Instrumentation instrumentation = active;
+		if (instrumentation == null || start == 0)
+			return;
+		int i = stage.ordinal();
+		instrumentation.nanos[i].add(System.nanoTime() - start);
+		instrumentation.calls[i].increment();
+		instrumentation.units[i].add(units);
+	}
+
+	/**
+	 * Records an analyzed file.
+	 *
+	 * @param path      The path of the file.
+	 * @param nanos     The time spent reading and analyzing the file.
+	 * @param bytes     The size of the file.
+	 * @param functions The number of functions in the file.
+	 */
+	static void fileAnalyzed (String path, long nanos, long bytes, int functions) {
+		Instrumentation instrumentation = active;
+		if (instrumentation == null)
+			return;
+		instrumentation.files.increment();
+		if (instrumentation.slowestFilesTracked == 0)
+			return;
+		PriorityQueue<FileMetrics> slowestFiles = instrumentation.slowestFiles;
+		synchronized (slowestFiles) {
+			if (slowestFiles.size() < instrumentation.slowestFilesTracked)
+				slowestFiles.add(new FileMetrics(path, nanos, bytes, functions));
+			else if (slowestFiles.peek().nanos() < nanos) {
+				slowestFiles.poll();
+				slowestFiles.add(new FileMetrics(path, nanos, bytes, functions));
+			}
+		}
+	}
+
+	/**
+	 * Records a file whose contents were already analyzed at another path, see {@link Snapshot#duplicateFiles()}.
+	 *
+	 * @param bytes The size of the file.
+	 */
+	static void fileDeduplicated (long bytes) {
+		Instrumentation instrumentation = active;
+		if (instrumentation == null)
+			return;
+		instrumentation.duplicateFiles.increment();
+		instrumentation.duplicateBytes.add(bytes);
+	}
+
+	private static LongAdder[] newAdders () {
+		LongAdder[] adders = new LongAdder[Stage.values().length];
+		for (int i = 0; i < adders.length; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	private static String jsonString (String text) {
+		StringBuilder json = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < ' ')
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		return json.append('"').toString();
+	}
+}
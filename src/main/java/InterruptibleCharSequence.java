@@ -0,0 +1,65 @@
+/**
+ * A view of a character sequence that gives up once a deadline has passed, or the thread has been interrupted, by
+ * throwing a {@link BudgetExceededException} from {@link #charAt}. Regexes read their input only through
+ * {@code charAt}, so wrapping the input of a regex bounds the time a catastrophically backtracking match can take.
+ * <p>
+ * The clock is only read every few thousand characters, so the check costs next to nothing, and the deadline may be
+ * overrun by the time it takes to read that many characters.
+ */
+public class InterruptibleCharSequence implements CharSequence {
+	private static final int READS_BETWEEN_CHECKS = 4096;
+
+	private final CharSequence chars;
+	private final long deadline;
+	private int readsUntilCheck = READS_BETWEEN_CHECKS;
+
+	/**
+	 * Thrown when the characters are read after the deadline.
+	 */
+	public static class BudgetExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BudgetExceededException (String message) {
+			super(message, null, false, false);
+		}
+	}
+
+	/**
+	 * @param chars    The characters to read.
+	 * @param deadline The deadline, as a {@link System#nanoTime()}.
+	 */
+	public InterruptibleCharSequence (CharSequence chars, long deadline) {
+		this.chars = chars;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public int length () {
+		return chars.length();
+	}
+
+	@Override
+	public char charAt (int index) {
+		if (--readsUntilCheck == 0) {
+			readsUntilCheck = READS_BETWEEN_CHECKS;
+			if (System.nanoTime() - deadline > 0)
+				throw new BudgetExceededException("The time budget is exceeded");
+			if (Thread.currentThread().isInterrupted())
+				throw new BudgetExceededException("The thread is interrupted");
+		}
+		return chars.charAt(index);
+	}
+
+	/**
+	 * @return The subsequence, without the deadline: it's e.g. a regex group, copied right away.
+	 */
+	@Override
+	public CharSequence subSequence (int start, int end) {
+		return chars.subSequence(start, end);
+	}
+
+	@Override
+	public String toString () {
+		return chars.toString();
+	}
+}
@@ -0,0 +1,56 @@
+import java.io.Writer;
+
+/**
+ * Writes the results as JSON Lines: a JSON object per function, on a line of its own, e.g.
+ * <pre>
+ * {"file":"src/Main.java","function":"main","complexity":2,"length":120,"styleViolations":0}
+ * </pre>
+ * followed by the other measured metrics, by their {@link Metric#key()}s.
+ */
+public class JsonLinesResultWriter extends TextResultWriter {
+	/**
+	 * @param output The writer to write the results to, it's flushed at the end, but not closed.
+	 */
+	public JsonLinesResultWriter (Writer output) {
+		super(output);
+	}
+
+	@Override
+	protected void putFile (MetricsStore results, int file) {
+		String filePath = results.filePath(file);
+		Metric[] metrics = results.metrics().toArray(new Metric[0]);
+		for (int function = results.firstFunction(file); function < results.endFunction(file); function++) {
+			put("{\"file\":");
+			putString(filePath);
+			put(",\"function\":");
+			putString(results.name(function));
+			for (Metric metric : metrics) {
+				put(",\"");
+				put(metric.key());
+				put("\":");
+				putInt(results.value(metric, function));
+			}
+			put("}\n");
+		}
+	}
+
+	private void putString (String text) {
+		put('"');
+		int unescaped = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\' || c < ' ') {
+				put(text, unescaped, i);
+				if (c < ' ')
+					putUnicodeEscape(c);
+				else {
+					put('\\');
+					put(c);
+				}
+				unescaped = i + 1;
+			}
+		}
+		put(text, unescaped, text.length());
+		put('"');
+	}
+}
@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ranking of the functions of a whole project, e.g. the 50 most complex functions of the repository.
+ * <p>
+ * Only the best functions seen so far are kept, in a min-heap bounded to the size of the leaderboard whose head is the
+ * worst of them, so a function only has to beat the head to get in. That makes the ranking O(n log k) in time and O(k)
+ * in memory, no matter how many functions the project has. Every thread adding functions has a heap of its own, so
+ * files can be added from the threads analyzing them without any contention; the heaps are merged when the leaderboard
+ * is read.
+ * <p>
+ * Functions with the same score are ranked by the path of their file and their position in it, so the leaderboard is
+ * the same regardless of the order in which the files were analyzed. Functions scoring 0 are never ranked.
+ */
+public class Leaderboard {
+	/**
+	 * What the functions are ranked by.
+	 */
+	public enum Ranking {
+		COMPLEXITY("Complexity", FunctionMetrics::complexity),
+		LENGTH("Length", FunctionMetrics::length),
+		STYLE_VIOLATIONS("Style violations", FunctionMetrics::styleViolations);
+
+		private final String label;
+		private final ToIntFunction<FunctionMetrics> score;
+
+		Ranking (String label, ToIntFunction<FunctionMetrics> score) {
+			this.label = label;
+			this.score = score;
+		}
+
+		public String label () {
+			return label;
+		}
+
+		public int score (FunctionMetrics function) {
+			return score.applyAsInt(function);
+		}
+	}
+
+	/**
+	 * A ranked function.
+	 *
+	 * @param file     The path of the file of the function.
+	 * @param index    The position of the function among the functions of its file.
+	 * @param function The results of analyzing the function.
+	 * @param score    The score the function is ranked by.
+	 */
+	public record Entry(String file, int index, FunctionMetrics function, int score) {}
+
+	/**
+	 * Orders the entries from the worst to the best.
+	 */
+	private static final Comparator<Entry> WORST_FIRST = Comparator.comparingInt(Entry::score)
+			                                                     .thenComparing(Entry::file, Comparator.reverseOrder())
+			                                                     .thenComparing(Entry::index, Comparator.reverseOrder());
+
+	private final Ranking ranking;
+	private final int size;
+	private final List<PriorityQueue<Entry>> heaps = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<PriorityQueue<Entry>> threadHeap = ThreadLocal.withInitial(() -> {
+		PriorityQueue<Entry> heap = new PriorityQueue<>(WORST_FIRST);
+		heaps.add(heap);
+		return heap;
+	});
+
+	/**
+	 * Constructs an empty leaderboard.
+	 *
+	 * @param ranking What the functions are ranked by.
+	 * @param size    The number of functions on the leaderboard.
+	 * @throws IllegalArgumentException If the size is smaller than 1.
+	 */
+	public Leaderboard (Ranking ranking, int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("The leaderboard has to have at least 1 place");
+		this.ranking = ranking;
+		this.size = size;
+	}
+
+	public Ranking getRanking () {
+		return ranking;
+	}
+
+	public int getSize () {
+		return size;
+	}
+
+	/**
+	 * Adds the functions of an analyzed file to the leaderboard. Can be called from several threads at once, but
+	 * not while the leaderboard is being read.
+	 *
+	 * @param file      The path of the file.
+	 * @param functions The results of analyzing the functions of the file.
+	 */
+	public void add (String file, List<FunctionMetrics> functions) {
+		PriorityQueue<Entry> heap = threadHeap.get();
+		for (int i = 0; i < functions.size(); i++) {
+			FunctionMetrics function = functions.get(i);
+			int score = ranking.score(function);
+			if (score == 0)
+				continue;
+			if (heap.size() < size) {
+				heap.add(new Entry(file, i, function, score));
+			} else if (score >= heap.peek().score()) {
+				Entry entry = new Entry(file, i, function, score);
+				if (WORST_FIRST.compare(entry, heap.peek()) > 0) {
+					heap.poll();
+					heap.add(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the heaps of all the threads into the leaderboard.
+	 *
+	 * @return The ranked functions, the best first.
+	 */
+	public List<Entry> getEntries () {
+		PriorityQueue<Entry> merged = new PriorityQueue<>(WORST_FIRST);
+		for (PriorityQueue<Entry> heap : heaps) {
+			for (Entry entry : heap) {
+				merged.add(entry);
+				if (merged.size() > size)
+					merged.poll();
+			}
+		}
+		List<Entry> entries = new ArrayList<>(merged);
+		entries.sort(WORST_FIRST.reversed());
+		return entries;
+	}
+
+	/**
+	 * Selects the items with the highest scores out of a list, using a heap bounded to the number of selected items
+	 * instead of sorting the whole list. Items with the same score keep their order from the list, items scoring 0
+	 * are skipped.
+	 *
+	 * @param items The items to select from.
+	 * @param score The score of an item.
+	 * @param limit The maximum number of items to select.
+	 * @return The selected items, from the highest to the lowest score.
+	 */
+	public static <T> List<T> selectTop (List<T> items, ToIntFunction<T> score, int limit) {
+		if (limit <= 0)
+			return new ArrayList<>();
+		// the indexes of the selected items, the lowest score (and the latest of equal ones) at the head
+		PriorityQueue<Integer> heap = new PriorityQueue<>(
+				Comparator.comparingInt((Integer index) -> score.applyAsInt(items.get(index)))
+						.thenComparing(Comparator.reverseOrder()));
+		for (int i = 0; i < items.size(); i++) {
+			int itemScore = score.applyAsInt(items.get(i));
+			if (itemScore == 0)
+				continue;
+			if (heap.size() < limit) {
+				heap.add(i);
+			} else if (itemScore > score.applyAsInt(items.get(heap.peek()))) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+
+		List<T> selected = new ArrayList<>(heap.size());
+		while (!heap.isEmpty())
+			selected.add(items.get(heap.poll()));
+		Collections.reverse(selected);
+		return selected;
+	}
+
+	/**
+	 * Selects the indexes with the highest scores out of a range, the same way as {@link #selectTop(List,
+	 * ToIntFunction, int)}, but with a heap of primitive indexes, so nothing is boxed. Columnar results, such as the
+	 * {@link MetricsStore}, are ranked by it.
+	 *
+	 * @param from  The first index of the range.
+	 * @param to    The index right after the range.
+	 * @param score The score of an index.
+	 * @param limit The maximum number of indexes to select.
+	 * @return The selected indexes, from the highest to the lowest score.
+	 */
+	public static int[] selectTop (int from, int to, IntUnaryOperator score, int limit) {
+		// a min-heap of indexes, the lowest score (and the latest of equal ones) at the root
+		int[] heap = new int[Math.max(0, Math.min(limit, to - from))];
+		int heapSize = 0;
+		for (int index = from; index < to && heap.length > 0; index++) {
+			int indexScore = score.applyAsInt(index);
+			if (indexScore == 0)
+				continue;
+			if (heapSize < heap.length) {
+				heap[heapSize] = index;
+				siftUp(heap, heapSize++, score);
+			} else if (indexScore > score.applyAsInt(heap[0])) {
+				heap[0] = index;
+				siftDown(heap, heapSize, score);
+			}
+		}
+
+		int[] selected = new int[heapSize];
+		for (int i = heapSize - 1; i >= 0; i--) {
+			selected[i] = heap[0];
+			heap[0] = heap[--heapSize];
+			siftDown(heap, heapSize, score);
+		}
+		return selected;
+	}
+
+	/**
+	 * @return Whether the first index is worse than the second, i.e. closer to the root of the heap.
+	 */
+	private static boolean isWorse (int first, int second, IntUnaryOperator score) {
+		int firstScore = score.applyAsInt(first);
+		int secondScore = score.applyAsInt(second);
+		return firstScore < secondScore || (firstScore == secondScore && first > second);
+	}
+
+	private static void siftUp (int[] heap, int index, IntUnaryOperator score) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!isWorse(heap[index], heap[parent], score))
+				return;
+			swap(heap, index, parent);
+			index = parent;
+		}
+	}
+
+	private static void siftDown (int[] heap, int size, IntUnaryOperator score) {
+		int index = 0;
+		while (true) {
+			int worst = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < size && isWorse(heap[left], heap[worst], score))
+				worst = left;
+			if (right < size && isWorse(heap[right], heap[worst], score))
+				worst = right;
+			if (worst == index)
+				return;
+			swap(heap, index, worst);
+			index = worst;
+		}
+	}
+
+	private static void swap (int[] heap, int i, int j) {
+		int swapped = heap[i];
+		heap[i] = heap[j];
+		heap[j] = swapped;
+	}
+}
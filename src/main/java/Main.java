@@ -4,7 +4,14 @@ import java.util.Scanner;
 public class Main {
 	private static String ANSI_RESET = "\u001B[0m";
 	private static String ANSI_RED = "\u001B[31m";
+
+	/**
+	 * Runs the {@link CommandLine} given any arguments, or else prompts for the directory to analyze.
+	 */
 	public static void main (String[] args) {
+		if (args.length > 0)
+			System.exit(CommandLine.run(args, System.out, System.err));
+
 		Scanner userInputScanner = new Scanner(System.in);
 
 		while(true) {
@@ -13,7 +20,8 @@ public class Main {
 
 			CodeAnalyzer codeAnalyzer = new CodeAnalyzer(directoryPath, 3);
 			try {
-				System.out.println(codeAnalyzer.analyzeDirectory());
+				codeAnalyzer.analyzeDirectory(System.out, true);
+				System.out.println();
 				return;
 			} catch (IOException e) {
 				System.out.println(ANSI_RED + "An IOException occured while trying to read the directory, please try again." + ANSI_RESET);
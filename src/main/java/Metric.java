@@ -0,0 +1,298 @@
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The metrics measured of each function, by a {@link MetricVisitor} each, all of them in a single scan of the function
+ * (see {@link MetricScanner}).
+ * <p>
+ * The {@link #DEFAULTS} are what the reports have always shown, they are always a part of the results, even if they
+ * are not measured (as 0). The other metrics are only a part of the results when they are measured.
+ */
+public enum Metric {
+	/**
+	 * The number of decision points, see {@link ComplexityRules}.
+	 */
+	COMPLEXITY("Complexity", "complexity"),
+	/**
+	 * The number of characters of the (cleaned-up) function.
+	 */
+	LENGTH("Length", "length"),
+	/**
+	 * The number of characters of the name breaking the naming convention, see {@link CodeStyleAnalyzer}.
+	 */
+	STYLE_VIOLATIONS("Style violations", "styleViolations"),
+	/**
+	 * The number of lines of the function with code on them, so neither blank lines nor comments.
+	 */
+	LINES_OF_CODE("Lines of code", "linesOfCode"),
+	/**
+	 * The deepest nesting of blocks (of braces) inside the body of the function, 0 if the body has no blocks.
+	 */
+	NESTING_DEPTH("Nesting depth", "nestingDepth"),
+	/**
+	 * The number of parameters of the function.
+	 */
+	PARAMETERS("Parameters", "parameters"),
+	/**
+	 * The number of return statements of the function.
+	 */
+	RETURNS("Returns", "returns");
+
+	/**
+	 * The metrics measured by default.
+	 */
+	public static final Set<Metric> DEFAULTS = Collections.unmodifiableSet(EnumSet.of(COMPLEXITY, LENGTH,
+	                                                                                  STYLE_VIOLATIONS));
+
+	private final String label;
+	private final String key;
+
+	Metric (String label, String key) {
+		this.label = label;
+		this.key = key;
+	}
+
+	public String label () {
+		return label;
+	}
+
+	/**
+	 * @return The name of the metric in the machine-readable results, in camelCase.
+	 */
+	public String key () {
+		return key;
+	}
+
+	/**
+	 * Creates a visitor measuring the metric of functions one after another, each from its {@code begin}.
+	 *
+	 * @param fileType The language of the function, either "java" or "kotlin".
+	 * @param rules    The rules of counting decision points.
+	 * @return The visitor.
+	 */
+	public MetricVisitor visitor (String fileType, ComplexityRules rules) {
+		return switch (this) {
+			case COMPLEXITY -> rules.counter(fileType).newVisitor();
+			case LENGTH -> new Length();
+			case STYLE_VIOLATIONS -> new StyleViolations();
+			case LINES_OF_CODE -> new LinesOfCode();
+			case NESTING_DEPTH -> new NestingDepth();
+			case PARAMETERS -> new Parameters();
+			case RETURNS -> new Returns();
+		};
+	}
+
+	private static class Length implements MetricVisitor {
+		private int length;
+
+		@Override
+		public void begin (Function function) {
+			length = function.length();
+		}
+
+		@Override
+		public int end () {
+			return length;
+		}
+	}
+
+	private static class StyleViolations implements MetricVisitor {
+		private int violations;
+
+		@Override
+		public void begin (Function function) {
+			violations = CodeStyleAnalyzer.countStyleViolations(function.name());
+		}
+
+		@Override
+		public int end () {
+			return violations;
+		}
+	}
+
+	private static class LinesOfCode implements MetricVisitor {
+		private int lines;
+		private boolean codeOnLine;
+
+		@Override
+		public void begin (Function function) {
+			lines = 0;
+			codeOnLine = false;
+		}
+
+		@Override
+		public boolean visitsWord (char first) {
+			return true;
+		}
+
+		@Override
+		public boolean visitsSymbol (char c) {
+			return c == '\n' || !Character.isWhitespace(c);
+		}
+
+		@Override
+		public void word (CharSequence code, int start, int end) {
+			codeOnLine = true;
+		}
+
+		@Override
+		public void symbol (CharSequence code, int index) {
+			if (code.charAt(index) != '\n') {
+				codeOnLine = true;
+			} else if (codeOnLine) {
+				lines++;
+				codeOnLine = false;
+			}
+		}
+
+		@Override
+		public int end () {
+			return codeOnLine ? lines + 1 : lines;
+		}
+	}
+
+	private static class NestingDepth implements MetricVisitor {
+		private int depth;
+		private int maxDepth;
+
+		@Override
+		public void begin (Function function) {
+			depth = 0;
+			maxDepth = 0;
+		}
+
+		@Override
+		public boolean visitsSymbol (char c) {
+			return c == '{' || c == '}';
+		}
+
+		@Override
+		public void symbol (CharSequence code, int index) {
+			if (code.charAt(index) == '{')
+				maxDepth = Math.max(maxDepth, ++depth);
+			else
+				depth--;
+		}
+
+		@Override
+		public int end () {
+			// the body of the function itself is not nested
+			return Math.max(maxDepth - 1, 0);
+		}
+	}
+
+	/**
+	 * Counts the parameters in the first parentheses of the signature, i.e. the top-level commas, ignoring the ones
+	 * of type arguments and of default values. A trailing comma and empty parentheses add no parameter.
+	 */
+	private static class Parameters implements MetricVisitor {
+		private static final int BEFORE = 0, INSIDE = 1, AFTER = 2;
+
+		private int position = BEFORE;
+		private int parenthesisDepth;
+		private int angleBracketDepth;
+		private boolean parameterStarted;
+		private int parameters;
+
+		@Override
+		public void begin (Function function) {
+			position = BEFORE;
+			parenthesisDepth = 0;
+			angleBracketDepth = 0;
+			parameterStarted = false;
+			parameters = 0;
+		}
+
+		@Override
+		public boolean visitsWord (char first) {
+			return true;
+		}
+
+		@Override
+		public boolean visitsSymbol (char c) {
+			return c == '(' || c == ')' || c == '<' || c == '>' || c == ',' || c == '{';
+		}
+
+		@Override
+		public void word (CharSequence code, int start, int end) {
+			if (position == INSIDE && !parameterStarted) {
+				parameterStarted = true;
+				parameters++;
+			}
+		}
+
+		@Override
+		public void symbol (CharSequence code, int index) {
+			if (position == AFTER)
+				return;
+			char c = code.charAt(index);
+			if (position == BEFORE) {
+				if (c == '(') {
+					position = INSIDE;
+					parenthesisDepth = 1;
+				} else if (c == '{') {
+					// a Kotlin initializer block has no parameters
+					position = AFTER;
+				}
+				return;
+			}
+			switch (c) {
+				case '(' -> parenthesisDepth++;
+				case ')' -> {
+					if (--parenthesisDepth == 0)
+						position = AFTER;
+				}
+				case '<' -> angleBracketDepth++;
+				case '>' -> {
+					// not the arrow of a Kotlin function type
+					if (angleBracketDepth > 0 && code.charAt(index - 1) != '-')
+						angleBracketDepth--;
+				}
+				case ',' -> {
+					if (parenthesisDepth == 1 && angleBracketDepth == 0)
+						parameterStarted = false;
+				}
+				default -> {
+				}
+			}
+		}
+
+		@Override
+		public int end () {
+			return parameters;
+		}
+	}
+
+	private static class Returns implements MetricVisitor {
+		private static final String KEYWORD = "return";
+
+		private int returns;
+
+		@Override
+		public void begin (Function function) {
+			returns = 0;
+		}
+
+		@Override
+		public boolean visitsWord (char first) {
+			return first == KEYWORD.charAt(0);
+		}
+
+		@Override
+		public void word (CharSequence code, int start, int end) {
+			if (end - start != KEYWORD.length())
+				return;
+			for (int i = 0; i < KEYWORD.length(); i++) {
+				if (code.charAt(start + i) != KEYWORD.charAt(i))
+					return;
+			}
+			returns++;
+		}
+
+		@Override
+		public int end () {
+			return returns;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Measures the metrics of functions in a single scan per function: the function is split into tokens once, and each
+ * token is handed to the {@link MetricVisitor}s of just the metrics that asked for it (by its first character). So a
+ * new metric adds no pass of its own over the code, only the work of its visitor on the tokens it asked for. The same
+ * scan computes the {@link ContentHash#of(Function) hash of the body}.
+ * The functions nested in the function are skipped, each token is measured as a part of its innermost function.
+ * <p>
+ * Which visitors get which tokens is worked out once per language, when the scanner first measures a function of the
+ * language, so a scanner is meant to be created once per analysis. It can be used by several threads at the same
+ * time: each thread gets visitors of its own, which it reuses from one function to the next, so measuring a function
+ * allocates nothing but its results.
+ */
+public class MetricScanner {
+	/**
+	 * Measures the {@link Metric#DEFAULTS} with the default rules.
+	 */
+	public static final MetricScanner DEFAULT = new MetricScanner(Metric.DEFAULTS, ComplexityRules.DEFAULT);
+
+	private final Set<Metric> metrics;
+	private final Metric[] measuredMetrics;
+	private final ComplexityRules rules;
+	private volatile Tokens javaTokens;
+	private volatile Tokens kotlinTokens;
+	private final ThreadLocal<Scan> scans = ThreadLocal.withInitial(Scan::new);
+
+	/**
+	 * @param metrics The metrics to measure.
+	 * @param rules   The rules of counting decision points, if the complexity is measured.
+	 */
+	public MetricScanner (Set<Metric> metrics, ComplexityRules rules) {
+		EnumSet<Metric> metricSet = EnumSet.noneOf(Metric.class);
+		metricSet.addAll(metrics);
+		this.metrics = Collections.unmodifiableSet(metricSet);
+		this.measuredMetrics = metricSet.toArray(new Metric[0]);
+		this.rules = rules;
+	}
+
+	/**
+	 * @return The measured metrics.
+	 */
+	public Set<Metric> metrics () {
+		return metrics;
+	}
+
+	public ComplexityRules rules () {
+		return rules;
+	}
+
+	/**
+	 * @return A hash of the measured metrics and of the rules, which changes whenever the results would be different.
+	 */
+	public long fingerprint () {
+		return ContentHash.of(metrics + "\n" + rules.fingerprint());
+	}
+
+	/**
+	 * Measures the metrics of a function.
+	 *
+	 * @param function The function.
+	 * @param fileType The language of the function, either "java" or "kotlin".
+	 * @return The results, where the metrics that are not measured are 0.
+	 */
+	public FunctionMetrics measure (Function function, String fileType) {
+		long start = Instrumentation.start();
+		AnalysisEvents.FunctionComplexity event = AnalysisEvents.recording()
+		                                          ? new AnalysisEvents.FunctionComplexity() : null;
+		if (event != null)
+			event.begin();
+		boolean kotlin = fileType.equalsIgnoreCase("kotlin");
+		Scan scan = scans.get();
+		int[] values = scan.values;
+		long bodyHash = tokens(kotlin).scan(function, scan.visitors(kotlin), values);
+
+		// the metrics that are not measured are never written, so they stay 0
+		int[] metricValues = scan.metricValues;
+		for (int i = 0; i < measuredMetrics.length; i++)
+			metricValues[measuredMetrics[i].ordinal()] = values[i];
+		FunctionMetrics functionMetrics = new FunctionMetrics(function.name(),
+		                                                      metricValues[Metric.COMPLEXITY.ordinal()],
+		                                                      metricValues[Metric.LENGTH.ordinal()],
+		                                                      metricValues[Metric.STYLE_VIOLATIONS.ordinal()],
+		                                                      metricValues[Metric.LINES_OF_CODE.ordinal()],
+		                                                      metricValues[Metric.NESTING_DEPTH.ordinal()],
+		                                                      metricValues[Metric.PARAMETERS.ordinal()],
+		                                                      metricValues[Metric.RETURNS.ordinal()],
+		                                                      bodyHash);
+		Instrumentation.stop(Instrumentation.Stage.METRICS, start, 1);
+		if (event != null && event.shouldCommit()) {
+			event.methodName = function.name();
+			event.length = function.length();
+			event.complexity = functionMetrics.complexity();
+			event.commit();
+		}
+		return functionMetrics;
+	}
+
+	private Tokens tokens (boolean kotlin) {
+		Tokens tokens = kotlin ? kotlinTokens : javaTokens;
+		if (tokens == null) {
+			// threads racing here just work the same tokens out twice
+			tokens = new Tokens(newVisitors(kotlin ? "kotlin" : "java"));
+			if (kotlin)
+				kotlinTokens = tokens;
+			else
+				javaTokens = tokens;
+		}
+		return tokens;
+	}
+
+	private MetricVisitor[] newVisitors (String fileType) {
+		MetricVisitor[] visitors = new MetricVisitor[measuredMetrics.length];
+		for (int i = 0; i < visitors.length; i++)
+			visitors[i] = measuredMetrics[i].visitor(fileType, rules);
+		return visitors;
+	}
+
+	/**
+	 * The visitors and the buffers of the functions measured by a single thread.
+	 */
+	private class Scan {
+		private final int[] values = new int[measuredMetrics.length];
+		private final int[] metricValues = new int[Metric.values().length];
+		private MetricVisitor[] javaVisitors;
+		private MetricVisitor[] kotlinVisitors;
+
+		MetricVisitor[] visitors (boolean kotlin) {
+			if (kotlin)
+				return kotlinVisitors != null ? kotlinVisitors : (kotlinVisitors = newVisitors("kotlin"));
+			return javaVisitors != null ? javaVisitors : (javaVisitors = newVisitors("java"));
+		}
+	}
+
+	/**
+	 * Splits functions into tokens and hands each token to the visitors that asked for it.
+	 */
+	private static class Tokens {
+		/**
+		 * All the characters beyond ASCII are one kind of symbol.
+		 */
+		private static final int NON_ASCII = 128;
+
+		/**
+		 * The indexes of the visitors getting the words starting with each character, or null if none does.
+		 */
+		private final int[][] wordVisitors = new int[NON_ASCII][];
+		/**
+		 * The indexes of the visitors getting each symbol, or null if none does.
+		 */
+		private final int[][] symbolVisitors = new int[NON_ASCII + 1][];
+
+		/**
+		 * @param visitors Visitors of the kinds that will be scanned with, to ask them which tokens they want.
+		 */
+		Tokens (MetricVisitor[] visitors) {
+			for (char c = 0; c <= NON_ASCII; c++) {
+				char first = c;
+				if (DecisionPointCounter.isWordChar(first))
+					wordVisitors[c] = interestedVisitors(visitors, visitor -> visitor.visitsWord(first));
+				else
+					symbolVisitors[c] = interestedVisitors(visitors, visitor -> visitor.visitsSymbol(first));
+			}
+		}
+
+		/**
+		 * @return The indexes of the interested visitors, or null if there are none.
+		 */
+		private static int[] interestedVisitors (MetricVisitor[] visitors, Predicate<MetricVisitor> interest) {
+			int[] interested = new int[visitors.length];
+			int count = 0;
+			for (int i = 0; i < visitors.length; i++) {
+				if (interest.test(visitors[i]))
+					interested[count++] = i;
+			}
+			return count == 0 ? null : Arrays.copyOf(interested, count);
+		}
+
+		/**
+		 * Scans a function.
+		 *
+		 * @param function The function.
+		 * @param visitors Visitors of the same kinds as the ones the tokens were worked out with.
+		 * @param values   Where to put the values the visitors measured, in the order of the visitors.
+		 * @return The {@link ContentHash#of(Function)} of the function.
+		 */
+		long scan (Function function, MetricVisitor[] visitors, int[] values) {
+			for (MetricVisitor visitor : visitors)
+				visitor.begin(function);
+
+			CharSequence code = function.source();
+			List<Function> nested = function.nested();
+			int index = function.start();
+			long hash = ContentHash.CHARS_SEED;
+			// the nested functions are skipped, their tokens are theirs only
+			for (int part = 0; part <= nested.size(); part++) {
+				int end = part < nested.size() ? nested.get(part).start() : function.end();
+				while (index < end) {
+					char c = code.charAt(index);
+					hash = ContentHash.mixChar(hash, c);
+					if (DecisionPointCounter.isWordChar(c)) {
+						int wordEnd = index + 1;
+						for (char next; wordEnd < end && DecisionPointCounter.isWordChar(next = code.charAt(wordEnd));
+						     wordEnd++)
+							hash = ContentHash.mixChar(hash, next);
+						int[] interested = wordVisitors[c];
+						if (interested != null) {
+							for (int visitor : interested)
+								visitors[visitor].word(code, index, wordEnd);
+						}
+						index = wordEnd;
+						continue;
+					}
+					int[] interested = symbolVisitors[Math.min(c, NON_ASCII)];
+					if (interested != null) {
+						for (int visitor : interested)
+							visitors[visitor].symbol(code, index);
+					}
+					index++;
+				}
+				if (part < nested.size()) {
+					hash = ContentHash.mixNested(hash, nested.get(part).length());
+					index = nested.get(part).end();
+				}
+			}
+
+			for (int i = 0; i < visitors.length; i++)
+				values[i] = visitors[i].end();
+			return hash;
+		}
+	}
+}
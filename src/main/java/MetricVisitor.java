@@ -0,0 +1,65 @@
+/**
+ * A metric of a function, measured from the tokens of the function handed to it by a {@link MetricScanner}, which
+ * scans each function once for all the metrics at the same time.
+ * <p>
+ * A token is either a word (a run of letters, digits and '_') or a single symbol, i.e. any other character. A visitor
+ * only gets the tokens it asks for, and may look at the code around them, e.g. to see what follows a keyword. A visitor
+ * keeps the state of the function in its fields, and is reused for the next function measured by the same thread, so
+ * {@link #begin} must reset all of that state.
+ */
+public interface MetricVisitor {
+	/**
+	 * Asked once per character a word can start with when the scanner is created.
+	 *
+	 * @param first The first character of a word.
+	 * @return Whether the visitor wants to get the words starting with the character.
+	 */
+	default boolean visitsWord (char first) {
+		return false;
+	}
+
+	/**
+	 * Asked once per ASCII character when the scanner is created, and once for all the characters beyond ASCII, with
+	 * the character 128 standing for all of them.
+	 *
+	 * @param c A character that is not part of a word.
+	 * @return Whether the visitor wants to get the character.
+	 */
+	default boolean visitsSymbol (char c) {
+		return false;
+	}
+
+	/**
+	 * Starts measuring a function, before any of its tokens, forgetting the function measured before.
+	 *
+	 * @param function The function.
+	 */
+	default void begin (Function function) {
+	}
+
+	/**
+	 * Visits a word of the function.
+	 *
+	 * @param code  The source of the function.
+	 * @param start The index of the first character of the word.
+	 * @param end   The index right after the last character of the word.
+	 */
+	default void word (CharSequence code, int start, int end) {
+	}
+
+	/**
+	 * Visits a symbol of the function.
+	 *
+	 * @param code  The source of the function.
+	 * @param index The index of the symbol.
+	 */
+	default void symbol (CharSequence code, int index) {
+	}
+
+	/**
+	 * Finishes measuring the function, after all of its tokens.
+	 *
+	 * @return The value of the metric for the function.
+	 */
+	int end ();
+}
@@ -0,0 +1,447 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The results of an analysis saved in an indexed file, which is memory-mapped when it's opened, so a snapshot of a
+ * huge project can be queried (e.g. for the most complex functions of a package) or compared with another snapshot
+ * ({@link SnapshotDiff}) without analyzing the sources again, or even reading the whole file.
+ * <p>
+ * The file paths (relative to the analyzed directory, with "/" as the separator) and function names are stored once
+ * each, in a table sorted by their UTF-8 bytes, so comparing the ids of two strings compares the strings. The files
+ * are sorted by their path and the functions of each file by their name, then by the order of the functions with the
+ * same name in the file (their ordinal), so a function is identified by its file, name and ordinal, and two snapshots
+ * can be compared in a single pass. Every function is a fixed-size record, so it's found by its index alone:
+ * <pre>
+ * header:    magic version stringCount fileCount functionCount stringDataPosition filesPosition functionsPosition
+ * strings:   offset[stringCount + 1] utf8Bytes
+ * files:     (pathId firstFunction)[fileCount] -1 functionCount
+ * functions: (bodyHash nameId ordinal complexity length styleViolations)[functionCount]
+ * </pre>
+ * All the numbers are big-endian ints, except for the body hashes, which are longs.
+ */
+public class MetricsSnapshot {
+	private static final int MAGIC = 0x434d4553;
+	/**
+	 * Has to be increased whenever the file format or the way the results are computed changes.
+	 */
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int FILE_RECORD_SIZE = 8;
+	private static final int FUNCTION_RECORD_SIZE = 28;
+	private static final int NAME_OFFSET = 8;
+	private static final int ORDINAL_OFFSET = 12;
+	private static final int COMPLEXITY_OFFSET = 16;
+	private static final int LENGTH_OFFSET = 20;
+	private static final int STYLE_VIOLATIONS_OFFSET = 24;
+
+	private final ByteBuffer buffer;
+	private final int stringCount;
+	private final int fileCount;
+	private final int functionCount;
+	private final int stringDataPosition;
+	private final int filesPosition;
+	private final int functionsPosition;
+
+	private MetricsSnapshot (ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a metrics snapshot");
+		if (buffer.getInt(4) != FORMAT_VERSION)
+			throw new IOException("Unsupported version of the metrics snapshot format: " + buffer.getInt(4));
+		stringCount = buffer.getInt(8);
+		fileCount = buffer.getInt(12);
+		functionCount = buffer.getInt(16);
+		stringDataPosition = buffer.getInt(20);
+		filesPosition = buffer.getInt(24);
+		functionsPosition = buffer.getInt(28);
+		if (stringCount < 0 || fileCount < 0 || functionCount < 0 ||
+				    (long) functionsPosition + (long) functionCount * FUNCTION_RECORD_SIZE != buffer.capacity())
+			throw new IOException("The metrics snapshot is damaged");
+	}
+
+	/**
+	 * Opens a snapshot by mapping its file into memory.
+	 *
+	 * @param snapshotFile The file of the snapshot.
+	 * @return The snapshot.
+	 * @throws IOException If the file could not be read, or is not a snapshot.
+	 */
+	public static MetricsSnapshot open (Path snapshotFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(snapshotFile)) {
+			// the mapping stays valid after the channel is closed
+			return new MetricsSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Saves the results of an analysis as a snapshot. The file is replaced atomically.
+	 *
+	 * @param results      The results.
+	 * @param directory    The analyzed directory, the paths of the files are saved relative to it.
+	 * @param snapshotFile The file to save the snapshot to.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	public static void write (MetricsStore results, Path directory, Path snapshotFile) throws IOException {
+		Path temporaryFile = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(), "snapshot", ".tmp");
+		try {
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+				write(results, directory, output);
+			}
+			Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	/**
+	 * Creates a snapshot of the results of an analysis in memory, e.g. to compare them with other results.
+	 *
+	 * @param results   The results.
+	 * @param directory The analyzed directory, the paths of the files are relative to it.
+	 * @return The snapshot.
+	 */
+	public static MetricsSnapshot of (MetricsStore results, Path directory) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			write(results, directory, new DataOutputStream(bytes));
+			return new MetricsSnapshot(ByteBuffer.wrap(bytes.toByteArray()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void write (MetricsStore results, Path directory, DataOutputStream output) throws IOException {
+		// the strings, file paths and function names, sorted by their UTF-8 bytes
+		Map<String, Integer> stringIds = new HashMap<>();
+		String[] relativePaths = new String[results.fileCount()];
+		for (int file = 0; file < results.fileCount(); file++) {
+			relativePaths[file] = relativePath(directory, Path.of(results.filePath(file)));
+			stringIds.putIfAbsent(relativePaths[file], stringIds.size());
+		}
+		for (int nameId = 0; nameId < results.nameCount(); nameId++)
+			stringIds.putIfAbsent(results.nameOf(nameId), stringIds.size());
+		byte[][] strings = new byte[stringIds.size()][];
+		stringIds.forEach((string, id) -> strings[id] = string.getBytes(StandardCharsets.UTF_8));
+		Integer[] stringOrder = new Integer[strings.length];
+		Arrays.setAll(stringOrder, id -> id);
+		Arrays.sort(stringOrder, (first, second) -> Arrays.compareUnsigned(strings[first], strings[second]));
+		int[] stringRanks = new int[strings.length];
+		for (int rank = 0; rank < stringOrder.length; rank++)
+			stringRanks[stringOrder[rank]] = rank;
+
+		Integer[] fileOrder = new Integer[results.fileCount()];
+		Arrays.setAll(fileOrder, file -> file);
+		Arrays.sort(fileOrder, Comparator.comparingInt(file -> stringRanks[stringIds.get(relativePaths[file])]));
+		int[] nameRanks = new int[results.nameCount()];
+		for (int nameId = 0; nameId < nameRanks.length; nameId++)
+			nameRanks[nameId] = stringRanks[stringIds.get(results.nameOf(nameId))];
+
+		int stringDataLength = 0;
+		for (byte[] string : strings)
+			stringDataLength += string.length;
+		int stringDataPosition = HEADER_SIZE + 4 * (strings.length + 1);
+		int filesPosition = stringDataPosition + stringDataLength;
+		int functionsPosition = filesPosition + FILE_RECORD_SIZE * (results.fileCount() + 1);
+		if ((long) functionsPosition + (long) FUNCTION_RECORD_SIZE * results.functionCount() > Integer.MAX_VALUE)
+			throw new IOException("Too many functions for a single snapshot");
+
+		output.writeInt(MAGIC);
+		output.writeInt(FORMAT_VERSION);
+		output.writeInt(strings.length);
+		output.writeInt(results.fileCount());
+		output.writeInt(results.functionCount());
+		output.writeInt(stringDataPosition);
+		output.writeInt(filesPosition);
+		output.writeInt(functionsPosition);
+
+		int offset = 0;
+		for (Integer id : stringOrder) {
+			output.writeInt(offset);
+			offset += strings[id].length;
+		}
+		output.writeInt(offset);
+		for (Integer id : stringOrder)
+			output.write(strings[id]);
+
+		int firstFunction = 0;
+		for (Integer file : fileOrder) {
+			output.writeInt(stringRanks[stringIds.get(relativePaths[file])]);
+			output.writeInt(firstFunction);
+			firstFunction += results.functionCount(file);
+		}
+		// the end of the last file
+		output.writeInt(-1);
+		output.writeInt(firstFunction);
+
+		for (Integer file : fileOrder)
+			writeFunctions(output, results, file, nameRanks);
+	}
+
+	/**
+	 * Writes the functions of a file, sorted by their names and then their order in the file.
+	 */
+	private static void writeFunctions (DataOutputStream output, MetricsStore results, int file, int[] nameRanks)
+			throws IOException {
+		int first = results.firstFunction(file);
+		long[] order = new long[results.functionCount(file)];
+		for (int i = 0; i < order.length; i++)
+			order[i] = (long) nameRanks[results.nameId(first + i)] << 32 | i;
+		Arrays.sort(order);
+
+		int ordinal = 0;
+		for (int i = 0; i < order.length; i++) {
+			int nameRank = (int) (order[i] >>> 32);
+			ordinal = i > 0 && (int) (order[i - 1] >>> 32) == nameRank ? ordinal + 1 : 0;
+			int function = first + (int) order[i];
+			output.writeLong(results.bodyHash(function));
+			output.writeInt(nameRank);
+			output.writeInt(ordinal);
+			output.writeInt(results.complexity(function));
+			output.writeInt(results.length(function));
+			output.writeInt(results.styleViolations(function));
+		}
+	}
+
+	private static String relativePath (Path directory, Path file) {
+		Path relativePath = file.isAbsolute() == directory.isAbsolute() ? directory.relativize(file) : file;
+		StringBuilder path = new StringBuilder();
+		for (Path part : relativePath) {
+			if (!path.isEmpty())
+				path.append('/');
+			path.append(part);
+		}
+		return path.toString();
+	}
+
+	public int fileCount () {
+		return fileCount;
+	}
+
+	public int functionCount () {
+		return functionCount;
+	}
+
+	/**
+	 * @return The path of the file, relative to the analyzed directory.
+	 */
+	public String filePath (int file) {
+		return string(filePathId(file));
+	}
+
+	/**
+	 * @return The id of the path of the file in the string table of this snapshot.
+	 */
+	int filePathId (int file) {
+		return buffer.getInt(filesPosition + FILE_RECORD_SIZE * Objects.checkIndex(file, fileCount));
+	}
+
+	/**
+	 * @return The index of the first function of the file.
+	 */
+	public int firstFunction (int file) {
+		return buffer.getInt(filesPosition + FILE_RECORD_SIZE * Objects.checkIndex(file, fileCount) + 4);
+	}
+
+	/**
+	 * @return The index right after the last function of the file.
+	 */
+	public int endFunction (int file) {
+		return buffer.getInt(filesPosition + FILE_RECORD_SIZE * (Objects.checkIndex(file, fileCount) + 1) + 4);
+	}
+
+	/**
+	 * @return The index of the file of the function.
+	 */
+	public int fileOf (int function) {
+		Objects.checkIndex(function, functionCount);
+		int low = 0;
+		int high = fileCount - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (firstFunction(middle) <= function)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		// the last file starting at or before the function, files without functions are skipped that way
+		return low;
+	}
+
+	public String name (int function) {
+		return string(nameId(function));
+	}
+
+	/**
+	 * @return The id of the name of the function in the string table of this snapshot.
+	 */
+	int nameId (int function) {
+		return buffer.getInt(functionPosition(function) + NAME_OFFSET);
+	}
+
+	/**
+	 * @return The position of the function among the functions of its file with the same name.
+	 */
+	public int ordinal (int function) {
+		return buffer.getInt(functionPosition(function) + ORDINAL_OFFSET);
+	}
+
+	public int complexity (int function) {
+		return buffer.getInt(functionPosition(function) + COMPLEXITY_OFFSET);
+	}
+
+	public int length (int function) {
+		return buffer.getInt(functionPosition(function) + LENGTH_OFFSET);
+	}
+
+	public int styleViolations (int function) {
+		return buffer.getInt(functionPosition(function) + STYLE_VIOLATIONS_OFFSET);
+	}
+
+	public boolean styleCompliant (int function) {
+		return styleViolations(function) == 0;
+	}
+
+	public long bodyHash (int function) {
+		return buffer.getLong(functionPosition(function));
+	}
+
+	/**
+	 * @return The score of the function, as {@link Leaderboard.Ranking#score(FunctionMetrics)} would compute it.
+	 */
+	public int score (Leaderboard.Ranking ranking, int function) {
+		return switch (ranking) {
+			case COMPLEXITY -> complexity(function);
+			case LENGTH -> length(function);
+			case STYLE_VIOLATIONS -> styleViolations(function);
+		};
+	}
+
+	/**
+	 * Finds a file by its path.
+	 *
+	 * @param path The path of the file, relative to the analyzed directory, with "/" as the separator.
+	 * @return The index of the file, or -1 if there is no such file.
+	 */
+	public int findFile (String path) {
+		byte[] key = path.getBytes(StandardCharsets.UTF_8);
+		int file = lowerBound(key, false);
+		return file < fileCount && compareString(filePathId(file), key, false) == 0 ? file : -1;
+	}
+
+	/**
+	 * Selects the functions with the highest scores out of all the files in a directory, including its
+	 * subdirectories, e.g. of a package. The files of a directory are next to each other in the snapshot, so they are
+	 * found by a binary search and only their functions are read.
+	 *
+	 * @param directory The path of the directory, relative to the analyzed directory, with "/" as the separator,
+	 *                  empty for all the files.
+	 * @param ranking   What the functions are scored by.
+	 * @param limit     The maximum number of functions to select.
+	 * @return The indexes of the selected functions, from the highest to the lowest score.
+	 */
+	public int[] selectTop (String directory, Leaderboard.Ranking ranking, int limit) {
+		byte[] prefix = (directory.isEmpty() || directory.endsWith("/") ? directory : directory + "/")
+				                .getBytes(StandardCharsets.UTF_8);
+		int firstFile = lowerBound(prefix, true);
+		int endFile = upperBound(prefix);
+		if (firstFile == endFile)
+			return new int[0];
+		return Leaderboard.selectTop(firstFunction(firstFile), endFunction(endFile - 1),
+		                             function -> score(ranking, function), limit);
+	}
+
+	/**
+	 * @return The first file whose path is not smaller than the key (or doesn't start with it, for a prefix).
+	 */
+	private int lowerBound (byte[] key, boolean prefix) {
+		int low = 0;
+		int high = fileCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareString(filePathId(middle), key, prefix) < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * @return The first file whose path is greater than the prefix and doesn't start with it.
+	 */
+	private int upperBound (byte[] prefix) {
+		int low = 0;
+		int high = fileCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compareString(filePathId(middle), prefix, true) <= 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Compares a string of this snapshot with a key, by their UTF-8 bytes.
+	 *
+	 * @param prefix Whether the string only has to start with the key to be equal.
+	 */
+	private int compareString (int id, byte[] key, boolean prefix) {
+		int start = stringStart(id);
+		int length = stringStart(id + 1) - start;
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int difference = (buffer.get(start + i) & 0xff) - (key[i] & 0xff);
+			if (difference != 0)
+				return difference;
+		}
+		return prefix && length >= key.length ? 0 : Integer.compare(length, key.length);
+	}
+
+	/**
+	 * Compares a string of one snapshot with a string of another snapshot, by their UTF-8 bytes.
+	 */
+	static int compareStrings (MetricsSnapshot first, int firstId, MetricsSnapshot second, int secondId) {
+		int firstStart = first.stringStart(firstId);
+		int firstLength = first.stringStart(firstId + 1) - firstStart;
+		int secondStart = second.stringStart(secondId);
+		int secondLength = second.stringStart(secondId + 1) - secondStart;
+		for (int i = 0; i < Math.min(firstLength, secondLength); i++) {
+			int difference = (first.buffer.get(firstStart + i) & 0xff) - (second.buffer.get(secondStart + i) & 0xff);
+			if (difference != 0)
+				return difference;
+		}
+		return Integer.compare(firstLength, secondLength);
+	}
+
+	private String string (int id) {
+		int start = stringStart(id);
+		byte[] bytes = new byte[stringStart(id + 1) - start];
+		buffer.get(start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int stringStart (int id) {
+		return stringDataPosition + buffer.getInt(HEADER_SIZE + 4 * Objects.checkIndex(id, stringCount + 1));
+	}
+
+	private int functionPosition (int function) {
+		return functionsPosition + FUNCTION_RECORD_SIZE * Objects.checkIndex(function, functionCount);
+	}
+}
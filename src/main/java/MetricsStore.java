@@ -0,0 +1,280 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Columnar store of the analysis results of many files, taking a few bytes per function.
+ * <p>
+ * Instead of an object per function, each metric is a column, i.e. a primitive array indexed by the function, and the
+ * style compliance is a {@link BitSet}. Function names are dictionary-encoded: each distinct name (there are far fewer
+ * of them than functions, think of all the {@code get}, {@code equals} or {@code toString} methods) is stored once and
+ * the functions only store its id. The functions of a file are stored next to each other, so a file is just the range
+ * of its first and last function. The metrics beyond the {@link Metric#DEFAULTS} only get a column if they are
+ * measured.
+ * <p>
+ * Functions and files are referred to by their indexes, so the results can be iterated over and queried without
+ * creating any objects. The store can be read from any thread, but only one thread may add files to it at a time.
+ */
+public class MetricsStore {
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final Metric[] METRICS = Metric.values();
+
+	private final Map<String, Integer> nameIds = new HashMap<>();
+	private String[] names = new String[INITIAL_CAPACITY];
+
+	private String[] filePaths = new String[INITIAL_CAPACITY];
+	/**
+	 * The index of the first function of each file, followed by the number of functions.
+	 */
+	private int[] fileStarts = new int[INITIAL_CAPACITY + 1];
+	private int fileCount;
+
+	private int[] nameColumn = new int[INITIAL_CAPACITY];
+	private int[] complexityColumn = new int[INITIAL_CAPACITY];
+	private int[] lengthColumn = new int[INITIAL_CAPACITY];
+	private int[] styleViolationsColumn = new int[INITIAL_CAPACITY];
+	private long[] bodyHashColumn = new long[INITIAL_CAPACITY];
+	private final BitSet styleCompliant = new BitSet();
+	/**
+	 * The columns of the other measured metrics, indexed by the ordinal of the metric, or null.
+	 */
+	private final int[][] otherColumns = new int[METRICS.length][];
+	private final Set<Metric> metrics;
+	private int functionCount;
+
+	/**
+	 * Constructs a store of the results of the {@link Metric#DEFAULTS}.
+	 */
+	public MetricsStore () {
+		this(Metric.DEFAULTS);
+	}
+
+	/**
+	 * @param metrics The measured metrics, the stored results always include the {@link Metric#DEFAULTS} though.
+	 */
+	public MetricsStore (Set<Metric> metrics) {
+		EnumSet<Metric> storedMetrics = EnumSet.copyOf(Metric.DEFAULTS);
+		storedMetrics.addAll(metrics);
+		this.metrics = Collections.unmodifiableSet(storedMetrics);
+		for (Metric metric : storedMetrics) {
+			if (!Metric.DEFAULTS.contains(metric))
+				otherColumns[metric.ordinal()] = new int[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Adds the results of a file.
+	 *
+	 * @param filePath  The path of the file.
+	 * @param functions The results of analyzing the functions of the file.
+	 * @return The index of the file.
+	 */
+	public int addFile (String filePath, List<FunctionMetrics> functions) {
+		if (fileCount == filePaths.length) {
+			filePaths = Arrays.copyOf(filePaths, fileCount * 2);
+			fileStarts = Arrays.copyOf(fileStarts, fileCount * 2 + 1);
+		}
+		ensureFunctionCapacity(functionCount + functions.size());
+
+		for (FunctionMetrics function : functions) {
+			nameColumn[functionCount] = internName(function.name());
+			complexityColumn[functionCount] = function.complexity();
+			lengthColumn[functionCount] = function.length();
+			styleViolationsColumn[functionCount] = function.styleViolations();
+			bodyHashColumn[functionCount] = function.bodyHash();
+			styleCompliant.set(functionCount, function.styleCompliant());
+			for (int metric = 0; metric < otherColumns.length; metric++) {
+				if (otherColumns[metric] != null)
+					otherColumns[metric][functionCount] = function.value(METRICS[metric]);
+			}
+			functionCount++;
+		}
+		filePaths[fileCount] = filePath;
+		fileStarts[++fileCount] = functionCount;
+		return fileCount - 1;
+	}
+
+	/**
+	 * Removes the results of all the files, keeping the columns allocated for the next ones. The function names stay,
+	 * so a name keeps its {@link #nameId id}, which writers of the results may have mapped already.
+	 */
+	public void clear () {
+		Arrays.fill(filePaths, 0, fileCount, null);
+		fileCount = 0;
+		functionCount = 0;
+		styleCompliant.clear();
+	}
+
+	/**
+	 * @return The metrics of the stored results, in their natural order.
+	 */
+	public Set<Metric> metrics () {
+		return metrics;
+	}
+
+	public int fileCount () {
+		return fileCount;
+	}
+
+	public int functionCount () {
+		return functionCount;
+	}
+
+	/**
+	 * @return The number of distinct function names.
+	 */
+	public int nameCount () {
+		return nameIds.size();
+	}
+
+	public String filePath (int file) {
+		return filePaths[checkFile(file)];
+	}
+
+	/**
+	 * @return The index of the first function of the file.
+	 */
+	public int firstFunction (int file) {
+		return fileStarts[checkFile(file)];
+	}
+
+	/**
+	 * @return The index right after the last function of the file.
+	 */
+	public int endFunction (int file) {
+		return fileStarts[checkFile(file) + 1];
+	}
+
+	public int functionCount (int file) {
+		return endFunction(file) - firstFunction(file);
+	}
+
+	public String name (int function) {
+		return names[nameColumn[checkFunction(function)]];
+	}
+
+	/**
+	 * @return The id of the name of the function, functions with the same name share it.
+	 */
+	public int nameId (int function) {
+		return nameColumn[checkFunction(function)];
+	}
+
+	/**
+	 * @param nameId The id of a name, see {@link #nameId(int)}.
+	 * @return The name.
+	 */
+	public String nameOf (int nameId) {
+		return names[Objects.checkIndex(nameId, nameIds.size())];
+	}
+
+	public int complexity (int function) {
+		return complexityColumn[checkFunction(function)];
+	}
+
+	public int length (int function) {
+		return lengthColumn[checkFunction(function)];
+	}
+
+	public int styleViolations (int function) {
+		return styleViolationsColumn[checkFunction(function)];
+	}
+
+	public long bodyHash (int function) {
+		return bodyHashColumn[checkFunction(function)];
+	}
+
+	/**
+	 * @return The value of the metric of the function, or 0 if the metric was not measured.
+	 */
+	public int value (Metric metric, int function) {
+		return switch (metric) {
+			case COMPLEXITY -> complexity(function);
+			case LENGTH -> length(function);
+			case STYLE_VIOLATIONS -> styleViolations(function);
+			default -> otherColumns[metric.ordinal()] == null ? 0
+			           : otherColumns[metric.ordinal()][checkFunction(function)];
+		};
+	}
+
+	public boolean styleCompliant (int function) {
+		return styleCompliant.get(checkFunction(function));
+	}
+
+	/**
+	 * @param ranking What to score the function by.
+	 * @return The score of the function, as {@link Leaderboard.Ranking#score(FunctionMetrics)} would compute it.
+	 */
+	public int score (Leaderboard.Ranking ranking, int function) {
+		return switch (ranking) {
+			case COMPLEXITY -> complexity(function);
+			case LENGTH -> length(function);
+			case STYLE_VIOLATIONS -> styleViolations(function);
+		};
+	}
+
+	/**
+	 * @return The number of functions of the file not complying with the code style conventions.
+	 */
+	public int nonCompliantCount (int file) {
+		int first = firstFunction(file);
+		int end = endFunction(file);
+		return end - first - styleCompliant.get(first, end).cardinality();
+	}
+
+	/**
+	 * Selects the functions of a file with the highest scores, see {@link Leaderboard#selectTop(int, int,
+	 * IntUnaryOperator, int)}.
+	 *
+	 * @param file    The file.
+	 * @param ranking What the functions are scored by.
+	 * @param limit   The maximum number of functions to select.
+	 * @return The indexes of the selected functions, from the highest to the lowest score.
+	 */
+	public int[] selectTop (int file, Leaderboard.Ranking ranking, int limit) {
+		return Leaderboard.selectTop(firstFunction(file), endFunction(file), function -> score(ranking, function),
+		                             limit);
+	}
+
+	private int internName (String name) {
+		Integer id = nameIds.get(name);
+		if (id != null)
+			return id;
+		int newId = nameIds.size();
+		if (newId == names.length)
+			names = Arrays.copyOf(names, newId * 2);
+		names[newId] = name;
+		nameIds.put(name, newId);
+		return newId;
+	}
+
+	private void ensureFunctionCapacity (int capacity) {
+		if (capacity <= nameColumn.length)
+			return;
+		int newCapacity = Math.max(capacity, nameColumn.length * 2);
+		nameColumn = Arrays.copyOf(nameColumn, newCapacity);
+		complexityColumn = Arrays.copyOf(complexityColumn, newCapacity);
+		lengthColumn = Arrays.copyOf(lengthColumn, newCapacity);
+		styleViolationsColumn = Arrays.copyOf(styleViolationsColumn, newCapacity);
+		bodyHashColumn = Arrays.copyOf(bodyHashColumn, newCapacity);
+		for (int metric = 0; metric < otherColumns.length; metric++) {
+			if (otherColumns[metric] != null)
+				otherColumns[metric] = Arrays.copyOf(otherColumns[metric], newCapacity);
+		}
+	}
+
+	private int checkFile (int file) {
+		return Objects.checkIndex(file, fileCount);
+	}
+
+	private int checkFunction (int function) {
+		return Objects.checkIndex(function, functionCount);
+	}
+}
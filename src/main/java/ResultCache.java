@@ -0,0 +1,266 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent cache of the analysis results of files, so that files that did not change since the previous run
+ * don't have to be read, cleaned up and analyzed again.
+ * A file is considered unchanged if its size and modification time are the same as when it was cached. If only the
+ * modification time differs (e.g. after a fresh checkout), the hash of the file contents decides.
+ * <p>
+ * The cache is stored in a single binary file in the cache directory. The file is always replaced atomically, while
+ * holding a lock, and merged with whatever other processes saved in the meantime, so several analyses can share
+ * one cache directory. A cache file of a different format version, or of other complexity rules or metrics, is ignored.
+ */
+public class ResultCache {
+	private static final int MAGIC = 0x434d4543;
+	/**
+	 * Has to be increased whenever the file format or the way the results are computed changes.
+	 */
+	private static final int FORMAT_VERSION = 7;
+	private static final String CACHE_FILE_NAME = "results.bin";
+	private static final String LOCK_FILE_NAME = "results.lock";
+	/**
+	 * File locks are held by the whole JVM, so threads of the same JVM have to be kept apart separately.
+	 */
+	private static final Object SAVE_LOCK = new Object();
+
+	/**
+	 * The cached results of a single file.
+	 */
+	private record Entry(long size, long lastModified, long contentHash, List<FunctionMetrics> functions) {}
+
+	private final Path cacheDirectory;
+	private final long fingerprint;
+	private final Map<String, Entry> entries;
+	private final Map<String, Entry> updatedEntries = new ConcurrentHashMap<>();
+	private final Set<String> visitedFiles = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean unsavedChanges = new AtomicBoolean();
+
+	private ResultCache (Path cacheDirectory, long fingerprint, Map<String, Entry> entries) {
+		this.cacheDirectory = cacheDirectory;
+		this.fingerprint = fingerprint;
+		this.entries = entries;
+	}
+
+	/**
+	 * Loads the cache from the given directory. If there is no cache there yet, or it can't be used, the cache is
+	 * empty.
+	 *
+	 * @param cacheDirectory The directory containing the cache, it's created if it doesn't exist.
+	 * @return The loaded cache.
+	 * @throws IOException If the cache directory could not be created.
+	 */
+	public static ResultCache load (Path cacheDirectory) throws IOException {
+		return load(cacheDirectory, MetricScanner.DEFAULT.fingerprint());
+	}
+
+	/**
+	 * Loads the cache of the results measured by a scanner with the given fingerprint from the given directory. The
+	 * results of other complexity rules or metrics are dropped.
+	 *
+	 * @param cacheDirectory The directory containing the cache, it's created if it doesn't exist.
+	 * @param fingerprint    The {@link MetricScanner#fingerprint()} of the scanner.
+	 * @return The loaded cache.
+	 * @throws IOException If the cache directory could not be created.
+	 */
+	public static ResultCache load (Path cacheDirectory, long fingerprint) throws IOException {
+		Files.createDirectories(cacheDirectory);
+		return new ResultCache(cacheDirectory, fingerprint,
+		                       new ConcurrentHashMap<>(readEntries(cacheDirectory, fingerprint)));
+	}
+
+	/**
+	 * Looks up the cached results of a file, without reading it.
+	 *
+	 * @param file         The file.
+	 * @param size         The current size of the file.
+	 * @param lastModified The current modification time of the file, in milliseconds.
+	 * @return The cached results, or null if the file is not cached, or may have changed since.
+	 */
+	public List<FunctionMetrics> lookup (Path file, long size, long lastModified) {
+		String key = keyOf(file);
+		visitedFiles.add(key);
+		Entry entry = entries.get(key);
+		if (entry == null || entry.size() != size || entry.lastModified() != lastModified)
+			return null;
+		return entry.functions();
+	}
+
+	/**
+	 * Looks up the cached results of a file by the hash of its contents, for when its modification time changed.
+	 * If the contents are the same, the cached modification time is updated.
+	 *
+	 * @param file         The file.
+	 * @param size         The current size of the file.
+	 * @param lastModified The current modification time of the file, in milliseconds.
+	 * @param contentHash  The {@link ContentHash} of the current contents of the file.
+	 * @return The cached results, or null if the file is not cached or has changed since.
+	 */
+	public List<FunctionMetrics> lookup (Path file, long size, long lastModified, long contentHash) {
+		String key = keyOf(file);
+		visitedFiles.add(key);
+		Entry entry = entries.get(key);
+		if (entry == null || entry.size() != size || entry.contentHash() != contentHash)
+			return null;
+
+		if (entry.lastModified() != lastModified) {
+			Entry refreshedEntry = new Entry(size, lastModified, contentHash, entry.functions());
+			entries.put(key, refreshedEntry);
+			updatedEntries.put(key, refreshedEntry);
+			unsavedChanges.set(true);
+		}
+		return entry.functions();
+	}
+
+	/**
+	 * Stores the results of a freshly analyzed file.
+	 *
+	 * @param file         The file.
+	 * @param size         The size of the analyzed contents.
+	 * @param lastModified The modification time of the file, in milliseconds.
+	 * @param contentHash  The {@link ContentHash} of the analyzed contents.
+	 * @param functions    The results of analyzing the functions of the file.
+	 */
+	public void store (Path file, long size, long lastModified, long contentHash, List<FunctionMetrics> functions) {
+		String key = keyOf(file);
+		Entry entry = new Entry(size, lastModified, contentHash, List.copyOf(functions));
+		visitedFiles.add(key);
+		entries.put(key, entry);
+		updatedEntries.put(key, entry);
+		unsavedChanges.set(true);
+	}
+
+	/**
+	 * @return Whether results were stored or refreshed since the cache was loaded or last saved.
+	 */
+	public boolean hasUnsavedChanges () {
+		return unsavedChanges.get();
+	}
+
+	/**
+	 * Saves the cache, merging it with the changes other processes may have saved since it was loaded.
+	 * Entries of files that no longer exist are evicted.
+	 *
+	 * @throws IOException If the cache could not be written.
+	 */
+	public void save () throws IOException {
+		Path lockFile = cacheDirectory.resolve(LOCK_FILE_NAME);
+		synchronized (SAVE_LOCK) {
+			// the changes made while it's being saved are left for the next save
+			unsavedChanges.set(false);
+			try {
+				saveLocked(lockFile);
+			} catch (IOException e) {
+				unsavedChanges.set(true);
+				throw e;
+			}
+		}
+	}
+
+	private void saveLocked (Path lockFile) throws IOException {
+		try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			FileLock lock = lockChannel.lock();
+			try {
+				Map<String, Entry> merged = new HashMap<>(readEntries(cacheDirectory, fingerprint));
+				merged.putAll(updatedEntries);
+				merged.keySet().removeIf(key -> !visitedFiles.contains(key) && !Files.exists(Path.of(key)));
+
+				Path temporaryFile = Files.createTempFile(cacheDirectory, CACHE_FILE_NAME, ".tmp");
+				try {
+					writeEntries(temporaryFile, fingerprint, merged);
+					Files.move(temporaryFile, cacheDirectory.resolve(CACHE_FILE_NAME),
+					           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temporaryFile);
+				}
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	private static String keyOf (Path file) {
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * Reads the cache file from the given directory.
+	 *
+	 * @return The entries of the cache, empty if there is no usable cache file.
+	 */
+	private static Map<String, Entry> readEntries (Path cacheDirectory, long fingerprint) {
+		Map<String, Entry> entries = new HashMap<>();
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(cacheDirectory.resolve(CACHE_FILE_NAME))))) {
+			if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION || input.readLong() != fingerprint)
+				return entries;
+
+			int entryCount = input.readInt();
+			for (int i = 0; i < entryCount; i++) {
+				String key = input.readUTF();
+				long size = input.readLong();
+				long lastModified = input.readLong();
+				long contentHash = input.readLong();
+				int functionCount = input.readInt();
+				List<FunctionMetrics> functions = new ArrayList<>(functionCount);
+				for (int j = 0; j < functionCount; j++)
+					functions.add(new FunctionMetrics(input.readUTF(), input.readInt(), input.readInt(), input.readInt(),
+					                                  input.readInt(), input.readInt(), input.readInt(), input.readInt(),
+					                                  input.readLong()));
+				entries.put(key, new Entry(size, lastModified, contentHash, List.copyOf(functions)));
+			}
+			return entries;
+		} catch (NoSuchFileException e) {
+			return entries;
+		} catch (IOException e) {
+			// a damaged cache is as good as no cache, everything will be analyzed again
+			return new HashMap<>();
+		}
+	}
+
+	private static void writeEntries (Path cacheFile, long fingerprint, Map<String, Entry> entries)
+			throws IOException {
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(cacheFile)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeLong(fingerprint);
+			output.writeInt(entries.size());
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeLong(entry.getValue().size());
+				output.writeLong(entry.getValue().lastModified());
+				output.writeLong(entry.getValue().contentHash());
+				output.writeInt(entry.getValue().functions().size());
+				for (FunctionMetrics function : entry.getValue().functions()) {
+					output.writeUTF(function.name());
+					output.writeInt(function.complexity());
+					output.writeInt(function.length());
+					output.writeInt(function.styleViolations());
+					output.writeInt(function.linesOfCode());
+					output.writeInt(function.nestingDepth());
+					output.writeInt(function.parameters());
+					output.writeInt(function.returns());
+					output.writeLong(function.bodyHash());
+				}
+			}
+		}
+	}
+}
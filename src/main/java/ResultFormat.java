@@ -0,0 +1,51 @@
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The machine-readable formats of the results, for dashboards and other tools processing them.
+ * Every format has a record per function, with the path of its file, its name, complexity, length and the number of
+ * its style violations. The text formats also have the other measured {@link Metric}s.
+ */
+public enum ResultFormat {
+	/**
+	 * A JSON object per line, see {@link JsonLinesResultWriter}.
+	 */
+	JSON_LINES("jsonl"),
+	/**
+	 * A CSV table with a header, see {@link CsvResultWriter}.
+	 */
+	CSV("csv"),
+	/**
+	 * A compact length-prefixed binary format, see {@link BinaryResultWriter}.
+	 */
+	BINARY("bin");
+
+	private final String fileExtension;
+
+	ResultFormat (String fileExtension) {
+		this.fileExtension = fileExtension;
+	}
+
+	public String fileExtension () {
+		return fileExtension;
+	}
+
+	/**
+	 * Creates a writer of the results in this format. The text formats are written in UTF-8.
+	 *
+	 * @param output The stream to write the results to, it's flushed at the end, but not closed.
+	 * @return The writer.
+	 */
+	public ResultWriter open (OutputStream output) {
+		return switch (this) {
+			case JSON_LINES -> new JsonLinesResultWriter(utf8Writer(output));
+			case CSV -> new CsvResultWriter(utf8Writer(output));
+			case BINARY -> new BinaryResultWriter(output);
+		};
+	}
+
+	private static OutputStreamWriter utf8Writer (OutputStream output) {
+		return new OutputStreamWriter(output, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,26 @@
+import java.io.IOException;
+
+/**
+ * Writes the results of an analysis, file by file, as soon as each file is analyzed. The human-readable report is
+ * one kind of output, the {@link ResultFormat}s are the machine-readable ones.
+ */
+public interface ResultWriter {
+	/**
+	 * Writes the results of a single file. The store may hold just the results of the file, they must not be read
+	 * after this returns.
+	 *
+	 * @param results The store of the results.
+	 * @param file    The index of the file in the store.
+	 * @throws IOException If the results could not be written.
+	 */
+	void writeFile (MetricsStore results, int file) throws IOException;
+
+	/**
+	 * Writes whatever comes after the last file and flushes the output, but does not close it.
+	 *
+	 * @param results The store of the results of all the files, or an empty one of the same metrics if the results
+	 *                are not retained.
+	 * @throws IOException If the results could not be written.
+	 */
+	void finish (MetricsStore results) throws IOException;
+}
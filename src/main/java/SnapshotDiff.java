@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Compares two {@link MetricsSnapshot}s, e.g. of the last release and of the current code, to find the functions
+ * that were added, removed or changed in between, and how their complexity changed.
+ * <p>
+ * A function of one snapshot is the same as a function of the other one if they have the same file, name and ordinal
+ * (see {@link MetricsSnapshot}), and it changed if its body did. Both snapshots are sorted by that identity, so they
+ * are compared in a single merge-join pass, reading each function once and keeping nothing in memory.
+ */
+public class SnapshotDiff {
+	/**
+	 * Gets the differences between the snapshots as they are found, in the order of the snapshots.
+	 */
+	public interface Listener {
+		/**
+		 * @param newFunction The index of a function that is only in the new snapshot.
+		 */
+		void added (int newFunction);
+
+		/**
+		 * @param oldFunction The index of a function that is only in the old snapshot.
+		 */
+		void removed (int oldFunction);
+
+		/**
+		 * @param oldFunction The index of a function in the old snapshot.
+		 * @param newFunction The index of the same function in the new snapshot, whose body changed.
+		 */
+		void changed (int oldFunction, int newFunction);
+	}
+
+	/**
+	 * The totals of a comparison.
+	 *
+	 * @param added           The number of added functions.
+	 * @param removed         The number of removed functions.
+	 * @param changed         The number of changed functions.
+	 * @param unchanged       The number of functions that did not change.
+	 * @param complexityDelta The total complexity of the new snapshot minus the total complexity of the old one.
+	 */
+	public record Summary(int added, int removed, int changed, int unchanged, long complexityDelta) {}
+
+	private SnapshotDiff () {
+	}
+
+	/**
+	 * Compares the snapshots.
+	 *
+	 * @param oldSnapshot The old snapshot.
+	 * @param newSnapshot The new snapshot.
+	 * @param listener    The listener of the differences.
+	 * @return The totals of the comparison.
+	 */
+	public static Summary compare (MetricsSnapshot oldSnapshot, MetricsSnapshot newSnapshot, Listener listener) {
+		int[] counts = new int[4];
+		long[] complexityDelta = new long[1];
+		Listener counter = new Listener() {
+			@Override
+			public void added (int newFunction) {
+				counts[0]++;
+				complexityDelta[0] += newSnapshot.complexity(newFunction);
+				listener.added(newFunction);
+			}
+
+			@Override
+			public void removed (int oldFunction) {
+				counts[1]++;
+				complexityDelta[0] -= oldSnapshot.complexity(oldFunction);
+				listener.removed(oldFunction);
+			}
+
+			@Override
+			public void changed (int oldFunction, int newFunction) {
+				counts[2]++;
+				complexityDelta[0] += newSnapshot.complexity(newFunction) - oldSnapshot.complexity(oldFunction);
+				listener.changed(oldFunction, newFunction);
+			}
+		};
+
+		int oldFile = 0;
+		int newFile = 0;
+		while (oldFile < oldSnapshot.fileCount() || newFile < newSnapshot.fileCount()) {
+			int comparison = oldFile == oldSnapshot.fileCount() ? 1 : newFile == newSnapshot.fileCount() ? -1 :
+					MetricsSnapshot.compareStrings(oldSnapshot, oldSnapshot.filePathId(oldFile),
+					                               newSnapshot, newSnapshot.filePathId(newFile));
+			if (comparison < 0) {
+				for (int function = oldSnapshot.firstFunction(oldFile); function < oldSnapshot.endFunction(oldFile);
+				     function++)
+					counter.removed(function);
+				oldFile++;
+			} else if (comparison > 0) {
+				for (int function = newSnapshot.firstFunction(newFile); function < newSnapshot.endFunction(newFile);
+				     function++)
+					counter.added(function);
+				newFile++;
+			} else {
+				counts[3] += compareFunctions(oldSnapshot, oldFile, newSnapshot, newFile, counter);
+				oldFile++;
+				newFile++;
+			}
+		}
+		return new Summary(counts[0], counts[1], counts[2], counts[3], complexityDelta[0]);
+	}
+
+	/**
+	 * Compares the functions of the same file in both snapshots.
+	 *
+	 * @return The number of functions that did not change.
+	 */
+	private static int compareFunctions (MetricsSnapshot oldSnapshot, int oldFile, MetricsSnapshot newSnapshot,
+	                                     int newFile, Listener listener) {
+		int unchanged = 0;
+		int oldFunction = oldSnapshot.firstFunction(oldFile);
+		int newFunction = newSnapshot.firstFunction(newFile);
+		int oldEnd = oldSnapshot.endFunction(oldFile);
+		int newEnd = newSnapshot.endFunction(newFile);
+		while (oldFunction < oldEnd || newFunction < newEnd) {
+			int comparison;
+			if (oldFunction == oldEnd)
+				comparison = 1;
+			else if (newFunction == newEnd)
+				comparison = -1;
+			else {
+				comparison = MetricsSnapshot.compareStrings(oldSnapshot, oldSnapshot.nameId(oldFunction),
+				                                            newSnapshot, newSnapshot.nameId(newFunction));
+				if (comparison == 0)
+					comparison = Integer.compare(oldSnapshot.ordinal(oldFunction), newSnapshot.ordinal(newFunction));
+			}
+
+			if (comparison < 0) {
+				listener.removed(oldFunction++);
+			} else if (comparison > 0) {
+				listener.added(newFunction++);
+			} else {
+				if (oldSnapshot.bodyHash(oldFunction) != newSnapshot.bodyHash(newFunction) ||
+						    oldSnapshot.complexity(oldFunction) != newSnapshot.complexity(newFunction))
+					listener.changed(oldFunction, newFunction);
+				else
+					unchanged++;
+				oldFunction++;
+				newFunction++;
+			}
+		}
+		return unchanged;
+	}
+
+	/**
+	 * Compares the snapshots and writes a report of the totals and of the functions whose complexity increased the
+	 * most.
+	 *
+	 * @param oldSnapshot  The old snapshot.
+	 * @param newSnapshot  The new snapshot.
+	 * @param since        What the old snapshot is, for the title of the report, e.g. "the previous snapshot".
+	 * @param numOfResults The number of functions to show.
+	 * @param output       The writer to write the report to, it's flushed, but not closed.
+	 * @throws IOException If the writer failed.
+	 */
+	public static void writeReport (MetricsSnapshot oldSnapshot, MetricsSnapshot newSnapshot, String since,
+	                                int numOfResults, Writer output) throws IOException {
+		int[][] pairs = {new int[64], new int[64]};
+		int[] pairCount = new int[1];
+		Summary summary = compare(oldSnapshot, newSnapshot, new Listener() {
+			@Override
+			public void added (int newFunction) {
+			}
+
+			@Override
+			public void removed (int oldFunction) {
+			}
+
+			@Override
+			public void changed (int oldFunction, int newFunction) {
+				if (newSnapshot.complexity(newFunction) <= oldSnapshot.complexity(oldFunction))
+					return;
+				if (pairCount[0] == pairs[0].length) {
+					pairs[0] = Arrays.copyOf(pairs[0], pairCount[0] * 2);
+					pairs[1] = Arrays.copyOf(pairs[1], pairCount[0] * 2);
+				}
+				pairs[0][pairCount[0]] = oldFunction;
+				pairs[1][pairCount[0]++] = newFunction;
+			}
+		});
+		int[] oldFunctions = pairs[0];
+		int[] newFunctions = pairs[1];
+		int[] mostIncreased = Leaderboard.selectTop(
+				0, pairCount[0],
+				pair -> newSnapshot.complexity(newFunctions[pair]) - oldSnapshot.complexity(oldFunctions[pair]),
+				numOfResults);
+
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(String.format("========== Changes since %s ==========\n", since));
+		stringBuilder.append(String.format("Functions added: %d, removed: %d, changed: %d, unchanged: %d\n",
+		                                   summary.added(), summary.removed(), summary.changed(),
+		                                   summary.unchanged()));
+		stringBuilder.append(String.format("Total complexity change: %+d\n\n", summary.complexityDelta()));
+		stringBuilder.append(String.format("========== Functions that got more complex (showing top %d results) " +
+		                                   "==========\n", numOfResults));
+		if (mostIncreased.length == 0)
+			stringBuilder.append("No function got more complex.\n");
+		int resCount = 1;
+		for (int pair : mostIncreased) {
+			int oldComplexity = oldSnapshot.complexity(oldFunctions[pair]);
+			int newComplexity = newSnapshot.complexity(newFunctions[pair]);
+			stringBuilder.append(String.format("%d. Function: %s (%s), Complexity: %d -> %d (%+d)\n",
+			                                   resCount++,
+			                                   newSnapshot.name(newFunctions[pair]),
+			                                   newSnapshot.filePath(newSnapshot.fileOf(newFunctions[pair])),
+			                                   oldComplexity,
+			                                   newComplexity,
+			                                   newComplexity - oldComplexity)
+			);
+		}
+		stringBuilder.append("\n");
+		output.write(stringBuilder.toString());
+		output.flush();
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Utility class that cleans up Java/Kotlin source code in a single linear sweep.
+ * It recognizes comments, string and char literals, Java text blocks and Kotlin raw strings (including Kotlin string
+ * templates) in one go, so a "//" inside a string is never taken for a comment, and a quote inside a comment never
+ * starts a string.
+ */
+public class SourceCleaner {
+	private static final String EMPTY_STRING_LITERAL = "\"\"";
+	private static final String EMPTY_TEXT_BLOCK = "\"\"\"\"\"\"";
+	private static final String EMPTY_CHAR_LITERAL = "''";
+
+	/**
+	 * Cleans up the given code.
+	 * Emptied string literals keep their quotes (e.g. "text" becomes ""), so the code stays syntactically the same,
+	 * while deleted comments are removed completely.
+	 *
+	 * @param code                The code to clean up.
+	 * @param emptyStringLiterals Whether the contents of string, text block and char literals should be removed.
+	 * @param deleteComments      Whether comments should be removed.
+	 * @param kotlin              Whether the code is Kotlin code, which enables string templates and raw strings.
+	 * @return The cleaned-up code, which is not copied into a String, since it can be as big as the whole file.
+	 */
+	public static CharSequence clean (CharSequence code, boolean emptyStringLiterals, boolean deleteComments,
+	                                  boolean kotlin) {
+		int length = code.length();
+		StringBuilder cleaned = new StringBuilder(length);
+		int index = 0;
+
+		while (index < length) {
+			char c = code.charAt(index);
+			char next = index + 1 < length ? code.charAt(index + 1) : 0;
+			int end;
+			String replacement;
+
+			if (c == '/' && next == '/') {
+				end = skipLineComment(code, index + 2);
+				replacement = deleteComments ? "" : null;
+			} else if (c == '/' && next == '*') {
+				end = skipBlockComment(code, index + 2);
+				replacement = deleteComments ? "" : null;
+			} else if (c == '"' && next == '"' && index + 2 < length && code.charAt(index + 2) == '"') {
+				end = skipTextBlock(code, index + 3, kotlin);
+				replacement = emptyStringLiterals ? EMPTY_TEXT_BLOCK : null;
+			} else if (c == '"') {
+				end = skipStringLiteral(code, index + 1, kotlin);
+				replacement = emptyStringLiterals ? EMPTY_STRING_LITERAL : null;
+			} else if (c == '\'') {
+				end = skipCharLiteral(code, index + 1);
+				replacement = emptyStringLiterals ? EMPTY_CHAR_LITERAL : null;
+			} else {
+				cleaned.append(c);
+				index++;
+				continue;
+			}
+
+			if (replacement == null)
+				cleaned.append(code, index, end);
+			else
+				cleaned.append(replacement);
+			index = end;
+		}
+		return cleaned;
+	}
+
+	/**
+	 * @return The index of the line break ending the comment (the line break itself is not part of the comment).
+	 */
+	private static int skipLineComment (CharSequence code, int index) {
+		while (index < code.length() && !isLineBreak(code.charAt(index)))
+			index++;
+		return index;
+	}
+
+	/**
+	 * @return The index right after the closing star-slash, or the end of code if the comment is never closed.
+	 */
+	private static int skipBlockComment (CharSequence code, int index) {
+		while (index + 1 < code.length()) {
+			if (code.charAt(index) == '*' && code.charAt(index + 1) == '/')
+				return index + 2;
+			index++;
+		}
+		return code.length();
+	}
+
+	/**
+	 * Skips a Java text block or a Kotlin raw string, starting right after its opening quotes.
+	 * Kotlin raw strings may end with more than three quotes, in which case the extra ones belong to the string.
+	 *
+	 * @return The index right after the closing quotes.
+	 */
+	private static int skipTextBlock (CharSequence code, int index, boolean kotlin) {
+		int length = code.length();
+		while (index < length) {
+			char c = code.charAt(index);
+			if (!kotlin && c == '\\') {
+				index += 2;
+			} else if (kotlin && c == '$' && index + 1 < length && code.charAt(index + 1) == '{') {
+				index = skipTemplate(code, index + 2);
+			} else if (c == '"' && index + 2 < length && code.charAt(index + 1) == '"' && code.charAt(index + 2) == '"') {
+				index += 3;
+				while (kotlin && index < length && code.charAt(index) == '"')
+					index++;
+				return index;
+			} else {
+				index++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Skips a string literal, starting right after its opening quote.
+	 * An unterminated literal ends at the end of its line.
+	 *
+	 * @return The index right after the closing quote.
+	 */
+	private static int skipStringLiteral (CharSequence code, int index, boolean kotlin) {
+		int length = code.length();
+		while (index < length) {
+			char c = code.charAt(index);
+			if (c == '\\') {
+				index += 2;
+			} else if (kotlin && c == '$' && index + 1 < length && code.charAt(index + 1) == '{') {
+				index = skipTemplate(code, index + 2);
+			} else if (c == '"') {
+				return index + 1;
+			} else if (isLineBreak(c)) {
+				return index;
+			} else {
+				index++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Skips a char literal, starting right after its opening quote.
+	 * An unterminated literal ends at the end of its line.
+	 *
+	 * @return The index right after the closing quote.
+	 */
+	private static int skipCharLiteral (CharSequence code, int index) {
+		int length = code.length();
+		while (index < length) {
+			char c = code.charAt(index);
+			if (c == '\\')
+				index += 2;
+			else if (c == '\'')
+				return index + 1;
+			else if (isLineBreak(c))
+				return index;
+			else
+				index++;
+		}
+		return length;
+	}
+
+	/**
+	 * Skips a Kotlin string template expression, starting right after its "${".
+	 * The expression may contain braces and simple strings of its own.
+	 *
+	 * @return The index right after the closing brace.
+	 */
+	private static int skipTemplate (CharSequence code, int index) {
+		int length = code.length();
+		int depth = 1;
+		while (index < length) {
+			char c = code.charAt(index);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && --depth == 0) {
+				return index + 1;
+			} else if (c == '"') {
+				index = skipStringLiteral(code, index + 1, false);
+				continue;
+			}
+			index++;
+		}
+		return length;
+	}
+
+	private static boolean isLineBreak (char c) {
+		return c == '\n' || c == '\r';
+	}
+}
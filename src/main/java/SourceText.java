@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The contents of a source file, read as raw bytes and exposed as characters without decoding the whole file.
+ * Big files are memory-mapped, small ones are read in bulk through a {@link FileChannel}.
+ * <p>
+ * Source code is mostly ASCII, where every byte is a character, so the bytes are scanned for the first non-ASCII one
+ * (8 bytes at a time) and everything before it is served straight from the buffer. Only the rest of the file, if any,
+ * is decoded as UTF-8. The same scan computes the {@link ContentHash} of all the bytes, which tells identical files
+ * apart without reading them again.
+ * <p>
+ * The rest is decoded in chunks of {@value #CHUNK_SIZE} bytes, cut between characters. Reading the file decodes every
+ * chunk once to index where its characters start, but only the chunk last read is kept, so a big file with a non-ASCII
+ * character near its start does not end up on the heap as a whole. The price is that reading the characters of the
+ * rest out of order decodes chunks again, and that, like a {@link StringBuilder}, the text must not be read by several
+ * threads at once. The cleaned-up copy made by {@link SourceCleaner} is the only full copy of a file on the heap.
+ * <p>
+ * A UTF-8 byte order mark at the start of the file is skipped. Line endings are left as they are: a CRLF stays two
+ * characters, which every later stage treats as whitespace, so the results are the same as with LF line endings.
+ */
+public class SourceText implements CharSequence {
+	/**
+	 * Files at least this big are memory-mapped instead of read onto the heap.
+	 */
+	private static final long MAPPING_THRESHOLD = 1 << 20;
+	private static final long NON_ASCII_BITS = 0x8080808080808080L;
+	/**
+	 * How many bytes of the non-ASCII rest of the file are decoded at a time.
+	 */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private final ByteBuffer bytes;
+	private final int contentStart;
+	private final int asciiLength;
+	private final long contentHash;
+
+	// where the chunks of the rest start, in bytes and in characters after the ASCII ones; one more entry ends the last
+	private final int[] chunkByteStarts;
+	private final int[] chunkCharStarts;
+	private final CharsetDecoder decoder;
+	private final CharBuffer decodedChunk;
+	private int decodedChunkIndex = -1;
+
+	private SourceText (ByteBuffer bytes) throws CharacterCodingException {
+		this.bytes = bytes;
+		this.contentStart = hasByteOrderMark(bytes) ? 3 : 0;
+
+		// a single scan of the bytes hashes all of them, and finds the first non-ASCII one after the byte order mark
+		int limit = bytes.limit();
+		int restStart = -1;
+		long hash = ContentHash.WORDS_SEED;
+		int index = 0;
+		for (; index + Long.BYTES <= limit; index += Long.BYTES) {
+			long word = bytes.getLong(index);
+			hash = ContentHash.mixWord(hash, word);
+			if (restStart < 0) {
+				long nonAscii = word & NON_ASCII_BITS & (index == 0 ? -1L >>> Byte.SIZE * contentStart : -1L);
+				if (nonAscii != 0)
+					restStart = index + Long.numberOfLeadingZeros(nonAscii) / Byte.SIZE;
+			}
+		}
+		long tail = 0;
+		for (; index < limit; index++) {
+			byte b = bytes.get(index);
+			tail = tail << Byte.SIZE | (b & 0xff);
+			if (restStart < 0 && b < 0 && index >= contentStart)
+				restStart = index;
+		}
+		this.contentHash = ContentHash.finishWords(hash, tail, limit);
+		if (restStart < 0)
+			restStart = limit;
+		this.asciiLength = restStart - contentStart;
+
+		if (restStart < limit) {
+			int maxChunks = (limit - restStart) / CHUNK_SIZE + 2;
+			int[] byteStarts = new int[maxChunks];
+			int[] charStarts = new int[maxChunks];
+			this.decoder = StandardCharsets.UTF_8.newDecoder()
+					               .onMalformedInput(CodingErrorAction.REPLACE)
+					               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+			// UTF-8 never decodes to more characters than bytes, even with replacements
+			this.decodedChunk = CharBuffer.allocate(Math.min(CHUNK_SIZE, limit - restStart));
+
+			int chunks = 0;
+			byteStarts[0] = restStart;
+			while (byteStarts[chunks] < limit) {
+				byteStarts[chunks + 1] = chunkEnd(bytes, byteStarts[chunks]);
+				charStarts[chunks + 1] = charStarts[chunks] + decode(byteStarts[chunks], byteStarts[chunks + 1]);
+				chunks++;
+			}
+			this.chunkByteStarts = Arrays.copyOf(byteStarts, chunks + 1);
+			this.chunkCharStarts = Arrays.copyOf(charStarts, chunks + 1);
+			this.decodedChunkIndex = chunks - 1;
+		} else {
+			this.chunkByteStarts = null;
+			this.chunkCharStarts = null;
+			this.decoder = null;
+			this.decodedChunk = null;
+		}
+	}
+
+	/**
+	 * Reads the given file.
+	 *
+	 * @param file The file to read.
+	 * @return The contents of the file.
+	 * @throws IOException If the file could not be read, or is bigger than 2 GB.
+	 */
+	public static SourceText read (Path file) throws IOException {
+		long start = Instrumentation.start();
+		AnalysisEvents.FileRead event = AnalysisEvents.recording() ? new AnalysisEvents.FileRead() : null;
+		if (event != null)
+			event.begin();
+		SourceText sourceText;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File too big to analyze: " + file);
+
+			if (size >= MAPPING_THRESHOLD) {
+				sourceText = new SourceText(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+					// keep reading until the whole file is in the buffer
+				}
+				sourceText = new SourceText(buffer.flip());
+			}
+		}
+		Instrumentation.stop(Instrumentation.Stage.READ, start, sourceText.bytes.limit());
+		if (event != null && event.shouldCommit()) {
+			event.path = file.toString();
+			event.size = sourceText.bytes.limit();
+			event.commit();
+		}
+		return sourceText;
+	}
+
+	/**
+	 * Wraps contents that are already in memory, e.g. a file read from git.
+	 *
+	 * @param bytes The contents, in UTF-8.
+	 * @return The contents as text.
+	 */
+	public static SourceText of (byte[] bytes) throws CharacterCodingException {
+		return new SourceText(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @return The raw bytes of the file, including the byte order mark if there is one.
+	 */
+	public ByteBuffer bytes () {
+		return bytes.duplicate();
+	}
+
+	/**
+	 * @return The {@link ContentHash} of the raw bytes, the same as {@code ContentHash.of(bytes())}, but computed
+	 * while the file was read.
+	 */
+	public long contentHash () {
+		return contentHash;
+	}
+
+	@Override
+	public int length () {
+		return asciiLength + (chunkCharStarts == null ? 0 : chunkCharStarts[chunkCharStarts.length - 1]);
+	}
+
+	@Override
+	public char charAt (int index) {
+		if (index < asciiLength)
+			return (char) bytes.get(contentStart + index);
+
+		int restIndex = index - asciiLength;
+		int chunk = decodedChunkIndex;
+		if (restIndex < chunkCharStarts[chunk] || restIndex >= chunkCharStarts[chunk + 1]) {
+			if (restIndex < 0 || restIndex >= chunkCharStarts[chunkCharStarts.length - 1])
+				throw new IndexOutOfBoundsException(index);
+			int found = Arrays.binarySearch(chunkCharStarts, restIndex);
+			// a miss gives the chunk whose start is the next one after the index
+			chunk = found >= 0 ? found : -found - 2;
+			decodeChunk(chunk);
+		}
+		return decodedChunk.get(restIndex - chunkCharStarts[chunk]);
+	}
+
+	@Override
+	public CharSequence subSequence (int start, int end) {
+		return new StringBuilder(end - start).append(this, start, end);
+	}
+
+	@Override
+	public String toString () {
+		return new StringBuilder(length()).append(this).toString();
+	}
+
+	private void decodeChunk (int chunk) {
+		try {
+			decode(chunkByteStarts[chunk], chunkByteStarts[chunk + 1]);
+		} catch (CharacterCodingException e) {
+			throw new IllegalStateException("Chunk decoded differently than when the file was read", e);
+		}
+		decodedChunkIndex = chunk;
+	}
+
+	/**
+	 * Decodes the given bytes into {@link #decodedChunk}.
+	 *
+	 * @return The number of characters decoded.
+	 */
+	private int decode (int start, int end) throws CharacterCodingException {
+		decoder.reset();
+		decodedChunk.clear();
+		CoderResult result = decoder.decode(bytes.slice(start, end - start), decodedChunk, true);
+		if (result.isUnderflow())
+			result = decoder.flush(decodedChunk);
+		if (!result.isUnderflow())
+			result.throwException();
+		decodedChunk.flip();
+		return decodedChunk.length();
+	}
+
+	/**
+	 * @return Where the chunk starting at the given byte ends: {@link #CHUNK_SIZE} bytes later, moved back to the start
+	 * of a character if that cuts one in two, or the end of the file.
+	 */
+	private static int chunkEnd (ByteBuffer bytes, int start) {
+		int end = start + CHUNK_SIZE;
+		if (end >= bytes.limit())
+			return bytes.limit();
+		// a UTF-8 character has at most 3 continuation bytes, which all look like 10xxxxxx
+		for (int back = 0; back < 3 && (bytes.get(end - back) & 0xC0) == 0x80; back++) {
+			if ((bytes.get(end - back - 1) & 0xC0) != 0x80)
+				return end - back - 1;
+		}
+		return end;
+	}
+
+	private static boolean hasByteOrderMark (ByteBuffer bytes) {
+		return bytes.limit() >= 3 && bytes.get(0) == (byte) 0xEF && bytes.get(1) == (byte) 0xBB &&
+				       bytes.get(2) == (byte) 0xBF;
+	}
+}
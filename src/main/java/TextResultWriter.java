@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Base of the writers of the text formats of the results. The records are put together in a reused buffer, numbers
+ * digit by digit, so writing a function doesn't create any strings, and the buffer is passed to the writer in bulk
+ * at the end of every file.
+ */
+abstract class TextResultWriter implements ResultWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Writer output;
+	private char[] buffer = new char[1 << 13];
+	private int length;
+
+	protected TextResultWriter (Writer output) {
+		this.output = output;
+	}
+
+	@Override
+	public void writeFile (MetricsStore results, int file) throws IOException {
+		putFile(results, file);
+		output.write(buffer, 0, length);
+		length = 0;
+	}
+
+	/**
+	 * Puts the records of the functions of a single file into the buffer.
+	 *
+	 * @param results The store of the results.
+	 * @param file    The index of the file in the store.
+	 */
+	protected abstract void putFile (MetricsStore results, int file);
+
+	@Override
+	public void finish (MetricsStore results) throws IOException {
+		output.write(buffer, 0, length);
+		length = 0;
+		output.flush();
+	}
+
+	protected void put (char c) {
+		ensureCapacity(1);
+		buffer[length++] = c;
+	}
+
+	protected void put (String text) {
+		put(text, 0, text.length());
+	}
+
+	protected void put (String text, int start, int end) {
+		ensureCapacity(end - start);
+		text.getChars(start, end, buffer, length);
+		length += end - start;
+	}
+
+	/**
+	 * Puts a number in decimal.
+	 */
+	protected void putInt (int number) {
+		ensureCapacity(11);
+		long value = number;
+		if (value < 0) {
+			buffer[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long power = 10; power <= value; power *= 10)
+			digits++;
+		length += digits;
+		for (int i = length - 1; i >= length - digits; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Puts a character as a JSON escape sequence of its hexadecimal code.
+	 */
+	protected void putUnicodeEscape (char c) {
+		ensureCapacity(6);
+		buffer[length++] = '\\';
+		buffer[length++] = 'u';
+		buffer[length++] = '0';
+		buffer[length++] = '0';
+		buffer[length++] = HEX_DIGITS[(c >> 4) & 0xf];
+		buffer[length++] = HEX_DIGITS[c & 0xf];
+	}
+
+	private void ensureCapacity (int chars) {
+		if (length + chars > buffer.length)
+			buffer = Arrays.copyOf(buffer, Math.max(length + chars, buffer.length * 2));
+	}
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AnalysisDaemonTest {
+	@TempDir
+	Path projectDirectory;
+
+	@TempDir
+	Path daemonDirectory;
+
+	private String analyze (DaemonClient client, AnalysisDaemon.Request request) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		client.analyze(request, output);
+		return output.toString(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testAnalyze_concurrentRequests_answerTheSameAsAnAnalysisInProcess () throws Exception {
+		for (int i = 0; i < 6; i++)
+			Files.writeString(projectDirectory.resolve("Small" + i + ".kt"),
+			                  "fun small" + i + "(x: Int) {\n    if (x > " + i + ") {\n        println(x)\n    }\n}\n");
+		String directory = projectDirectory.toString();
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(directory, 3);
+		String report = codeAnalyzer.analyzeDirectory();
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(csv, ResultFormat.CSV);
+
+		Path daemonFile = daemonDirectory.resolve("test.daemon");
+		try (AnalysisDaemon daemon = new AnalysisDaemon(daemonFile, Duration.ofMinutes(1), 4)) {
+			daemon.setCacheDirectory(daemonDirectory.resolve("cache"));
+			daemon.start();
+			DaemonClient client = DaemonClient.connect(daemonFile);
+			assertTrue(client.isRunning());
+
+			ExecutorService clients = Executors.newFixedThreadPool(4);
+			List<Future<String>> reports = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				reports.add(clients.submit(() -> analyze(client, new AnalysisDaemon.Request(directory, 3, null, true,
+				                                                                            2, null))));
+			for (Future<String> daemonReport : reports)
+				assertEquals(report, daemonReport.get());
+			clients.shutdown();
+			assertEquals(csv.toString(StandardCharsets.UTF_8),
+			             analyze(client, new AnalysisDaemon.Request(directory, 3, ResultFormat.CSV, false, 1, null)));
+
+			IOException exception = assertThrows(IOException.class, () -> analyze(
+					client, new AnalysisDaemon.Request(projectDirectory.resolve("missing").toString())));
+			assertTrue(exception.getMessage().contains("400"));
+			exception = assertThrows(IOException.class, () -> analyze(
+					client, new AnalysisDaemon.Request(directory, 3, null, false, 1, "--output=diff.txt")));
+			assertTrue(exception.getMessage().contains("400"));
+			Files.writeString(daemonFile, daemon.getPort() + " wrongtoken\n");
+			assertFalse(DaemonClient.connect(daemonFile).isRunning());
+		}
+	}
+
+	@Test
+	public void testAnalyze_requests_shareOneCacheSavedWhenTheDaemonStops () throws Exception {
+		Path source = projectDirectory.resolve("Small.kt");
+		Files.writeString(source, "fun small(x: Int) {\n    if (x > 0) {\n        println(x)\n    }\n}\n");
+		Path cacheDirectory = daemonDirectory.resolve("cache");
+		long fingerprint = new MetricScanner(Metric.DEFAULTS, ComplexityRules.DEFAULT).fingerprint();
+		long size = Files.size(source);
+		long lastModified = Files.getLastModifiedTime(source).toMillis();
+
+		Path daemonFile = daemonDirectory.resolve("cache.daemon");
+		AnalysisDaemon daemon = new AnalysisDaemon(daemonFile, Duration.ofMinutes(1), 2);
+		daemon.setCacheDirectory(cacheDirectory);
+		daemon.start();
+		DaemonClient client = DaemonClient.connect(daemonFile);
+		String report = analyze(client, new AnalysisDaemon.Request(projectDirectory.toString()));
+		assertEquals(report, analyze(client, new AnalysisDaemon.Request(projectDirectory.toString())));
+		// the requests keep their results in memory instead of saving the cache every time
+		assertNull(ResultCache.load(cacheDirectory, fingerprint).lookup(source, size, lastModified));
+
+		daemon.close();
+		assertNotNull(ResultCache.load(cacheDirectory, fingerprint).lookup(source, size, lastModified));
+	}
+
+	@Test
+	public void testAwaitShutdown_noRequests_stopsAfterTheIdleTimeout () throws Exception {
+		Path daemonFile = daemonDirectory.resolve("idle.daemon");
+		AnalysisDaemon daemon = new AnalysisDaemon(daemonFile, Duration.ofMillis(200), 1);
+		daemon.start();
+		DaemonClient client = DaemonClient.connect(daemonFile);
+		assertTrue(client.isRunning());
+
+		ExecutorService waiter = Executors.newSingleThreadExecutor();
+		Future<?> shutdown = waiter.submit(() -> {
+			daemon.awaitShutdown();
+			return null;
+		});
+		shutdown.get(10, TimeUnit.SECONDS);
+		waiter.shutdown();
+		assertFalse(Files.exists(daemonFile));
+		assertFalse(client.isRunning());
+
+		AnalysisDaemon stoppedByClient = new AnalysisDaemon(daemonFile, Duration.ofMinutes(1), 1);
+		stoppedByClient.start();
+		DaemonClient.connect(daemonFile).shutdown();
+		stoppedByClient.awaitShutdown();
+		assertFalse(Files.exists(daemonFile));
+	}
+}
@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AnalysisPipelineTest {
+	@TempDir
+	Path directory;
+
+	private List<File> createFilesGettingBigger (int count) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Path file = directory.resolve("File" + i + ".java");
+			Files.writeString(file, "x".repeat(100 * i));
+			files.add(file.toFile());
+		}
+		return files;
+	}
+
+	@Test
+	public void testRun_filesGettingBigger_streamsTheResultsInOrderWithoutFallingBehind () throws IOException {
+		List<File> files = createFilesGettingBigger(200);
+		List<Integer> loadOrder = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> loadedBeforeConsumed = new ArrayList<>();
+		List<Integer> consumed = new ArrayList<>();
+
+		// a single reader, with a window of 2 * (4 + 1) files, which may be overtaken by 5 files
+		new AnalysisPipeline(2, 1, 4).run(files.iterator(),
+		                                  file -> {
+			                                  loadOrder.add(files.indexOf(file));
+			                                  return file.length();
+		                                  },
+		                                  (file, length) -> length,
+		                                  (file, length) -> {
+			                                  consumed.add(files.indexOf(file));
+			                                  loadedBeforeConsumed.add(loadOrder.size());
+		                                  });
+
+		assertEquals(files.size(), consumed.size());
+		for (int i = 0; i < files.size(); i++) {
+			assertEquals(i, consumed.get(i));
+			// the reader never gets further ahead of the consumer than the window
+			assertTrue(loadedBeforeConsumed.get(i) <= i + 1 + 10);
+			int overtaken = 0;
+			for (int later : loadOrder.subList(0, loadOrder.indexOf(i))) {
+				if (later > i)
+					overtaken++;
+			}
+			assertTrue(overtaken <= 5);
+		}
+		// the biggest of the next few files still goes first
+		assertTrue(loadOrder.get(0) > 0);
+	}
+
+	@Test
+	public void testRun_errorWhileLoading_isThrownInsteadOfHanging () throws IOException {
+		List<File> files = createFilesGettingBigger(50);
+
+		StackOverflowError error = assertThrows(StackOverflowError.class, () -> assertTimeoutPreemptively(
+				Duration.ofSeconds(20),
+				() -> new AnalysisPipeline(2, 2, 4).run(files.iterator(),
+				                                        file -> {
+					                                        if (file.equals(files.get(7)))
+						                                        throw new StackOverflowError("Too deep");
+					                                        return file.length();
+				                                        },
+				                                        (file, length) -> length,
+				                                        (file, length) -> { })));
+		assertEquals("Too deep", error.getMessage());
+	}
+}
@@ -0,0 +1,663 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class CodeAnalyzerTest {
+	private final File bigJavaCodeFile = new File("src/test/resources/MaxFlow.java");
+
+	@TempDir
+	Path projectDirectory;
+
+	@TempDir
+	Path cacheDirectory;
+
+	private void createProject () throws IOException {
+		for (int i = 0; i < 12; i++) {
+			Path packageDirectory = Files.createDirectories(projectDirectory.resolve("package" + i % 3));
+			Files.copy(bigJavaCodeFile.toPath(), packageDirectory.resolve("MaxFlow" + i + ".java"));
+			Files.writeString(packageDirectory.resolve("Small" + i + ".kt"),
+			                  "fun small" + i + "(x: Int) {\n    if (x > " + i + ") {\n        println(x)\n    }\n}\n");
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_parallelAnalysis_returnsTheSameReportAsSequentialAnalysis () throws IOException {
+		createProject();
+
+		String sequentialReport = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+		String parallelReport = new CodeAnalyzer(projectDirectory.toString(), 3, 4).analyzeDirectory();
+
+		assertEquals(sequentialReport, parallelReport);
+	}
+
+	@Test
+	public void testAnalyzeDirectory_parallelAnalysisOfEmptyDirectory_reportsNoFiles () throws IOException {
+		String sequentialReport = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+		String parallelReport = new CodeAnalyzer(projectDirectory.toString(), 3, 4).analyzeDirectory();
+
+		assertEquals(sequentialReport, parallelReport);
+	}
+
+	@Test
+	public void testAnalyzeDirectory_streamedToOutputStream_writesTheSameReportAsReturned () throws IOException {
+		createProject();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		String report = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+		new CodeAnalyzer(projectDirectory.toString(), 3, 4).analyzeDirectory(output, true);
+
+		assertEquals(report, output.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_colouringTurnedOff_writesTheReportWithoutEscapeCodes () throws IOException {
+		createProject();
+		StringWriter output = new StringWriter();
+
+		String colouredReport = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+		new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory(output, false);
+
+		assertFalse(output.toString().contains("\u001B"));
+		assertEquals(colouredReport.replaceAll("\u001B\\[\\d+m", ""), output.toString());
+	}
+
+	private String analyzeWithCache (int parallelism) throws IOException {
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, parallelism);
+		codeAnalyzer.setCacheDirectory(cacheDirectory);
+		return codeAnalyzer.analyzeDirectory();
+	}
+
+	@Test
+	public void testAnalyzeDirectory_withCache_returnsTheSameReportAsWithoutCache () throws IOException {
+		createProject();
+		String report = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+
+		assertEquals(report, analyzeWithCache(1));
+		assertEquals(report, analyzeWithCache(4));
+		assertEquals(report, analyzeWithCache(1));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_unchangedSizeAndModificationTime_usesCachedResults () throws IOException {
+		Path file = projectDirectory.resolve("Cached.kt");
+		Files.writeString(file, "fun cached(x: Int) {\n    if (x > 0) println(x)\n}\n");
+		FileTime lastModified = Files.getLastModifiedTime(file);
+		String report = analyzeWithCache(1);
+
+		Files.writeString(file, "fun cached(x: Int) {\n    of (x > 0) println(x)\n}\n");
+		Files.setLastModifiedTime(file, lastModified);
+
+		assertEquals(report, analyzeWithCache(1));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_changedFile_analyzesTheFileAgain () throws IOException {
+		Path file = projectDirectory.resolve("Changed.kt");
+		Files.writeString(file, "fun changed(x: Int) {\n    if (x > 0) println(x)\n}\n");
+		String report = analyzeWithCache(1);
+
+		Files.writeString(file, "fun changed(x: Int) {\n    if (x > 0) println(x) else println(0)\n}\n");
+
+		String reportAfterChange = analyzeWithCache(1);
+		assertNotEquals(report, reportAfterChange);
+		assertEquals(new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory(), reportAfterChange);
+	}
+
+	@Test
+	public void testAnalyzeDirectory_damagedCache_ignoresTheCache () throws IOException {
+		createProject();
+		String report = new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory();
+		analyzeWithCache(1);
+		Files.write(cacheDirectory.resolve("results.bin"), new byte[] {'C', 'M', 'E', 'C', 0, 0, 0, 9});
+
+		assertEquals(report, analyzeWithCache(1));
+		assertEquals(report, analyzeWithCache(1));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_withMetricsFile_writesTheMeasurementsOfAllStagesAndFiles () throws IOException {
+		createProject();
+		Path metricsFile = cacheDirectory.resolve("metrics.json");
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		codeAnalyzer.setMetricsFile(metricsFile);
+
+		String report = codeAnalyzer.analyzeDirectory();
+
+		assertEquals(new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory(), report);
+		assertNull(Instrumentation.active());
+		String metrics = Files.readString(metricsFile);
+		assertTrue(metrics.contains("\"files\": 24,"));
+		for (Instrumentation.Stage stage : Instrumentation.Stage.values())
+			assertTrue(metrics.contains("\"" + stage.name().toLowerCase() + "\": {\"calls\": "));
+		assertTrue(metrics.contains("\"report\": {\"calls\": 24, "));
+		assertEquals(10, metrics.split("\"path\": ", -1).length - 1);
+	}
+
+	@Test
+	public void testAnalyzeDirectory_withRecordingFile_dumpsTheEventsOfAllFiles () throws IOException {
+		createProject();
+		Path recordingFile = cacheDirectory.resolve("analysis.jfr");
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		codeAnalyzer.setRecordingFile(recordingFile);
+
+		codeAnalyzer.analyzeDirectory();
+
+		List<RecordedEvent> fileEvents = RecordingFile.readAllEvents(recordingFile).stream()
+				                                 .filter(event -> event.getEventType().getName()
+						                                                  .equals("codemetrics.FileAnalysis"))
+				                                 .toList();
+		assertEquals(24, fileEvents.size());
+		for (RecordedEvent event : fileEvents) {
+			String path = event.getString("path");
+			assertTrue(path.startsWith(projectDirectory.toString()));
+			assertEquals(Files.size(Path.of(path)), event.getLong("size"));
+			assertEquals(path.endsWith(".java") ? 29 : 1, event.getInt("functionCount"));
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_withLeaderboard_ranksTheFunctionsOfTheWholeDirectory () throws IOException {
+		createProject();
+		for (Leaderboard.Ranking ranking : Leaderboard.Ranking.values()) {
+			List<Leaderboard.Entry> allEntries = new ArrayList<>();
+			for (File file : new FileReader(projectDirectory.toString()).getAnalysableFiles()) {
+				String fileType = file.getName().endsWith(".java") ? "java" : "kotlin";
+				Function[] functions = FileReader.getFunctionStringsFromFile(file);
+				for (int i = 0; i < functions.length; i++) {
+					FunctionMetrics function = FunctionMetrics.of(functions[i], fileType);
+					if (ranking.score(function) > 0)
+						allEntries.add(new Leaderboard.Entry(file.getPath(), i, function, ranking.score(function)));
+				}
+			}
+			allEntries.sort(Comparator.comparingInt(Leaderboard.Entry::score).reversed()
+					                .thenComparing(Leaderboard.Entry::file).thenComparing(Leaderboard.Entry::index));
+
+			Leaderboard sequentialLeaderboard = new Leaderboard(ranking, 20);
+			CodeAnalyzer sequentialAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+			sequentialAnalyzer.setLeaderboard(sequentialLeaderboard);
+			String sequentialReport = sequentialAnalyzer.analyzeDirectory();
+			Leaderboard parallelLeaderboard = new Leaderboard(ranking, 20);
+			CodeAnalyzer parallelAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+			parallelAnalyzer.setLeaderboard(parallelLeaderboard);
+			String parallelReport = parallelAnalyzer.analyzeDirectory();
+
+			assertEquals(allEntries.subList(0, Math.min(20, allEntries.size())), sequentialLeaderboard.getEntries());
+			assertEquals(sequentialLeaderboard.getEntries(), parallelLeaderboard.getEntries());
+			assertEquals(sequentialReport, parallelReport);
+			assertTrue(sequentialReport.contains("Project leaderboard (top 20 by " + ranking.label().toLowerCase()));
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_results_storesTheMetricsOfAllFunctionsInReportOrder () throws IOException {
+		createProject();
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		codeAnalyzer.setRetainResults(true);
+		codeAnalyzer.analyzeDirectory();
+		MetricsStore results = codeAnalyzer.getResults();
+
+		File[] files = new FileReader(projectDirectory.toString()).getAnalysableFiles();
+		assertEquals(files.length, results.fileCount());
+		int functionCount = 0;
+		for (int file = 0; file < files.length; file++) {
+			assertEquals(files[file].getPath(), results.filePath(file));
+			String fileType = files[file].getName().endsWith(".java") ? "java" : "kotlin";
+			List<FunctionMetrics> expected = new ArrayList<>();
+			for (Function function : FileReader.getFunctionStringsFromFile(files[file]))
+				expected.add(FunctionMetrics.of(function, fileType));
+
+			assertEquals(functionCount, results.firstFunction(file));
+			assertEquals(expected.size(), results.functionCount(file));
+			for (int i = 0; i < expected.size(); i++) {
+				int function = results.firstFunction(file) + i;
+				assertEquals(expected.get(i), new FunctionMetrics(results.name(function), results.complexity(function),
+				                                                  results.length(function),
+				                                                  results.styleViolations(function),
+				                                                  results.bodyHash(function)));
+				assertEquals(expected.get(i).styleCompliant(), results.styleCompliant(function));
+			}
+			for (Leaderboard.Ranking ranking : Leaderboard.Ranking.values()) {
+				List<FunctionMetrics> selected = new ArrayList<>();
+				for (int function : results.selectTop(file, ranking, 5))
+					selected.add(expected.get(function - results.firstFunction(file)));
+				assertEquals(Leaderboard.selectTop(expected, ranking::score, 5), selected);
+			}
+			functionCount += expected.size();
+		}
+		assertEquals(functionCount, results.functionCount());
+		Set<String> names = new HashSet<>();
+		for (int function = 0; function < results.functionCount(); function++)
+			names.add(results.name(function));
+		assertEquals(names.size(), results.nameCount());
+		assertTrue(results.nameCount() < results.functionCount() / 5);
+	}
+
+	@Test
+	public void testAnalyzeDirectory_resultsNotRetained_keepsOnlyTheFileBeingWritten () throws IOException {
+		createProject();
+		CodeAnalyzer retainingAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		retainingAnalyzer.setRetainResults(true);
+		ByteArrayOutputStream retained = new ByteArrayOutputStream();
+		retainingAnalyzer.analyzeDirectory(retained, ResultFormat.BINARY);
+
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		ResultWriter binaryWriter = ResultFormat.BINARY.open(binary);
+		List<Integer> storedFiles = new ArrayList<>();
+		codeAnalyzer.analyzeDirectory(new ResultWriter() {
+			@Override
+			public void writeFile (MetricsStore results, int file) throws IOException {
+				storedFiles.add(results.fileCount());
+				binaryWriter.writeFile(results, file);
+			}
+
+			@Override
+			public void finish (MetricsStore results) throws IOException {
+				assertEquals(0, results.fileCount());
+				binaryWriter.finish(results);
+			}
+		});
+
+		assertNull(codeAnalyzer.getResults());
+		assertEquals(retainingAnalyzer.getResults().fileCount(), storedFiles.size());
+		assertEquals(Set.of(1), Set.copyOf(storedFiles));
+		assertSameResults(retainingAnalyzer.getResults(),
+		                  BinaryResultReader.read(new ByteArrayInputStream(binary.toByteArray())));
+		assertEquals(new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory(),
+		             new CodeAnalyzer(projectDirectory.toString(), 3, 4).analyzeDirectory());
+	}
+
+	private static void assertSameResults (MetricsStore expected, MetricsStore actual) {
+		assertEquals(expected.fileCount(), actual.fileCount());
+		assertEquals(expected.functionCount(), actual.functionCount());
+		for (int file = 0; file < expected.fileCount(); file++) {
+			assertEquals(expected.filePath(file), actual.filePath(file));
+			assertEquals(expected.firstFunction(file), actual.firstFunction(file));
+		}
+		for (int function = 0; function < expected.functionCount(); function++) {
+			assertEquals(expected.name(function), actual.name(function));
+			assertEquals(expected.complexity(function), actual.complexity(function));
+			assertEquals(expected.length(function), actual.length(function));
+			assertEquals(expected.styleViolations(function), actual.styleViolations(function));
+			assertEquals(expected.bodyHash(function), actual.bodyHash(function));
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_resultFormats_writeARecordOfEveryFunction () throws IOException {
+		createProject();
+		Files.writeString(projectDirectory.resolve("Odd, \"quoted\" name.kt"), "fun odd_name() {\n}\n");
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		codeAnalyzer.setRetainResults(true);
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(binary, ResultFormat.BINARY);
+		MetricsStore results = codeAnalyzer.getResults();
+
+		assertSameResults(results, BinaryResultReader.read(new ByteArrayInputStream(binary.toByteArray())));
+
+		ByteArrayOutputStream jsonLines = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(jsonLines, ResultFormat.JSON_LINES);
+		String[] lines = jsonLines.toString(StandardCharsets.UTF_8).split("\n");
+		assertEquals(results.functionCount(), lines.length);
+		String oddFile = projectDirectory.resolve("Odd, \"quoted\" name.kt").toString();
+		assertTrue(List.of(lines).contains("{\"file\":\"" + oddFile.replace("\"", "\\\"") + "\"," +
+		                                   "\"function\":\"odd_name\",\"complexity\":0,\"length\":18," +
+		                                   "\"styleViolations\":1}"));
+
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(csv, ResultFormat.CSV);
+		List<String> rows = List.of(csv.toString(StandardCharsets.UTF_8).split("\r\n"));
+		assertEquals(results.functionCount() + 1, rows.size());
+		assertEquals("file,function,complexity,length,style_violations", rows.get(0));
+		assertTrue(rows.contains("\"" + oddFile.replace("\"", "\"\"") + "\",odd_name,0,18,1"));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_fileTimeBudget_quarantinesTheFilesOverIt () throws IOException {
+		// the signature regex backtracks for about 20 s on this line
+		StringBuilder minified = new StringBuilder();
+		for (int i = 0; i < 5; i++)
+			minified.append("fun f").append(i).append(" x".repeat(4000));
+		minified.append(")").append(" y".repeat(4000)).append("\nfun last(x: Int) {\n    if (x > 0) { }\n}\n");
+		Path minifiedFile = projectDirectory.resolve("Minified.kt");
+		Files.writeString(minifiedFile, minified);
+		Files.writeString(projectDirectory.resolve("Small.kt"), "fun small(x: Int) {\n    while (x > 0) { }\n}\n");
+
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+		codeAnalyzer.setCacheDirectory(cacheDirectory);
+		codeAnalyzer.setFileTimeBudget(Duration.ofMillis(100));
+		codeAnalyzer.setRetainResults(true);
+		for (int run = 0; run < 2; run++) {
+			long start = System.nanoTime();
+			String report = codeAnalyzer.analyzeDirectory();
+			assertTrue(System.nanoTime() - start < 5_000_000_000L);
+
+			// not cached, so it's quarantined again
+			assertEquals(List.of(minifiedFile.toString()), codeAnalyzer.getQuarantinedFiles());
+			String quarantineReport = "1 files took longer than 100 ms, their functions were extracted without " +
+			                          "the regexes:\n  " + minifiedFile + "\n\n";
+			assertTrue(report.replaceAll("\u001B\\[\\d+m", "").endsWith(quarantineReport));
+			MetricsStore results = codeAnalyzer.getResults();
+			assertEquals(2, results.functionCount());
+			assertEquals("last", results.name(0));
+			assertEquals(1, results.complexity(0));
+			assertEquals("small", results.name(1));
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_manyDistinctFiles_remembersOnlyTheLastContentsForTheirCopies ()
+			throws IOException {
+		long copyBytes = 0;
+		for (int i = 0; i < 12; i++) {
+			String name = String.format("A%02d", i);
+			String code = "class " + name + " {\n    void method" + i + "(int x) {\n        if (x > 0) { }\n    }\n}\n";
+			Files.writeString(projectDirectory.resolve(name + ".java"), code);
+			// a copy right after the file in the walk, and one after all the other files
+			Files.writeString(projectDirectory.resolve(name + "Copy.java"), code);
+			Files.writeString(projectDirectory.resolve("Z" + name + ".java"), code);
+			copyBytes += code.length();
+		}
+
+		for (int parallelism : new int[] {1, 4}) {
+			CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, parallelism);
+			codeAnalyzer.setSharedContentsLimit(4);
+			List<Integer> sharedContentCounts = new ArrayList<>();
+			codeAnalyzer.analyzeDirectory(new ResultWriter() {
+				@Override
+				public void writeFile (MetricsStore results, int file) {
+					sharedContentCounts.add(codeAnalyzer.sharedContentCount());
+				}
+
+				@Override
+				public void finish (MetricsStore results) {
+				}
+			});
+
+			assertEquals(36, sharedContentCounts.size());
+			assertTrue(sharedContentCounts.stream().allMatch(count -> count <= 4), sharedContentCounts.toString());
+			assertEquals(0, codeAnalyzer.sharedContentCount());
+			if (parallelism == 1)
+				assertEquals(new CodeAnalyzer.DeduplicationStats(36, 12, copyBytes),
+				             codeAnalyzer.getDeduplicationStats());
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_identicalFiles_analyzesTheirContentsOnce () throws IOException {
+		createProject();
+		// the same bytes are other contents in Kotlin
+		Files.copy(bigJavaCodeFile.toPath(), projectDirectory.resolve("MaxFlow.kt"));
+		long duplicateBytes = 11 * Files.size(bigJavaCodeFile.toPath());
+		Path metricsFile = cacheDirectory.resolve("metrics.json");
+
+		for (int parallelism : new int[] {1, 4}) {
+			CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, parallelism);
+			codeAnalyzer.setCacheDirectory(cacheDirectory.resolve("cache" + parallelism));
+			codeAnalyzer.setMetricsFile(metricsFile);
+			codeAnalyzer.setRetainResults(true);
+			String report = codeAnalyzer.analyzeDirectory();
+
+			assertEquals(new CodeAnalyzer.DeduplicationStats(25, 11, duplicateBytes),
+			             codeAnalyzer.getDeduplicationStats());
+			String metrics = Files.readString(metricsFile);
+			assertTrue(metrics.contains("\"duplicateFiles\": 11,\n  \"duplicateBytes\": " + duplicateBytes + ","));
+			assertEquals(new CodeAnalyzer(projectDirectory.toString(), 3).analyzeDirectory(), report);
+			MetricsStore results = codeAnalyzer.getResults();
+			assertEquals(25, results.fileCount());
+			List<Integer> copies = new ArrayList<>();
+			for (int file = 0; file < results.fileCount(); file++) {
+				if (!results.filePath(file).endsWith(".java"))
+					continue;
+				copies.add(file);
+				assertTrue(report.contains("Code analysis of file " + new File(results.filePath(file)).getName()));
+			}
+			assertEquals(12, copies.size());
+			int original = copies.get(0);
+			for (int copy : copies) {
+				assertEquals(results.functionCount(original), results.functionCount(copy));
+				for (int function = 0; function < results.functionCount(copy); function++) {
+					assertEquals(results.name(results.firstFunction(original) + function),
+					             results.name(results.firstFunction(copy) + function));
+					assertEquals(results.complexity(results.firstFunction(original) + function),
+					             results.complexity(results.firstFunction(copy) + function));
+				}
+			}
+
+			// the copies are cached at their own paths, so they are not even read the next time
+			assertEquals(report, codeAnalyzer.analyzeDirectory());
+			assertEquals(new CodeAnalyzer.DeduplicationStats(0, 0, 0), codeAnalyzer.getDeduplicationStats());
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_otherMetrics_areReportedAndWrittenWithTheDefaultOnes () throws IOException {
+		Path file = projectDirectory.resolve("Nested.kt");
+		Files.writeString(file, "fun nested(x: Int, y: Int) {\n    if (x > y) {\n        return\n    }\n}\n");
+		String defaultReport = analyzeWithCache(1);
+		assertFalse(defaultReport.contains("Other metrics"));
+
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+		codeAnalyzer.setCacheDirectory(cacheDirectory);
+		Set<Metric> metrics = EnumSet.copyOf(Metric.DEFAULTS);
+		metrics.addAll(List.of(Metric.NESTING_DEPTH, Metric.PARAMETERS, Metric.RETURNS));
+		codeAnalyzer.setMetrics(metrics);
+		codeAnalyzer.setRetainResults(true);
+		String report = codeAnalyzer.analyzeDirectory();
+		// the cached results have no other metrics, so the file is analyzed again
+		assertEquals(defaultReport, report.replaceAll("=+ Other metrics =+\n(Highest .*\n)*\n", ""));
+		assertTrue(report.contains("Highest nesting depth: 1 (function nested)\n"));
+		assertTrue(report.contains("Highest parameters: 2 (function nested)\n"));
+		assertTrue(report.contains("Highest returns: 1 (function nested)\n"));
+		assertEquals(2, codeAnalyzer.getResults().value(Metric.PARAMETERS, 0));
+		assertEquals(0, codeAnalyzer.getResults().value(Metric.LINES_OF_CODE, 0));
+
+		ByteArrayOutputStream jsonLines = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(jsonLines, ResultFormat.JSON_LINES);
+		assertEquals("{\"file\":\"" + file + "\",\"function\":\"nested\",\"complexity\":1,\"length\":68," +
+		             "\"styleViolations\":0,\"nestingDepth\":1,\"parameters\":2,\"returns\":1}\n",
+		             jsonLines.toString(StandardCharsets.UTF_8));
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		codeAnalyzer.analyzeDirectory(csv, ResultFormat.CSV);
+		assertEquals("file,function,complexity,length,style_violations,nesting_depth,parameters,returns\r\n" +
+		             file + ",nested,1,68,0,1,2,1\r\n", csv.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_snapshots_answerQueriesAndDiffTheChanges () throws IOException {
+		createProject();
+		Path oldSnapshotFile = cacheDirectory.resolve("old.snapshot");
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 4);
+		codeAnalyzer.setSnapshotFile(oldSnapshotFile);
+		codeAnalyzer.analyzeDirectory();
+		MetricsStore results = codeAnalyzer.getResults();
+		MetricsSnapshot oldSnapshot = MetricsSnapshot.open(oldSnapshotFile);
+
+		assertEquals(results.fileCount(), oldSnapshot.fileCount());
+		assertEquals(results.functionCount(), oldSnapshot.functionCount());
+		for (int file = 0; file < results.fileCount(); file++) {
+			String path = projectDirectory.relativize(Path.of(results.filePath(file))).toString().replace('\\', '/');
+			int snapshotFile = oldSnapshot.findFile(path);
+			assertEquals(path, oldSnapshot.filePath(snapshotFile));
+			assertEquals(results.functionCount(file),
+			             oldSnapshot.endFunction(snapshotFile) - oldSnapshot.firstFunction(snapshotFile));
+		}
+		assertEquals(-1, oldSnapshot.findFile("package1/Missing.java"));
+
+		List<Integer> packageComplexities = new ArrayList<>();
+		for (int function = 0; function < oldSnapshot.functionCount(); function++) {
+			if (oldSnapshot.filePath(oldSnapshot.fileOf(function)).startsWith("package1/"))
+				packageComplexities.add(oldSnapshot.complexity(function));
+		}
+		packageComplexities.sort(Comparator.reverseOrder());
+		List<Integer> topComplexities = new ArrayList<>();
+		for (int function : oldSnapshot.selectTop("package1", Leaderboard.Ranking.COMPLEXITY, 5)) {
+			assertTrue(oldSnapshot.filePath(oldSnapshot.fileOf(function)).startsWith("package1/"));
+			topComplexities.add(oldSnapshot.complexity(function));
+		}
+		assertEquals(packageComplexities.subList(0, 5), topComplexities);
+		assertEquals(0, oldSnapshot.selectTop("package", Leaderboard.Ranking.COMPLEXITY, 5).length);
+
+		Files.writeString(projectDirectory.resolve("package0/Small0.kt"),
+		                  "fun small0(x: Int) {\n    if (x > 0) {\n        println(x ?: 0)\n    } else {\n" +
+				                  "        println(0)\n    }\n}\n");
+		Files.delete(projectDirectory.resolve("package1/Small1.kt"));
+		Files.writeString(projectDirectory.resolve("package2/Added.kt"),
+		                  "fun added(x: Int) {\n    while (x > 0) {\n    }\n}\n");
+		Path newSnapshotFile = cacheDirectory.resolve("new.snapshot");
+		CodeAnalyzer newCodeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+		newCodeAnalyzer.setSnapshotFile(newSnapshotFile);
+		newCodeAnalyzer.analyzeDirectory();
+		MetricsSnapshot newSnapshot = MetricsSnapshot.open(newSnapshotFile);
+
+		List<String> differences = new ArrayList<>();
+		SnapshotDiff.Summary summary = SnapshotDiff.compare(oldSnapshot, newSnapshot, new SnapshotDiff.Listener() {
+			@Override
+			public void added (int newFunction) {
+				differences.add("added " + newSnapshot.name(newFunction));
+			}
+
+			@Override
+			public void removed (int oldFunction) {
+				differences.add("removed " + oldSnapshot.name(oldFunction));
+			}
+
+			@Override
+			public void changed (int oldFunction, int newFunction) {
+				differences.add("changed " + newSnapshot.name(newFunction));
+			}
+		});
+		assertEquals(List.of("changed small0", "removed small1", "added added"), differences);
+		assertEquals(new SnapshotDiff.Summary(1, 1, 1, oldSnapshot.functionCount() - 2, 3 - 1 + 1 - 1), summary);
+
+		StringWriter report = new StringWriter();
+		SnapshotDiff.writeReport(oldSnapshot, newSnapshot, "the previous snapshot", 3, report);
+		assertTrue(report.toString().contains("Functions added: 1, removed: 1, changed: 1, unchanged: " +
+		                                      (oldSnapshot.functionCount() - 2) + "\nTotal complexity change: +2\n"));
+		assertTrue(report.toString().contains("1. Function: small0 (package0/Small0.kt), Complexity: 1 -> 3 (+2)\n"));
+	}
+
+	@Test
+	public void testAnalyzeDirectory_changedFilesOnly_analyzesTheChangesAndTheirBase () throws IOException {
+		assumeTrue(git("--version"), "git is not available");
+		createProject();
+		assertTrue(git("init", "-q"));
+		assertTrue(git("add", "."));
+		assertTrue(git("commit", "-q", "-m", "base"));
+		Files.writeString(projectDirectory.resolve("package0/Small0.kt"),
+		                  "fun small0(x: Int) {\n    if (x > 0) {\n        println(x ?: 0)\n    } else {\n" +
+				                  "        println(0)\n    }\n}\n");
+		Files.delete(projectDirectory.resolve("package1/Small1.kt"));
+		Files.writeString(projectDirectory.resolve("package2/Added.kt"),
+		                  "fun added(x: Int) {\n    while (x > 0) {\n    }\n}\n");
+		assertTrue(git("add", "-A"));
+		assertTrue(git("commit", "-q", "-m", "head"));
+		// the head revision is read from git, not from the directory
+		Files.writeString(projectDirectory.resolve("package0/Small0.kt"), "fun small0() {\n}\n");
+
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3, 2);
+		codeAnalyzer.setChangedFilesOnly("HEAD~1", "HEAD", true);
+		String report = codeAnalyzer.analyzeDirectory();
+		MetricsStore results = codeAnalyzer.getResults();
+		assertEquals(2, results.fileCount());
+		assertEquals(new File(projectDirectory.toFile(), "package0/Small0.kt").getPath(), results.filePath(0));
+		assertEquals(new File(projectDirectory.toFile(), "package2/Added.kt").getPath(), results.filePath(1));
+		assertEquals(3, results.complexity(results.firstFunction(0)));
+		assertEquals(2, codeAnalyzer.getBaseResults().fileCount());
+		assertFalse(report.contains("MaxFlow"));
+		assertTrue(report.contains("========== Changes since HEAD~1 ==========\n" +
+		                           "Functions added: 1, removed: 1, changed: 1, unchanged: 0\n"));
+		assertTrue(report.contains("1. Function: small0 (package0/Small0.kt), Complexity: 1 -> 3 (+2)\n"));
+
+		CodeAnalyzer workingTreeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+		workingTreeAnalyzer.setChangedFilesOnly("HEAD", null, false);
+		workingTreeAnalyzer.setRetainResults(true);
+		workingTreeAnalyzer.analyzeDirectory();
+		results = workingTreeAnalyzer.getResults();
+		assertEquals(1, results.fileCount());
+		assertEquals(0, results.complexity(results.firstFunction(0)));
+		assertNull(workingTreeAnalyzer.getBaseResults());
+	}
+
+	@Test
+	public void testReadBlob_pathsWithSpaces_areReadOrMissing () throws IOException {
+		assumeTrue(git("--version"), "git is not available");
+		createProject();
+		Files.writeString(projectDirectory.resolve("package2/With Space.kt"), "fun spaced() {\n}\n");
+		assertTrue(git("init", "-q"));
+		assertTrue(git("add", "."));
+		assertTrue(git("commit", "-q", "-m", "base"));
+
+		try (GitRepository.BlobReader blobReader = new GitRepository(projectDirectory).openBlobReader()) {
+			assertEquals("fun spaced() {\n}\n",
+			             new String(blobReader.read("HEAD", "package2/With Space.kt"), StandardCharsets.UTF_8));
+			// git answers "HEAD:./package2/Not There.kt missing"
+			assertNull(blobReader.read("HEAD", "package2/Not There.kt"));
+			assertNull(blobReader.read("HEAD", "package2"));
+			assertEquals("fun spaced() {\n}\n",
+			             new String(blobReader.read("HEAD", "package2/With Space.kt"), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testAnalyzeDirectory_changedSinceAnOption_isNotPassedToGit () throws IOException {
+		assumeTrue(git("--version"), "git is not available");
+		createProject();
+		assertTrue(git("init", "-q"));
+		assertTrue(git("add", "."));
+		assertTrue(git("commit", "-q", "-m", "base"));
+
+		Path outputFile = projectDirectory.resolve("diff.txt");
+		CodeAnalyzer codeAnalyzer = new CodeAnalyzer(projectDirectory.toString(), 3);
+		codeAnalyzer.setChangedFilesOnly("--output=" + outputFile, null, false);
+		IOException exception = assertThrows(IOException.class, codeAnalyzer::analyzeDirectory);
+		assertTrue(exception.getMessage().contains("Not a revision"));
+		assertFalse(Files.exists(outputFile));
+	}
+
+	/**
+	 * Runs git in the project directory.
+	 *
+	 * @return Whether git succeeded.
+	 */
+	private boolean git (String... arguments) {
+		List<String> command = new ArrayList<>(List.of("git", "-c", "user.name=Test", "-c", "user.email=test@example.com",
+		                                               "-c", "commit.gpgsign=false"));
+		command.addAll(List.of(arguments));
+		try {
+			Process process = new ProcessBuilder(command).directory(projectDirectory.toFile())
+					                  .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					                  .redirectError(ProcessBuilder.Redirect.DISCARD)
+					                  .start();
+			return process.waitFor() == 0;
+		} catch (IOException | InterruptedException e) {
+			return false;
+		}
+	}
+}
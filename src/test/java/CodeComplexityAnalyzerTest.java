@@ -1,8 +1,22 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CodeComplexityAnalyzerTest {
 
@@ -26,4 +40,217 @@ public class CodeComplexityAnalyzerTest {
 		Pair<String, Integer> result = CodeComplexityAnalyzer.evaluateComplexityOfAMethod(methodToAnalyze, "java");
 		assertEquals(expectedComplexity, result.second());
 	}
+
+	@ParameterizedTest
+	@CsvSource ({
+			"whenMethod, when (x) { 1 -> a(); else -> b() }, 2",  // when with an else branch
+			"subjectlessWhenMethod, when { x > 0 -> a() }, 1",
+			"elvisMethod, val y = x?.length ?: 0, 1",  // elvis operator, safe calls don't count
+			"safeLetMethod, x?.let { a(it) } ?: b(), 2",  // '?.let' is a null check, like the elvis operator
+			"safeLetterMethod, x?.letter, 0",
+			"nullableTypeMethod, val map: Map<String?; Int> = mapOf(), 0",  // '?' of a nullable type is no ternary
+			"elseIfMethod, if (a) b() else if (c) d() else e(), 3",
+			"loopsMethod, for (i in 0..n) { while (x > i) { } }, 2",
+			"nestedWhenMethod, when (x) { 1 -> when { y -> a() } else -> b() }, 3",
+			"whenInLambdaMethod, list.map { when (it) { 1 -> a() } }, 1",
+			"chainedElvisMethod, a ?: b ?: c, 2",
+			"nestedSafeLetMethod, x?.let { y?.let { a() } }, 2",
+			"plainLetMethod, x.let { a() }, 0",
+			"whenVariableMethod, val whenever = when2, 0"
+	})
+	public void testEvaluateComplexityOfAMethod_kotlinMethod(String methodName, String methodBody,
+	                                                         int expectedComplexity) {
+		Function methodToAnalyze = new Function(methodName, methodBody);
+		Pair<String, Integer> result = CodeComplexityAnalyzer.evaluateComplexityOfAMethod(methodToAnalyze, "kotlin");
+		assertEquals(expectedComplexity, result.second());
+	}
+
+	@Test
+	public void testEvaluateComplexityOfAMethod_methodsOfARealFile_sameComplexityAsTheRegexRules()
+			throws IOException {
+		for (Function function : FileReader.getFunctionStringsFromFile(new File("src/test/resources/MaxFlow.java")))
+			assertEquals(evaluateComplexityWithPatterns(function.body().toString()),
+			             CodeComplexityAnalyzer.evaluateComplexityOfAMethod(function, "java").second(),
+			             function.name());
+	}
+
+	@Test
+	public void testEvaluateComplexityOfAMethod_randomCode_sameComplexityAsTheRegexRules() {
+		String[] tokens = {"if", "else", "for", "while", "switch", "elseif", "(", ")", "{", "}", "?", ":", " ", "\n",
+				"x", "_", "1", ";", "<", ">", "'"};
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder code = new StringBuilder();
+			int codeLength = random.nextInt(40);
+			for (int j = 0; j < codeLength; j++)
+				code.append(tokens[random.nextInt(tokens.length)]);
+
+			Function function = new Function("randomMethod", code.toString());
+			assertEquals(evaluateComplexityWithPatterns(code.toString()),
+			             CodeComplexityAnalyzer.evaluateComplexityOfAMethod(function, "java").second(),
+			             code.toString());
+		}
+	}
+
+	@Test
+	public void testEvaluateComplexityOfAMethod_rulesFromAConfigFile_applyTheirWeights (@TempDir Path directory)
+			throws IOException {
+		Path configFile = directory.resolve("rules.txt");
+		Files.writeString(configFile, "# count the branches instead of the 'when' itself\n" +
+				                              "kotlin WHEN_EXPRESSION 0\n" +
+				                              "kotlin WHEN_BRANCH 1 -> branch\n" +
+				                              "kotlin ELVIS_OPERATOR 2\n" +
+				                              "\n" +
+				                              "all CATCH 1 catch condition\n" +
+				                              "java LOGICAL_AND 1 &&\n" +
+				                              "java LOGICAL_OR 1 ||\n");
+		ComplexityRules rules = ComplexityRules.load(configFile);
+
+		Function whenFunction = new Function("whenMethod", "when (x) {\n 1 -> list.map { y -> y }\n" +
+				                                                   " else -> b() ?: c\n}\ntry { } catch (e: E) { }");
+		// 2 branches, not the lambda, the 'else', the elvis operator and the 'catch'
+		assertEquals(1 + 1 + 2 + 1 + 1,
+		             CodeComplexityAnalyzer.evaluateComplexityOfAMethod(whenFunction, "kotlin", rules).second());
+		Function javaFunction = new Function("andMethod", "if (a && b || c) { } else if (d&&e) { }");
+		assertEquals(1 + 1 + 1 - 1 + 3,
+		             CodeComplexityAnalyzer.evaluateComplexityOfAMethod(javaFunction, "java", rules).second());
+		assertEquals(CodeComplexityAnalyzer.evaluateComplexityOfAMethod(javaFunction, "java").second() + 3,
+		             CodeComplexityAnalyzer.evaluateComplexityOfAMethod(javaFunction, "java", rules).second());
+		assertNotEquals(ComplexityRules.DEFAULT.fingerprint(), rules.fingerprint());
+
+		Files.writeString(configFile, "kotlin NEW_RULE 1\n");
+		IOException exception = assertThrows(IOException.class, () -> ComplexityRules.load(configFile));
+		assertTrue(exception.getMessage().contains(":1: "));
+	}
+
+	@Test
+	public void testMetricScanner_allMetrics_measuresThemInOneScan () {
+		MetricScanner scanner = new MetricScanner(EnumSet.allOf(Metric.class), ComplexityRules.DEFAULT);
+		Function javaFunction = new Function("sumOf", "int sumOf (Map<String, Integer> map, int limit) {\n" +
+				                                              "\tint sum = 0;\n" +
+				                                              "\n" +
+				                                              "\tfor (int value : map.values()) {\n" +
+				                                              "\t\tif (value > limit) {\n" +
+				                                              "\t\t\treturn limit;\n" +
+				                                              "\t\t}\n" +
+				                                              "\t\tsum += value;\n" +
+				                                              "\t}\n" +
+				                                              "\treturn sum;\n" +
+				                                              "}");
+		FunctionMetrics metrics = scanner.measure(javaFunction, "java");
+		assertEquals(ContentHash.of(javaFunction), metrics.bodyHash());
+		assertEquals(2, metrics.complexity());
+		assertEquals(10, metrics.linesOfCode());
+		assertEquals(2, metrics.nestingDepth());
+		assertEquals(2, metrics.parameters());
+		assertEquals(2, metrics.returns());
+		FunctionMetrics defaults = MetricScanner.DEFAULT.measure(javaFunction, "java");
+		assertEquals(defaults, new FunctionMetrics(metrics.name(), metrics.complexity(), metrics.length(),
+		                                           metrics.styleViolations(), metrics.bodyHash()));
+
+		Function kotlinFunction = new Function("apply", "fun apply(f: (Int) -> Int, x: Int = g(1, 2),) = f(x)");
+		assertEquals(2, scanner.measure(kotlinFunction, "kotlin").parameters());
+		assertEquals(0, scanner.measure(new Function("init", "init {\n    call(a, b)\n}"), "kotlin").parameters());
+		assertEquals(0, scanner.measure(new Function("none", "void none () { }"), "java").parameters());
+		String outerCode = "fun outer() {\n\tfun inner() { \u00fcnicode() }\n\tinner()\n}";
+		Function inner = new Function("inner", outerCode, outerCode.indexOf("fun inner"), outerCode.indexOf('}') + 1,
+		                              List.of());
+		Function outer = new Function("outer", outerCode, 0, outerCode.length(), List.of(inner));
+		assertEquals(ContentHash.of(outer), scanner.measure(outer, "kotlin").bodyHash());
+		assertEquals(ContentHash.of(inner), scanner.measure(inner, "kotlin").bodyHash());
+
+		assertNotEquals(MetricScanner.DEFAULT.fingerprint(), scanner.fingerprint());
+		assertEquals(MetricScanner.DEFAULT.fingerprint(),
+		             new MetricScanner(Metric.DEFAULTS, ComplexityRules.DEFAULT).fingerprint());
+	}
+
+	@Test
+	public void testMetricScanner_functionsOneAfterAnother_measureEachOnItsOwnWithoutAllocating () {
+		MetricScanner scanner = new MetricScanner(EnumSet.allOf(Metric.class), ComplexityRules.DEFAULT);
+		// left open at its end: a parameter list, a block and an 'if' with its condition
+		Function open = new Function("open", "void open (int a, int b) {\n\tif (a > b) {\n\t\treturn;\n");
+		Function closed = new Function("closed_", "int closed_ () {\n\treturn 1;\n}");
+		FunctionMetrics expected = new MetricScanner(EnumSet.allOf(Metric.class), ComplexityRules.DEFAULT)
+				                           .measure(closed, "java");
+
+		scanner.measure(open, "java");
+		assertEquals(expected, scanner.measure(closed, "java"));
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+		int total = 0;
+		for (int i = 0; i < 10_000; i++)
+			total += scanner.measure(open, "java").parameters() + scanner.measure(closed, "java").returns();
+		long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+		assertEquals(30_000, total);
+		// nothing but the results, of a few dozen bytes each, and their events if a test started Flight Recorder
+		assertTrue(allocated < 20_000 * 128, "allocated " + allocated + " bytes");
+	}
+
+	@Test
+	public void testEvaluateComplexityOfAMethod_nestedFunctions_countEachDecisionPointInTheInnermostFunction () {
+		String code = "class Outer {\n    int outer(List<Integer> list) {\n        if (list.isEmpty()) return 0;\n" +
+		              "        list.forEach(x -> { if (x > 0) { } });\n" +
+		              "        Comparator<Integer> c = new Reversed() {\n" +
+		              "            public int compare(int a, int b) {\n                while (a > b) { a--; }\n" +
+		              "                return a < b ? 1 : 0;\n            }\n" +
+		              "        };\n        return 1;\n    }\n}\n";
+		Function[] functions = FileReader.getFunctionStringsFromContents(code, "java");
+		assertEquals(List.of("outer", "Reversed", "compare"), List.of(functions).stream().map(Function::name).toList());
+
+		// the lambda is not a function of its own, so its 'if' belongs to the method around it
+		int[] complexities = {2, 0, 3};
+		int[] returns = {2, 0, 1};
+		MetricScanner scanner = new MetricScanner(EnumSet.of(Metric.COMPLEXITY, Metric.RETURNS),
+		                                          ComplexityRules.DEFAULT);
+		for (int i = 0; i < functions.length; i++) {
+			assertEquals(complexities[i], CodeComplexityAnalyzer.evaluateComplexityOfAMethod(functions[i], "java")
+			                                                    .second());
+			assertEquals(complexities[i], scanner.measure(functions[i], "java").complexity());
+			assertEquals(returns[i], scanner.measure(functions[i], "java").returns());
+		}
+		// the whole file counted at once gives the same total
+		assertEquals(5, DecisionPointCounter.countDecisionPoints(code, false));
+	}
+
+	@Test
+	public void testCount_rangesOneAfterAnother_countEachOnItsOwnWithoutAllocating () {
+		List<ComplexityRules.Rule> rules = new ArrayList<>(ComplexityRules.KOTLIN_RULES);
+		rules.add(new ComplexityRules.Rule("WHEN_BRANCH", "->", ComplexityRules.Requirement.BRANCH, 1));
+		DecisionPointCounter counter = new DecisionPointCounter(rules);
+		// the 'when', its braces, a condition and a '?' are all left open at the end of the first range
+		String code = "when (x) { 1 -> if (a ? b\nx -> y\n";
+		int firstEnd = code.indexOf('\n');
+
+		assertEquals(1 + 1, counter.count(code, 0, firstEnd));
+		assertEquals(0, counter.count(code, firstEnd + 1, code.length()));
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+		int total = 0;
+		for (int i = 0; i < 10_000; i++)
+			total += counter.count(code, 0, firstEnd) + counter.count(code, firstEnd + 1, code.length());
+		long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+		assertEquals(20_000, total);
+		assertTrue(allocated < 64 * 1024, "allocated " + allocated + " bytes");
+	}
+
+	/**
+	 * The original implementation of scoring Java methods, running one regex per conditional.
+	 */
+	private static int evaluateComplexityWithPatterns(String codeToAnalyze) {
+		int complexity = 0;
+		for (CodeComplexityAnalyzer.JavaConditionals conditional : CodeComplexityAnalyzer.JavaConditionals.values()) {
+			Matcher matcher = conditional.getCodePattern().matcher(codeToAnalyze);
+			int count = 0;
+			while (matcher.find()) count++;
+
+			if (conditional == CodeComplexityAnalyzer.JavaConditionals.ELSE_IF_STATEMENT) complexity -= count;
+			else if (conditional == CodeComplexityAnalyzer.JavaConditionals.TERNARY_OPERATOR) complexity += 2 * count;
+			else complexity += count;
+		}
+		return complexity;
+	}
 }
@@ -0,0 +1,116 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandLineTest {
+	@TempDir
+	Path firstDirectory;
+
+	@TempDir
+	Path secondDirectory;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	private int run (String... args) {
+		out.reset();
+		err.reset();
+		return CommandLine.run(args, new PrintStream(out, true, StandardCharsets.UTF_8),
+		                       new PrintStream(err, true, StandardCharsets.UTF_8));
+	}
+
+	private void createDirectories () throws IOException {
+		Files.writeString(firstDirectory.resolve("First.kt"),
+		                  "fun first(x: Int) {\n    if (x > 0) {\n        println(x)\n    } else {\n    }\n}\n");
+		Files.writeString(secondDirectory.resolve("Second.java"),
+		                  "class Second {\n    void second() {\n        while (true) { }\n    }\n}\n");
+	}
+
+	@Test
+	public void testRun_severalDirectories_writesOneOutputOfAllOfThem () throws IOException {
+		createDirectories();
+
+		assertEquals(CommandLine.EXIT_OK, run("--format", "csv", firstDirectory.toString(), "--top", "1",
+		                                      secondDirectory.toString()));
+		List<String> rows = List.of(out.toString(StandardCharsets.UTF_8).split("\r\n"));
+		assertEquals(List.of("file,function,complexity,length,style_violations",
+		                     firstDirectory.resolve("First.kt") + ",first,2,76,0",
+		                     secondDirectory.resolve("Second.java") + ",second,1,46,0"), rows);
+
+		assertEquals(CommandLine.EXIT_OK, run("--no-color", firstDirectory.toString(), secondDirectory.toString()));
+		String report = out.toString(StandardCharsets.UTF_8);
+		String ansiCode = "\u001B\\[\\d+m";
+		assertEquals(new CodeAnalyzer(firstDirectory.toString(), 3).analyzeDirectory().replaceAll(ansiCode, "") +
+		             new CodeAnalyzer(secondDirectory.toString(), 3).analyzeDirectory().replaceAll(ansiCode, ""),
+		             report);
+		assertFalse(report.contains("\u001B"));
+	}
+
+	@Test
+	public void testRun_exitCodes_tellTheOutcome () throws IOException {
+		createDirectories();
+
+		assertEquals(CommandLine.EXIT_OK, run("--max-complexity", "2", firstDirectory.toString()));
+		assertEquals(CommandLine.EXIT_LIMIT_EXCEEDED, run("--max-complexity", "1", firstDirectory.toString(),
+		                                                  secondDirectory.toString()));
+		assertTrue(err.toString(StandardCharsets.UTF_8).startsWith("1 functions are more complex than 1"));
+
+		assertEquals(CommandLine.EXIT_USAGE, run("--frobnicate", "1", firstDirectory.toString()));
+		assertTrue(err.toString(StandardCharsets.UTF_8).startsWith("Unknown option: --frobnicate"));
+		assertEquals(CommandLine.EXIT_USAGE, run(firstDirectory.resolve("missing").toString()));
+		assertEquals(CommandLine.EXIT_USAGE, run("--threads", "0", firstDirectory.toString()));
+		assertEquals(CommandLine.EXIT_USAGE, run("--format", "xml", firstDirectory.toString()));
+		assertEquals(CommandLine.EXIT_USAGE, run());
+		assertEquals(CommandLine.EXIT_OK, run("--help"));
+		assertTrue(out.toString(StandardCharsets.UTF_8).startsWith("Usage: "));
+
+		Path rulesFile = firstDirectory.resolve("rules.txt");
+		Files.writeString(rulesFile, "kotlin NEW_RULE 1\n");
+		assertEquals(CommandLine.EXIT_FAILURE, run("--rules", rulesFile.toString(), firstDirectory.toString()));
+	}
+
+	@Test
+	public void testRun_failureDuringTheAnalysis_isNotAUsageError () throws IOException {
+		createDirectories();
+		// too big to be read, but sparse, so it takes no space
+		try (RandomAccessFile file = new RandomAccessFile(secondDirectory.resolve("Huge.java").toFile(), "rw")) {
+			file.setLength(3L << 30);
+		}
+
+		for (String threads : List.of("1", "4")) {
+			assertEquals(CommandLine.EXIT_FAILURE, run("--threads", threads, "--format", "csv",
+			                                           secondDirectory.toString()));
+			assertTrue(err.toString(StandardCharsets.UTF_8).startsWith("The analysis failed: "));
+		}
+		// a git revision is only checked by the analysis
+		assertEquals(CommandLine.EXIT_FAILURE, run("--changed-since", "HEAD", firstDirectory.toString()));
+		assertFalse(err.toString(StandardCharsets.UTF_8).contains("Usage: "));
+
+		// nothing thrown by the analysis is taken for wrong arguments, or escapes to end the JVM with 1
+		PrintStream errors = new PrintStream(err, true, StandardCharsets.UTF_8);
+		for (RuntimeException failure : List.of(new IllegalArgumentException("Bad input"),
+		                                        new UncheckedIOException(new IOException("Gone")),
+		                                        new CompletionException(new IllegalStateException()))) {
+			err.reset();
+			assertEquals(CommandLine.EXIT_FAILURE, CommandLine.run((output, errorOutput) -> {
+				throw failure;
+			}, System.out, errors));
+			assertTrue(err.toString(StandardCharsets.UTF_8).startsWith("The analysis failed: "));
+			assertFalse(err.toString(StandardCharsets.UTF_8).contains("Usage: "));
+		}
+	}
+}
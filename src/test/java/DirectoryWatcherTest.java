@@ -0,0 +1,206 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DirectoryWatcherTest {
+	@TempDir
+	Path projectDirectory;
+
+	private final Map<Path, List<FunctionMetrics>> analyzedFiles = new ConcurrentHashMap<>();
+	private final List<Path> deletedFiles = Collections.synchronizedList(new ArrayList<>());
+	private final Map<Path, IOException> failedPaths = new ConcurrentHashMap<>();
+
+	private final DirectoryWatcher.Listener listener = new DirectoryWatcher.Listener() {
+		@Override
+		public void fileAnalyzed (Path file, List<FunctionMetrics> functions) {
+			analyzedFiles.put(file, functions);
+		}
+
+		@Override
+		public void fileDeleted (Path file) {
+			deletedFiles.add(file);
+		}
+
+		@Override
+		public void pathFailed (Path path, IOException error) {
+			failedPaths.put(path, error);
+		}
+	};
+
+	@Test
+	public void testProcessChanges_oneFunctionChanged_scoresOnlyTheChangedFunction () throws IOException {
+		Path file = projectDirectory.resolve("Watched.java");
+		Files.writeString(file, "class Watched {\n    void first() {\n        if (a) b();\n    }\n" +
+				                        "    void second() {\n        c();\n    }\n}\n");
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(projectDirectory, 0, listener)) {
+			directoryWatcher.processChanges(Set.of(file));
+			assertEquals(2, directoryWatcher.getLastRescoredFunctions());
+
+			Files.writeString(file, "class Watched {\n    void first() {\n        if (a) b();\n    }\n" +
+					                        "    void second() {\n        while (c()) d();\n    }\n}\n");
+			directoryWatcher.processChanges(Set.of(file));
+
+			assertEquals(1, directoryWatcher.getLastRescoredFunctions());
+			long firstHash = ContentHash.of("void first() {\n        if (a) b();\n    }");
+			long secondHash = ContentHash.of("void second() {\n        while (c()) d();\n    }");
+			assertEquals(List.of(new FunctionMetrics("first", 1, 40, 0, firstHash),
+			                     new FunctionMetrics("second", 1, 46, 0, secondHash)),
+			             analyzedFiles.get(file));
+		}
+	}
+
+	@Test
+	public void testProcessChanges_fileDeleted_reportsTheDeletion () throws IOException {
+		Path file = projectDirectory.resolve("Deleted.kt");
+		Files.writeString(file, "fun deleted() {\n}\n");
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(projectDirectory, 0, listener)) {
+			directoryWatcher.processChanges(Set.of(file));
+			assertTrue(deletedFiles.isEmpty());
+
+			Files.delete(file);
+			directoryWatcher.processChanges(Set.of(file));
+
+			assertEquals(List.of(file), deletedFiles);
+			assertFalse(analyzedFiles.get(file).isEmpty());
+		}
+	}
+
+	@Test
+	public void testRun_excludedAndIgnoredDirectories_areNotWatched () throws Exception {
+		String code = "class A {\n    void a() {\n    }\n}\n";
+		Path sourceFile = projectDirectory.resolve("src/Source.java");
+		Path buildFile = projectDirectory.resolve("build/Out.java");
+		Path ignoredFile = projectDirectory.resolve("src/gen/Gen.java");
+		for (Path file : List.of(sourceFile, buildFile, ignoredFile)) {
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, code);
+		}
+		Files.writeString(projectDirectory.resolve(".gitignore"), "/src/gen/\n");
+
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(projectDirectory, 50, listener)) {
+			Thread watcherThread = startWatcher(directoryWatcher);
+			try {
+				awaitAnalyzed(sourceFile);
+				assertEquals(Set.of(sourceFile), analyzedFiles.keySet());
+
+				// a file in a new directory, after changes of the left out files
+				Files.writeString(buildFile, code.replace("a()", "b()"));
+				Files.writeString(ignoredFile, code.replace("a()", "b()"));
+				Files.createDirectories(projectDirectory.resolve("build/classes"));
+				Files.writeString(projectDirectory.resolve("build/classes/Compiled.java"), code);
+				Path newFile = Files.createDirectories(projectDirectory.resolve("src/feature")).resolve("New.kt");
+				Files.writeString(newFile, "fun added() {\n}\n");
+				awaitAnalyzed(newFile);
+
+				assertEquals(Set.of(sourceFile, newFile), analyzedFiles.keySet());
+			} finally {
+				watcherThread.interrupt();
+				watcherThread.join(10_000);
+			}
+		}
+	}
+
+	@Test
+	public void testRun_fileWrittenAllTheTime_isAnalyzedWithinTheMaximumDelay () throws Exception {
+		Path file = projectDirectory.resolve("Busy.java");
+		Files.writeString(file, "public class Busy {\n    void version0() {\n    }\n}\n");
+
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(projectDirectory, 1000, listener)) {
+			directoryWatcher.setMaxDelayMillis(200);
+			Thread watcherThread = startWatcher(directoryWatcher);
+			try {
+				awaitAnalyzed(file);
+
+				// the writes come quicker than the quiet period, so only the maximum delay lets them be analyzed
+				long deadline = System.nanoTime() + 20_000_000_000L;
+				int version = 0;
+				while (analyzedFiles.get(file).stream().allMatch(function -> function.name().equals("version0"))) {
+					assertTrue(System.nanoTime() < deadline, "Not analyzed while being written");
+					version++;
+					Files.writeString(file, "public class Busy {\n    void version" + version + "() {\n    }\n}\n");
+					Thread.sleep(20);
+				}
+
+				Files.delete(file);
+				while (deletedFiles.isEmpty()) {
+					assertTrue(System.nanoTime() < deadline, "Deletion not reported");
+					Thread.sleep(20);
+				}
+				assertEquals(List.of(file), deletedFiles);
+			} finally {
+				watcherThread.interrupt();
+				watcherThread.join(10_000);
+			}
+		}
+	}
+
+	@Test
+	public void testRun_unreadableFile_isReportedAndWatchingGoesOn () throws Exception {
+		String code = "class A {\n    void a() {\n    }\n}\n";
+		Path sourceFile = projectDirectory.resolve("Source.java");
+		Files.writeString(sourceFile, code);
+
+		try (DirectoryWatcher directoryWatcher = new DirectoryWatcher(projectDirectory, 50, listener)) {
+			Thread watcherThread = startWatcher(directoryWatcher);
+			try {
+				awaitAnalyzed(sourceFile);
+
+				// too big to be read, but sparse, so it takes no space
+				Path hugeFile = projectDirectory.resolve("Huge.java");
+				try (RandomAccessFile file = new RandomAccessFile(hugeFile.toFile(), "rw")) {
+					file.setLength(3L << 30);
+				}
+				long deadline = System.nanoTime() + 20_000_000_000L;
+				while (!failedPaths.containsKey(hugeFile)) {
+					assertTrue(System.nanoTime() < deadline, "Failure not reported");
+					Thread.sleep(20);
+				}
+
+				Path newFile = projectDirectory.resolve("New.java");
+				Files.writeString(newFile, code);
+				awaitAnalyzed(newFile);
+				assertTrue(watcherThread.isAlive());
+				assertEquals(Set.of(sourceFile, newFile), analyzedFiles.keySet());
+				assertEquals(Set.of(hugeFile), failedPaths.keySet());
+			} finally {
+				watcherThread.interrupt();
+				watcherThread.join(10_000);
+			}
+		}
+	}
+
+	private static Thread startWatcher (DirectoryWatcher directoryWatcher) {
+		Thread watcherThread = new Thread(() -> {
+			try {
+				directoryWatcher.run();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		watcherThread.start();
+		return watcherThread;
+	}
+
+	private void awaitAnalyzed (Path file) throws InterruptedException {
+		long deadline = System.nanoTime() + 20_000_000_000L;
+		while (!analyzedFiles.containsKey(file)) {
+			assertTrue(System.nanoTime() < deadline, "Not analyzed: " + file);
+			Thread.sleep(20);
+		}
+	}
+}
@@ -1,9 +1,22 @@
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,8 +42,7 @@ public class FileReaderTest {
 
 	@Test
 	public void testGetMethodStringsFromFile_validFileProvided_returnsExpectedNumberOfMethods () throws IOException {
-		Function[] methods =
-				new FileReader("src/test/resources/MaxFlow.java").getFunctionStringsFromFile(bigJavaCodeFile);
+		Function[] methods = FileReader.getFunctionStringsFromFile(bigJavaCodeFile);
 		assertEquals(29, methods.length);
 	}
 
@@ -47,7 +59,7 @@ public class FileReaderTest {
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("methodWithAccessor", methods[0].name());
-		assertTrue(methods[0].body().contains("void methodWithAccessor    () {\n        \n    }"));
+		assertTrue(methods[0].body().toString().contains("void methodWithAccessor    () {\n        \n    }"));
 	}
 	@Test
 	public void testGetMethodStringsFromFile_methodWithoutAccessorProvided_returnsCorrectMethodNameAndBody() throws IOException {
@@ -55,52 +67,49 @@ public class FileReaderTest {
 		FileReader fileReader = new FileReader("src/test/resources/tmp");
 		fileReader.getNextFileName();
 
-		Function[] methods = fileReader.getFunctionStringsFromFile(file);
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
 
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("methodWithoutAccessor", methods[0].name());
-		assertTrue(methods[0].body().contains("void methodWithoutAccessor() {\n        \n    }"));
+		assertTrue(methods[0].body().toString().contains("void methodWithoutAccessor() {\n        \n    }"));
 	}
 
 	@Test
 	public void testGetMethodStringsFromFile_constructorMethodProvided_returnsCorrectClassNameAndBody () throws IOException {
 		File file = createTempFile("public TestClass() {\n        // Constructor body\n    }\n");
-		FileReader fileReader = new FileReader("src/test/resources/tmp");
 
-		Function[] methods = fileReader.getFunctionStringsFromFile(file);
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
 
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("TestClass", methods[0].name());
-		assertTrue(methods[0].body().contains("TestClass()"));
+		assertTrue(methods[0].body().toString().contains("TestClass()"));
 	}
 
 	@Test
 	public void testGetMethodStringsFromFile_methodWithThrowsProvided_returnsCorrectMethodNameAndBody () throws IOException {
 		File file = createTempFile(
 				"public void methodWithThrows() throws Exception, IOException {\n        // Method body\n    }\n");
-		FileReader fileReader = new FileReader("src/test/resources/tmp");
 
-		Function[] methods = fileReader.getFunctionStringsFromFile(file);
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
 
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("methodWithThrows", methods[0].name());
-		assertTrue(methods[0].body().contains("methodWithThrows()"));
+		assertTrue(methods[0].body().toString().contains("methodWithThrows()"));
 	}
 
 	@Test
 	public void testGetMethodStringsFromFile_methodWithGenericsProvided_returnsCorrectMethodNameAndBody () throws IOException {
 		File file = createTempFile("public <T> void methodWithGenerics(T param) {\n        // Method body\n    }\n");
-		FileReader fileReader = new FileReader("src/test/resources/tmp");
 
-		Function[] methods = fileReader.getFunctionStringsFromFile(file);
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
 
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("methodWithGenerics", methods[0].name());
-		assertTrue(methods[0].body().contains("{\n        \n    }"));
+		assertTrue(methods[0].body().toString().contains("{\n        \n    }"));
 
 	}
 
@@ -110,14 +119,79 @@ public class FileReaderTest {
 				"static class NestedClass {\n        public void methodInNestedClass() {\n            // Method " +
 						"body\n" +
 						"        }\n    }\n");
-		FileReader fileReader = new FileReader("src/test/resources/tmp");
 
-		Function[] methods = fileReader.getFunctionStringsFromFile(file);
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
 
 		assertNotNull(methods);
 		assertEquals(1, methods.length);
 		assertEquals("methodInNestedClass", methods[0].name());
-		assertTrue(methods[0].body().contains("methodInNestedClass()"));
+		assertTrue(methods[0].body().toString().contains("methodInNestedClass()"));
+	}
+
+
+	@Test
+	public void testGetMethodStringsFromContents_nestedFunctionsProvided_returnsTheTreeOfFunctions () {
+		String java = "class Outer {\n    void outer(int x) {\n        if (x > 0) {\n        } else if (x < 0) {\n" +
+		              "        }\n        Runnable r = new Runnable() {\n" +
+		              "            public void run() { }\n        };\n" +
+		              "    }\n    void after() { }\n}\n";
+		String kotlin = "fun outer() {\n    fun local(y: Int) {\n        fun innermost() { }\n    }\n    local(1)\n}\n";
+
+		Function[] javaFunctions = FileReader.getFunctionStringsFromContents(java, "java");
+		Function[] kotlinFunctions = FileReader.getFunctionStringsFromContents(kotlin, "kotlin");
+
+		assertEquals(List.of("outer", "Runnable", "run", "after"),
+		             List.of(javaFunctions).stream().map(Function::name).toList());
+		assertEquals(List.of(javaFunctions[1]), javaFunctions[0].nested());
+		assertEquals(List.of(javaFunctions[2]), javaFunctions[1].nested());
+		assertEquals(List.of(), javaFunctions[3].nested());
+		assertTrue(javaFunctions[0].body().toString().endsWith("};\n    }"));
+		assertEquals("void after() { }", javaFunctions[3].body().toString());
+
+		assertEquals(List.of("outer", "local", "innermost"),
+		             List.of(kotlinFunctions).stream().map(Function::name).toList());
+		assertEquals(List.of(kotlinFunctions[1]), kotlinFunctions[0].nested());
+		assertEquals(List.of(kotlinFunctions[2]), kotlinFunctions[1].nested());
+		assertEquals(kotlin.length() - 1, kotlinFunctions[0].end());
+	}
+
+	@Test
+	public void testExtractFunctionsLinearly_ordinaryCode_findsTheSameFunctionsAsTheRegexes () throws IOException {
+		String kotlin = "class Shape constructor(val sides: Int) {\n    init {\n        require(sides > 2)\n    }\n" +
+		                "    fun <T> List<T>.second(): T = this[1]\n    fun area(scale: Double = 1.0): Double {\n" +
+		                "        fun half(x: Double) { }\n" +
+		                "        return if (sides > 3) { 1.0 } else { 0.5 }\n    }\n}\n";
+		String java = Files.readString(bigJavaCodeFile.toPath()) + "\nclass Generic {\n" +
+		              "    Map<String, List<Integer>> group(List<String> items) throws IOException, IllegalStateException {\n" +
+		              "        for (int i = 0; i < n; i++) { }\n    }\n    record Point(int x, int y) { }\n}\n";
+
+		for (String[] contents : List.of(new String[] {java, "java"}, new String[] {kotlin, "kotlin"})) {
+			List<String> expected = new ArrayList<>();
+			for (Function function : FileReader.getFunctionStringsFromContents(contents[0], contents[1]))
+				expected.add(function.name() + " " + function.start() + "-" + function.end() + " " +
+				             function.nested().size());
+			List<String> actual = new ArrayList<>();
+			for (Function function : FileReader.getFunctionStringsFromContentsLinearly(contents[0], contents[1]))
+				actual.add(function.name() + " " + function.start() + "-" + function.end() + " " +
+				           function.nested().size());
+			assertEquals(expected, actual);
+			assertTrue(actual.size() > 3);
+		}
+	}
+
+	@Test
+	public void testGetMethodStringsFromFile_methodsWithIdenticalSignaturesProvided_returnsTheBodyOfEachMethod ()
+			throws IOException {
+		File file = createTempFile(
+				"static class First {\n        void run() {\n            if (ready) start();\n        }\n    }\n" +
+						"static class Second {\n        void run() {\n            stop();\n        }\n    }\n");
+
+		Function[] methods = FileReader.getFunctionStringsFromFile(file);
+
+		assertEquals(2, methods.length);
+		assertTrue(methods[0].body().toString().contains("start();"));
+		assertTrue(methods[1].body().toString().contains("stop();"));
+		assertTrue(methods[0].end() <= methods[1].start());
 	}
 
 
@@ -212,6 +286,256 @@ public class FileReaderTest {
 		assertEquals(expectedCode, returnedCode);
 	}
 
+	@Test
+	public void testCleanUpRedundantPiecesOfCode_commentMarkerInsideString_keepsTheCodeAfterTheString() {
+		String code = """
+				String url = "http://example.com"; if (x) { call(); } // trailing comment
+				""";
+		String expectedCode = """
+				String url = ""; if (x) { call(); }\s
+				""";
 
-}
+		String returnedCode = FileReader.cleanUpRedundantPiecesOfCode(code);
+
+		assertEquals(expectedCode, returnedCode);
+	}
+
+	@Test
+	public void testCleanUpRedundantPiecesOfCode_quotesInsideComments_removesTheWholeComments() {
+		String code = """
+				int a = 1; // it's "quoted"
+				/* don't " stop */ int b = 2;
+				""";
+		String expectedCode = """
+				int a = 1;\s
+				 int b = 2;
+				""";
+
+		String returnedCode = FileReader.cleanUpRedundantPiecesOfCode(code);
+
+		assertEquals(expectedCode, returnedCode);
+	}
+
+	@Test
+	public void testCleanUpRedundantPiecesOfCode_charLiteralsAndEscapes_emptiesTheLiterals() {
+		String code = """
+				if (c == '{' || c == '\\'') { s = "a \\"quoted\\" // text"; }
+				""";
+		String expectedCode = """
+				if (c == '' || c == '') { s = ""; }
+				""";
+
+		String returnedCode = FileReader.cleanUpRedundantPiecesOfCode(code);
+
+		assertEquals(expectedCode, returnedCode);
+	}
+
+	@Test
+	public void testCleanUpRedundantPiecesOfCode_kotlinRawStringWithTemplate_emptiesTheWholeString() {
+		String code = "val s = \"\"\"if ${if (a) \"}\" else \"b\"} // not a comment\"\"\"\" + x\n" +
+				"val t = \"for ${y} while\"\n";
+		String expectedCode = "val s = \"\"\"\"\"\" + x\n" +
+				"val t = \"\"\n";
+
+		String returnedCode = FileReader.cleanUpRedundantPiecesOfCode(code, "kotlin");
+
+		assertEquals(expectedCode, returnedCode);
+	}
+
+	@Test
+	public void testReadFileContents_byteOrderMarkCrlfAndNonAsciiCharacters_readsTheSameFunctions() throws IOException {
+		String code = "    public String greet(String name) {\n" +
+				"        if (name.isEmpty()) return \"Gr\u00fc\u00df dich\";\n" +
+				"        return \"\u4f60\u597d \" + name;\n" +
+				"    }\n";
+		File plainFile = createTempFile("");
+		File windowsFile = File.createTempFile("TestClass", ".java", new File("src/test/resources/tmp"));
+		try {
+			String plainContents = "public class TestClass {\n" + code + "}\n";
+			Files.writeString(plainFile.toPath(), plainContents, StandardCharsets.UTF_8);
+			byte[] contents = plainContents.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+			byte[] contentsWithByteOrderMark = new byte[contents.length + 3];
+			contentsWithByteOrderMark[0] = (byte) 0xEF;
+			contentsWithByteOrderMark[1] = (byte) 0xBB;
+			contentsWithByteOrderMark[2] = (byte) 0xBF;
+			System.arraycopy(contents, 0, contentsWithByteOrderMark, 3, contents.length);
+			Files.write(windowsFile.toPath(), contentsWithByteOrderMark);
+
+			assertEquals(new String(contents, StandardCharsets.UTF_8),
+			             FileReader.readFileContents(windowsFile).toString());
+			SourceText windowsText = SourceText.read(windowsFile.toPath());
+			assertEquals(ContentHash.of(contentsWithByteOrderMark), windowsText.contentHash());
+			assertNotEquals(ContentHash.of(contents), windowsText.contentHash());
+			Function[] plainMethods = FileReader.getFunctionStringsFromFile(plainFile);
+			Function[] windowsMethods = FileReader.getFunctionStringsFromFile(windowsFile);
+			assertEquals(1, windowsMethods.length);
+			assertEquals(plainMethods[0].name(), windowsMethods[0].name());
+			assertEquals(plainMethods[0].body().toString(), windowsMethods[0].body().toString().replace("\r", ""));
+		} finally {
+			windowsFile.delete();
+		}
+	}
+
+	@Test
+	public void testReadFileContents_fileBigEnoughToBeMapped_readsTheWholeFile() throws IOException {
+		StringBuilder code = new StringBuilder();
+		int methodCount = 0;
+		while (code.length() < 2 << 20)
+			code.append("    void method").append(methodCount++).append("() {\n        call();\n    }\n");
+
+		Function[] methods = FileReader.getFunctionStringsFromFile(createTempFile(code.toString()));
+
+		assertEquals(methodCount, methods.length);
+		assertEquals("method" + (methodCount - 1), methods[methodCount - 1].name());
+	}
+
+	@Test
+	public void testReadFileContents_bigFileWithNonAsciiCharacterNearTheStart_decodesItChunkByChunk()
+			throws IOException {
+		StringBuilder code = new StringBuilder("    // Gr\u00fc\u00dfe\n");
+		int methodCount = 0;
+		// characters of 2, 3 and 4 bytes, so some chunks are cut in the middle of one
+		while (code.length() < 2 << 20)
+			code.append("    String method").append(methodCount++)
+			    .append("() {\n        return \"\u00e9\u4f60\ud83d\ude00\";\n    }\n");
+		String contents = "public class TestClass {\n" + code + "}\n";
+		File file = createTempFile("");
+		Files.writeString(file.toPath(), contents, StandardCharsets.UTF_8);
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+		SourceText text = SourceText.read(file.toPath());
+		int length = text.length();
+		long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+		assertTrue(allocated < SourceText.CHUNK_SIZE * 4L, "allocated " + allocated + " bytes");
+		assertEquals(contents.length(), length);
+		for (int index = length - 1; index >= 0; index -= 997)
+			assertEquals(contents.charAt(index), text.charAt(index), "character " + index);
+		assertEquals(contents, text.toString());
+		assertEquals(methodCount, FileReader.getFunctionStringsFromFile(file).length);
+	}
+
+	@Test
+	public void testGetAnalysableFiles_ignoredAndGeneratedFiles_leavesThemOutInAFixedOrder (@TempDir Path directory)
+			throws IOException {
+		String code = "class A {\n    void a() {\n    }\n}\n";
+		for (String file : List.of("src/b/B.java", "src/a/A.java", "src/a/Z.kt", "src/Root.java", "build/Out.java",
+		                           "node_modules/x/X.java", "src/gen/Gen.java", "src/a/script.kts", "src/a/keep.kts",
+		                           "Main.java")) {
+			Path path = directory.resolve(file);
+			Files.createDirectories(path.getParent());
+			Files.writeString(path, code);
+		}
+		Files.writeString(directory.resolve("src/Generated.java"), "// Generated by the protocol buffer compiler.  " +
+				                                                        "DO NOT EDIT!\n" + code);
+		Files.writeString(directory.resolve(".gitignore"), "# generated sources\n/src/gen/\n*.kts\n");
+		Files.writeString(directory.resolve("src/a/.gitignore"), "!keep.kts\n");
+
+		List<String> expected = List.of("Main.java", "src/Root.java", "src/a/A.java", "src/a/Z.kt", "src/a/keep.kts",
+		                                "src/b/B.java");
+		assertEquals(expected, relativePaths(directory, new FileReader(directory.toString()).getAnalysableFiles()));
+		List<File> walked = new ArrayList<>();
+		new FileReader(directory.toString()).walkAnalysableFiles().forEachRemaining(walked::add);
+		assertEquals(expected, relativePaths(directory, walked.toArray(File[]::new)));
+
+		FileReader everything = new FileReader(directory.toString());
+		everything.getDirectoryWalker().setExcludes(List.of("src/b/"));
+		everything.getDirectoryWalker().setGitignore(false);
+		everything.getDirectoryWalker().setSkipGenerated(false);
+		assertEquals(List.of("Main.java", "build/Out.java", "node_modules/x/X.java", "src/Generated.java",
+		                     "src/Root.java", "src/a/A.java", "src/a/Z.kt", "src/a/keep.kts", "src/a/script.kts",
+		                     "src/gen/Gen.java"),
+		             relativePaths(directory, everything.getAnalysableFiles()));
+	}
+
+	@Test
+	public void testGetAnalysableFiles_buildOutputDirectories_leavesOutOnlyTheOnesOfABuild (@TempDir Path directory)
+			throws IOException {
+		String code = "class A {\n    void a() {\n    }\n}\n";
+		for (String file : List.of("src/com/acme/build/Tool.java", "src/com/acme/out/Printer.kt", "target/Root.java",
+		                           "module/build/Generated.java", "module/src/Module.java", "lib/target/Lib.java",
+		                           "lib/out/Out.java", "lib/Lib.java")) {
+			Path path = directory.resolve(file);
+			Files.createDirectories(path.getParent());
+			Files.writeString(path, code);
+		}
+		Files.writeString(directory.resolve("module/build.gradle"), "plugins { id 'java' }\n");
+		Files.writeString(directory.resolve("lib/pom.xml"), "<project/>\n");
+
+		assertEquals(List.of("lib/Lib.java", "module/src/Module.java", "src/com/acme/build/Tool.java",
+		                     "src/com/acme/out/Printer.kt"),
+		             relativePaths(directory, new FileReader(directory.toString()).getAnalysableFiles()));
+	}
 
+	@Test
+	public void testGetAnalysableFiles_markersOutsideHeaderComments_analyzesTheFile (@TempDir Path directory)
+			throws IOException {
+		Map<String, String> files = new LinkedHashMap<>();
+		files.put("Flags.java", "// Keeps the generated ids, do not edit them by hand\n" +
+		                        "class Flags {\n    private boolean autoGenerated;\n" +
+		                        "    // Generated by the caller, do not modify\n    void a() {\n    }\n}\n");
+		files.put("Report.kt", "/*\n * Generates the report, see \"Generated by\" below.\n */\npackage report\n\n" +
+		                       "fun report(generatedBy: String) {\n    println(\"@generated\")\n}\n");
+		files.put("Proto.java", "// Generated by the protocol buffer compiler.  DO NOT EDIT!\nclass Proto {\n}\n");
+		files.put("Stub.kt", "// Code generated by stubgen. DO NOT EDIT.\n\npackage stub\n");
+		files.put("Api.java", "package api;\n\nimport java.util.List;\n\n/**\n * The API.\n *\n * @generated\n" +
+		                      " */\npublic class Api {\n}\n");
+		files.put("Auto.java", "/* AUTO-GENERATED FILE - DO NOT MODIFY */\nclass Auto {\n}\n");
+		files.put("Late.java", "class Late {\n}\n// This file was automatically generated by nothing at all\n");
+		for (Map.Entry<String, String> file : files.entrySet())
+			Files.writeString(directory.resolve(file.getKey()), file.getValue());
+
+		assertEquals(List.of("Flags.java", "Late.java", "Report.kt"),
+		             relativePaths(directory, new FileReader(directory.toString()).getAnalysableFiles()));
+	}
+
+	@Test
+	public void testWalk_closedAfterTheFirstFile_listsOnlyTheDirectoriesAhead (@TempDir Path directory)
+			throws Exception {
+		List<String> expected = new ArrayList<>();
+		for (int outer = 0; outer < 10; outer++) {
+			for (int inner = 0; inner < 10; inner++) {
+				String file = "d" + outer + "/d" + inner + "/F.java";
+				Files.createDirectories(directory.resolve(file).getParent());
+				Files.writeString(directory.resolve(file), "class F {\n}\n");
+				expected.add(file);
+			}
+		}
+		AtomicInteger listings = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+			@Override
+			public void execute (Runnable command) {
+				listings.incrementAndGet();
+				super.execute(command);
+			}
+		};
+		try {
+			DirectoryWalker walker = new DirectoryWalker(directory, path -> path.toString().endsWith(".java"), pool);
+			try (Stream<File> files = walker.stream()) {
+				assertEquals(expected, relativePaths(directory, files.toArray(File[]::new)));
+			}
+			assertEquals(1 + 10 + 100, listings.get());
+
+			listings.set(0);
+			DirectoryWalker.Walk walk = walker.iterator();
+			assertEquals(expected.get(0), relativePaths(directory, new File[] {walk.next()}).get(0));
+			walk.close();
+			assertFalse(walk.hasNext());
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+			// the root, the listings ahead, and the two directories the walk went into
+			assertTrue(listings.get() <= 1 + DirectoryWalker.LISTINGS_AHEAD + 2, listings + " listings");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static List<String> relativePaths (Path directory, File[] files) {
+		List<String> paths = new ArrayList<>();
+		for (File file : files)
+			paths.add(directory.relativize(file.toPath()).toString().replace(File.separatorChar, '/'));
+		return paths;
+	}
+}